@@ -0,0 +1,125 @@
+package yabel;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+/**
+ * The case keys and branch destinations of a switch. Sub-classes define the
+ * type of the keys and how the switch is compiled.
+ *
+ * @author Simon Greatrix
+ *
+ * @param <K>
+ *            the type of the keys
+ */
+public abstract class AbstractSwitchData<K> implements
+        Iterable<Entry<K, String>> {
+    /** The destinations for each case */
+    private final LinkedHashMap<K, String> data_ = new LinkedHashMap<K, String>();
+
+    /** The name of the default destination */
+    private final String dflt_;
+
+
+    /**
+     * Create a copy of other switch data
+     *
+     * @param original
+     *            the switch data to copy
+     */
+    protected AbstractSwitchData(AbstractSwitchData<K> original) {
+        dflt_ = original.dflt_;
+        data_.putAll(original.data_);
+    }
+
+
+    /**
+     * Create new switch data with the specified default destination
+     *
+     * @param dflt
+     *            the default destination
+     */
+    protected AbstractSwitchData(String dflt) {
+        dflt_ = dflt;
+    }
+
+
+    /**
+     * Add an extra case to this switch.
+     *
+     * @param key
+     *            the case
+     * @param lbl
+     *            the branch destination label
+     */
+    public void add(K key, String lbl) {
+        if( data_.containsKey(key) )
+            throw new IllegalStateException("Key " + key + " already mapped");
+        data_.put(key, lbl);
+    }
+
+
+    /**
+     * Are the default and the cases of this switch the same as those of
+     * another? The iteration order is not compared.
+     *
+     * @param other
+     *            the other switch
+     * @return true if they are the same
+     */
+    protected boolean equalCases(AbstractSwitchData<?> other) {
+        return dflt_.equals(other.dflt_) && data_.equals(other.data_);
+    }
+
+
+    /**
+     * Get the branch destination of the given case
+     *
+     * @param key
+     *            the case
+     * @return the destination or null if it is default
+     */
+    public String get(K key) {
+        return data_.get(key);
+    }
+
+
+    /**
+     * Get the default destination
+     *
+     * @return the default destination
+     */
+    public String getDefault() {
+        return dflt_;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return dflt_.hashCode() ^ (data_.size() << 16);
+    }
+
+
+    /**
+     * Iterate over all the cases. The iteration runs in the order the cases
+     * were added.
+     *
+     * @return the iterator
+     */
+    @Override
+    public Iterator<Entry<K, String>> iterator() {
+        Map<K, String> map = Collections.unmodifiableMap(data_);
+        return map.entrySet().iterator();
+    }
+
+
+    /**
+     * The number of non-default branches
+     *
+     * @return the number of branches
+     */
+    public int size() {
+        return data_.size();
+    }
+}
@@ -3,13 +3,25 @@ package yabel;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
+import yabel.attributes.Attribute;
 import yabel.attributes.AttributeList;
+import yabel.code.Code;
+import yabel.code.HistoryPolicy;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantClass;
 import yabel.constants.ConstantPool;
 import yabel.constants.ConstantUtf8;
+import yabel.constants.Utf8Interner;
 import yabel.io.IO;
 import yabel2.Access;
 
@@ -64,24 +76,108 @@ public class ClassBuilder {
     /** Version code for Java 1.6 */
     public static final int JAVA_VERSION_1_6 = 0x00000032;
 
+    /** Version code for Java 1.7 */
+    public static final int JAVA_VERSION_1_7 = 0x00000033;
+
+    /** Version code for Java 1.8 */
+    public static final int JAVA_VERSION_1_8 = 0x00000034;
+
+    /** Version code for Java 9 */
+    public static final int JAVA_VERSION_9 = 0x00000035;
+
+    /** Version code for Java 10 */
+    public static final int JAVA_VERSION_10 = 0x00000036;
+
+    /** Version code for Java 11 */
+    public static final int JAVA_VERSION_11 = 0x00000037;
+
+    /** Version code for Java 12 */
+    public static final int JAVA_VERSION_12 = 0x00000038;
+
+    /** Version code for Java 13 */
+    public static final int JAVA_VERSION_13 = 0x00000039;
+
+    /** Version code for Java 14 */
+    public static final int JAVA_VERSION_14 = 0x0000003a;
+
+    /** Version code for Java 15 */
+    public static final int JAVA_VERSION_15 = 0x0000003b;
+
+    /** Version code for Java 16 */
+    public static final int JAVA_VERSION_16 = 0x0000003c;
+
+    /** Version code for Java 17 */
+    public static final int JAVA_VERSION_17 = 0x0000003d;
+
+    /** Version code for Java 18 */
+    public static final int JAVA_VERSION_18 = 0x0000003e;
+
+    /** Version code for Java 19 */
+    public static final int JAVA_VERSION_19 = 0x0000003f;
+
+    /** Version code for Java 20 */
+    public static final int JAVA_VERSION_20 = 0x00000040;
+
+    /** Version code for Java 21 */
+    public static final int JAVA_VERSION_21 = 0x00000041;
+
+    /** Version code for Java 22 */
+    public static final int JAVA_VERSION_22 = 0x00000042;
+
+    /** Version code for Java 23 */
+    public static final int JAVA_VERSION_23 = 0x00000043;
+
+    /** Version code for Java 24 */
+    public static final int JAVA_VERSION_24 = 0x00000044;
+
+    /** Version code for Java 25 */
+    public static final int JAVA_VERSION_25 = 0x00000045;
+
+    /** Version code for Java 26 */
+    public static final int JAVA_VERSION_26 = 0x00000046;
+
+    /**
+     * The first version where classes may be checked by the type-checking
+     * verifier, and so may have StackMapTable attributes
+     */
+    public static final int JAVA_VERSION_FRAMES = JAVA_VERSION_1_6;
+
     /** Class access modifier */
     private int access_;
 
     /** The attribute list for this class */
     private final AttributeList attrList_;
 
+    /** Why the constant pool was last not compacted, or null */
+    private String compactRefusal_ = null;
+
+    /** Should StackMapTable frames be computed for the code? */
+    private boolean computeFrames_ = false;
+
     /** Constant pool for this class */
     private final ConstantPool cp_;
 
     /** Fields for this class */
     private List<Field> fields_ = new ArrayList<Field>();
 
+    /** The history policy for code in this class */
+    private HistoryPolicy historyPolicy_ = HistoryPolicy.FULL;
+
     /** Interfaces for this class */
     private List<ConstantClass> interfaces_ = new ArrayList<ConstantClass>();
 
+    /** Should Code attributes be decoded on first use? */
+    private boolean lazy_ = false;
+
     /** Methods for this class */
     private List<Method> methods_ = new ArrayList<Method>();
 
+    /** Should the class be compacted and stripped of debug information? */
+    private boolean optimizeSize_ = false;
+
+    /** Resolver for common superclasses when computing frames */
+    private SuperclassResolver resolver_ = null;
+
     /** Super class */
     private final ConstantClass superClass_;
 
@@ -94,10 +190,65 @@ public class ClassBuilder {
     /** This class */
     private final ConstantClass thisClass_;
 
+    /** Are unmodified Code attributes written out as they were read? */
+    private boolean verbatim_ = false;
+
     /** Java version this class is compiled to */
     private int version_ = JAVA_VERSION_1_1;
 
 
+    /**
+     * Memory map a class file.
+     * 
+     * @param path
+     *            the class file
+     * @return a read-only buffer containing the file
+     */
+    private static ByteBuffer map(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+
+    /**
+     * Read one class file from a stream. The structure of the class file is
+     * only followed as far as is needed to find its end, so the stream is left
+     * positioned immediately after it and further class files can be read from
+     * the same stream.
+     * 
+     * @param input
+     *            the stream
+     * @return a buffer containing the class file
+     */
+    private static ByteBuffer read(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+
+        // magic, version and constant pool
+        IO.copyBytes(input, out, 8);
+        ConstantPool.copy(input, out);
+
+        // access, this class, super class and interfaces
+        IO.copyBytes(input, out, 6);
+        IO.copyBytes(input, out, 2 * IO.copyU2(input, out));
+
+        // fields, methods and the class's attributes
+        for(int k = 0;k < 2;k++) {
+            int count = IO.copyU2(input, out);
+            for(int j = 0;j < count;j++) {
+                IO.copyBytes(input, out, 6);
+                AttributeList.copy(input, out);
+            }
+        }
+        AttributeList.copy(input, out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+
     /**
      * Create a ClassBuilder from its ClassData representation
      * 
@@ -142,17 +293,80 @@ public class ClassBuilder {
 
 
     /**
-     * New ClassBuilder.
+     * New ClassBuilder from a class file held in a buffer. The class file is
+     * decoded in place starting at the buffer's current position. The buffer
+     * itself is not modified.
      * 
-     * @param input
-     *            existing class file
+     * @param buffer
+     *            buffer holding the existing class file
      */
-    public ClassBuilder(InputStream input) throws IOException {
+    public ClassBuilder(ByteBuffer buffer) throws IOException {
+        this(buffer, false);
+    }
+
+
+    /**
+     * New ClassBuilder from a class file held in a buffer. The class file is
+     * decoded in place starting at the buffer's current position. The buffer
+     * itself is not modified.
+     * <p>
+     * Code attributes retain a view of the buffer so that any which are not
+     * modified can be written out verbatim. If lazy loading is requested, each
+     * Code attribute is also only decoded when it is first used. The buffer's
+     * contents must not be changed whilst this ClassBuilder is in use.
+     * 
+     * @param buffer
+     *            buffer holding the existing class file
+     * @param lazy
+     *            if true, decode Code attributes on first use
+     */
+    public ClassBuilder(ByteBuffer buffer, boolean lazy) throws IOException {
+        this(buffer, lazy, null);
+    }
+
+
+    /**
+     * New ClassBuilder from a class file held in a buffer, sharing Utf8 values
+     * with other classes read using the same interner. The buffer is handled
+     * as for {@link #ClassBuilder(ByteBuffer, boolean)}.
+     * 
+     * @param buffer
+     *            buffer holding the existing class file
+     * @param lazy
+     *            if true, decode Code attributes on first use
+     * @param interner
+     *            shared table for Utf8 values, or null
+     */
+    public ClassBuilder(ByteBuffer buffer, boolean lazy, Utf8Interner interner)
+            throws IOException {
+        this(buffer, lazy, true, interner);
+    }
+
+
+    /**
+     * New ClassBuilder from a class file held in a buffer.
+     * 
+     * @param buffer
+     *            buffer holding the existing class file
+     * @param lazy
+     *            if true, decode Code attributes on first use
+     * @param verbatim
+     *            if true, Code attributes retain a view of the buffer so they
+     *            can be written out verbatim
+     * @param interner
+     *            shared table for Utf8 values, or null
+     */
+    private ClassBuilder(ByteBuffer buffer, boolean lazy, boolean verbatim,
+            Utf8Interner interner) throws IOException {
+        lazy_ = lazy;
+        verbatim_ = verbatim || lazy;
+        ByteBuffer input = buffer.duplicate();
+        input.order(ByteOrder.BIG_ENDIAN);
         int magic = IO.readS4(input);
         if( magic != 0xcafebabe )
             throw new IOException("CAFEBABE header bytes missing");
         version_ = IO.readS4(input);
-        cp_ = new ConstantPool(this, input);
+        cp_ = new ConstantPool(this, input, interner);
 
         access_ = IO.readU2(input);
 
@@ -190,6 +404,83 @@ public class ClassBuilder {
     }
 
 
+    /**
+     * New ClassBuilder.
+     * 
+     * @param input
+     *            existing class file
+     */
+    public ClassBuilder(InputStream input) throws IOException {
+        this(input, null);
+    }
+
+
+    /**
+     * New ClassBuilder, sharing Utf8 values with other classes read using the
+     * same interner. Exactly one class file is read from the stream, which is
+     * left positioned after it. The class is decoded completely, and its Code
+     * attributes are written out from their decoded form rather than copied
+     * verbatim.
+     * 
+     * @param input
+     *            existing class file
+     * @param interner
+     *            shared table for Utf8 values, or null
+     */
+    public ClassBuilder(InputStream input, Utf8Interner interner)
+            throws IOException {
+        this(read(input), false, false, interner);
+    }
+
+
+    /**
+     * New ClassBuilder from a class file on disk. The file is memory mapped
+     * and decoded in place.
+     * 
+     * @param path
+     *            the class file
+     */
+    public ClassBuilder(Path path) throws IOException {
+        this(map(path), false);
+    }
+
+
+    /**
+     * New ClassBuilder from a class file on disk. The file is memory mapped
+     * and decoded in place. The mapping is retained by Code attributes, so
+     * that any which are not modified can be written out verbatim, and if
+     * lazy loading is requested each Code attribute is only decoded when it
+     * is first used. The file must not be changed whilst this ClassBuilder is
+     * in use.
+     * 
+     * @param path
+     *            the class file
+     * @param lazy
+     *            if true, decode Code attributes on first use
+     */
+    public ClassBuilder(Path path, boolean lazy) throws IOException {
+        this(map(path), lazy, null);
+    }
+
+
+    /**
+     * New ClassBuilder from a class file on disk, sharing Utf8 values with
+     * other classes read using the same interner. The file is handled as for
+     * {@link #ClassBuilder(Path, boolean)}.
+     * 
+     * @param path
+     *            the class file
+     * @param lazy
+     *            if true, decode Code attributes on first use
+     * @param interner
+     *            shared table for Utf8 values, or null
+     */
+    public ClassBuilder(Path path, boolean lazy, Utf8Interner interner)
+            throws IOException {
+        this(map(path), lazy, interner);
+    }
+
+
     /**
      * New ClassBuilder for a class that is a direct sub-class of
      * java.lang.Object
@@ -273,6 +564,105 @@ public class ClassBuilder {
     }
 
 
+    /**
+     * Remove every constant that is no longer referenced by this class from
+     * the constant pool. Constants are left behind when code is reset or
+     * recompiled, when a method is renamed and when attributes are removed.
+     * The remaining constants keep their relative order and every reference to
+     * them, including those in byte-code, is renumbered.
+     * <p>
+     * Attributes whose contents are not understood may reference any
+     * constant. If the class has any, the pool is left unchanged and
+     * <code>getCompactRefusal</code> says why.
+     * 
+     * @return true if the pool was compacted
+     */
+    public boolean compact() {
+        return compact(false);
+    }
+
+
+    /**
+     * Remove every constant that is no longer referenced by this class from
+     * the constant pool, as for <code>compact()</code>. The SourceFile,
+     * SourceDebugExtension, LineNumberTable, LocalVariableTable and
+     * LocalVariableTypeTable attributes may be removed first.
+     * 
+     * @param stripDebug
+     *            if true, remove the debugging attributes
+     * @return true if the pool was compacted
+     */
+    public boolean compact(boolean stripDebug) {
+        if( stripDebug ) {
+            while( attrList_.remove(cp_, Attribute.ATTR_SOURCE_FILE)
+                    || attrList_.remove(cp_,
+                            Attribute.ATTR_SOURCE_DEBUG_EXTENSION) ) {
+                // keep removing
+            }
+            for(Method m:methods_) {
+                Attribute code = m.getAttributes().get(cp_,
+                        Attribute.ATTR_CODE);
+                if( code instanceof Code ) ((Code) code).stripDebug();
+            }
+        }
+
+        // finalizing byte-code and computing frames can add constants
+        for(Method m:methods_) {
+            m.computeSize();
+        }
+
+        Compactor compactor = new Compactor(cp_);
+        compact(compactor);
+        compactRefusal_ = compactor.getRefusal();
+        if( !compactor.remap() ) return false;
+        compact(compactor);
+        return true;
+    }
+
+
+    /**
+     * Pass every constant reference in this class to a compactor.
+     * 
+     * @param compactor
+     *            the compactor
+     */
+    private void compact(Compactor compactor) {
+        compactor.constant(thisClass_);
+        compactor.constant(superClass_);
+        for(ConstantClass cc:interfaces_) {
+            compactor.constant(cc);
+        }
+        for(Field f:fields_) {
+            f.compact(compactor);
+        }
+        for(Method m:methods_) {
+            m.compact(compactor);
+        }
+        attrList_.compact(compactor);
+    }
+
+
+    /**
+     * Get the number of bytes this class will occupy in a class file. As
+     * finalizing byte-code can add entries to the constant pool, the pool is
+     * sized last. If the class is optimized for size, it is compacted first.
+     * 
+     * @return the size in bytes
+     */
+    public int computeSize() {
+        if( optimizeSize_ ) compact(true);
+        int size = 20 + 2 * interfaces_.size();
+        for(Field f:fields_) {
+            size += f.computeSize();
+        }
+        for(Method m:methods_) {
+            size += m.computeSize();
+        }
+        size += attrList_.computeSize();
+        return size + cp_.computeSize();
+    }
+
+
     public int getAccess() {
         return access_ & ~Access.ACC_SUPER;
     }
@@ -294,9 +684,11 @@ public class ClassBuilder {
      * @return the bytes
      */
     public byte[] getBytes() {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        writeTo(baos);
-        return baos.toByteArray();
+        byte[] bytes = new byte[computeSize()];
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        write(buf);
+        assert !buf.hasRemaining() : "Class size was miscalculated";
+        return bytes;
     }
 
 
@@ -310,6 +702,18 @@ public class ClassBuilder {
     }
 
 
+    /**
+     * Get the reason the constant pool was not compacted by the last call to
+     * <code>compact</code>.
+     * 
+     * @return the reason, or null if the pool was compacted or compaction has
+     *         not been attempted
+     */
+    public String getCompactRefusal() {
+        return compactRefusal_;
+    }
+
+
     /**
      * Get this class's constant pool
      * 
@@ -394,6 +798,17 @@ public class ClassBuilder {
     }
 
 
+    /**
+     * Get the history policy for code in this class. Each Code attribute may
+     * override it.
+     * 
+     * @return the policy
+     */
+    public HistoryPolicy getHistoryPolicy() {
+        return historyPolicy_;
+    }
+
+
     /**
      * Get the matching method if it declared or is inherited. Note the super
      * class must be loadable.
@@ -443,6 +858,41 @@ public class ClassBuilder {
     }
 
 
+    /**
+     * Get the resolver used to find common superclasses when computing
+     * frames. Unless another has been set, this loads classes via the context
+     * class loader.
+     * 
+     * @return the resolver
+     */
+    public SuperclassResolver getSuperclassResolver() {
+        if( resolver_ == null ) resolver_ = new DefaultSuperclassResolver(this);
+        return resolver_;
+    }
+
+
+    /**
+     * Get the name of the super class of the class this is building.
+     * 
+     * @return the super class name, or null if there is none
+     */
+    public String getSuperName() {
+        if( superClass_ == null ) return null;
+        return superClass_.getClassName().get();
+    }
+
+
+    /**
+     * Get the Java version the compiled class announces itself compatible
+     * with.
+     * 
+     * @return the version
+     */
+    public int getVersion() {
+        return version_;
+    }
+
+
     /**
      * Get the name of the class this is building.
      * 
@@ -453,6 +903,108 @@ public class ClassBuilder {
     }
 
 
+    /**
+     * Are StackMapTable frames computed for code that is compiled or changed?
+     * Frames are only computed if the class version is at least
+     * JAVA_VERSION_FRAMES.
+     * 
+     * @return true if frames are computed
+     */
+    public boolean isComputeFrames() {
+        return computeFrames_;
+    }
+
+
+    /**
+     * Are Code attributes read from a class file decoded on first use?
+     * 
+     * @return true if Code attributes are loaded lazily
+     */
+    public boolean isLazy() {
+        return lazy_;
+    }
+
+
+    /**
+     * Is the class optimized for size when it is written?
+     * 
+     * @return true if debugging attributes are removed and the constant pool
+     *         compacted on output
+     */
+    public boolean isOptimizeSize() {
+        return optimizeSize_;
+    }
+
+
+    /**
+     * Are Code attributes read from a class file, and not modified since,
+     * written out exactly as they were read?
+     * 
+     * @return true if unmodified Code attributes are copied verbatim
+     */
+    public boolean isVerbatim() {
+        return verbatim_;
+    }
+
+
+    /**
+     * Set whether StackMapTable frames are computed for code that is compiled
+     * or changed. Code that is written out unchanged from a class file keeps
+     * its original frames. Frames are required by the verifier for classes of
+     * version JAVA_VERSION_1_7 and later.
+     * 
+     * @param computeFrames
+     *            true if frames should be computed
+     */
+    public void setComputeFrames(boolean computeFrames) {
+        computeFrames_ = computeFrames;
+    }
+
+
+    /**
+     * Set the history policy for code in this class. The FULL policy allows
+     * code to be rebuilt from its ClassData representation by replaying each
+     * compilation. The COMPACT and NONE policies use less memory for code
+     * built by many compilations, and such code is represented by its
+     * decompiled form.
+     * 
+     * @param policy
+     *            the policy
+     */
+    public void setHistoryPolicy(HistoryPolicy policy) {
+        if( policy == null )
+            throw new IllegalArgumentException(
+                    "History policy must be specified");
+        historyPolicy_ = policy;
+    }
+
+
+    /**
+     * Set whether the class is optimized for size when it is written. If so,
+     * debugging attributes are removed and the constant pool is compacted
+     * every time the class's size is computed, which happens whenever it is
+     * written.
+     * 
+     * @param optimizeSize
+     *            true if the class should be optimized for size
+     */
+    public void setOptimizeSize(boolean optimizeSize) {
+        optimizeSize_ = optimizeSize;
+    }
+
+
+    /**
+     * Set the resolver used to find common superclasses when computing
+     * frames.
+     * 
+     * @param resolver
+     *            the resolver, or null to use the default
+     */
+    public void setSuperclassResolver(SuperclassResolver resolver) {
+        resolver_ = resolver;
+    }
+
+
     /**
      * Set the Java version the compiled class will announce itself compatible
      * with. This should be one of the JAVA_VERSION constants defined in this
@@ -507,41 +1059,95 @@ public class ClassBuilder {
 
 
     /**
-     * Write this class to the output
+     * Write this class to a big-endian buffer. Exactly
+     * <code>computeSize()</code> bytes are written.
      * 
-     * @param baos
-     *            the output stream
+     * @param buf
+     *            the buffer
      */
-    public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeS4(baos, 0xcafebabe);
-        IO.writeS4(baos, version_);
-        cp_.writeTo(baos);
-        IO.writeU2(baos, access_);
-        IO.writeU2(baos, thisClass_.getIndex());
-        IO.writeU2(baos, (superClass_ != null) ? superClass_.getIndex() : 0);
+    private void write(ByteBuffer buf) {
+        IO.writeS4(buf, 0xcafebabe);
+        IO.writeS4(buf, version_);
+        cp_.writeTo(buf);
+        IO.writeU2(buf, access_);
+        IO.writeU2(buf, thisClass_.getIndex());
+        IO.writeU2(buf, (superClass_ != null) ? superClass_.getIndex() : 0);
 
         // output interfaces
         int s = interfaces_.size();
-        IO.writeU2(baos, s);
+        IO.writeU2(buf, s);
         for(int i = 0;i < s;i++) {
-            IO.writeU2(baos, interfaces_.get(i).getIndex());
+            IO.writeU2(buf, interfaces_.get(i).getIndex());
         }
 
         // output fields
         s = fields_.size();
-        IO.writeU2(baos, s);
+        IO.writeU2(buf, s);
         for(int i = 0;i < s;i++) {
-            fields_.get(i).writeTo(baos);
+            fields_.get(i).writeTo(buf);
         }
 
         // output methods
         s = methods_.size();
-        IO.writeU2(baos, s);
+        IO.writeU2(buf, s);
         for(int i = 0;i < s;i++) {
-            methods_.get(i).writeTo(baos);
+            methods_.get(i).writeTo(buf);
         }
 
         // output attributes
-        attrList_.writeTo(baos);
+        attrList_.writeTo(buf);
+    }
+
+
+    /**
+     * Write this class to the output
+     * 
+     * @param baos
+     *            the output stream
+     */
+    public void writeTo(ByteArrayOutputStream baos) {
+        byte[] bytes = getBytes();
+        baos.write(bytes, 0, bytes.length);
+    }
+
+
+    /**
+     * Write this class into a buffer starting at the buffer's current
+     * position. The buffer must have at least <code>computeSize()</code>
+     * bytes remaining. On return the buffer's position is after the class.
+     * 
+     * @param buf
+     *            the buffer, which may be direct
+     * @throws BufferOverflowException
+     *             if the buffer has insufficient space
+     */
+    public void writeTo(ByteBuffer buf) {
+        int size = computeSize();
+        if( buf.remaining() < size ) throw new BufferOverflowException();
+        ByteOrder order = buf.order();
+        buf.order(ByteOrder.BIG_ENDIAN);
+        try {
+            write(buf);
+        } finally {
+            buf.order(order);
+        }
+    }
+
+
+    /**
+     * Write this class to a channel. The class is generated into a single
+     * direct buffer of the exact size and then written in full.
+     * 
+     * @param channel
+     *            the channel
+     * @throws IOException
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(computeSize());
+        write(buf);
+        buf.flip();
+        while( buf.hasRemaining() ) {
+            channel.write(buf);
+        }
     }
-}
+}
\ No newline at end of file
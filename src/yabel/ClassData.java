@@ -30,6 +30,7 @@ public class ClassData extends LinkedHashMap<String, Object> implements
         if( cl == Double.class ) return;
         if( cl == ClassData.class ) return;
         if( cl == SwitchData.class ) return;
+        if( cl == HashSwitchData.class ) return;
         if( cl == TypedList.class ) return;
         throw new AssertionError("Class " + cl.getName()
                 + " is not allowed in ClassData");
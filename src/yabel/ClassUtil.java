@@ -22,12 +22,16 @@ public class ClassUtil {
         if( name.equals("J") ) return Long.TYPE;
         if( name.equals("S") ) return Short.TYPE;
         if( name.equals("V") ) return Void.TYPE;
+        if( name.equals("Z") ) return Boolean.TYPE;
 
         // must be an array or an object
         try {
             if( name.startsWith("L") && name.endsWith(";") ) {
                 name = name.substring(1, name.length() - 1).replace('/', '.');
-            } else if( !name.startsWith("[") ) {
+            } else if( name.startsWith("[") ) {
+                // array class names use '.' but keep the descriptor form
+                name = name.replace('/', '.');
+            } else {
                 throw new YabelException("Class name is not recognised :"
                         + name);
             }
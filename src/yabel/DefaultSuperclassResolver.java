@@ -0,0 +1,124 @@
+package yabel;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves common superclasses by loading classes without initializing them.
+ * The class being built is not loadable, so its superclass is taken from its
+ * ClassBuilder. Any class that cannot be loaded is treated as a direct
+ * sub-class of java.lang.Object.
+ * 
+ * @author Simon Greatrix
+ * 
+ */
+public class DefaultSuperclassResolver implements SuperclassResolver {
+    /** The class being built, if any */
+    private final ClassBuilder builder_;
+
+    /** The class loader to load classes with, or null for the context loader */
+    private final ClassLoader loader_;
+
+
+    /**
+     * New resolver that uses the context class loader.
+     * 
+     * @param builder
+     *            the class being built, or null
+     */
+    public DefaultSuperclassResolver(ClassBuilder builder) {
+        this(builder, null);
+    }
+
+
+    /**
+     * New resolver.
+     * 
+     * @param builder
+     *            the class being built, or null
+     * @param loader
+     *            the class loader to use, or null for the context class
+     *            loader
+     */
+    public DefaultSuperclassResolver(ClassBuilder builder, ClassLoader loader) {
+        builder_ = builder;
+        loader_ = loader;
+    }
+
+
+    /**
+     * Get the chain of superclasses of a class, starting with the class
+     * itself. If the class is an interface, the chain is empty.
+     * 
+     * @param type
+     *            the internal name of the class
+     * @return the chain of internal names
+     */
+    private List<String> getChain(String type) {
+        List<String> chain = new ArrayList<String>();
+        String name = type;
+        while( name != null ) {
+            if( (builder_ != null) && name.equals(builder_.getName()) ) {
+                if( Modifier.isInterface(builder_.getAccess()) ) {
+                    chain.clear();
+                    return chain;
+                }
+                chain.add(name);
+                name = builder_.getSuperName();
+                continue;
+            }
+
+            Class<?> cls = load(name);
+            if( cls == null ) {
+                // unknown, so assume it extends Object
+                chain.add(name);
+                if( !name.equals("java/lang/Object") )
+                    chain.add("java/lang/Object");
+                return chain;
+            }
+            if( cls.isInterface() ) {
+                chain.clear();
+                return chain;
+            }
+            while( cls != null ) {
+                chain.add(cls.getName().replace('.', '/'));
+                cls = cls.getSuperclass();
+            }
+            return chain;
+        }
+        return chain;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String getCommonSuperclass(String type1, String type2) {
+        if( type1.equals(type2) ) return type1;
+        List<String> chain2 = getChain(type2);
+        for(String s:getChain(type1)) {
+            if( chain2.contains(s) ) return s;
+        }
+        return "java/lang/Object";
+    }
+
+
+    /**
+     * Load a class without initializing it.
+     * 
+     * @param name
+     *            the internal name of the class
+     * @return the class, or null if it cannot be loaded
+     */
+    private Class<?> load(String name) {
+        ClassLoader cl = loader_;
+        if( cl == null ) cl = Thread.currentThread().getContextClassLoader();
+        try {
+            return Class.forName(name.replace('/', '.'), false, cl);
+        } catch (ClassNotFoundException cnfe) {
+            return null;
+        } catch (LinkageError le) {
+            return null;
+        }
+    }
+}
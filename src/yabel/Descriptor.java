@@ -0,0 +1,293 @@
+package yabel;
+
+/**
+ * A parsed field or method descriptor. Descriptors are parsed once and then
+ * cached by the Utf8 constant that holds them, so the stack and local
+ * variable analysis does not have to re-read the descriptor string for every
+ * instruction that uses it.
+ * 
+ * @author Simon Greatrix
+ * 
+ */
+public final class Descriptor {
+    /** Standard array used for a method that takes no arguments */
+    private static final String[] NO_ARGS = new String[0];
+
+
+    /**
+     * Parse a descriptor. A descriptor starting with '(' is a method
+     * descriptor, anything else is a field descriptor.
+     * 
+     * @param type
+     *            the descriptor
+     * @return the parsed descriptor
+     */
+    public static Descriptor forType(String type) {
+        return new Descriptor(type);
+    }
+
+
+    /**
+     * Find the end of a single type within a descriptor.
+     * 
+     * @param type
+     *            the descriptor
+     * @param start
+     *            where the type starts
+     * @return the position after the type ends
+     */
+    private static int typeEnd(String type, int start) {
+        int i = start;
+        while( (i < type.length()) && (type.charAt(i) == '[') ) {
+            i++;
+        }
+        if( i == type.length() )
+            throw new IllegalArgumentException("Missing type at position "
+                    + start + " : " + type);
+
+        char c = type.charAt(i);
+        switch (c) {
+        case 'B': // byte
+        case 'C': // char
+        case 'D': // double
+        case 'F': // float
+        case 'I': // int
+        case 'J': // long
+        case 'S': // short
+        case 'Z': // boolean
+            return i + 1;
+        case 'L': // object
+            int p = type.indexOf(';', i);
+            if( p == -1 )
+                throw new IllegalArgumentException(
+                        "No closing ';' to object name at position " + i
+                                + " : " + type);
+            return p + 1;
+        default:
+            throw new IllegalArgumentException("Unrecognised type '" + c
+                    + "' at position " + i + " : " + type);
+        }
+    }
+
+
+    /**
+     * Get the number of slots a single type takes on the stack or in the
+     * local variables. Longs and doubles take two slots, void takes none.
+     * 
+     * @param type
+     *            the type
+     * @return the number of slots
+     */
+    private static int widthOf(String type) {
+        switch (type.charAt(0)) {
+        case 'D': // double
+        case 'J': // long
+            return 2;
+        case 'V': // void
+            return 0;
+        default:
+            return 1;
+        }
+    }
+
+    /** Number of local variable slots used by the arguments */
+    private final int argSlots_;
+
+    /** The argument types */
+    private final String[] argTypes_;
+
+    /** Is this a method descriptor? */
+    private final boolean isMethod_;
+
+    /** Number of stack slots used by the return or field value */
+    private final int returnWidth_;
+
+    /** The return or field type */
+    private final String returnType_;
+
+    /** The descriptor */
+    private final String type_;
+
+
+    /**
+     * Parse a descriptor
+     * 
+     * @param type
+     *            the descriptor
+     */
+    private Descriptor(String type) {
+        type_ = type;
+        if( !type.startsWith("(") ) {
+            // a field descriptor
+            if( typeEnd(type, 0) != type.length() )
+                throw new IllegalArgumentException(
+                        "Field type is not a single type : " + type);
+            argSlots_ = 0;
+            argTypes_ = NO_ARGS;
+            isMethod_ = false;
+            returnType_ = type;
+            returnWidth_ = widthOf(type);
+            return;
+        }
+
+        int p = type.lastIndexOf(')');
+        if( p == -1 )
+            throw new IllegalArgumentException("No closing ')' : " + type);
+
+        // count the arguments first so the array is created at its size
+        int count = 0;
+        int i = 1;
+        while( i < p ) {
+            i = typeEnd(type, i);
+            count++;
+        }
+        if( i != p )
+            throw new IllegalArgumentException("Argument overlaps ')' : "
+                    + type);
+
+        String[] args = (count == 0) ? NO_ARGS : new String[count];
+        int slots = 0;
+        i = 1;
+        for(int j = 0;j < count;j++) {
+            int e = typeEnd(type, i);
+            args[j] = type.substring(i, e);
+            slots += widthOf(args[j]);
+            i = e;
+        }
+
+        String ret = type.substring(p + 1);
+        if( !(ret.equals("V") || (typeEnd(ret, 0) == ret.length())) )
+            throw new IllegalArgumentException(
+                    "Return type is not a single type : " + type);
+
+        argSlots_ = slots;
+        argTypes_ = args;
+        isMethod_ = true;
+        returnType_ = ret;
+        returnWidth_ = widthOf(ret);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object obj) {
+        if( obj == this ) return true;
+        if( obj instanceof Descriptor ) {
+            return type_.equals(((Descriptor) obj).type_);
+        }
+        return false;
+    }
+
+
+    /**
+     * Get the classes of the arguments. The classes are loaded via the
+     * context class loader each time this is called.
+     * 
+     * @return the argument classes
+     */
+    public Class<?>[] getArgClasses() {
+        Class<?>[] cls = new Class<?>[argTypes_.length];
+        for(int i = 0;i < cls.length;i++) {
+            cls[i] = ClassUtil.getClass(argTypes_[i]);
+        }
+        return cls;
+    }
+
+
+    /**
+     * Get the number of arguments. Field descriptors have no arguments.
+     * 
+     * @return the number of arguments
+     */
+    public int getArgCount() {
+        return argTypes_.length;
+    }
+
+
+    /**
+     * How many slots are needed on the stack for the arguments of a method?
+     * Longs and doubles count as 2 as they take two stack slots.
+     * 
+     * @return the number of argument slots
+     */
+    public int getArgSlots() {
+        return argSlots_;
+    }
+
+
+    /**
+     * Get the type of an argument
+     * 
+     * @param i
+     *            the argument's index
+     * @return the argument's type
+     */
+    public String getArgType(int i) {
+        return argTypes_[i];
+    }
+
+
+    /**
+     * Get the class of the return or field type.
+     * 
+     * @return the class
+     */
+    public Class<?> getReturnClass() {
+        return ClassUtil.getClass(returnType_);
+    }
+
+
+    /**
+     * Get the return type of a method, or the type of a field.
+     * 
+     * @return the type
+     */
+    public String getReturnType() {
+        return returnType_;
+    }
+
+
+    /**
+     * How many stack slots are taken by the value returned by a method or held
+     * by a field? Longs and doubles take 2 slots and void takes none.
+     * 
+     * @return the number of slots
+     */
+    public int getReturnWidth() {
+        return returnWidth_;
+    }
+
+
+    /**
+     * Get the descriptor this was parsed from.
+     * 
+     * @return the descriptor
+     */
+    public String getType() {
+        return type_;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return type_.hashCode();
+    }
+
+
+    /**
+     * Is this a method descriptor?
+     * 
+     * @return true for a method, false for a field
+     */
+    public boolean isMethod() {
+        return isMethod_;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return type_;
+    }
+}
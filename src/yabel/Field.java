@@ -2,11 +2,12 @@ package yabel;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.lang.reflect.Modifier;
 
 import yabel.attributes.AttributeList;
 import yabel.attributes.ConstantValue;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantPool;
 import yabel.constants.ConstantUtf8;
 import yabel.io.IO;
@@ -92,15 +93,15 @@ public class Field {
 
 
     /**
-     * Load a field definition from the input
+     * Load a field definition from a big-endian buffer
      * 
      * @param cp
      *            the associated constant pool
      * @param input
-     *            the stream
+     *            the buffer
      * @throws IOException
      */
-    Field(ConstantPool cp, InputStream input) throws IOException {
+    Field(ConstantPool cp, ByteBuffer input) throws IOException {
         access_ = IO.readU2(input);
         name_ = cp.validate(IO.readU2(input), ConstantUtf8.class);
         type_ = cp.validate(IO.readU2(input), ConstantUtf8.class);
@@ -148,6 +149,29 @@ public class Field {
     }
 
 
+    /**
+     * Pass the constants referenced by this field to a compactor.
+     * 
+     * @param compactor
+     *            the compactor
+     */
+    void compact(Compactor compactor) {
+        compactor.constant(name_);
+        compactor.constant(type_);
+        attrList_.compact(compactor);
+    }
+
+
+    /**
+     * Get the number of bytes this field occupies in a class file.
+     * 
+     * @return the size in bytes
+     */
+    public int computeSize() {
+        return 6 + attrList_.computeSize();
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public boolean equals(Object obj) {
@@ -222,6 +246,20 @@ public class Field {
     }
 
 
+    /**
+     * Write this Field to a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     */
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, access_);
+        IO.writeU2(buf, name_.getIndex());
+        IO.writeU2(buf, type_.getIndex());
+        attrList_.writeTo(buf);
+    }
+
+
     /**
      * Write this Field to the output stream
      * 
@@ -229,9 +267,8 @@ public class Field {
      *            output stream
      */
     public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, access_);
-        IO.writeU2(baos, name_.getIndex());
-        IO.writeU2(baos, type_.getIndex());
-        attrList_.writeTo(baos);
+        byte[] data = new byte[computeSize()];
+        writeTo(ByteBuffer.wrap(data));
+        baos.write(data, 0, data.length);
     }
 }
\ No newline at end of file
@@ -0,0 +1,213 @@
+package yabel;
+
+/**
+ * The keys and branch destinations for a switch on String or long values.
+ * Such a switch is compiled by switching on the hash code of the value and
+ * then checking the value is equal to a key, as a switch on strings is.
+ *
+ * @author Simon Greatrix
+ */
+public class HashSwitchData extends AbstractSwitchData<Object> implements
+        Copyable<HashSwitchData> {
+    /**
+     * Representation of a case key and label
+     *
+     * @author Simon Greatrix
+     */
+    public static class Case {
+        /** The key this case will match */
+        private final Object key_;
+
+        /** The label this case will jump to */
+        private final String label_;
+
+
+        /**
+         * Create new case
+         *
+         * @param key
+         *            key to match
+         * @param label
+         *            label to jump to
+         */
+        public Case(Object key, String label) {
+            key_ = key;
+            label_ = label;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public boolean equals(Object other) {
+            if( other == null ) return false;
+            if( other == this ) return true;
+            if( !(other instanceof Case) ) return false;
+            Case otherCase = (Case) other;
+            return label_.equals(otherCase.label_)
+                    && key_.equals(otherCase.key_);
+        }
+
+
+        public Object getKey() {
+            return key_;
+        }
+
+
+        public String getLabel() {
+            return label_;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public int hashCode() {
+            return label_.hashCode();
+        }
+    }
+
+    /** Should the hash codes be mapped to buckets without collisions? */
+    private boolean isPerfectHash_ = false;
+
+    /** The type of the keys, String or Long */
+    private final Class<?> keyType_;
+
+
+    /**
+     * Create new switch data with the specified key type and default
+     * destination
+     *
+     * @param keyType
+     *            the type of the keys, <code>String.class</code> or
+     *            <code>Long.class</code>
+     * @param dflt
+     *            the default destination
+     */
+    public HashSwitchData(Class<?> keyType, String dflt) {
+        super(dflt);
+        if( (keyType != String.class) && (keyType != Long.class) ) {
+            throw new IllegalArgumentException("Keys of type "
+                    + keyType.getName() + " are not supported");
+        }
+        keyType_ = keyType;
+    }
+
+
+    /**
+     * Create a copy of other switch data
+     *
+     * @param original
+     *            the switch data to copy
+     */
+    private HashSwitchData(HashSwitchData original) {
+        super(original);
+        keyType_ = original.keyType_;
+        isPerfectHash_ = original.isPerfectHash_;
+    }
+
+
+    /**
+     * Create a copy of this instance
+     *
+     * @return a copy
+     */
+    @Override
+    public HashSwitchData copy() {
+        return new HashSwitchData(this);
+    }
+
+
+    /**
+     * Add a case to this switch statement
+     *
+     * @param cse
+     *            the case to add
+     */
+    public void add(Case cse) {
+        add(cse.getKey(), cse.getLabel());
+    }
+
+
+    /**
+     * Add an extra case to this switch.
+     *
+     * @param key
+     *            the case, of this switch's key type
+     * @param lbl
+     *            the branch destination label
+     */
+    @Override
+    public void add(Object key, String lbl) {
+        if( !keyType_.isInstance(key) ) {
+            throw new IllegalArgumentException("Key " + key + " is not a "
+                    + keyType_.getName());
+        }
+        super.add(key, lbl);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object other) {
+        if( other == null ) return false;
+        if( other == this ) return true;
+        if( !(other instanceof HashSwitchData) ) return false;
+        HashSwitchData otherSwitch = (HashSwitchData) other;
+        if( keyType_ != otherSwitch.keyType_ ) return false;
+        if( isPerfectHash_ != otherSwitch.isPerfectHash_ ) return false;
+        return equalCases(otherSwitch);
+    }
+
+
+    /**
+     * Get the type of the keys.
+     *
+     * @return <code>String.class</code> or <code>Long.class</code>
+     */
+    public Class<?> getKeyType() {
+        return keyType_;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        return super.hashCode() ^ keyType_.hashCode();
+    }
+
+
+    /**
+     * Should the hash codes of the keys be mapped to buckets without
+     * collisions? If so, only keys with equal hash codes have to be compared
+     * in turn.
+     *
+     * @return true if a perfect hash should be used
+     */
+    public boolean isPerfectHash() {
+        return isPerfectHash_;
+    }
+
+
+    /**
+     * Convert the text of a key to this switch's key type.
+     *
+     * @param text
+     *            the text
+     * @return the key
+     */
+    public Object parseKey(String text) {
+        if( keyType_ == Long.class ) return Long.valueOf(text);
+        return text;
+    }
+
+
+    /**
+     * Set whether the hash codes of the keys should be mapped to buckets
+     * without collisions.
+     *
+     * @param isPerfectHash
+     *            true if a perfect hash should be used
+     */
+    public void setPerfectHash(boolean isPerfectHash) {
+        isPerfectHash_ = isPerfectHash;
+    }
+}
@@ -2,16 +2,15 @@ package yabel;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.lang.reflect.Modifier;
-import java.util.ArrayList;
-import java.util.List;
 
 import yabel.attributes.Attribute;
 import yabel.attributes.AttributeList;
 import yabel.attributes.AttributeListListener;
 import yabel.attributes.Exceptions;
 import yabel.code.Code;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantPool;
 import yabel.constants.ConstantUtf8;
 import yabel.io.IO;
@@ -32,25 +31,7 @@ public class Method implements AttributeListListener {
      * @return the parameter classes
      */
     public static Class<?>[] getArgClassesForType(String type) {
-        List<Class<?>> cls = new ArrayList<Class<?>>();
-
-        if( !type.startsWith("(") )
-            throw new IllegalArgumentException("No starting '(' : " + type);
-        int p = type.lastIndexOf(')');
-        if( p == -1 )
-            throw new IllegalArgumentException("No closing ')' : " + type);
-        type = type.substring(1, p);
-        int start = 0;
-        for(int i = 0;i < type.length();i++) {
-            char c = type.charAt(i);
-            if( "ZBCDFIJS;".indexOf(c) != -1 ) {
-                String cl = type.substring(start, i + 1);
-                cls.add(ClassUtil.getClass(cl));
-            }
-        }
-
-        Class<?>[] ret = new Class<?>[cls.size()];
-        return cls.toArray(ret);
+        return getDescriptor(type).getArgClasses();
     }
 
 
@@ -63,58 +44,21 @@ public class Method implements AttributeListListener {
      * @return the number of arguments
      */
     public static int getArgsForType(String type) {
+        return getDescriptor(type).getArgSlots();
+    }
+
+
+    /**
+     * Parse a method signature.
+     * 
+     * @param type
+     *            the method signature
+     * @return the parsed descriptor
+     */
+    private static Descriptor getDescriptor(String type) {
         if( !type.startsWith("(") )
             throw new IllegalArgumentException("No starting '(' : " + type);
-        int p = type.lastIndexOf(')');
-        if( p == -1 )
-            throw new IllegalArgumentException("No closing ')' : " + type);
-        type = type.substring(1, p);
-        int count = 0;
-        boolean isArray = false;
-        for(int i = 0;i < type.length();i++) {
-            char c = type.charAt(i);
-            switch (c) {
-            case 'Z': // boolean
-                count++;
-                break;
-            case 'B': // byte
-                count++;
-                break;
-            case 'C': // char
-                count++;
-                break;
-            case 'D': // double
-                count += isArray ? 1 : 2;
-                break;
-            case 'F': // float
-                count++;
-                break;
-            case 'I': // int;
-                count++;
-                break;
-            case 'J': // long
-                count += isArray ? 1 : 2;
-                break;
-            case 'S': // short
-                count++;
-                break;
-            case 'L': // object
-                count++;
-                p = type.indexOf(';', i);
-                if( p == -1 )
-                    throw new IllegalArgumentException(
-                            "No closing ';' to object name at position " + i
-                                    + " : " + type);
-                i = p;
-                break;
-            case '[': // array
-                isArray = true;
-                break;
-            }
-            if( c != '[' ) isArray = false;
-        }
-
-        return count;
+        return Descriptor.forType(type);
     }
 
 
@@ -197,8 +141,9 @@ public class Method implements AttributeListListener {
      */
     public static Method getInheritedMethod(ClassBuilder builder, String name,
             String type, Class<?> cls, boolean samePackage) {
-        Class<?>[] args = getArgClassesForType(type);
-        Class<?> ret = getReturnClassForType(type);
+        Descriptor desc = getDescriptor(type);
+        Class<?>[] args = desc.getArgClasses();
+        Class<?> ret = desc.getReturnClass();
         return getInheritedMethod(builder, name, args, ret, cls, samePackage);
     }
 
@@ -211,13 +156,7 @@ public class Method implements AttributeListListener {
      * @return the class
      */
     public static Class<?> getReturnClassForType(String type) {
-        if( !type.startsWith("(") )
-            throw new IllegalArgumentException("No starting '(' : " + type);
-        int p = type.lastIndexOf(')');
-        if( p == -1 )
-            throw new IllegalArgumentException("No closing ')' : " + type);
-        type = type.substring(p + 1);
-        return ClassUtil.getClass(type);
+        return getDescriptor(type).getReturnClass();
     }
 
     /** Access modifier */
@@ -262,15 +201,15 @@ public class Method implements AttributeListListener {
 
 
     /**
-     * Read a method from the input.
+     * Read a method from a big-endian buffer.
      * 
      * @param input
-     *            the stream
+     *            the buffer
      * @param classBuilder
      *            Class containing this method
      * @throws IOException
      */
-    Method(ClassBuilder classBuilder, InputStream input) throws IOException {
+    Method(ClassBuilder classBuilder, ByteBuffer input) throws IOException {
         classBuilder_ = classBuilder;
         cp_ = classBuilder_.getConstantPool();
         access_ = IO.readU2(input);
@@ -343,6 +282,29 @@ public class Method implements AttributeListListener {
     }
 
 
+    /**
+     * Pass the constants referenced by this method to a compactor.
+     * 
+     * @param compactor
+     *            the compactor
+     */
+    void compact(Compactor compactor) {
+        compactor.constant(name_);
+        compactor.constant(type_);
+        attrList_.compact(compactor);
+    }
+
+
+    /**
+     * Get the number of bytes this method occupies in a class file.
+     * 
+     * @return the size in bytes
+     */
+    public int computeSize() {
+        return 6 + attrList_.computeSize();
+    }
+
+
     /**
      * Get the access modifier.
      * 
@@ -414,6 +376,16 @@ public class Method implements AttributeListListener {
     }
 
 
+    /**
+     * Get the type of this method parsed as a descriptor.
+     * 
+     * @return this method's descriptor
+     */
+    public Descriptor getDescriptor() {
+        return type_.getDescriptor();
+    }
+
+
     /**
      * Get the type of this method.
      * 
@@ -426,7 +398,7 @@ public class Method implements AttributeListListener {
 
     /**
      * Set the name of this method. Note that the original method name remains
-     * in the constant pool.
+     * in the constant pool until the class is compacted.
      * 
      * @param newName
      *            the new name for this method
@@ -451,6 +423,20 @@ public class Method implements AttributeListListener {
     }
 
 
+    /**
+     * Write Method to a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     */
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, access_);
+        IO.writeU2(buf, name_.getIndex());
+        IO.writeU2(buf, type_.getIndex());
+        attrList_.writeTo(buf);
+    }
+
+
     /**
      * Write Method to output
      * 
@@ -458,9 +444,8 @@ public class Method implements AttributeListListener {
      *            output
      */
     public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, access_);
-        IO.writeU2(baos, name_.getIndex());
-        IO.writeU2(baos, type_.getIndex());
-        attrList_.writeTo(baos);
+        byte[] data = new byte[computeSize()];
+        writeTo(ByteBuffer.wrap(data));
+        baos.write(data, 0, data.length);
     }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package yabel;
+
+/**
+ * Finds the closest common superclass of two classes. This is needed when
+ * computing stack map frames, where two different object types meet at the
+ * same location in the code.
+ * 
+ * @author Simon Greatrix
+ * 
+ */
+public interface SuperclassResolver {
+    /**
+     * Get the closest common superclass of two classes. If either class is an
+     * interface the result should be "java/lang/Object".
+     * 
+     * @param type1
+     *            the internal name of the first class
+     * @param type2
+     *            the internal name of the second class
+     * @return the internal name of the common superclass
+     */
+    public String getCommonSuperclass(String type1, String type2);
+}
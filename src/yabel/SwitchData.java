@@ -1,15 +1,13 @@
 package yabel;
 
-import java.util.*;
-import java.util.Map.Entry;
-
 /**
  * The values and branch destinations for a SWITCH statement.
  * 
  * @author Simon Greatrix
  * 
  */
-public class SwitchData implements Iterable<Entry<Integer, String>>, Copyable<SwitchData> {
+public class SwitchData extends AbstractSwitchData<Integer> implements
+        Copyable<SwitchData> {
     /**
      * Representation of a case value and label
      * 
@@ -66,12 +64,6 @@ public class SwitchData implements Iterable<Entry<Integer, String>>, Copyable<Sw
         }
     }
 
-    /** The destinations for each case */
-    private final LinkedHashMap<Integer, String> data_ = new LinkedHashMap<Integer, String>();
-
-    /** The name of the default destination */
-    private final String dflt_;
-
     /** The maximum case value */
     private int max_ = Integer.MIN_VALUE;
 
@@ -86,7 +78,20 @@ public class SwitchData implements Iterable<Entry<Integer, String>>, Copyable<Sw
      *            the default destination
      */
     public SwitchData(String dflt) {
-        dflt_ = dflt;
+        super(dflt);
+    }
+
+
+    /**
+     * Create a copy of other switch data
+     * 
+     * @param original
+     *            the switch data to copy
+     */
+    private SwitchData(SwitchData original) {
+        super(original);
+        max_ = original.max_;
+        min_ = original.min_;
     }
 
 
@@ -97,11 +102,7 @@ public class SwitchData implements Iterable<Entry<Integer, String>>, Copyable<Sw
      */
     @Override
     public SwitchData copy() {
-        SwitchData copy = new SwitchData(dflt_);
-        copy.data_.putAll(data_);
-        copy.max_ = max_;
-        copy.min_ = min_;
-        return copy;
+        return new SwitchData(this);
     }
 
 
@@ -124,10 +125,9 @@ public class SwitchData implements Iterable<Entry<Integer, String>>, Copyable<Sw
      * @param lbl
      *            the branch destination label
      */
+    @Override
     public void add(Integer i, String lbl) {
-        if( data_.containsKey(i) )
-            throw new IllegalStateException("Key " + i + " already mapped");
-        data_.put(i, lbl);
+        super.add(i, lbl);
         int ii = i.intValue();
         if( ii < min_ ) min_ = ii;
         if( ii > max_ ) max_ = ii;
@@ -141,32 +141,9 @@ public class SwitchData implements Iterable<Entry<Integer, String>>, Copyable<Sw
         if( other == this ) return true;
         if( !(other instanceof SwitchData) ) return false;
         SwitchData otherSwitch = (SwitchData) other;
-        if( !dflt_.equals(otherSwitch.dflt_) ) return false;
         if( min_ != otherSwitch.min_ ) return false;
         if( max_ != otherSwitch.max_ ) return false;
-        return data_.equals(otherSwitch.data_);
-    }
-
-
-    /**
-     * Get the branch destination of the given case
-     * 
-     * @param i
-     *            the case
-     * @return the destination or null if it is default
-     */
-    public String get(Integer i) {
-        return data_.get(i);
-    }
-
-
-    /**
-     * Get the default destination
-     * 
-     * @return the default destination
-     */
-    public String getDefault() {
-        return dflt_;
+        return equalCases(otherSwitch);
     }
 
 
@@ -193,29 +170,6 @@ public class SwitchData implements Iterable<Entry<Integer, String>>, Copyable<Sw
     /** {@inheritDoc} */
     @Override
     public int hashCode() {
-        return dflt_.hashCode() ^ max_ ^ min_ ^ (data_.size() << 16);
-    }
-
-
-    /**
-     * Iterate over all the cases. The iteration runs in the order the cases
-     * were added.
-     * 
-     * @return the iterator
-     */
-    @Override
-    public Iterator<Entry<Integer, String>> iterator() {
-        Map<Integer, String> map = Collections.unmodifiableMap(data_);
-        return map.entrySet().iterator();
-    }
-
-
-    /**
-     * The number of non-default branches
-     * 
-     * @return the number of branches
-     */
-    public int size() {
-        return data_.size();
+        return super.hashCode() ^ max_ ^ min_;
     }
 }
@@ -1,10 +1,15 @@
 package yabel.attributes;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import yabel.ClassData;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantPool;
 import yabel.constants.ConstantUtf8;
+import yabel.io.IO;
 
 /**
  * An attribute.
@@ -22,6 +27,9 @@ abstract public class Attribute {
     /** The name of the "Deprecated" attribute */
     public static final String ATTR_DEPRECATED = "Deprecated";
 
+    /** The name of the "EnclosingMethod" attribute */
+    public static final String ATTR_ENCLOSING_METHOD = "EnclosingMethod";
+
     /** The name of the "Exceptions" attribute */
     public static final String ATTR_EXCEPTIONS = "Exceptions";
 
@@ -34,9 +42,33 @@ abstract public class Attribute {
     /** The name of the "LocalVariableTable" attribute */
     public static final String ATTR_LOCAL_VARIABLE_TABLE = "LocalVariableTable";
 
+    /** The name of the "LocalVariableTypeTable" attribute */
+    public static final String ATTR_LOCAL_VARIABLE_TYPE_TABLE = "LocalVariableTypeTable";
+
+    /** The name of the "MethodParameters" attribute */
+    public static final String ATTR_METHOD_PARAMETERS = "MethodParameters";
+
+    /** The name of the "NestHost" attribute */
+    public static final String ATTR_NEST_HOST = "NestHost";
+
+    /** The name of the "NestMembers" attribute */
+    public static final String ATTR_NEST_MEMBERS = "NestMembers";
+
+    /** The name of the "PermittedSubclasses" attribute */
+    public static final String ATTR_PERMITTED_SUBCLASSES = "PermittedSubclasses";
+
+    /** The name of the "Signature" attribute */
+    public static final String ATTR_SIGNATURE = "Signature";
+
+    /** The name of the "SourceDebugExtension" attribute */
+    public static final String ATTR_SOURCE_DEBUG_EXTENSION = "SourceDebugExtension";
+
     /** The name of the "SourceFile" attribute */
     public static final String ATTR_SOURCE_FILE = "SourceFile";
 
+    /** The name of the "StackMapTable" attribute */
+    public static final String ATTR_STACK_MAP_TABLE = "StackMapTable";
+
     /** The name of the "Synthetic" attribute */
     public static final String ATTR_SYNTHETIC = "Synthetic";
 
@@ -86,6 +118,28 @@ abstract public class Attribute {
     }
 
 
+    /**
+     * Pass the constants referenced by this attribute to a compactor.
+     * Subclasses which reference other constants must override this and call
+     * it.
+     * 
+     * @param compactor
+     *            the compactor
+     */
+    public void compact(Compactor compactor) {
+        compactor.constant(attrId_);
+    }
+
+
+    /**
+     * Get the number of bytes this attribute occupies in a class file,
+     * including the six bytes of its name index and length.
+     * 
+     * @return the size in bytes
+     */
+    abstract public int computeSize();
+
+
     /**
      * Get the Utf8 constant that holds this attribute's name
      * 
@@ -119,6 +173,59 @@ abstract public class Attribute {
     }
 
 
+    /**
+     * Adjust the byte-code offsets held by this attribute after the code it
+     * belongs to has been laid out again. Attributes which hold no offsets
+     * need do nothing.
+     * 
+     * @param pcMap
+     *            the new offset for each old instruction offset, and for the
+     *            old code length. Other entries are -1.
+     */
+    public void relocate(int[] pcMap) {
+    // do nothing
+    }
+
+
+    /**
+     * Read the length and body of an attribute from a stream, so they can be
+     * decoded by the attribute's buffer constructor.
+     * 
+     * @param input
+     *            the stream, positioned after the attribute's name
+     * @return a buffer holding the length and body
+     * @throws IOException
+     */
+    protected static ByteBuffer read(InputStream input) throws IOException {
+        int len = IO.readS4(input);
+        if( len < 0 )
+            throw new IOException("Attribute length " + len + " is negative");
+        ByteBuffer buf = ByteBuffer.allocate(4 + len);
+        IO.writeS4(buf, len);
+        buf.put(IO.readBytes(input, len));
+        buf.flip();
+        return buf;
+    }
+
+
+    /**
+     * Get the new offset for an old byte-code offset.
+     * 
+     * @param pcMap
+     *            the new offset for each old instruction offset
+     * @param pc
+     *            the old offset
+     * @return the new offset
+     */
+    protected static int relocate(int[] pcMap, int pc) {
+        int newPc = ((0 <= pc) && (pc < pcMap.length)) ? pcMap[pc] : -1;
+        if( newPc == -1 )
+            throw new IllegalArgumentException("Offset " + pc
+                    + " is not the start of an instruction");
+        return newPc;
+    }
+
+
     /**
      * Store this attribute in a ClassData structure
      * 
@@ -128,11 +235,25 @@ abstract public class Attribute {
 
 
     /**
-     * Write this attribute to the byte array stream. The first element should
-     * be a U2 value with the value of <code>attrId_</code>.
+     * Write this attribute to a big-endian buffer. The first element should be
+     * a U2 value with the value of <code>attrId_</code>. Exactly
+     * <code>computeSize()</code> bytes must be written.
+     * 
+     * @param buf
+     *            the buffer
+     */
+    abstract public void writeTo(ByteBuffer buf);
+
+
+    /**
+     * Write this attribute to the byte array stream.
      * 
      * @param baos
      *            the stream
      */
-    abstract public void writeTo(ByteArrayOutputStream baos);
+    public void writeTo(ByteArrayOutputStream baos) {
+        byte[] data = new byte[computeSize()];
+        writeTo(ByteBuffer.wrap(data));
+        baos.write(data, 0, data.length);
+    }
 }
\ No newline at end of file
@@ -3,11 +3,13 @@ package yabel.attributes;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import yabel.ClassData;
 import yabel.code.Code;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantPool;
 import yabel.constants.ConstantUtf8;
 import yabel.io.IO;
@@ -19,6 +21,46 @@ import yabel.io.IO;
  * 
  */
 public class AttributeList {
+    /**
+     * Copy an attribute list from a stream. The attributes are not decoded,
+     * only their lengths are followed so the stream is left positioned
+     * immediately after the list.
+     * 
+     * @param input
+     *            the stream
+     * @param out
+     *            the output
+     * @throws IOException
+     */
+    public static void copy(InputStream input, ByteArrayOutputStream out)
+            throws IOException {
+        int count = IO.copyU2(input, out);
+        for(int i = 0;i < count;i++) {
+            IO.copyBytes(input, out, 2);
+            int len = IO.readS4(input);
+            if( len < 0 )
+                throw new IOException("Attribute length " + len
+                        + " is negative");
+            IO.writeS4(out, len);
+            IO.copyBytes(input, out, len);
+        }
+    }
+
+
+    /**
+     * Read an attribute list from a stream into a buffer.
+     * 
+     * @param input
+     *            the stream
+     * @return the buffer
+     * @throws IOException
+     */
+    private static ByteBuffer read(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(input, out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
     /** The attributes in this list */
     private List<Attribute> attrs_ = new ArrayList<Attribute>();
 
@@ -33,15 +75,15 @@ public class AttributeList {
 
 
     /**
-     * Read an attribute list
+     * Read an attribute list from a big-endian buffer
      * 
      * @param cp
      *            the constant pool
      * @param input
-     *            the stream
+     *            the buffer
      * @throws IOException
      */
-    public AttributeList(ConstantPool cp, InputStream input) throws IOException {
+    public AttributeList(ConstantPool cp, ByteBuffer input) throws IOException {
         int cnt = IO.readU2(input);
         for(int i = 0;i < cnt;i++) {
             attrs_.add(read(cp, input));
@@ -49,6 +91,23 @@ public class AttributeList {
     }
 
 
+    /**
+     * Read an attribute list
+     * 
+     * @param cp
+     *            the constant pool
+     * @param input
+     *            the stream
+     * @throws IOException
+     * @deprecated the list is decoded from a buffer, use
+     *             {@link #AttributeList(ConstantPool, ByteBuffer)}
+     */
+    @Deprecated
+    public AttributeList(ConstantPool cp, InputStream input) throws IOException {
+        this(cp, read(input));
+    }
+
+
     /**
      * Read an attribute list
      * 
@@ -83,6 +142,34 @@ public class AttributeList {
     }
 
 
+    /**
+     * Pass the constants referenced by the attributes in this list to a
+     * compactor.
+     * 
+     * @param compactor
+     *            the compactor
+     */
+    public void compact(Compactor compactor) {
+        for(Attribute a:attrs_) {
+            a.compact(compactor);
+        }
+    }
+
+
+    /**
+     * Get the number of bytes this attribute list occupies in a class file.
+     * 
+     * @return the size in bytes
+     */
+    public int computeSize() {
+        int size = 2;
+        for(Attribute a:attrs_) {
+            size += a.computeSize();
+        }
+        return size;
+    }
+
+
     /**
      * Get a named attribute from this list.
      * 
@@ -190,16 +277,16 @@ public class AttributeList {
 
 
     /**
-     * Read an attribute from the input stream
+     * Read an attribute from a big-endian buffer
      * 
      * @param cp
      *            the constant pool associated with this list
      * @param input
-     *            the stream
+     *            the buffer
      * @return the attribute that was read
      * @throws IOException
      */
-    protected Attribute read(ConstantPool cp, InputStream input) throws IOException {
+    protected Attribute read(ConstantPool cp, ByteBuffer input) throws IOException {
         int id = IO.readU2(input);
         String idName = cp.validate(id, ConstantUtf8.class).get();
 
@@ -224,9 +311,24 @@ public class AttributeList {
     }
 
 
+    /**
+     * Adjust the byte-code offsets held by the attributes in this list after
+     * the code they belong to has been laid out again.
+     * 
+     * @param pcMap
+     *            the new offset for each old instruction offset
+     */
+    public void relocate(int[] pcMap) {
+        for(Attribute a:attrs_) {
+            a.relocate(pcMap);
+        }
+    }
+
+
     /**
      * Remove an attribute from this list. Note that the attribute's name
-     * remains in the constant pool.
+     * remains in the constant pool until the class is
+     * compacted.
      * 
      * @param attr
      *            the attribute to remove
@@ -241,7 +343,8 @@ public class AttributeList {
 
     /**
      * Remove an attribute from this list. Note that the attribute's name
-     * remains in the constant pool.
+     * remains in the constant pool until the class is
+     * compacted.
      * 
      * @param cp
      *            the constant pool where the attribute's name is stored
@@ -344,6 +447,20 @@ public class AttributeList {
     }
 
 
+    /**
+     * Write this attribute list to a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     */
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, attrs_.size());
+        for(Attribute a:attrs_) {
+            a.writeTo(buf);
+        }
+    }
+
+
     /**
      * Write this attribute list to the stream
      * 
@@ -351,9 +468,8 @@ public class AttributeList {
      *            the stream
      */
     public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, attrs_.size());
-        for(Attribute a:attrs_) {
-            a.writeTo(baos);
-        }
+        byte[] data = new byte[computeSize()];
+        writeTo(ByteBuffer.wrap(data));
+        baos.write(data, 0, data.length);
     }
 }
\ No newline at end of file
@@ -1,10 +1,11 @@
 package yabel.attributes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import yabel.ClassData;
+import yabel.constants.Compactor;
 import yabel.constants.Constant;
 import yabel.constants.ConstantNumber;
 import yabel.constants.ConstantPool;
@@ -123,15 +124,15 @@ public class ConstantValue extends Attribute {
 
 
     /**
-     * Read a ConstantValue attribute from the input stream
+     * Read a ConstantValue attribute from a big-endian buffer
      * 
      * @param cp
      *            the constant pool
      * @param input
-     *            the stream
+     *            the buffer
      * @throws IOException
      */
-    public ConstantValue(ConstantPool cp, InputStream input) throws IOException {
+    public ConstantValue(ConstantPool cp, ByteBuffer input) throws IOException {
         super(cp, Attribute.ATTR_CONSTANT_VALUE);
         int len = IO.readS4(input);
         if( len != 2 )
@@ -142,6 +143,23 @@ public class ConstantValue extends Attribute {
     }
 
 
+    /**
+     * Read a ConstantValue attribute from the input stream
+     * 
+     * @param cp
+     *            the constant pool
+     * @param input
+     *            the stream
+     * @throws IOException
+     * @deprecated the attribute is decoded from a buffer, use
+     *             {@link #ConstantValue(ConstantPool, ByteBuffer)}
+     */
+    @Deprecated
+    public ConstantValue(ConstantPool cp, InputStream input) throws IOException {
+        this(cp, read(input));
+    }
+
+
     /**
      * New ConstantValue attribute
      * 
@@ -207,6 +225,21 @@ public class ConstantValue extends Attribute {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    public void compact(Compactor compactor) {
+        super.compact(compactor);
+        compactor.constant(value_);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 8;
+    }
+
+
     /**
      * Get the numeric value of this constant. If this constant is a String
      * type, return null
@@ -247,15 +280,15 @@ public class ConstantValue extends Attribute {
 
 
     /**
-     * Save this attribute to the stream
+     * Save this attribute to a big-endian buffer
      * 
-     * @param baos
-     *            output stream
+     * @param buf
+     *            the buffer
      */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, attrId_.getIndex());
-        IO.writeS4(baos, 2);
-        IO.writeU2(baos, value_.getIndex());
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, attrId_.getIndex());
+        IO.writeS4(buf, 2);
+        IO.writeU2(buf, value_.getIndex());
     }
 }
\ No newline at end of file
@@ -1,12 +1,12 @@
 package yabel.attributes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import yabel.ClassData;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantClass;
 import yabel.constants.ConstantPool;
 import yabel.io.IO;
@@ -56,14 +56,14 @@ public class Exceptions extends Attribute {
 
 
     /**
-     * Read exceptions attribute from input
+     * Read exceptions attribute from a big-endian buffer
      * 
      * @param cp
      *            associated constant pool
      * @param input
-     *            the stream
+     *            the buffer
      */
-    Exceptions(ConstantPool cp, InputStream input) throws IOException {
+    Exceptions(ConstantPool cp, ByteBuffer input) throws IOException {
         super(cp, Attribute.ATTR_EXCEPTIONS);
         cp_ = cp;
         int len = IO.readS4(input);
@@ -94,6 +94,23 @@ public class Exceptions extends Attribute {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    public void compact(Compactor compactor) {
+        super.compact(compactor);
+        for(ConstantClass cc:excepts_) {
+            compactor.constant(cc);
+        }
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 8 + 2 * excepts_.size();
+    }
+
+
     /**
      * Does the method have the declared exception?
      * 
@@ -136,18 +153,18 @@ public class Exceptions extends Attribute {
     /**
      * Write Exceptions attribute to stream
      * 
-     * @param baos
-     *            output stream
+     * @param buf
+     *            the buffer
      */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, attrId_.getIndex());
-        IO.writeS4(baos, 2 + 2 * excepts_.size());
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, attrId_.getIndex());
+        IO.writeS4(buf, 2 + 2 * excepts_.size());
         int s = excepts_.size();
-        IO.writeU2(baos, s);
+        IO.writeU2(buf, s);
         for(int i = 0;i < s;i++) {
             ConstantClass c = excepts_.get(i);
-            IO.writeU2(baos, c.getIndex());
+            IO.writeU2(buf, c.getIndex());
         }
     }
 }
\ No newline at end of file
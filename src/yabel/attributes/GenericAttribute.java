@@ -1,15 +1,19 @@
 package yabel.attributes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import yabel.ClassData;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantPool;
 import yabel.io.IO;
 
 /** A generic attribute in the class */
 public class GenericAttribute extends Attribute {
+    /** The constant pool any references in the data are to */
+    private final ConstantPool cp_;
+
     /** The raw data for this attribute */
     private byte[] data_;
 
@@ -24,8 +28,13 @@ public class GenericAttribute extends Attribute {
      */
     public GenericAttribute(ConstantPool cp, ClassData cd) {
         super(cp, cd);
-        String s = cd.getSafe(String.class, "data");
-        data_ = IO.decode(s);
+        cp_ = cp;
+        if( attrId_.get().equals(ATTR_STACK_MAP_TABLE) ) {
+            data_ = StackMapTable.fromClassData(cp, cd);
+        } else {
+            String s = cd.getSafe(String.class, "data");
+            data_ = IO.decode(s);
+        }
     }
 
 
@@ -37,17 +46,102 @@ public class GenericAttribute extends Attribute {
      * @param id
      *            the attribute name id
      * @param input
-     *            the input stream
+     *            the big-endian buffer
      * @throws IOException
      */
-    GenericAttribute(ConstantPool cp, int id, InputStream input)
+    GenericAttribute(ConstantPool cp, int id, ByteBuffer input)
             throws IOException {
         super(cp, id);
+        cp_ = cp;
         int len = IO.readS4(input);
-        data_ = new byte[len];
-        for(int i = 0;i < len;i++) {
-            data_[i] = (byte) IO.readU1(input);
+        data_ = IO.readBytes(input, len);
+    }
+
+
+    /**
+     * {@inheritDoc} The attributes whose only references are two byte
+     * constant indexes at fixed positions are renumbered, as is a
+     * StackMapTable read from a class file. The SourceDebugExtension
+     * references no constants. Any other attribute may reference any
+     * constant, so the pool is left as it is.
+     */
+    @Override
+    public void compact(Compactor compactor) {
+        super.compact(compactor);
+        String name = attrId_.get();
+        boolean valid;
+        if( name.equals(ATTR_STACK_MAP_TABLE) ) {
+            valid = data_.length >= 2;
+            if( valid )
+                StackMapTable.compact(compactor, data_, 2,
+                        IO.readU2(data_, 0));
+        } else if( name.equals(ATTR_SIGNATURE)
+                || name.equals(ATTR_NEST_HOST) ) {
+            valid = compactTable(compactor, 0, 2, 0);
+        } else if( name.equals(ATTR_ENCLOSING_METHOD) ) {
+            // class and name-and-type
+            valid = compactTable(compactor, 0, 4, 0, 2);
+        } else if( name.equals(ATTR_INNER_CLASSES) ) {
+            // inner class, outer class, inner name and flags
+            valid = compactTable(compactor, 2, 8, 0, 2, 4);
+        } else if( name.equals(ATTR_LOCAL_VARIABLE_TYPE_TABLE) ) {
+            // start, length, name, signature and index
+            valid = compactTable(compactor, 2, 10, 4, 6);
+        } else if( name.equals(ATTR_METHOD_PARAMETERS) ) {
+            // name and flags, with a one byte count
+            valid = compactTable(compactor, 1, 4, 0);
+        } else if( name.equals(ATTR_NEST_MEMBERS)
+                || name.equals(ATTR_PERMITTED_SUBCLASSES) ) {
+            valid = compactTable(compactor, 2, 2, 0);
+        } else if( name.equals(ATTR_SOURCE_DEBUG_EXTENSION) ) {
+            valid = true;
+        } else {
+            compactor.keepAll("Attribute " + name + " is not understood");
+            return;
+        }
+        if( !valid ) compactor.keepAll("Attribute " + name + " is malformed");
+    }
+
+
+    /**
+     * Mark or renumber the constant indexes in a table of fixed size entries.
+     * The table starts with a count of its entries, or if it has no count
+     * holds a single entry.
+     * 
+     * @param compactor
+     *            the compactor
+     * @param countSize
+     *            the size of the count, which may be 0, 1 or 2 bytes
+     * @param entrySize
+     *            the size of each entry
+     * @param offsets
+     *            the offset of each two byte constant index in an entry
+     * @return false if the data is not a table of the expected size
+     */
+    private boolean compactTable(Compactor compactor, int countSize,
+            int entrySize, int... offsets) {
+        int count = 1;
+        if( countSize > 0 ) {
+            if( data_.length < countSize ) return false;
+            count = (countSize == 1) ? IO.readU1(data_, 0)
+                    : IO.readU2(data_, 0);
+        }
+        if( data_.length != countSize + count * entrySize ) return false;
+
+        for(int i = 0;i < count;i++) {
+            for(int o:offsets) {
+                int p = countSize + i * entrySize + o;
+                IO.writeS2(data_, p, compactor.index(IO.readU2(data_, p)));
+            }
         }
+        return true;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 6 + data_.length;
     }
 
 
@@ -63,6 +157,49 @@ public class GenericAttribute extends Attribute {
     }
 
 
+    /**
+     * {@inheritDoc} Only a StackMapTable or a LocalVariableTypeTable read from
+     * a class file holds offsets which can be adjusted. As with a
+     * LocalVariableTable, type table entries which no longer cover any code
+     * are removed.
+     */
+    @Override
+    public void relocate(int[] pcMap) {
+        if( attrId_.get().equals(ATTR_STACK_MAP_TABLE)
+                && (data_.length >= 2) ) {
+            int count = IO.readU2(data_, 0);
+            byte[] frames = StackMapTable.relocate(pcMap, data_, 2, count);
+            byte[] data = new byte[2 + frames.length];
+            data[0] = data_[0];
+            data[1] = data_[1];
+            System.arraycopy(frames, 0, data, 2, frames.length);
+            data_ = data;
+        } else if( attrId_.get().equals(ATTR_LOCAL_VARIABLE_TYPE_TABLE)
+                && (data_.length >= 2) ) {
+            // each entry is start, length, name, signature and index
+            int count = IO.readU2(data_, 0);
+            byte[] data = new byte[2 + count * 10];
+            int kept = 0;
+            for(int i = 0;i < count;i++) {
+                int p = 2 + i * 10;
+                int start = IO.readU2(data_, p);
+                int end = start + IO.readU2(data_, p + 2);
+                int newStart = relocate(pcMap, start);
+                int newEnd = relocate(pcMap, end);
+                if( (newStart == newEnd) && (start < end) ) continue;
+
+                int q = 2 + kept * 10;
+                System.arraycopy(data_, p, data, q, 10);
+                IO.writeS2(data, q, newStart);
+                IO.writeS2(data, q + 2, newEnd - newStart);
+                kept++;
+            }
+            IO.writeS2(data, 0, kept);
+            data_ = Arrays.copyOf(data, 2 + kept * 10);
+        }
+    }
+
+
     /**
      * Set the data held by this attribute. Note the input is copied.
      * 
@@ -76,11 +213,18 @@ public class GenericAttribute extends Attribute {
     }
 
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc} The class references in a StackMapTable are stored by
+     * name, so that it can be rebuilt in another constant pool.
+     */
     @Override
     public ClassData toClassData() {
         ClassData cd = makeClassData();
-        cd.put("data", IO.encode(data_));
+        if( attrId_.get().equals(ATTR_STACK_MAP_TABLE) ) {
+            StackMapTable.toClassData(cp_, cd, data_);
+        } else {
+            cd.put("data", IO.encode(data_));
+        }
         return cd;
     }
 
@@ -88,16 +232,14 @@ public class GenericAttribute extends Attribute {
     /**
      * Write this attribute to the output.
      * 
-     * @param baos
-     *            the output
+     * @param buf
+     *            the buffer
      */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, attrId_.getIndex());
-        IO.writeS4(baos, data_.length);
-        for(byte element:data_) {
-            baos.write(element);
-        }
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, attrId_.getIndex());
+        IO.writeS4(buf, data_.length);
+        buf.put(data_);
     }
 
 }
\ No newline at end of file
@@ -1,10 +1,11 @@
 package yabel.attributes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 
@@ -52,9 +53,9 @@ public class LineNumberTable extends Attribute implements
          * Read a new line number value
          * 
          * @param in
-         *            stream to read from
+         *            big-endian buffer to read from
          */
-        LNV(InputStream in) throws IOException {
+        LNV(ByteBuffer in) throws IOException {
             startPC_ = IO.readU2(in);
             lineNum_ = IO.readU2(in);
         }
@@ -171,12 +172,12 @@ public class LineNumberTable extends Attribute implements
         /**
          * Write this LNV to a stream
          * 
-         * @param baos
-         *            stream to write to
+         * @param buf
+         *            the buffer
          */
-        void writeTo(ByteArrayOutputStream baos) {
-            IO.writeU2(baos, startPC_);
-            IO.writeU2(baos, lineNum_);
+        void writeTo(ByteBuffer buf) {
+            IO.writeU2(buf, startPC_);
+            IO.writeU2(buf, lineNum_);
         }
     }
 
@@ -218,14 +219,14 @@ public class LineNumberTable extends Attribute implements
 
 
     /**
-     * Read new LineNumberTable attribute from a stream
+     * Read new LineNumberTable attribute from a big-endian buffer
      * 
      * @param cp
      *            the constant pool
      * @param in
-     *            the stream
+     *            the buffer
      */
-    public LineNumberTable(ConstantPool cp, InputStream in) throws IOException {
+    public LineNumberTable(ConstantPool cp, ByteBuffer in) throws IOException {
         super(cp, ATTR_LINE_NUMBER_TABLE);
         int len = IO.readS4(in);
         int size = IO.readU2(in);
@@ -240,6 +241,22 @@ public class LineNumberTable extends Attribute implements
     }
 
 
+    /**
+     * Read new LineNumberTable attribute from a stream
+     * 
+     * @param cp
+     *            the constant pool
+     * @param in
+     *            the stream
+     * @deprecated the attribute is decoded from a buffer, use
+     *             {@link #LineNumberTable(ConstantPool, ByteBuffer)}
+     */
+    @Deprecated
+    public LineNumberTable(ConstantPool cp, InputStream in) throws IOException {
+        this(cp, read(in));
+    }
+
+
     /**
      * Add an entry to this line number table
      * 
@@ -257,6 +274,13 @@ public class LineNumberTable extends Attribute implements
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 8 + 4 * lnvs_.size();
+    }
+
+
     /**
      * Is this table empty?
      * 
@@ -306,6 +330,41 @@ public class LineNumberTable extends Attribute implements
     }
 
 
+    /**
+     * {@inheritDoc} An entry for code which has been removed moves to the code
+     * which followed it. If it is then followed by an entry for the same
+     * place, the later entry describes the code there and replaces it.
+     * Entries which move to the end of the code are removed.
+     */
+    @Override
+    public void relocate(int[] pcMap) {
+        List<LNV> old = new ArrayList<LNV>(lnvs_);
+        Collections.sort(old, new Comparator<LNV>() {
+            @Override
+            public int compare(LNV o1, LNV o2) {
+                return o1.startPC_ - o2.startPC_;
+            }
+        });
+
+        lnvs_.clear();
+        int end = pcMap[pcMap.length - 1];
+        LNV prev = null;
+        for(LNV lnv:old) {
+            LNV moved = new LNV(relocate(pcMap, lnv.startPC_), lnv.lineNum_);
+            if( moved.startPC_ == end ) continue;
+            if( (prev != null) && (prev.startPC_ != lnv.startPC_)
+                    && (lnvs_.get(lnvs_.size() - 1).startPC_ == moved.startPC_) ) {
+                // the previous entry was for code which has been removed
+                lnvs_.set(lnvs_.size() - 1, moved);
+            } else {
+                lnvs_.add(moved);
+            }
+            prev = lnv;
+        }
+        resetCounts();
+    }
+
+
     /** Reset the counts to ensure uniqueness */
     private void resetCounts() {
         if( lnvs_.isEmpty() ) return;
@@ -346,14 +405,15 @@ public class LineNumberTable extends Attribute implements
     /**
      * {@inheritDoc}
      * 
-     * @see yabel.attributes.Attribute#writeTo(java.io.ByteArrayOutputStream)
+     * @see yabel.attributes.Attribute#writeTo(java.nio.ByteBuffer)
      */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, attrId_.getIndex());
-        IO.writeS4(baos, 2 + 4 * lnvs_.size());
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, attrId_.getIndex());
+        IO.writeS4(buf, 2 + 4 * lnvs_.size());
+        IO.writeU2(buf, lnvs_.size());
         for(LNV lnv:lnvs_) {
-            lnv.writeTo(baos);
+            lnv.writeTo(buf);
         }
     }
 }
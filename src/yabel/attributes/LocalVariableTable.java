@@ -3,6 +3,7 @@ package yabel.attributes;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -10,6 +11,7 @@ import java.util.List;
 import yabel.ClassData;
 import yabel.code.Location;
 import yabel.code.NamedLocation;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantPool;
 import yabel.constants.ConstantUtf8;
 import yabel.io.IO;
@@ -61,14 +63,14 @@ public class LocalVariableTable extends Attribute implements
 
 
         /**
-         * Create a variable scope from byte code
+         * Create a variable scope from a big-endian buffer
          * 
          * @param cp
          *            the constant pool
          * @param in
-         *            the byte code
+         *            the buffer
          */
-        Scope(ConstantPool cp, InputStream in) throws IOException {
+        Scope(ConstantPool cp, ByteBuffer in) throws IOException {
             int startPC = IO.readU2(in);
             int length = IO.readU2(in);
             startPC_ = new Location(startPC);
@@ -152,6 +154,22 @@ public class LocalVariableTable extends Attribute implements
         }
 
 
+        /**
+         * Write this variable definition in class file format
+         * 
+         * @param buf
+         *            the buffer
+         */
+        public void writeTo(ByteBuffer buf) {
+            int start = startPC_.getLocationSafe();
+            IO.writeU2(buf, start);
+            IO.writeU2(buf, endPC_.getLocationSafe() - start);
+            IO.writeU2(buf, name_.getIndex());
+            IO.writeU2(buf, type_.getIndex());
+            IO.writeU2(buf, index_);
+        }
+
+
         /**
          * Write this variable definition in class file format
          * 
@@ -159,11 +177,9 @@ public class LocalVariableTable extends Attribute implements
          *            the output stream
          */
         public void writeTo(ByteArrayOutputStream baos) {
-            IO.writeU2(baos, startPC_.getLocationSafe());
-            IO.writeU2(baos, endPC_.getLocationSafe());
-            IO.writeU2(baos, name_.getIndex());
-            IO.writeU2(baos, type_.getIndex());
-            IO.writeU2(baos, index_);
+            byte[] data = new byte[10];
+            writeTo(ByteBuffer.wrap(data));
+            baos.write(data, 0, data.length);
         }
     }
 
@@ -220,14 +236,14 @@ public class LocalVariableTable extends Attribute implements
 
 
     /**
-     * Create LocalVariableTable from byte code
+     * Create LocalVariableTable from a big-endian buffer
      * 
      * @param cp
      *            this class's constant pool
      * @param in
-     *            the byte code
+     *            the buffer
      */
-    public LocalVariableTable(ConstantPool cp, InputStream in)
+    public LocalVariableTable(ConstantPool cp, ByteBuffer in)
             throws IOException {
         super(cp, ATTR_LOCAL_VARIABLE_TABLE);
         int len = IO.readS4(in);
@@ -242,6 +258,41 @@ public class LocalVariableTable extends Attribute implements
     }
 
 
+    /**
+     * Create LocalVariableTable from byte code
+     * 
+     * @param cp
+     *            this class's constant pool
+     * @param in
+     *            the byte code
+     * @deprecated the attribute is decoded from a buffer, use
+     *             {@link #LocalVariableTable(ConstantPool, ByteBuffer)}
+     */
+    @Deprecated
+    public LocalVariableTable(ConstantPool cp, InputStream in)
+            throws IOException {
+        this(cp, read(in));
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public void compact(Compactor compactor) {
+        super.compact(compactor);
+        for(Scope s:vars_) {
+            compactor.constant(s.name_);
+            compactor.constant(s.type_);
+        }
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 8 + 10 * vars_.size();
+    }
+
+
     /**
      * {@inheritDoc}
      * 
@@ -253,6 +304,29 @@ public class LocalVariableTable extends Attribute implements
     }
 
 
+    /**
+     * {@inheritDoc} Scopes which no longer cover any code, as the code they
+     * covered has been removed, are removed.
+     */
+    @Override
+    public void relocate(int[] pcMap) {
+        Iterator<Scope> iter = vars_.iterator();
+        while( iter.hasNext() ) {
+            Scope s = iter.next();
+            int start = s.startPC_.getLocationSafe();
+            int end = s.endPC_.getLocationSafe();
+            int newStart = relocate(pcMap, start);
+            int newEnd = relocate(pcMap, end);
+            if( (newStart == newEnd) && (start < end) ) {
+                iter.remove();
+                continue;
+            }
+            s.startPC_ = new Location(newStart);
+            s.endPC_ = new Location(newEnd);
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      * 
@@ -273,15 +347,15 @@ public class LocalVariableTable extends Attribute implements
     /**
      * {@inheritDoc}
      * 
-     * @see yabel.attributes.Attribute#writeTo(java.io.ByteArrayOutputStream)
+     * @see yabel.attributes.Attribute#writeTo(java.nio.ByteBuffer)
      */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, attrId_.getIndex());
-        IO.writeU2(baos, vars_.size() * 10 + 2);
-        IO.writeU2(baos, vars_.size());
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, attrId_.getIndex());
+        IO.writeS4(buf, vars_.size() * 10 + 2);
+        IO.writeU2(buf, vars_.size());
         for(Scope v:vars_) {
-            v.writeTo(baos);
+            v.writeTo(buf);
         }
     }
 }
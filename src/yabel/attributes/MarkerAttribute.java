@@ -1,8 +1,7 @@
 package yabel.attributes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import yabel.ClassData;
 import yabel.constants.ConstantPool;
@@ -51,10 +50,10 @@ public class MarkerAttribute extends Attribute {
      * @param idName
      *            the attribute's name
      * @param input
-     *            the input stream
+     *            the big-endian buffer
      * @throws IOException
      */
-    MarkerAttribute(ConstantPool cp, String idName, InputStream input)
+    MarkerAttribute(ConstantPool cp, String idName, ByteBuffer input)
             throws IOException {
         super(cp, idName);
         int len = IO.readS4(input);
@@ -64,6 +63,13 @@ public class MarkerAttribute extends Attribute {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 6;
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public ClassData toClassData() {
@@ -75,8 +81,8 @@ public class MarkerAttribute extends Attribute {
      * {@inheritDoc}
      */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, attrId_.getIndex());
-        IO.writeS4(baos, 0);
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, attrId_.getIndex());
+        IO.writeS4(buf, 0);
     }
 }
\ No newline at end of file
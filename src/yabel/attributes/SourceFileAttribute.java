@@ -1,10 +1,10 @@
 package yabel.attributes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import yabel.ClassData;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantPool;
 import yabel.constants.ConstantUtf8;
 import yabel.io.IO;
@@ -41,9 +41,9 @@ public class SourceFileAttribute extends Attribute {
      * @param cp
      *            Constant pool associated with the class
      * @param input
-     *            stream class is being read from
+     *            big-endian buffer class is being read from
      */
-    SourceFileAttribute(ConstantPool cp, InputStream input) throws IOException {
+    SourceFileAttribute(ConstantPool cp, ByteBuffer input) throws IOException {
         super(cp, Attribute.ATTR_SOURCE_FILE);
         int len = IO.readS4(input);
         if( len != 2 )
@@ -68,6 +68,21 @@ public class SourceFileAttribute extends Attribute {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    public void compact(Compactor compactor) {
+        super.compact(compactor);
+        compactor.constant(source_);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 8;
+    }
+
+
     /**
      * Get the source file
      * 
@@ -103,14 +118,14 @@ public class SourceFileAttribute extends Attribute {
     /**
      * Write this attribute to the output.
      * 
-     * @param baos
-     *            the output
+     * @param buf
+     *            the buffer
      */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        IO.writeU2(baos, attrId_.getIndex());
-        IO.writeS4(baos, 2);
-        IO.writeU2(baos, source_.getIndex());
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, attrId_.getIndex());
+        IO.writeS4(buf, 2);
+        IO.writeU2(buf, source_.getIndex());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,643 @@
+package yabel.attributes;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import yabel.ClassData;
+import yabel.constants.Compactor;
+import yabel.constants.ConstantClass;
+import yabel.constants.ConstantPool;
+import yabel.io.IO;
+
+/**
+ * The StackMapTable attribute, as required by the type-checking verifier for
+ * class files of version 50 and later. The table is created from computed
+ * frames and encoded immediately, so that any class names it uses are in the
+ * constant pool before the pool is sized.
+ * 
+ * @author Simon Greatrix
+ */
+public class StackMapTable extends Attribute {
+    /**
+     * Something which is shown each class reference in encoded frames, and
+     * which may replace it.
+     * 
+     * @author Simon Greatrix
+     */
+    private abstract static class ClassVisitor {
+        /**
+         * Visit a class reference.
+         * 
+         * @param index
+         *            the constant pool index of the class
+         * @return the index to replace it with
+         */
+        abstract int visit(int index);
+    }
+
+
+    /**
+     * The types of the local variables and stack at the start of an op-code.
+     * Long and double values occupy two slots, the second of which is TOP.
+     * 
+     * @author Simon Greatrix
+     */
+    public static class Frame {
+        /** The local variable types */
+        private final VerificationType[] locals_;
+
+        /** The location of the op-code */
+        private final int offset_;
+
+        /** The stack types */
+        private final VerificationType[] stack_;
+
+
+        /**
+         * New frame
+         * 
+         * @param offset
+         *            the location of the op-code
+         * @param locals
+         *            the local variable types
+         * @param stack
+         *            the stack types
+         */
+        public Frame(int offset, VerificationType[] locals,
+                VerificationType[] stack) {
+            offset_ = offset;
+            locals_ = locals.clone();
+            stack_ = stack.clone();
+        }
+
+
+        /**
+         * Get the local variable types
+         * 
+         * @return the types
+         */
+        public VerificationType[] getLocals() {
+            return locals_.clone();
+        }
+
+
+        /**
+         * Get the location of the op-code this frame applies to
+         * 
+         * @return the location
+         */
+        public int getOffset() {
+            return offset_;
+        }
+
+
+        /**
+         * Get the stack types
+         * 
+         * @return the types
+         */
+        public VerificationType[] getStack() {
+            return stack_.clone();
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return offset_ + ":Frame[ locals=" + Arrays.toString(locals_)
+                    + " stack=" + Arrays.toString(stack_) + " ]";
+        }
+    }
+
+
+    /**
+     * Pass the class references in encoded frames to a compactor, replacing
+     * them with the indexes it returns. If the frames cannot be decoded, every
+     * constant is kept.
+     * 
+     * @param compactor
+     *            the compactor
+     * @param data
+     *            the encoded frames
+     * @param pos
+     *            the position of the first frame
+     * @param count
+     *            the number of frames
+     */
+    static void compact(final Compactor compactor, byte[] data, int pos,
+            int count) {
+        ClassVisitor visitor = new ClassVisitor() {
+            @Override
+            int visit(int index) {
+                return compactor.index(index);
+            }
+        };
+        if( !visitClasses(visitor, data, pos, count) )
+            compactor.keepAll("StackMapTable could not be decoded");
+    }
+
+
+    /**
+     * Get the body of a StackMapTable from its class data. If the class data
+     * names the classes the frames refer to, the frames are pointed at those
+     * classes in the constant pool.
+     * 
+     * @param cp
+     *            the constant pool
+     * @param cd
+     *            the class data
+     * @return the body, starting with the number of frames
+     */
+    static byte[] fromClassData(ConstantPool cp, ClassData cd) {
+        byte[] data = IO.decode(cd.getSafe(String.class, "data"));
+        List<String> names = cd.getList(String.class, "classes");
+        if( (names != null) && (data.length >= 2) ) {
+            fromClassNames(cp, data, 2, IO.readU2(data, 0), names);
+        }
+        return data;
+    }
+
+
+    /**
+     * Point the class references in encoded frames at classes in a constant
+     * pool, adding the classes to the pool as needed. Each reference is a
+     * position in a list of class names, as created by
+     * <code>toClassNames</code>.
+     * 
+     * @param cp
+     *            the constant pool the frames will refer to
+     * @param data
+     *            the encoded frames
+     * @param pos
+     *            the position of the first frame
+     * @param count
+     *            the number of frames
+     * @param names
+     *            the class names
+     */
+    static void fromClassNames(final ConstantPool cp, byte[] data, int pos,
+            int count, final List<String> names) {
+        ClassVisitor visitor = new ClassVisitor() {
+            @Override
+            int visit(int index) {
+                if( index >= names.size() )
+                    throw new IllegalArgumentException("Frame refers to class "
+                            + index + " but only " + names.size()
+                            + " are named");
+                return new ConstantClass(cp, names.get(index)).getIndex();
+            }
+        };
+        if( !visitClasses(visitor, data, pos, count) )
+            throw new IllegalArgumentException("Frames cannot be decoded");
+    }
+
+
+    /**
+     * Store the body of a StackMapTable in its class data. Class references
+     * are only valid in this constant pool, so they are stored as positions in
+     * a list of class names which can be resolved in any pool.
+     * 
+     * @param cp
+     *            the constant pool the frames refer to
+     * @param cd
+     *            the class data
+     * @param data
+     *            the body, starting with the number of frames
+     */
+    static void toClassData(ConstantPool cp, ClassData cd, byte[] data) {
+        List<String> names = new ArrayList<String>();
+        byte[] frames = null;
+        if( data.length >= 2 ) {
+            frames = toClassNames(cp, data, 2, IO.readU2(data, 0), names);
+        }
+        if( frames == null ) {
+            // cannot be decoded, so can only be copied as it is
+            cd.put("data", IO.encode(data));
+            return;
+        }
+        cd.put("data", IO.encode(frames));
+        cd.putList(String.class, "classes", names);
+    }
+
+
+    /**
+     * Replace the class references in encoded frames with their positions in
+     * a list of class names, so that the frames no longer depend on the
+     * constant pool.
+     * 
+     * @param cp
+     *            the constant pool the frames refer to
+     * @param data
+     *            the encoded frames
+     * @param pos
+     *            the position of the first frame
+     * @param count
+     *            the number of frames
+     * @param names
+     *            the list to add the class names to
+     * @return a copy of the frames holding positions in the list, or null if
+     *         the frames cannot be decoded
+     */
+    static byte[] toClassNames(final ConstantPool cp, byte[] data, int pos,
+            int count, final List<String> names) {
+        ClassVisitor visitor = new ClassVisitor() {
+            @Override
+            int visit(int index) {
+                String name = cp.validate(index, ConstantClass.class)
+                        .getClassName().get();
+                int i = names.indexOf(name);
+                if( i == -1 ) {
+                    i = names.size();
+                    names.add(name);
+                }
+                return i;
+            }
+        };
+        byte[] copy = data.clone();
+        if( !visitClasses(visitor, copy, pos, count) ) return null;
+        return copy;
+    }
+
+
+    /**
+     * Show each class reference in encoded frames to a visitor, replacing it
+     * with the index the visitor returns.
+     * 
+     * @param visitor
+     *            the visitor
+     * @param data
+     *            the encoded frames
+     * @param pos
+     *            the position of the first frame
+     * @param count
+     *            the number of frames
+     * @return false if the frames could not be decoded
+     */
+    private static boolean visitClasses(ClassVisitor visitor, byte[] data,
+            int pos, int count) {
+        try {
+            for(int i = 0;i < count;i++) {
+                int type = data[pos++] & 0xff;
+                if( type < 64 ) {
+                    // same_frame
+                    continue;
+                }
+                if( type < 128 ) {
+                    // same_locals_1_stack_item
+                    pos = visitType(visitor, data, pos);
+                    if( pos == -1 ) return false;
+                    continue;
+                }
+                if( type < 247 ) {
+                    // reserved
+                    return false;
+                }
+
+                // all the other frame types have an offset delta
+                pos += 2;
+                if( type == 247 ) {
+                    // same_locals_1_stack_item_extended
+                    pos = visitType(visitor, data, pos);
+                } else if( (252 <= type) && (type <= 254) ) {
+                    // append_frame
+                    for(int j = 251;(j < type) && (pos != -1);j++) {
+                        pos = visitType(visitor, data, pos);
+                    }
+                } else if( type == 255 ) {
+                    // full_frame
+                    for(int k = 0;(k < 2) && (pos != -1);k++) {
+                        int n = IO.readU2(data, pos);
+                        pos += 2;
+                        for(int j = 0;(j < n) && (pos != -1);j++) {
+                            pos = visitType(visitor, data, pos);
+                        }
+                    }
+                }
+                if( pos == -1 ) return false;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Show the class reference in an encoded verification type, if it has
+     * one, to a visitor.
+     * 
+     * @param visitor
+     *            the visitor
+     * @param data
+     *            the encoded frames
+     * @param pos
+     *            the position of the type
+     * @return the position after the type, or -1 if the type is not known
+     */
+    private static int visitType(ClassVisitor visitor, byte[] data, int pos) {
+        int tag = data[pos++] & 0xff;
+        if( tag == VerificationType.ITEM_OBJECT ) {
+            int index = visitor.visit(IO.readU2(data, pos));
+            data[pos] = (byte) (index >> 8);
+            data[pos + 1] = (byte) index;
+            return pos + 2;
+        }
+        if( tag == VerificationType.ITEM_UNINITIALIZED ) return pos + 2;
+        if( tag > VerificationType.ITEM_UNINITIALIZED ) return -1;
+        return pos;
+    }
+
+
+    /**
+     * Re-encode frames for code which has been laid out again. The offset of
+     * each frame and of each uninitialized type is adjusted. As the offset
+     * deltas change, frames may switch between their short and extended
+     * forms.
+     * 
+     * @param pcMap
+     *            the new offset for each old instruction offset
+     * @param data
+     *            the encoded frames
+     * @param pos
+     *            the position of the first frame
+     * @param count
+     *            the number of frames
+     * @return the re-encoded frames
+     */
+    static byte[] relocate(int[] pcMap, byte[] data, int pos, int count) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length);
+        int prevOffset = -1;
+        int newPrevOffset = -1;
+        for(int i = 0;i < count;i++) {
+            int type = data[pos++] & 0xff;
+            int delta;
+            if( type < 128 ) {
+                delta = type & 63;
+            } else if( type < 247 ) {
+                throw new IllegalArgumentException("Reserved frame type "
+                        + type);
+            } else {
+                delta = IO.readU2(data, pos);
+                pos += 2;
+            }
+            int offset = prevOffset + delta + 1;
+            int newOffset = relocate(pcMap, offset);
+            int newDelta = newOffset - newPrevOffset - 1;
+            prevOffset = offset;
+            newPrevOffset = newOffset;
+
+            if( (type < 64) || (type == 251) ) {
+                // same_frame or same_frame_extended
+                if( newDelta < 64 ) {
+                    IO.writeU1(baos, newDelta);
+                } else {
+                    IO.writeU1(baos, 251);
+                    IO.writeU2(baos, newDelta);
+                }
+                continue;
+            }
+            if( (type < 128) || (type == 247) ) {
+                // same_locals_1_stack_item, possibly extended
+                if( newDelta < 64 ) {
+                    IO.writeU1(baos, 64 + newDelta);
+                } else {
+                    IO.writeU1(baos, 247);
+                    IO.writeU2(baos, newDelta);
+                }
+                pos = relocateType(pcMap, data, pos, baos);
+                continue;
+            }
+
+            IO.writeU1(baos, type);
+            IO.writeU2(baos, newDelta);
+            if( (252 <= type) && (type <= 254) ) {
+                // append_frame
+                for(int j = 251;j < type;j++) {
+                    pos = relocateType(pcMap, data, pos, baos);
+                }
+            } else if( type == 255 ) {
+                // full_frame
+                for(int k = 0;k < 2;k++) {
+                    int n = IO.readU2(data, pos);
+                    pos += 2;
+                    IO.writeU2(baos, n);
+                    for(int j = 0;j < n;j++) {
+                        pos = relocateType(pcMap, data, pos, baos);
+                    }
+                }
+            }
+        }
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Copy an encoded verification type, adjusting the offset of an
+     * uninitialized type.
+     * 
+     * @param pcMap
+     *            the new offset for each old instruction offset
+     * @param data
+     *            the encoded frames
+     * @param pos
+     *            the position of the type
+     * @param baos
+     *            the stream to copy the type to
+     * @return the position after the type
+     */
+    private static int relocateType(int[] pcMap, byte[] data, int pos,
+            ByteArrayOutputStream baos) {
+        int tag = data[pos++] & 0xff;
+        IO.writeU1(baos, tag);
+        if( tag == VerificationType.ITEM_OBJECT ) {
+            IO.writeU2(baos, IO.readU2(data, pos));
+            return pos + 2;
+        }
+        if( tag == VerificationType.ITEM_UNINITIALIZED ) {
+            IO.writeU2(baos, relocate(pcMap, IO.readU2(data, pos)));
+            return pos + 2;
+        }
+        return pos;
+    }
+
+
+    /**
+     * Convert slots to the form used in the table, where a long or double
+     * implies the following TOP. Trailing TOPs are removed from local
+     * variables as they are implied.
+     * 
+     * @param slots
+     *            the slot types
+     * @param isLocals
+     *            true if these are local variables
+     * @return the types as they appear in the table
+     */
+    private static List<VerificationType> compress(VerificationType[] slots,
+            boolean isLocals) {
+        int len = slots.length;
+        if( isLocals ) {
+            while( (len > 0) && (slots[len - 1] == VerificationType.TOP) ) {
+                len--;
+            }
+            // a trailing long or double keeps its second slot
+            if( (len < slots.length) && (len > 0) && slots[len - 1].isWide() ) {
+                len++;
+            }
+        }
+        List<VerificationType> list = new ArrayList<VerificationType>(len);
+        for(int i = 0;i < len;i++) {
+            VerificationType t = slots[i];
+            list.add(t);
+            if( t.isWide() ) i++;
+        }
+        return list;
+    }
+
+    /** The constant pool the frames refer to */
+    private final ConstantPool cp_;
+
+    /** The encoded frames */
+    private byte[] data_;
+
+    /** The number of frames */
+    private final int frameCount_;
+
+
+    /**
+     * Create a StackMapTable from frames.
+     * 
+     * @param cp
+     *            the constant pool
+     * @param initial
+     *            the local variable types on entry to the method
+     * @param frames
+     *            the frames, in order of location
+     */
+    public StackMapTable(ConstantPool cp, VerificationType[] initial,
+            List<Frame> frames) {
+        super(cp, ATTR_STACK_MAP_TABLE);
+        cp_ = cp;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        List<VerificationType> prevLocals = compress(initial, true);
+        int prevOffset = -1;
+        for(Frame f:frames) {
+            List<VerificationType> locals = compress(f.locals_, true);
+            List<VerificationType> stack = compress(f.stack_, false);
+            int delta = f.offset_ - prevOffset - 1;
+            if( delta < 0 )
+                throw new IllegalArgumentException("Frame at "
+                        + f.offset_ + " is out of order");
+            int diff = locals.size() - prevLocals.size();
+
+            if( stack.isEmpty() && locals.equals(prevLocals) ) {
+                // same_frame
+                if( delta < 64 ) {
+                    IO.writeU1(baos, delta);
+                } else {
+                    IO.writeU1(baos, 251);
+                    IO.writeU2(baos, delta);
+                }
+            } else if( (stack.size() == 1) && locals.equals(prevLocals) ) {
+                // same_locals_1_stack_item
+                if( delta < 64 ) {
+                    IO.writeU1(baos, 64 + delta);
+                } else {
+                    IO.writeU1(baos, 247);
+                    IO.writeU2(baos, delta);
+                }
+                stack.get(0).writeTo(cp, baos);
+            } else if( stack.isEmpty() && (-3 <= diff) && (diff < 0)
+                    && prevLocals.subList(0, locals.size()).equals(locals) ) {
+                // chop_frame
+                IO.writeU1(baos, 251 + diff);
+                IO.writeU2(baos, delta);
+            } else if( stack.isEmpty() && (0 < diff) && (diff <= 3)
+                    && locals.subList(0, prevLocals.size()).equals(prevLocals) ) {
+                // append_frame
+                IO.writeU1(baos, 251 + diff);
+                IO.writeU2(baos, delta);
+                for(int i = prevLocals.size();i < locals.size();i++) {
+                    locals.get(i).writeTo(cp, baos);
+                }
+            } else {
+                // full_frame
+                IO.writeU1(baos, 255);
+                IO.writeU2(baos, delta);
+                IO.writeU2(baos, locals.size());
+                for(VerificationType t:locals) {
+                    t.writeTo(cp, baos);
+                }
+                IO.writeU2(baos, stack.size());
+                for(VerificationType t:stack) {
+                    t.writeTo(cp, baos);
+                }
+            }
+
+            prevLocals = locals;
+            prevOffset = f.offset_;
+        }
+
+        data_ = baos.toByteArray();
+        frameCount_ = frames.size();
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public void compact(Compactor compactor) {
+        super.compact(compactor);
+        compact(compactor, data_, 0, frameCount_);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 8 + data_.length;
+    }
+
+
+    /**
+     * Get the number of frames in this table
+     * 
+     * @return the number of frames
+     */
+    public int getFrameCount() {
+        return frameCount_;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public void relocate(int[] pcMap) {
+        data_ = relocate(pcMap, data_, 0, frameCount_);
+    }
+
+
+    /**
+     * {@inheritDoc} The frames are stored in the same form as a generic
+     * StackMapTable, which is how they are read back.
+     */
+    @Override
+    public ClassData toClassData() {
+        ByteBuffer buf = ByteBuffer.allocate(2 + data_.length);
+        IO.writeU2(buf, frameCount_);
+        buf.put(data_);
+        ClassData cd = makeClassData();
+        toClassData(cp_, cd, buf.array());
+        return cd;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, attrId_.getIndex());
+        IO.writeS4(buf, 2 + data_.length);
+        IO.writeU2(buf, frameCount_);
+        buf.put(data_);
+    }
+}
@@ -0,0 +1,304 @@
+package yabel.attributes;
+
+import java.io.ByteArrayOutputStream;
+
+import yabel.constants.ConstantClass;
+import yabel.constants.ConstantPool;
+import yabel.io.IO;
+
+/**
+ * A verification type as used in a StackMapTable frame. Long and double values
+ * occupy two slots. In the frames handled by this library the second slot is
+ * always held as TOP.
+ * 
+ * @author Simon Greatrix
+ * 
+ */
+public final class VerificationType {
+    /** Tag for the top type */
+    public static final int ITEM_TOP = 0;
+
+    /** Tag for the integer type */
+    public static final int ITEM_INTEGER = 1;
+
+    /** Tag for the float type */
+    public static final int ITEM_FLOAT = 2;
+
+    /** Tag for the double type */
+    public static final int ITEM_DOUBLE = 3;
+
+    /** Tag for the long type */
+    public static final int ITEM_LONG = 4;
+
+    /** Tag for the null type */
+    public static final int ITEM_NULL = 5;
+
+    /** Tag for the uninitialized "this" in a constructor */
+    public static final int ITEM_UNINITIALIZED_THIS = 6;
+
+    /** Tag for an object type */
+    public static final int ITEM_OBJECT = 7;
+
+    /** Tag for an object created by NEW that is not yet initialized */
+    public static final int ITEM_UNINITIALIZED = 8;
+
+    /** The top type, which may hold anything */
+    public static final VerificationType TOP = new VerificationType(
+            ITEM_TOP, null, -1);
+
+    /** The integer type */
+    public static final VerificationType INTEGER = new VerificationType(
+            ITEM_INTEGER, null, -1);
+
+    /** The float type */
+    public static final VerificationType FLOAT = new VerificationType(
+            ITEM_FLOAT, null, -1);
+
+    /** The double type */
+    public static final VerificationType DOUBLE = new VerificationType(
+            ITEM_DOUBLE, null, -1);
+
+    /** The long type */
+    public static final VerificationType LONG = new VerificationType(
+            ITEM_LONG, null, -1);
+
+    /** The null type */
+    public static final VerificationType NULL = new VerificationType(
+            ITEM_NULL, null, -1);
+
+    /** The uninitialized "this" in a constructor */
+    public static final VerificationType UNINITIALIZED_THIS = new VerificationType(
+            ITEM_UNINITIALIZED_THIS, null, -1);
+
+    /** The Object type */
+    public static final VerificationType OBJECT = new VerificationType(
+            ITEM_OBJECT, "java/lang/Object", -1);
+
+
+    /**
+     * Get the type for a class.
+     * 
+     * @param className
+     *            the internal name of the class, or the descriptor of an array
+     * @return the type
+     */
+    public static VerificationType forClass(String className) {
+        if( className.equals("java/lang/Object") ) return OBJECT;
+        return new VerificationType(ITEM_OBJECT, className, -1);
+    }
+
+
+    /**
+     * Get the type for a field descriptor. Boolean, byte, char and short values
+     * are all integers to the verifier.
+     * 
+     * @param type
+     *            the field descriptor
+     * @return the type
+     */
+    public static VerificationType forDescriptor(String type) {
+        switch (type.charAt(0)) {
+        case 'B': // byte
+        case 'C': // char
+        case 'I': // int
+        case 'S': // short
+        case 'Z': // boolean
+            return INTEGER;
+        case 'D': // double
+            return DOUBLE;
+        case 'F': // float
+            return FLOAT;
+        case 'J': // long
+            return LONG;
+        case 'L': // object
+            return forClass(type.substring(1, type.length() - 1));
+        case '[': // array
+            return forClass(type);
+        default:
+            throw new IllegalArgumentException("Type " + type
+                    + " has no verification type");
+        }
+    }
+
+
+    /**
+     * Get the type of an object created at the specified location that has
+     * not yet been initialized.
+     * 
+     * @param offset
+     *            the location of the NEW op-code
+     * @return the type
+     */
+    public static VerificationType uninitialized(int offset) {
+        return new VerificationType(ITEM_UNINITIALIZED, null, offset);
+    }
+
+    /** The class name of an object type */
+    private final String className_;
+
+    /** The location of the NEW op-code for an uninitialized type */
+    private final int offset_;
+
+    /** This type's tag */
+    private final int tag_;
+
+
+    /**
+     * New verification type
+     * 
+     * @param tag
+     *            the tag
+     * @param className
+     *            the class name for an object
+     * @param offset
+     *            the location for an uninitialized object
+     */
+    private VerificationType(int tag, String className, int offset) {
+        tag_ = tag;
+        className_ = className;
+        offset_ = offset;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public boolean equals(Object obj) {
+        if( obj == this ) return true;
+        if( obj instanceof VerificationType ) {
+            VerificationType other = (VerificationType) obj;
+            if( tag_ != other.tag_ ) return false;
+            if( tag_ == ITEM_OBJECT )
+                return className_.equals(other.className_);
+            return offset_ == other.offset_;
+        }
+        return false;
+    }
+
+
+    /**
+     * Get the class name of an object type. Array classes are named by their
+     * descriptors.
+     * 
+     * @return the class name, or null if this is not an object type
+     */
+    public String getClassName() {
+        return className_;
+    }
+
+
+    /**
+     * Get the type of the elements of an array type.
+     * 
+     * @return the element type, or null if this is not an array type
+     */
+    public VerificationType getElementType() {
+        if( (tag_ != ITEM_OBJECT) || !className_.startsWith("[") )
+            return null;
+        return forDescriptor(className_.substring(1));
+    }
+
+
+    /**
+     * Get the location of the NEW op-code that created an uninitialized
+     * object.
+     * 
+     * @return the location, or -1 if this is not an uninitialized type
+     */
+    public int getOffset() {
+        return offset_;
+    }
+
+
+    /**
+     * Get this type's tag
+     * 
+     * @return the tag
+     */
+    public int getTag() {
+        return tag_;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int hashCode() {
+        if( tag_ == ITEM_OBJECT ) return className_.hashCode();
+        return (tag_ << 16) ^ offset_;
+    }
+
+
+    /**
+     * Is this an array type?
+     * 
+     * @return true if this is an array
+     */
+    public boolean isArray() {
+        return (tag_ == ITEM_OBJECT) && className_.startsWith("[");
+    }
+
+
+    /**
+     * Is this a reference type? Null, objects and uninitialized objects are
+     * all references.
+     * 
+     * @return true if this is a reference
+     */
+    public boolean isReference() {
+        return (tag_ == ITEM_NULL) || (tag_ >= ITEM_UNINITIALIZED_THIS);
+    }
+
+
+    /**
+     * Does this type occupy two slots?
+     * 
+     * @return true for long and double
+     */
+    public boolean isWide() {
+        return (tag_ == ITEM_LONG) || (tag_ == ITEM_DOUBLE);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        switch (tag_) {
+        case ITEM_TOP:
+            return "top";
+        case ITEM_INTEGER:
+            return "int";
+        case ITEM_FLOAT:
+            return "float";
+        case ITEM_DOUBLE:
+            return "double";
+        case ITEM_LONG:
+            return "long";
+        case ITEM_NULL:
+            return "null";
+        case ITEM_UNINITIALIZED_THIS:
+            return "uninitializedThis";
+        case ITEM_OBJECT:
+            return className_;
+        default:
+            return "uninitialized(" + offset_ + ")";
+        }
+    }
+
+
+    /**
+     * Write this type as it appears in a StackMapTable. Any class name is
+     * added to the constant pool.
+     * 
+     * @param cp
+     *            the constant pool
+     * @param baos
+     *            the stream
+     */
+    void writeTo(ConstantPool cp, ByteArrayOutputStream baos) {
+        IO.writeU1(baos, tag_);
+        if( tag_ == ITEM_OBJECT ) {
+            IO.writeU2(baos, new ConstantClass(cp, className_).getIndex());
+        } else if( tag_ == ITEM_UNINITIALIZED ) {
+            IO.writeU2(baos, offset_);
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package yabel.code;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -11,13 +12,18 @@ import yabel.ClassBuilder;
 import yabel.ClassData;
 import yabel.Method;
 import yabel.OpCodes;
+import yabel.YabelException;
 import yabel.attributes.*;
 import yabel.code.operand.*;
+import yabel.constants.Compactor;
 import yabel.constants.ConstantClass;
 import yabel.constants.ConstantPool;
 import yabel.io.IO;
 import yabel.parser.Decompiler;
+import yabel.parser.FrameAnalyzer;
+import yabel.parser.OpcodeInfo;
 import yabel.parser.ParserAnalyzer;
+import yabel2.Access;
 
 /**
  * A Code attribute for a method. No support for LineNumberTable nor
@@ -41,6 +47,7 @@ public class Code extends Attribute implements AttributeListListener {
         load(CodeClass.values());
         load(CodeConstant.values());
         load(CodeField.values());
+        load(CodeHashSwitch.values());
         load(CodeInterface.values());
         load(CodeLoadStore.values());
         load(CodeMethod.values());
@@ -52,6 +59,27 @@ public class Code extends Attribute implements AttributeListListener {
     }
 
 
+    /**
+     * Get a digest of a set of replacements. The entries are taken in the
+     * order of their keys, so the digest does not depend on the order they
+     * were put in.
+     * 
+     * @param cd
+     *            the replacements
+     * @return the digest
+     */
+    private static int digest(ClassData cd) {
+        Map<String, Object> sorted = new TreeMap<String, Object>(cd);
+        int h = 0;
+        for(Map.Entry<String, Object> e:sorted.entrySet()) {
+            Object v = e.getValue();
+            h = 31 * h + e.getKey().hashCode();
+            h = 31 * h + ((v != null) ? v.hashCode() : 0);
+        }
+        return h;
+    }
+
+
     /**
      * Escape a string according to the rules of Java string escaping.
      * 
@@ -173,6 +201,18 @@ public class Code extends Attribute implements AttributeListListener {
     }
 
 
+    /**
+     * Get the compiler for a named operand. Names are case insensitive.
+     * 
+     * @param name
+     *            the operand's name
+     * @return the compiler, or null if there is no such operand
+     */
+    static CodeOperand getOperand(String name) {
+        return OP_CODES.get(name.toUpperCase());
+    }
+
+
     private static final void load(CodeOperand[] ops) {
         for(CodeOperand op:ops) {
             OP_CODES.put(op.name().toUpperCase(), op);
@@ -311,17 +351,38 @@ public class Code extends Attribute implements AttributeListListener {
     }
 
     /** The attribute list for this Code block */
-    private final AttributeList attrList_;
+    private AttributeList attrList_;
+
+    /**
+     * Do the handlers and attributes already describe the finalized code? This
+     * is so for code rebuilt from its class data, until it is modified.
+     */
+    private boolean attrsFinal_ = false;
+
+    /** The finalized byte-code, once it has been generated */
+    private byte[] code_ = null;
 
     /** The constant pool associated with this */
     private final ConstantPool cp_;
 
+    /** The byte-code the current StackMapTable was computed for */
+    private byte[] framesFor_ = null;
+
+    /** Must frames be computed even if the class does not require them? */
+    private boolean framesRequired_ = false;
+
     /** The exception handlers */
     private List<Handler> handler_ = new ArrayList<Handler>();
 
     /** History of this code's creation */
     private List<ClassData> history_ = new ArrayList<ClassData>();
 
+    /** Can the history rebuild the code? */
+    private boolean historyComplete_ = true;
+
+    /** The history policy, or null to use the class's policy */
+    private HistoryPolicy historyPolicy_ = null;
+
     /** The local variables required */
     private int maxLocals_ = -1;
 
@@ -334,6 +395,15 @@ public class Code extends Attribute implements AttributeListListener {
     /** First pass compilation */
     private final CompilerOutput output_;
 
+    /** Has the attribute body been decoded? */
+    private boolean loaded_ = true;
+
+    /**
+     * The attribute body as read from the class file. This is retained whilst
+     * the code is unmodified so it can be written out verbatim.
+     */
+    private ByteBuffer source_ = null;
+
 
     /**
      * New Code attribute.
@@ -363,6 +433,13 @@ public class Code extends Attribute implements AttributeListListener {
         cp_ = cp;
         output_ = new CompilerOutput(cp_);
 
+        // the allocation mode must be set before the code is compiled
+        String allocation = cd.get(String.class, "variableAllocation");
+        if( allocation != null ) {
+            output_.setVariableAllocation(VariableAllocation
+                    .valueOf(allocation));
+        }
+
         List<ClassData> list = cd.getList(ClassData.class, "build");
         if( list != null ) {
             for(ClassData d:list) {
@@ -391,43 +468,60 @@ public class Code extends Attribute implements AttributeListListener {
         attrList_ = new AttributeList(cp, cd.getList(ClassData.class,
                 "attributes"));
         attrList_.setOwner(this);
+        attrsFinal_ = true;
     }
 
 
     /**
-     * New Code attribute.
+     * New Code attribute. If the constant pool's owner is loading lazily, this
+     * only retains a view of the attribute's body in the buffer and decoding
+     * is deferred until the code is first used.
      * 
      * @param cp
      *            the constant pool
      * @param input
-     *            the stream
+     *            the big-endian buffer
      */
-    public Code(ConstantPool cp, InputStream input) throws IOException {
+    public Code(ConstantPool cp, ByteBuffer input) throws IOException {
         super(cp, Attribute.ATTR_CODE);
         cp_ = cp;
         output_ = new CompilerOutput(cp_);
 
-        IO.readS4(input); // ignored
-        int maxStack = IO.readU2(input);
-        int maxLocals = IO.readU2(input);
-
-        // read code
         int len = IO.readS4(input);
-        byte[] code = new byte[len];
-        for(int i = 0;i < len;i++) {
-            code[i] = (byte) IO.readU1(input);
+        if( (len < 0) || (input.remaining() < len) ) throw new EOFException();
+        ByteBuffer body = input.slice();
+        body.limit(len);
+
+        ClassBuilder owner = cp.getOwner();
+        if( (owner != null) && owner.isLazy() ) {
+            source_ = body;
+            loaded_ = false;
+            input.position(input.position() + len);
+            return;
         }
-        setByteCode(maxStack, maxLocals, code);
 
-        // read exception handlers
-        len = IO.readU2(input);
-        for(int i = 0;i < len;i++) {
-            handler_.add(new Handler(cp_, input));
-        }
+        int start = input.position();
+        load(input);
 
-        // read attributes
-        attrList_ = new AttributeList(cp_, input);
-        attrList_.setOwner(this);
+        // only retain the body if the declared length was correct
+        if( (input.position() - start == len)
+                && ((owner == null) || owner.isVerbatim()) ) source_ = body;
+    }
+
+
+    /**
+     * New Code attribute.
+     * 
+     * @param cp
+     *            the constant pool
+     * @param input
+     *            the stream
+     * @deprecated the attribute is decoded from a buffer, use
+     *             {@link #Code(ConstantPool, ByteBuffer)}
+     */
+    @Deprecated
+    public Code(ConstantPool cp, InputStream input) throws IOException {
+        this(cp, read(input));
     }
 
 
@@ -438,6 +532,7 @@ public class Code extends Attribute implements AttributeListListener {
      *            class data representation of handler
      */
     public void addHandler(ClassData handler) {
+        modified();
         Handler h = new Handler(cp_, output_, handler);
         handler_.add(h);
     }
@@ -457,6 +552,7 @@ public class Code extends Attribute implements AttributeListListener {
      */
     public void addHandler(int startPC, int endPC, int handlerPC,
             String catchType) {
+        modified();
         ConstantClass cc = null;
         if( catchType != null ) cc = new ConstantClass(cp_, catchType);
 
@@ -479,6 +575,7 @@ public class Code extends Attribute implements AttributeListListener {
      */
     public void addHandler(String startLabel, String endLabel,
             String handlerLabel, String catchType) {
+        modified();
         int startPC = output_.getLabelLocation(startLabel);
         int endPC = output_.getLabelLocation(endLabel);
         int handlerPC = output_.getLabelLocation(handlerLabel);
@@ -490,6 +587,29 @@ public class Code extends Attribute implements AttributeListListener {
     }
 
 
+    /**
+     * Assign slots to the virtual registers used by finalized code. The code
+     * is laid out again with the shortest form of each local variable access,
+     * and variables which are still defined move to their assigned slots. As
+     * replaying the history would not reproduce the new layout, the history
+     * is discarded, as for <code>optimize()</code>.
+     * 
+     * @param code
+     *            the finalized byte-code
+     */
+    private void allocateLocals(byte[] code) {
+        InstructionList list = new InstructionList(cp_, code,
+                output_.getOpOffsets(), handler_);
+        int params = ((method_.getAccess() & Access.ACC_STATIC) != 0) ? 0 : 1;
+        params += method_.getDescriptor().getArgSlots();
+        Map<Integer, Integer> slots = new LocalAllocator(list, params)
+                .allocate();
+        if( slots.isEmpty() ) return;
+        if( rewrite(code, list) ) discardHistory();
+        output_.renameVariables(slots);
+    }
+
+
     /**
      * Append a specific byte sequence to the code being built.
      * 
@@ -497,9 +617,20 @@ public class Code extends Attribute implements AttributeListListener {
      *            the byte sequence to append
      */
     public void appendCode(byte[] code) {
-        ClassData cd = new ClassData();
-        cd.put("bytes", IO.encode(code));
-        history_.add(cd);
+        modified();
+        appendBytes(code);
+    }
+
+
+    /**
+     * Append a specific byte sequence to the code being built and record it in
+     * the history.
+     * 
+     * @param code
+     *            the byte sequence to append
+     */
+    private void appendBytes(byte[] code) {
+        recordBytes(code);
         if( method_ != null ) {
             output_.restart();
             output_.appendCode(code);
@@ -520,6 +651,37 @@ public class Code extends Attribute implements AttributeListListener {
     }
 
 
+    /**
+     * {@inheritDoc} The byte-code is finalized first and its constant
+     * references are renumbered in place. Once renumbered, the code can no
+     * longer be written out verbatim.
+     */
+    @Override
+    public void compact(Compactor compactor) {
+        super.compact(compactor);
+        getCodeInternal();
+        output_.compact(compactor);
+        for(Handler h:handler_) {
+            compactor.constant(h.catchType_);
+        }
+        attrList_.compact(compactor);
+        if( compactor.isMarking() ) return;
+        source_ = null;
+        narrowLoads();
+
+        // raw bytes in the history hold the old indexes
+        for(ClassData cd:history_) {
+            if( cd.containsKey("bytes") ) {
+                history_.clear();
+                cd = new ClassData();
+                cd.put("bytes", IO.encode(code_));
+                history_.add(cd);
+                break;
+            }
+        }
+    }
+
+
     /**
      * <p>
      * Compile some byte code instructions. The byte code is specified as white
@@ -693,11 +855,48 @@ public class Code extends Attribute implements AttributeListListener {
      * <td>Outputs a signed four byte value, either the specified integer in the
      * ClassData or the explicit value</td>
      * </tr>
+     * <tr>
+     * <td>$:type:name<br>
+     * $:index:type:name<br>
+     * $:name</td>
+     * <td>Defines a variable in the first free slot or the given slot, or
+     * undefines it. When variables are allocated by liveness, a variable
+     * without a slot is given a virtual register which is assigned a slot when
+     * the code is finalized.</td>
+     * </tr>
+     * <tr>
+     * <td>SWITCH:property<br>
+     * SWITCH:dflt:1:lbl1:2:lbl2<br>
+     * LOOKUPSWITCH:property<br>
+     * TABLESWITCH:property</td>
+     * <td>Generates a switch on an int. The property must be a SwitchData, or
+     * the default label is followed by value and label pairs. SWITCH chooses
+     * whichever of LOOKUPSWITCH and TABLESWITCH is smaller.</td>
+     * </tr>
+     * <tr>
+     * <td>CLUSTERSWITCH:property<br>
+     * CLUSTERSWITCH:property:density=0.5:cases=4</td>
+     * <td>As for SWITCH, but dense clusters of cases are compiled as
+     * TABLESWITCHes selected between by a tree of comparisons. The optional
+     * <code>density=</code> and <code>cases=</code> give the minimum density
+     * and number of cases for a table.</td>
+     * </tr>
+     * <tr>
+     * <td>HASHSWITCH:property<br>
+     * HASHSWITCH:string:dflt:abc:lbl1:xyz:lbl2<br>
+     * PERFECTHASHSWITCH:property<br>
+     * PERFECTHASHSWITCH:long:dflt:1:lbl1:2:lbl2</td>
+     * <td>Generates a switch on a String or long. The property must be a
+     * HashSwitchData, or the key type "string" or "long" and the default label
+     * are followed by key and label pairs. PERFECTHASHSWITCH always looks for a
+     * perfect hash of the keys.</td>
+     * </tr>
      * </table>
      * 
      * <p>
      * All the mnemonics and tokens are case insensitive, but the ClassData
-     * properties are case sensitive.
+     * properties are case sensitive. The same tokens may be used in a
+     * <code>CodeTemplate</code>.
      * </p>
      * 
      * @param raw
@@ -706,14 +905,25 @@ public class Code extends Attribute implements AttributeListListener {
      *            ClassData value substitutions
      */
     public void compile(String raw, ClassData cd) {
+        modified();
+        compileSource(raw, cd);
+    }
+
+
+    /**
+     * Compile some byte code instructions and record them in the history.
+     * 
+     * @param raw
+     *            byte code
+     * @param cd
+     *            ClassData value substitutions
+     */
+    private void compileSource(String raw, ClassData cd) {
         if( ClassBuilder.DEBUG ) {
             System.out.println("Compile input\n" + raw + "\n" + cd);
         }
 
-        ClassData hist = new ClassData();
-        hist.put("source", raw);
-        if( cd != null ) hist.put("replacements", new ClassData(cd));
-        history_.add(hist);
+        recordSource(raw, cd);
         if( method_ == null ) return;
 
         if( cd == null ) cd = new ClassData();
@@ -721,35 +931,126 @@ public class Code extends Attribute implements AttributeListListener {
         output_.restart();
         Iterator<List<String>> iter = new CodeTokenizer(raw, cd);
         while( iter.hasNext() ) {
-            List<String> toks = iter.next();
-
-            // If just one String, probably an op-code
-            int size = toks.size();
-            if( size == 2 ) {
-                String tu = toks.get(1).toUpperCase();
-                if( "WIDE".equals(tu) ) {
-                    output_.appendWide();
-                    continue;
-                }
+            compileTokens(output_, iter.next(), cd);
+        }
+    }
 
-                Byte c = OpCodes.OP_CODES.get(tu);
-                if( c == null ) {
-                    throw new YabelParseException("Unrecognized opcode:" + tu);
-                }
-                output_.appendU1(c.byteValue());
-                continue;
+
+    /**
+     * Compile a pre-tokenized template. This is equivalent to compiling the
+     * template's source, but the source is not tokenized again.
+     * 
+     * @param template
+     *            the template
+     * @param cd
+     *            ClassData value substitutions
+     */
+    public void compile(CodeTemplate template, ClassData cd) {
+        modified();
+        if( ClassBuilder.DEBUG ) {
+            System.out.println("Compile template\n" + template.getSource()
+                    + "\n" + cd);
+        }
+
+        recordSource(template.getSource(), cd);
+        if( method_ == null ) return;
+
+        if( cd == null ) cd = new ClassData();
+        output_.restart();
+        template.emitTo(output_, cd);
+    }
+
+
+    /**
+     * Compile a single expanded token. The first element of the token list is
+     * the raw token, and the remaining elements are its expanded parts.
+     * 
+     * @param output
+     *            the output to compile on to
+     * @param toks
+     *            the token
+     * @param cd
+     *            ClassData value substitutions
+     */
+    static void compileTokens(CompilerOutput output, List<String> toks,
+            ClassData cd) {
+        // If just one String, probably an op-code
+        if( toks.size() == 2 ) {
+            String tu = toks.get(1).toUpperCase();
+            if( "WIDE".equals(tu) ) {
+                output.appendWide();
+                return;
             }
 
-            // compile standard productions
-            String lbl = toks.get(1).toUpperCase();
-            CodeOperand op = OP_CODES.get(lbl);
-            if( op != null ) {
-                op.compile(output_, toks, cd);
-                continue;
+            Byte c = OpCodes.OP_CODES.get(tu);
+            if( c == null ) {
+                throw new YabelParseException("Unrecognized opcode:" + tu);
             }
+            output.appendU1(c.byteValue());
+            return;
+        }
+
+        // compile standard productions
+        CodeOperand op = getOperand(toks.get(1));
+        if( op != null ) {
+            op.compile(output, toks, cd);
+            return;
+        }
+
+        throw new YabelParseException("Unrecognized opcode:" + toks.get(0));
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        if( source_ != null ) return 6 + source_.remaining();
+        computeFrames(getCodeInternal());
+        byte[] code = getCodeInternal();
+        return 16 + code.length + handler_.size() * 8 + attrList_.computeSize();
+    }
+
+
+    /**
+     * Compute the StackMapTable for the code, if the class requires it. The
+     * table is computed once for each version of the byte-code. As the table
+     * may add class names to the constant pool, this must be done before the
+     * pool is sized. Code which cannot be reached has no frame of its own, so
+     * it is replaced as described for <code>fillUnreachable()</code>.
+     * 
+     * @param code
+     *            the finalized byte-code
+     */
+    private void computeFrames(byte[] code) {
+        if( (framesFor_ == code) || (method_ == null) ) return;
+        ClassBuilder owner = cp_.getOwner();
+        if( (owner == null) || !(owner.isComputeFrames() || framesRequired_) )
+            return;
+        if( (owner.getVersion() & 0xffff) < ClassBuilder.JAVA_VERSION_FRAMES )
+            return;
+
+        FrameAnalyzer analyzer = new FrameAnalyzer(maxLocals_, method_,
+                owner.getSuperclassResolver());
+        if( maxStack_ == -1 ) maxStack_ = analyzer.getMaxStack();
+        if( maxLocals_ == -1 ) maxLocals_ = analyzer.getMaxLocalVars();
+        List<int[]> unreachable = analyzer.getUnreachable();
+        if( !unreachable.isEmpty() ) {
+            fillUnreachable(code, unreachable);
+
+            // the ATHROW needs the exception on the stack
+            if( maxStack_ < 1 ) maxStack_ = 1;
+        }
 
-            throw new YabelParseException("Unrecognized opcode:" + toks.get(0));
+        // any existing table is out of date
+        while( attrList_.remove(cp_, Attribute.ATTR_STACK_MAP_TABLE) ) {
+            // keep removing
+        }
+        List<StackMapTable.Frame> frames = analyzer.getFrames();
+        if( !frames.isEmpty() ) {
+            attrList_.add(new StackMapTable(cp_, analyzer.getInitialLocals(),
+                    frames));
         }
+        framesFor_ = code_;
     }
 
 
@@ -759,6 +1060,7 @@ public class Code extends Attribute implements AttributeListListener {
      * @return representation of the decompiled code.
      */
     public ClassData decompile() {
+        materialize();
         byte[] code = getCodeInternal();
 
         Decompiler decomp = new Decompiler(cp_);
@@ -802,6 +1104,71 @@ public class Code extends Attribute implements AttributeListListener {
     }
 
 
+    /**
+     * Discard the history, as replaying it would not reproduce the current
+     * code. The code is then represented by its decompiled form, which refers
+     * to constants by value, as when the history policy does not keep a
+     * complete history.
+     */
+    private void discardHistory() {
+        history_.clear();
+        historyComplete_ = false;
+    }
+
+
+    /**
+     * Replace code which cannot be reached, as javac and ASM do. Each run of
+     * unreachable op-codes becomes NOPs followed by an ATHROW, which the
+     * verifier accepts with a frame holding just a Throwable on the stack.
+     * Exception handlers no longer protect the replaced code, as its frame
+     * has none of their local variables. As replaying the history would not
+     * reproduce the replaced code, the history is discarded.
+     * 
+     * @param code
+     *            the finalized byte-code
+     * @param unreachable
+     *            the start and end locations of each run of unreachable
+     *            op-codes
+     */
+    private void fillUnreachable(byte[] code, List<int[]> unreachable) {
+        byte[] filled = code.clone();
+        for(int[] run:unreachable) {
+            Arrays.fill(filled, run[0], run[1] - 1, OpCodes.NOP);
+            filled[run[1] - 1] = OpCodes.ATHROW;
+        }
+
+        // cut the runs out of the ranges the handlers protect
+        List<Handler> handlers = new ArrayList<Handler>();
+        for(Handler h:handler_) {
+            int start = h.getStartPC();
+            int end = h.getEndPC();
+            boolean isCut = false;
+            for(int[] run:unreachable) {
+                if( (run[1] <= start) || (end <= run[0]) ) continue;
+                isCut = true;
+                if( start < run[0] ) {
+                    handlers.add(new Handler(start, run[0], h.getHandlerPC(),
+                            h.catchType_));
+                }
+                start = run[1];
+            }
+            if( !isCut ) {
+                handlers.add(h);
+            } else if( start < end ) {
+                handlers.add(new Handler(start, end, h.getHandlerPC(),
+                        h.catchType_));
+            }
+        }
+        handler_.clear();
+        handler_.addAll(handlers);
+        discardHistory();
+
+        output_.reset();
+        output_.appendCode(filled);
+        code_ = output_.finalizeCode();
+    }
+
+
     /**
      * Get the byte-code associated with this method. Note that once this has
      * been called the byte-code is fixed unless a <code>reset()</code> is
@@ -825,8 +1192,21 @@ public class Code extends Attribute implements AttributeListListener {
      * @return the byte-code
      */
     private byte[] getCodeInternal() {
+        materialize();
+        if( code_ != null ) return code_;
         byte[] code = output_.finalizeCode();
 
+        // if branches were relaxed, the code after them has moved
+        int[] pcMap = output_.getRelocation();
+        if( (pcMap != null) && !attrsFinal_ ) {
+            for(Handler h:handler_) {
+                relocate(pcMap, h.startPC_);
+                relocate(pcMap, h.endPC_);
+                relocate(pcMap, h.handlerPC_);
+            }
+            attrList_.relocate(pcMap);
+        }
+
         Pattern p = Pattern.compile("LINE_(\\d+)(_.*)?");
         Collection<Label> lbls = output_.getAllLabels();
         List<Attribute> attrs = attrList_.getAll(cp_,
@@ -857,7 +1237,10 @@ public class Code extends Attribute implements AttributeListListener {
             }
         }
 
-        return code;
+        code_ = code;
+        if( (method_ != null) && (output_.getVariableAllocation()
+                == VariableAllocation.LIVENESS) ) allocateLocals(code);
+        return code_;
     }
 
 
@@ -867,36 +1250,434 @@ public class Code extends Attribute implements AttributeListListener {
      * @return the exception handlers
      */
     public Handler[] getHandlers() {
+        materialize();
         Handler[] h = new Handler[handler_.size()];
         return handler_.toArray(h);
     }
 
 
+    /**
+     * Get the history policy in effect for this code.
+     * 
+     * @return the policy
+     */
+    public HistoryPolicy getHistoryPolicy() {
+        if( historyPolicy_ != null ) return historyPolicy_;
+        ClassBuilder owner = cp_.getOwner();
+        if( owner == null ) return HistoryPolicy.FULL;
+        return owner.getHistoryPolicy();
+    }
+
+
     public int getMaxLocals() {
+        materialize();
         return maxLocals_;
     }
 
 
     public int getMaxStack() {
+        materialize();
         return maxStack_;
     }
 
 
+    /**
+     * Get how slots are chosen for variables defined without an explicit
+     * slot.
+     * 
+     * @return the allocation mode
+     */
+    public VariableAllocation getVariableAllocation() {
+        return output_.getVariableAllocation();
+    }
+
+
+    /**
+     * Decode the body of a Code attribute.
+     * 
+     * @param input
+     *            the big-endian buffer positioned after the attribute length
+     */
+    private void load(ByteBuffer input) throws IOException {
+        maxStack_ = IO.readU2(input);
+        maxLocals_ = IO.readU2(input);
+
+        // read code
+        int len = IO.readS4(input);
+        appendBytes(IO.readBytes(input, len));
+
+        // read exception handlers
+        len = IO.readU2(input);
+        for(int i = 0;i < len;i++) {
+            handler_.add(new Handler(cp_, input));
+        }
+
+        // read attributes
+        attrList_ = new AttributeList(cp_, input);
+        attrList_.setOwner(this);
+    }
+
+
+    /**
+     * If this Code is being loaded lazily and has not yet been decoded, decode
+     * it now.
+     */
+    private void materialize() {
+        if( loaded_ ) return;
+        loaded_ = true;
+        try {
+            load(source_.duplicate());
+        } catch (IOException ioe) {
+            source_ = null;
+            throw new YabelException("Code attribute is corrupt", ioe);
+        }
+    }
+
+
+    /**
+     * This code is about to be modified, so it must be decoded and can no
+     * longer be written out verbatim. Any StackMapTable is discarded and the
+     * frames will be computed again.
+     */
+    private void modified() {
+        materialize();
+        source_ = null;
+        code_ = null;
+        attrsFinal_ = false;
+
+        // a StackMapTable no longer describes the code
+        if( attrList_ == null ) return;
+        while( attrList_.remove(cp_, ATTR_STACK_MAP_TABLE) ) {
+            framesRequired_ = true;
+        }
+    }
+
+
+    /**
+     * Replace each LDC_W which loads a constant from the first 256 slots of
+     * the pool with the shorter LDC. The code is laid out again, so branch and
+     * switch offsets, exception handlers and the offsets held by this code's
+     * attributes are all adjusted. As the code only shrinks, every branch
+     * remains in range.
+     */
+    private void narrowLoads() {
+        byte[] code = code_;
+        int[] ops = output_.getOpOffsets();
+        int count = ops.length;
+
+        // work out where each instruction will be
+        int[] pcMap = new int[code.length + 1];
+        Arrays.fill(pcMap, -1);
+        boolean changed = false;
+        int pos = 0;
+        for(int i = 0;i < count;i++) {
+            int op = ops[i];
+            int len = ((i + 1 < count) ? ops[i + 1] : code.length) - op;
+            pcMap[op] = pos;
+            byte b = code[op];
+            if( (b == OpCodes.LDC_W) && (code[op + 1] == 0) ) {
+                len = 2;
+                changed = true;
+            } else if( (b == OpCodes.TABLESWITCH)
+                    || (b == OpCodes.LOOKUPSWITCH) ) {
+                // the padding depends on the position
+                len += (op % 4) - (pos % 4);
+            }
+            pos += len;
+        }
+        pcMap[code.length] = pos;
+        if( !changed ) return;
+
+        // write out the instructions in their new positions
+        byte[] out = new byte[pos];
+        for(int i = 0;i < count;i++) {
+            int op = ops[i];
+            int end = (i + 1 < count) ? ops[i + 1] : code.length;
+            int np = pcMap[op];
+            byte b = code[op];
+            if( (b == OpCodes.LDC_W) && (code[op + 1] == 0) ) {
+                out[np] = OpCodes.LDC;
+                out[np + 1] = code[op + 2];
+                continue;
+            }
+
+            switch (OpcodeInfo.get(b).getOperand()) {
+            case BRANCH:
+                out[np] = b;
+                IO.writeS2(out, np + 1, relocate(pcMap, op
+                        + IO.readS2(code, op + 1))
+                        - np);
+                break;
+            case BRANCH_WIDE:
+                out[np] = b;
+                IO.writeS4(out, np + 1, relocate(pcMap, op
+                        + IO.readS4(code, op + 1))
+                        - np);
+                break;
+            case SWITCH: {
+                out[np] = b;
+                int src = op + 4 - (op % 4);
+                int dst = np + 4 - (np % 4);
+                IO.writeS4(out, dst, relocate(pcMap, op + IO.readS4(code, src))
+                        - np);
+                int n;
+                if( b == OpCodes.TABLESWITCH ) {
+                    // low and high, then the offsets
+                    System.arraycopy(code, src + 4, out, dst + 4, 8);
+                    n = IO.readS4(code, src + 8) - IO.readS4(code, src + 4)
+                            + 1;
+                    src += 12;
+                    dst += 12;
+                } else {
+                    // number of pairs, then keys and offsets
+                    System.arraycopy(code, src + 4, out, dst + 4, 4);
+                    n = IO.readS4(code, src + 4);
+                    src += 8;
+                    dst += 8;
+                }
+                for(int j = 0;j < n;j++) {
+                    if( b == OpCodes.LOOKUPSWITCH ) {
+                        System.arraycopy(code, src, out, dst, 4);
+                        src += 4;
+                        dst += 4;
+                    }
+                    IO.writeS4(out, dst, relocate(pcMap, op
+                            + IO.readS4(code, src))
+                            - np);
+                    src += 4;
+                    dst += 4;
+                }
+                break;
+            }
+            default:
+                System.arraycopy(code, op, out, np, end - op);
+                break;
+            }
+        }
+
+        // the exception handlers and attributes refer to the old positions
+        for(int i = 0;i < handler_.size();i++) {
+            Handler h = handler_.get(i);
+            handler_.set(i, new Handler(relocate(pcMap, h.getStartPC()),
+                    relocate(pcMap, h.getEndPC()), relocate(pcMap,
+                            h.getHandlerPC()), h.catchType_));
+        }
+        attrList_.relocate(pcMap);
+
+        boolean framesCurrent = (framesFor_ == code);
+        output_.reset();
+        output_.appendCode(out);
+        code_ = output_.finalizeCode();
+        if( framesCurrent ) framesFor_ = code_;
+    }
+
+
+    /**
+     * Apply the standard peephole optimisations to this code.
+     * 
+     * @return true if the code was changed
+     * @see #optimize(Collection)
+     */
+    public boolean optimize() {
+        return optimize(EnumSet.allOf(Peephole.class));
+    }
+
+
+    /**
+     * Apply peephole optimisations to this code. The code is finalized and
+     * decoded, the rules are applied until none of them make a change, and
+     * the code is laid out again. Branches are widened where they need to be,
+     * and the exception handlers and the offsets held by this code's
+     * attributes are adjusted. Handlers which no longer protect any code are
+     * removed.
+     * <p>
+     * Labels defined before optimisation cannot be referred to by code
+     * compiled after it. The maximum stack depth and any StackMapTable are
+     * recalculated. As replaying the history would not repeat the
+     * optimisation, the history is discarded and <code>toClassData()</code>
+     * represents the optimised code by its decompiled form.
+     * 
+     * @param rules
+     *            the rules to apply
+     * @return true if the code was changed
+     */
+    public boolean optimize(Collection<? extends PeepholeRule> rules) {
+        // until the code has an owner, it has not been compiled
+        if( method_ == null ) return false;
+        byte[] code = getCodeInternal();
+        InstructionList list = new InstructionList(cp_, code,
+                output_.getOpOffsets(), handler_);
+        if( !list.apply(rules) || !rewrite(code, list) ) return false;
+        discardHistory();
+        return true;
+    }
+
+
+    /**
+     * Record a byte sequence in the history, as the history policy allows.
+     * 
+     * @param code
+     *            the byte sequence
+     */
+    private void recordBytes(byte[] code) {
+        switch (recordPolicy()) {
+        case FULL:
+            ClassData cd = new ClassData();
+            cd.put("bytes", IO.encode(code));
+            history_.add(cd);
+            break;
+        case COMPACT:
+            cd = new ClassData();
+            cd.put("length", Integer.valueOf(code.length));
+            history_.add(cd);
+            historyComplete_ = false;
+            break;
+        default:
+            historyComplete_ = false;
+            break;
+        }
+    }
+
+
+    /**
+     * Get the history policy to apply to the next record. Until the code has
+     * an owner, compilation is deferred, so everything is recorded in full.
+     * 
+     * @return the policy
+     */
+    private HistoryPolicy recordPolicy() {
+        return (method_ == null) ? HistoryPolicy.FULL : getHistoryPolicy();
+    }
+
+
+    /**
+     * Record a compilation in the history, as the history policy allows.
+     * 
+     * @param raw
+     *            the source code
+     * @param cd
+     *            the replacements, which may be null
+     */
+    private void recordSource(String raw, ClassData cd) {
+        ClassData hist = new ClassData();
+        switch (recordPolicy()) {
+        case FULL:
+            hist.put("source", raw);
+            if( cd != null ) hist.put("replacements", new ClassData(cd));
+            break;
+        case COMPACT:
+            // the source is interned, so repeated compilations share it, and
+            // the replacements are identified by their digest
+            hist.put("source", raw.intern());
+            if( cd != null )
+                hist.put("replacementsDigest", Integer.valueOf(digest(cd)));
+            historyComplete_ = false;
+            break;
+        default:
+            historyComplete_ = false;
+            return;
+        }
+        history_.add(hist);
+    }
+
+
+    /**
+     * Move an absolute location to match relocated code. Labels are moved by
+     * the compiler output.
+     * 
+     * @param pcMap
+     *            the new position of each old position
+     * @param loc
+     *            the location
+     */
+    private static void relocate(int[] pcMap, Location loc) {
+        if( loc instanceof NamedLocation ) return;
+        int pc = loc.getLocation();
+        if( (0 <= pc) && (pc < pcMap.length) ) loc.setLocation(pcMap[pc]);
+    }
+
+
+    /**
+     * Remove code which can never be executed. The blocks of code reachable
+     * from the start of the method and from the handlers of reachable code
+     * are found, and everything else is removed. Blocks which just jump
+     * onwards are bypassed, and exception handlers which no longer protect
+     * any code are removed. The code is laid out again as for
+     * <code>optimize()</code>, and the LineNumberTable and
+     * LocalVariableTable are adjusted to match. As for
+     * <code>optimize()</code>, the history is discarded and
+     * <code>toClassData()</code> represents the code by its decompiled form.
+     * 
+     * @return true if the code was changed
+     */
+    public boolean removeDeadCode() {
+        // until the code has an owner, it has not been compiled
+        if( method_ == null ) return false;
+        byte[] code = getCodeInternal();
+        InstructionList list = new InstructionList(cp_, code,
+                output_.getOpOffsets(), handler_);
+        ParserAnalyzer analyzer = new ParserAnalyzer(-1, maxLocals_, method_);
+        boolean changed = list.removeUnreachable(analyzer.getReachable());
+        changed |= list.apply(EnumSet.of(Peephole.GOTO_NEXT,
+                Peephole.JUMP_CHAIN, Peephole.UNREACHABLE));
+        if( !changed || !rewrite(code, list) ) return false;
+        discardHistory();
+        return true;
+    }
+
+
     /**
      * Reset this code block to completely empty. Note that any constants
      * associated with the previous code will not be removed from the constant
-     * pool.
+     * pool until the class is compacted.
      */
     public void reset() {
+        modified();
         output_.reset();
         handler_.clear();
         history_.clear();
+        historyComplete_ = true;
         maxLocals_ = -1;
         maxStack_ = -1;
         output_.reset();
     }
 
 
+    /**
+     * Replace this code with rewritten instructions.
+     * 
+     * @param code
+     *            the current byte-code
+     * @param list
+     *            the rewritten instructions
+     * @return true if the code was changed
+     */
+    private boolean rewrite(byte[] code, InstructionList list) {
+        // branches which were widened may have been narrowed and widened
+        // again, so check the code really has changed
+        CompilerOutput out = new CompilerOutput(cp_);
+        byte[] newCode = list.writeTo(out);
+        if( Arrays.equals(code, newCode) ) return false;
+
+        modified();
+        List<Handler> handlers = list.getHandlers(out);
+        handler_.clear();
+        handler_.addAll(handlers);
+        attrList_.relocate(list.getRelocation(out));
+        output_.reset();
+        output_.appendCode(newCode);
+        code_ = output_.finalizeCode();
+
+        // a value may be duplicated on the stack rather than loaded again
+        maxStack_ = -1;
+        while( attrList_.remove(cp_, ATTR_STACK_MAP_TABLE) ) {
+            framesRequired_ = true;
+        }
+        framesFor_ = null;
+        return true;
+    }
+
+
     /**
      * Set the byte code for this Code. Any existing code is discarded. Any
      * existing label markers are discarded. Exception handlers are retained.
@@ -910,20 +1691,37 @@ public class Code extends Attribute implements AttributeListListener {
      *            the byte code
      */
     public void setByteCode(int maxStack, int maxLocals, byte[] code) {
+        modified();
         output_.reset();
         maxStack_ = maxStack;
         maxLocals_ = maxLocals;
         history_.clear();
+        historyComplete_ = true;
         appendCode(code);
     }
 
 
+    /**
+     * Set the history policy for this code. The policy applies to code
+     * compiled or appended after it is set. If the policy is not set, the
+     * policy of the class is used.
+     * 
+     * @param policy
+     *            the policy, or null to use the class's policy
+     */
+    public void setHistoryPolicy(HistoryPolicy policy) {
+        historyPolicy_ = policy;
+    }
+
+
     public void setMaxLocals(int maxLocals) {
+        modified();
         maxLocals_ = maxLocals;
     }
 
 
     public void setMaxStack(int maxStack) {
+        modified();
         maxStack_ = maxStack;
     }
 
@@ -942,38 +1740,101 @@ public class Code extends Attribute implements AttributeListListener {
         assert method != null : "Code owner must not be null";
         output_.setClass(classBuilder);
         method_ = method;
+        code_ = null;
 
         // prior to the method being set nothing was compiled
         List<ClassData> pend = new ArrayList<ClassData>(history_);
         history_.clear();
         for(ClassData cd:pend) {
-            if( cd.containsKey("source") ) compile(
+            if( cd.containsKey("source") ) compileSource(
                     cd.get(String.class, "source"),
                     cd.get(ClassData.class, "replacements"));
             else
-                appendCode(IO.decode(cd.get(String.class, "bytes")));
+                appendBytes(IO.decode(cd.get(String.class, "bytes")));
+        }
+    }
+
+
+    /**
+     * Set how slots are chosen for variables defined without an explicit
+     * slot. The mode applies to variables defined after it is set. With
+     * <code>LIVENESS</code>, every variable is given a virtual register, and
+     * the registers are assigned real slots when the code is finalized.
+     * Variables which are never live at the same time share slots, so
+     * short-lived temporaries do not increase the number of local variables
+     * the method needs. Parameters, and slots accessed by number or defined
+     * with an explicit slot, are never reassigned.
+     * 
+     * @param allocation
+     *            the allocation mode
+     */
+    public void setVariableAllocation(VariableAllocation allocation) {
+        output_.setVariableAllocation(allocation);
+    }
+
+
+    /**
+     * Remove the LineNumberTable, LocalVariableTable and
+     * LocalVariableTypeTable attributes from this code. The code is finalized
+     * first, as that is when line numbers are recorded.
+     */
+    public void stripDebug() {
+        getCodeInternal();
+        boolean removed = false;
+        while( attrList_.remove(cp_, ATTR_LINE_NUMBER_TABLE)
+                || attrList_.remove(cp_, ATTR_LOCAL_VARIABLE_TABLE)
+                || attrList_.remove(cp_, ATTR_LOCAL_VARIABLE_TYPE_TABLE) ) {
+            removed = true;
         }
+        if( removed ) source_ = null;
     }
 
 
     /**
-     * Get the class data representation of this Code attribute.
+     * Get the class data representation of this Code attribute. If the
+     * history cannot rebuild the code, because the history policy has
+     * prevented a complete history being kept or because the code has been
+     * transformed since it was compiled, the code is represented by its
+     * decompiled form and any partial history is included for information
+     * only. Under the COMPACT history policy, each compilation in that history
+     * holds its source and a digest of its replacements, and each appended
+     * byte sequence holds its length. The decompiled form refers to constants
+     * by value rather than by their index in this class's constant pool, so it
+     * can be rebuilt in a new class. Finalizing the code fixes it until the next
+     * <code>reset()</code>. If the class requires frames, they are computed
+     * first, so the representation includes the StackMapTable for the code it
+     * describes.
      * 
      * @return the representation
      */
     @Override
     public ClassData toClassData() {
-        ClassData cd = makeClassData();
-        cd.putList(ClassData.class, "build", history_);
-        List<ClassData> handlers = new ArrayList<ClassData>(handler_.size());
-        for(Handler h:handler_) {
-            handlers.add(h.toClassData(cp_));
+        materialize();
+        if( method_ != null ) computeFrames(getCodeInternal());
+        ClassData cd;
+        if( historyComplete_ ) {
+            cd = makeClassData();
+            cd.putList(ClassData.class, "build", history_);
+            List<ClassData> handlers = new ArrayList<ClassData>(
+                    handler_.size());
+            for(Handler h:handler_) {
+                handlers.add(h.toClassData(cp_));
+            }
+            cd.putList(ClassData.class, "handlers", handlers);
+            cd.putList(ClassData.class, "attributes", attrList_.toClassData());
+        } else {
+            // the history cannot rebuild the code, so use the decompiled
+            // code, which has its own handlers and attributes
+            cd = decompile();
+            if( !history_.isEmpty() )
+                cd.putList(ClassData.class, "history", history_);
         }
-        cd.putList(ClassData.class, "handlers", handlers);
         if( maxLocals_ != -1 )
             cd.put("maxLocals", Integer.valueOf(maxLocals_));
         if( maxStack_ != -1 ) cd.put("maxStack", Integer.valueOf(maxStack_));
-        cd.putList(ClassData.class, "attributes", attrList_.toClassData());
+        VariableAllocation allocation = output_.getVariableAllocation();
+        if( allocation != VariableAllocation.FIRST_FREE )
+            cd.put("variableAllocation", allocation.name());
         return cd;
     }
 
@@ -981,21 +1842,25 @@ public class Code extends Attribute implements AttributeListListener {
     /**
      * Write this Code attribute
      * 
-     * @param baos
-     *            output stream
+     * @param buf
+     *            the buffer
      */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        byte code[] = getCodeInternal();
+    public void writeTo(ByteBuffer buf) {
+        if( source_ != null ) {
+            // unchanged since it was read, so copy it verbatim
+            IO.writeU2(buf, attrId_.getIndex());
+            IO.writeS4(buf, source_.remaining());
+            buf.put(source_.duplicate());
+            return;
+        }
 
-        // first get the attribute size
-        ByteArrayOutputStream attrs = new ByteArrayOutputStream();
-        attrList_.writeTo(attrs);
-        byte[] attrBytes = attrs.toByteArray();
+        computeFrames(getCodeInternal());
+        byte code[] = getCodeInternal();
 
-        IO.writeU2(baos, attrId_.getIndex());
-        IO.writeS4(baos, 10 + code.length + handler_.size() * 8
-                + attrBytes.length);
+        IO.writeU2(buf, attrId_.getIndex());
+        IO.writeS4(buf, 10 + code.length + handler_.size() * 8
+                + attrList_.computeSize());
 
         if( (maxStack_ == -1) || (maxLocals_ == -1) ) {
             ParserAnalyzer analyzer = new ParserAnalyzer(maxStack_, maxLocals_,
@@ -1003,21 +1868,21 @@ public class Code extends Attribute implements AttributeListListener {
             maxStack_ = analyzer.getMaxStack();
             maxLocals_ = analyzer.getMaxLocalVars();
         }
-        IO.writeU2(baos, maxStack_);
-        IO.writeU2(baos, maxLocals_);
+        IO.writeU2(buf, maxStack_);
+        IO.writeU2(buf, maxLocals_);
 
         // write out code
-        IO.writeS4(baos, code.length);
-        baos.write(code, 0, code.length);
+        IO.writeS4(buf, code.length);
+        buf.put(code);
 
         // write out exception handlers
         int s = handler_.size();
-        IO.writeU2(baos, s);
+        IO.writeU2(buf, s);
         for(int i = 0;i < s;i++) {
-            handler_.get(i).writeTo(baos);
+            handler_.get(i).writeTo(buf);
         }
 
         // write attributes
-        baos.write(attrBytes, 0, attrBytes.length);
+        attrList_.writeTo(buf);
     }
-}
+}
\ No newline at end of file
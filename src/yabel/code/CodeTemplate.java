@@ -0,0 +1,225 @@
+package yabel.code;
+
+import java.util.*;
+
+import yabel.ClassData;
+import yabel.OpCodes;
+
+/**
+ * A block of source code which has been tokenized in advance, so that it can
+ * be compiled many times with different replacements. Comments are removed
+ * and every token which does not contain a "{...}" replacement is split,
+ * un-escaped and resolved to its op-code or operand compiler once, when the
+ * template is created. Tokens which contain a replacement are holes which are
+ * expanded each time the template is compiled.
+ * <p>
+ * Templates are immutable and may be shared between threads.
+ *
+ * @author Simon Greatrix
+ */
+public final class CodeTemplate {
+
+    /** A single token of the template */
+    private static class Step {
+        /** The op-code for a simple instruction, or -1 */
+        private final int opCode_;
+
+        /** The compiler for an instruction with parameters */
+        private final CodeOperand operand_;
+
+        /** The raw token, for a hole */
+        private final String raw_;
+
+        /** The expanded token, or null for a hole */
+        private final List<String> toks_;
+
+
+        /**
+         * New step
+         *
+         * @param raw
+         *            the raw token, if this is a hole
+         * @param toks
+         *            the expanded token, if this is not a hole
+         * @param opCode
+         *            the op-code, or -1
+         * @param operand
+         *            the operand compiler, or null
+         */
+        Step(String raw, List<String> toks, int opCode, CodeOperand operand) {
+            raw_ = raw;
+            toks_ = toks;
+            opCode_ = opCode;
+            operand_ = operand;
+        }
+
+
+        /**
+         * Compile this step.
+         *
+         * @param output
+         *            the output to compile on to
+         * @param cd
+         *            the replacements
+         */
+        void emitTo(CompilerOutput output, ClassData cd) {
+            if( toks_ == null ) {
+                // a hole, so expand it now
+                Iterator<List<String>> iter = new CodeTokenizer(raw_, cd);
+                while( iter.hasNext() ) {
+                    List<String> toks = iter.next();
+                    if( (operand_ != null) && (toks.size() > 2) ) {
+                        operand_.compile(output, toks, cd);
+                    } else {
+                        Code.compileTokens(output, toks, cd);
+                    }
+                }
+            } else if( operand_ != null ) {
+                operand_.compile(output, toks_, cd);
+            } else if( opCode_ == -1 ) {
+                output.appendWide();
+            } else {
+                output.appendU1((byte) opCode_);
+            }
+        }
+    }
+
+
+    /**
+     * Create a template from source code. The source code is as accepted by
+     * <code>Code.compile</code>.
+     *
+     * @param src
+     *            the source code
+     * @return the template
+     * @throws YabelParseException
+     *             if a token without replacements is not a recognized
+     *             op-code
+     */
+    public static CodeTemplate compile(String src) {
+        return new CodeTemplate(src);
+    }
+
+
+    /**
+     * Resolve a token which contains no replacements.
+     *
+     * @param raw
+     *            the raw token
+     * @return the step that compiles it
+     */
+    private static Step literal(String raw) {
+        List<String> toks = new ArrayList<String>();
+        toks.add(raw);
+        String t = raw.replaceAll("\\s+:", ":");
+        int s = 0;
+        int e = t.indexOf(':');
+        while( e != -1 ) {
+            toks.add(Code.unescapeJava(t.substring(s, e)));
+            s = e + 1;
+            e = t.indexOf(':', s);
+        }
+        toks.add(Code.unescapeJava(t.substring(s)));
+        toks = Collections.unmodifiableList(toks);
+
+        // If just one String, probably an op-code
+        if( toks.size() == 2 ) {
+            String tu = toks.get(1).toUpperCase();
+            if( "WIDE".equals(tu) ) return new Step(null, toks, -1, null);
+            Byte c = OpCodes.OP_CODES.get(tu);
+            if( c == null ) {
+                throw new YabelParseException("Unrecognized opcode:" + tu);
+            }
+            return new Step(null, toks, c.byteValue() & 0xff, null);
+        }
+
+        CodeOperand op = Code.getOperand(toks.get(1));
+        if( op == null ) {
+            throw new YabelParseException("Unrecognized opcode:" + raw);
+        }
+        return new Step(null, toks, -1, op);
+    }
+
+    /** The source code */
+    private final String source_;
+
+    /** The steps of this template */
+    private final Step[] steps_;
+
+
+    /**
+     * Create a new template.
+     *
+     * @param src
+     *            the source code
+     */
+    private CodeTemplate(String src) {
+        source_ = src;
+        List<String> raw = CodeTokenizer.rawTokens(src);
+        steps_ = new Step[raw.size()];
+        for(int i = 0;i < steps_.length;i++) {
+            String r = raw.get(i);
+            int b = r.indexOf('{');
+            if( b == -1 ) {
+                steps_[i] = literal(r);
+                continue;
+            }
+
+            // A hole. If the operation itself is fixed, its compiler can
+            // be found now.
+            int c = r.indexOf(':');
+            CodeOperand op = null;
+            if( (c != -1) && (c < b) ) {
+                String name = Code.unescapeJava(r.substring(0, c).trim());
+                op = Code.getOperand(name);
+            }
+            steps_[i] = new Step(r, null, -1, op);
+        }
+    }
+
+
+    /**
+     * Compile this template into a Code block. This is equivalent to
+     * <code>code.compile(template, cd)</code>.
+     *
+     * @param code
+     *            the code to compile into
+     * @param cd
+     *            the replacements
+     */
+    public void emit(Code code, ClassData cd) {
+        code.compile(this, cd);
+    }
+
+
+    /**
+     * Compile every step of this template.
+     *
+     * @param output
+     *            the output to compile on to
+     * @param cd
+     *            the replacements
+     */
+    void emitTo(CompilerOutput output, ClassData cd) {
+        for(Step s:steps_) {
+            s.emitTo(output, cd);
+        }
+    }
+
+
+    /**
+     * Get the source code this template was created from.
+     *
+     * @return the source code
+     */
+    public String getSource() {
+        return source_;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return source_;
+    }
+}
@@ -1,8 +1,6 @@
 package yabel.code;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import yabel.ClassData;
 
@@ -12,26 +10,90 @@ import yabel.ClassData;
  * the parameters and op-code with colons. Text enclosed in braces (e.g. {like}
  * {this}) will be iteratively expanded. Whitespace and colons in parameters
  * must be represented using normal Java escapes (e.g. {like\40this}).
+ * <p>
+ * The source is scanned once, character by character. Block comments are
+ * recognised only if they start and end on the same line, and line comments
+ * only if they end with a new-line. Tokens which require no expansion are split
+ * directly from the source.
  * 
  * @author Simon Greatrix
  * 
  */
 public class CodeTokenizer implements Iterator<List<String>> {
 
-    /** Internal sub-tokenizer state */
-    private enum State {
-        /** No more tokens */
-        FINISHED,
+    /** A source string being scanned */
+    private static class Source {
+        /** The characters of the source */
+        final char[] chars_;
 
-        /** Has a next token */
-        HAS_NEXT,
+        /** The current scan position */
+        int pos_ = 0;
 
-        /** Sub-tokenizer may have more tokens */
-        RETRY
+
+        /**
+         * New source
+         * 
+         * @param src
+         *            the source text
+         */
+        Source(String src) {
+            chars_ = src.toCharArray();
+        }
+    }
+
+
+    /**
+     * Get the end of a block comment which starts at the given position.
+     * 
+     * @param c
+     *            the source
+     * @param pos
+     *            the position
+     * @return the position after the comment, or -1 if there is no block
+     *         comment at the position
+     */
+    private static int blockComment(char[] c, int pos) {
+        int len = c.length;
+        if( (pos + 1 >= len) || (c[pos] != '/') || (c[pos + 1] != '*') )
+            return -1;
+        for(int i = pos + 2;i + 1 < len;i++) {
+            char ch = c[i];
+            if( isLineEnd(ch) ) return -1;
+            if( (ch == '*') && (c[i + 1] == '/') ) return i + 2;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Get the end of a comment which starts at the given position.
+     * 
+     * @param c
+     *            the source
+     * @param pos
+     *            the position
+     * @return the position after the comment, or -1 if there is no comment at
+     *         the position
+     */
+    private static int comment(char[] c, int pos) {
+        if( c[pos] != '/' ) return -1;
+        int e = blockComment(c, pos);
+        if( e == -1 ) e = lineComment(c, pos);
+        return e;
     }
 
-    /** Match a token */
-    private static final Pattern TOKEN = Pattern.compile("\\s*(\\S+(\\s*:[^\\s:]*)*)");
+
+    /**
+     * Is the character a line terminator? A comment cannot span one.
+     * 
+     * @param ch
+     *            the character
+     * @return true if it is a line terminator
+     */
+    private static boolean isLineEnd(char ch) {
+        return (ch == '\n') || (ch == '\r') || (ch == '\u0085')
+                || (ch == '\u2028') || (ch == '\u2029');
+    }
 
 
     /**
@@ -50,17 +112,203 @@ public class CodeTokenizer implements Iterator<List<String>> {
         return v.substring(1, l);
     }
 
+
+    /**
+     * Is the character white space which separates tokens?
+     * 
+     * @param ch
+     *            the character
+     * @return true if it is white space
+     */
+    private static boolean isSpace(char ch) {
+        return (ch == ' ') || (ch == '\t') || (ch == '\n') || (ch == '\u000B')
+                || (ch == '\f') || (ch == '\r');
+    }
+
+
+    /**
+     * Get the end of a line comment which starts at the given position. The
+     * terminating new-line is not part of the comment.
+     * 
+     * @param c
+     *            the source
+     * @param pos
+     *            the position
+     * @return the position of the new-line, or -1 if there is no line comment
+     *         at the position
+     */
+    private static int lineComment(char[] c, int pos) {
+        int len = c.length;
+        if( (pos + 1 >= len) || (c[pos] != '/') || (c[pos + 1] != '/') )
+            return -1;
+
+        // a block comment starting on the second '/' takes precedence
+        if( blockComment(c, pos + 1) != -1 ) return -1;
+        for(int i = pos + 2;i < len;i++) {
+            char ch = c[i];
+            if( isLineEnd(ch) ) return (ch == '\n') ? i : -1;
+        }
+        return -1;
+    }
+
+
+    /**
+     * Get the text of a raw token. Any comments within the token are removed,
+     * leaving the white space that separated them.
+     * 
+     * @param c
+     *            the source
+     * @param start
+     *            the start of the token
+     * @param end
+     *            the end of the token
+     * @return the token's text
+     */
+    private static String rawText(char[] c, int start, int end) {
+        StringBuilder buf = null;
+        int copied = start;
+        int i = start;
+        while( i < end ) {
+            int e = comment(c, i);
+            if( e == -1 ) {
+                i++;
+                continue;
+            }
+            if( buf == null ) buf = new StringBuilder(end - start);
+            buf.append(c, copied, i - copied);
+            // a line comment's new-line is not part of it
+            if( c[i + 1] == '*' ) buf.append(' ');
+            i = e;
+            copied = e;
+        }
+        if( buf == null ) return new String(c, start, end - start);
+        buf.append(c, copied, end - copied);
+        return buf.toString();
+    }
+
+
+    /**
+     * Split source code into its raw tokens, without any expansion. Comments
+     * are removed and each token is returned exactly as the tokenizer would
+     * see it.
+     * 
+     * @param src
+     *            the source to split
+     * @return the raw tokens
+     */
+    static List<String> rawTokens(String src) {
+        char[] c = src.toCharArray();
+        List<String> list = new ArrayList<String>();
+        int pos = skipSpace(c, 0);
+        while( pos < c.length ) {
+            int end = tokenEnd(c, pos);
+            list.add(rawText(c, pos, end));
+            pos = skipSpace(c, end);
+        }
+        return list;
+    }
+
+
+    /**
+     * Remove the white space from a raw token. White space can only occur
+     * before the colons.
+     * 
+     * @param raw
+     *            the raw token
+     * @return the token without white space
+     */
+    private static String removeSpace(String raw) {
+        StringBuilder buf = new StringBuilder(raw.length());
+        for(int i = 0;i < raw.length();i++) {
+            char ch = raw.charAt(i);
+            if( !isSpace(ch) ) buf.append(ch);
+        }
+        return buf.toString();
+    }
+
+
+    /**
+     * Find the end of a run of characters which are neither white space nor
+     * the start of a comment.
+     * 
+     * @param c
+     *            the source
+     * @param pos
+     *            the start of the run
+     * @param colon
+     *            if true, the run also ends at a colon
+     * @return the end of the run
+     */
+    private static int run(char[] c, int pos, boolean colon) {
+        int len = c.length;
+        while( pos < len ) {
+            char ch = c[pos];
+            if( isSpace(ch) || (colon && (ch == ':'))
+                    || ((ch == '/') && (comment(c, pos) != -1)) ) break;
+            pos++;
+        }
+        return pos;
+    }
+
+
+    /**
+     * Skip white space and comments.
+     * 
+     * @param c
+     *            the source
+     * @param pos
+     *            the initial position
+     * @return the position of the next token, or the length of the source
+     */
+    private static int skipSpace(char[] c, int pos) {
+        int len = c.length;
+        while( pos < len ) {
+            if( isSpace(c[pos]) ) {
+                pos++;
+                continue;
+            }
+            int e = comment(c, pos);
+            if( e == -1 ) return pos;
+            pos = e;
+        }
+        return pos;
+    }
+
+
+    /**
+     * Find the end of a token. A token is a run of non-white space characters,
+     * followed by any number of colon delimited parameters. White space may
+     * precede each colon.
+     * 
+     * @param c
+     *            the source
+     * @param start
+     *            the start of the token
+     * @return the end of the token
+     */
+    private static int tokenEnd(char[] c, int start) {
+        int end = run(c, start, false);
+        while( true ) {
+            int p = skipSpace(c, end);
+            if( (p == c.length) || (c[p] != ':') ) return end;
+            end = run(c, p + 1, true);
+        }
+    }
+
+    /** Has the next token been found? */
+    private boolean ready_ = false;
+
     /** Replacements to substitute in */
     private final ClassData replacements_;
 
     /** Unmodifiable view on returned list */
     private final List<String> ret_;
 
-    /** Matcher for tokens */
-    private final Matcher matcher_;
-
-    /** Tokenizer for direct expansions */
-    private final LinkedList<CodeTokenizer> subTokenizers_ = new LinkedList<CodeTokenizer>();
+    /**
+     * The sources being scanned. The last is the innermost direct expansion,
+     * which must be exhausted before the scan of the one before it resumes.
+     */
+    private final List<Source> sources_ = new ArrayList<Source>();
 
     /** List to return */
     private final List<String> token_ = new ArrayList<String>();
@@ -75,10 +323,7 @@ public class CodeTokenizer implements Iterator<List<String>> {
      *            replacements to substitute in
      */
     CodeTokenizer(String src, ClassData replacements) {
-        // remove comments from source
-        String s = src.replaceAll("/\\*.*?\\*/", " ");
-        s = s.replaceAll("//.*?\n", "\n");
-        matcher_ = TOKEN.matcher(s);
+        sources_.add(new Source(src));
         replacements_ = replacements;
         ret_ = Collections.unmodifiableList(token_);
     }
@@ -175,77 +420,79 @@ public class CodeTokenizer implements Iterator<List<String>> {
     }
 
 
-    /** {@inheritDoc} */
-    @Override
-    public boolean hasNext() {
-        State b;
-        do {
-            b = hasNextInternal();
-        } while( b == State.RETRY );
-        return (b == State.HAS_NEXT) ? true : false;
-    }
-
-
-    private State hasNextInternal() {
-        while( !subTokenizers_.isEmpty() ) {
-            CodeTokenizer ct = subTokenizers_.getFirst();
-            boolean hn = ct.hasNext();
-            if( hn ) return State.HAS_NEXT;
-            subTokenizers_.removeFirst();
-        }
-
+    /**
+     * Find the next token.
+     * 
+     * @return true if a token was found
+     */
+    private boolean findNext() {
         token_.clear();
-
-        // Attempt to find the next token
-        if( !matcher_.find() ) return State.FINISHED;
-
-        // have raw token
-        String raw = matcher_.group(1);
-        token_.add(raw);
-        raw = raw.replaceAll("\\s+:", ":");
-
-        // special case - if we just have {...} then we have to tokenize
-        // the expansion
-        int s = raw.indexOf('{');
-        int e = (s != 0) ? -1 : raw.indexOf('}');
-        if( e == raw.length() - 1 ) {
-            String k = Code.unescapeJava(raw.substring(0, e));
-            List<String> rv = replacements_.getList(String.class, k);
-            if( rv != null ) {
-                for(String el:rv) {
-                    subTokenizers_.add(new CodeTokenizer(el, replacements_));
-                }
-
-                // call back to query sub-tokenizers so return retry
-                return State.RETRY;
+        while( !sources_.isEmpty() ) {
+            int last = sources_.size() - 1;
+            Source src = sources_.get(last);
+            char[] c = src.chars_;
+            int start = skipSpace(c, src.pos_);
+            if( start == c.length ) {
+                sources_.remove(last);
+                continue;
             }
+            int end = tokenEnd(c, start);
+            src.pos_ = end;
+
+            // if the token is just characters and colons, split it directly
+            if( splitPlain(c, start, end) ) return true;
+
+            // have raw token
+            String raw = rawText(c, start, end);
+            token_.add(raw);
+            raw = removeSpace(raw);
+
+            // special case - if we just have {...} then we have to tokenize
+            // the expansion
+            int e = raw.indexOf('}');
+            if( (raw.charAt(0) == '{') && (e == raw.length() - 1) ) {
+                String k = Code.unescapeJava(raw.substring(0, e));
+                List<String> rv = replacements_.getList(String.class, k);
+                if( rv != null ) {
+                    for(int i = rv.size() - 1;i >= 0;i--) {
+                        sources_.add(new Source(rv.get(i)));
+                    }
+                    token_.clear();
+                    continue;
+                }
 
-            String rs = replacements_.get(String.class, k);
-            if( rs != null ) {
-                subTokenizers_.add(new CodeTokenizer(rs, replacements_));
+                String rs = replacements_.get(String.class, k);
+                if( rs != null ) {
+                    sources_.add(new Source(rs));
+                    token_.clear();
+                    continue;
+                }
 
-                // call back to query sub-tokenizer so return retry
-                return State.RETRY;
+                // not expanded
             }
 
-            // not expanded
+            // expand the top level
+            expandTopLevel(raw);
+            return true;
         }
+        return false;
+    }
 
-        // expand the top level
-        expandTopLevel(raw);
 
-        return State.HAS_NEXT;
+    /** {@inheritDoc} */
+    @Override
+    public boolean hasNext() {
+        if( !ready_ ) ready_ = findNext();
+        return ready_;
     }
 
 
     /** {@inheritDoc} */
     @Override
     public List<String> next() {
-        if( subTokenizers_.isEmpty() ) {
-            if( ret_.isEmpty() ) throw new NoSuchElementException();
-            return ret_;
-        }
-        return subTokenizers_.getFirst().next();
+        if( !hasNext() ) throw new NoSuchElementException();
+        ready_ = false;
+        return ret_;
     }
 
 
@@ -276,4 +523,40 @@ public class CodeTokenizer implements Iterator<List<String>> {
         return work;
     }
 
-}
\ No newline at end of file
+
+    /**
+     * Split a token which contains no white space, comments nor braces
+     * directly from the source. Parameters which contain no escapes are taken
+     * straight from the source characters.
+     * 
+     * @param c
+     *            the source
+     * @param start
+     *            the start of the token
+     * @param end
+     *            the end of the token
+     * @return false if the token needs more processing
+     */
+    private boolean splitPlain(char[] c, int start, int end) {
+        for(int i = start;i < end;i++) {
+            char ch = c[i];
+            if( isSpace(ch) || (ch == '{')
+                    || ((ch == '/') && (comment(c, i) != -1)) ) return false;
+        }
+
+        token_.add(new String(c, start, end - start));
+        int s = start;
+        boolean escaped = false;
+        for(int i = start;i <= end;i++) {
+            if( (i == end) || (c[i] == ':') ) {
+                String t = new String(c, s, i - s);
+                token_.add(escaped ? Code.unescapeJava(t) : t);
+                s = i + 1;
+                escaped = false;
+            } else if( c[i] == '\\' ) {
+                escaped = true;
+            }
+        }
+        return true;
+    }
+}
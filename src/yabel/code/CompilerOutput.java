@@ -8,6 +8,8 @@ import yabel.OpCodes;
 import yabel.code.operand.CodeVar.Var;
 import yabel.constants.*;
 import yabel.io.IO;
+import yabel.parser.OpcodeInfo;
+import yabel.parser.Parser;
 
 /**
  * Intermediate output of the compilation system. Tracks labels and provides
@@ -16,6 +18,12 @@ import yabel.io.IO;
  * @author Simon Greatrix
  */
 public class CompilerOutput {
+    /**
+     * The first slot used for virtual registers when variables are allocated
+     * by liveness. Slots from here upwards are reserved for them.
+     */
+    public static final int FIRST_VIRTUAL_SLOT = 0x8000;
+
 
     /**
      * Get an integer.
@@ -34,6 +42,12 @@ public class CompilerOutput {
         }
     }
 
+    /** How slots are chosen for variables */
+    private VariableAllocation allocation_ = VariableAllocation.FIRST_FREE;
+
+    /** The compiler output (label jump locations unset) */
+    private byte[] buffer_ = new byte[64];
+
     /** The class this code is part of */
     private ClassBuilder class_ = null;
 
@@ -43,14 +57,14 @@ public class CompilerOutput {
     /** The constant pool for the code block being created */
     private ConstantPool cp_;
 
+    /** The number of label names created by this output */
+    private int labelCount_ = 0;
+
     /**
      * Labels in compiled code.
      */
     private Map<String, Label> labels_ = new HashMap<String, Label>();
 
-    /** Compiler output (label jump locations unset) */
-    private CompileStream output_ = new CompileStream();
-
     /** Flag indicating if the last op was a WIDE */
     private boolean lastWasWide_ = false;
 
@@ -60,6 +74,30 @@ public class CompilerOutput {
     /** Map of variable slot to variable declaration */
     private final Map<Integer, Var> index2var_ = new HashMap<Integer, Var>();
 
+    /** The slot of the next virtual register */
+    private int nextVirtual_ = FIRST_VIRTUAL_SLOT;
+
+    /** Number of instructions recorded in the offset table */
+    private int opCount_ = 0;
+
+    /**
+     * End of the last recorded instruction, or -1 if its length cannot yet be
+     * determined
+     */
+    private int opEnd_ = 0;
+
+    /** Start offset of each instruction in the output */
+    private int[] opOffsets_ = new int[16];
+
+    /**
+     * The new position of each byte of the output before the last
+     * finalization, or null if the last finalization did not move any code
+     */
+    private int[] relocation_ = null;
+
+    /** Number of bytes in the output */
+    private int size_ = 0;
+
 
     /**
      * Create compiler output
@@ -79,7 +117,9 @@ public class CompilerOutput {
      *            the code block to append
      */
     public void appendCode(byte[] code) {
-        output_.write(code);
+        ensureCapacity(code.length);
+        System.arraycopy(code, 0, buffer_, size_, code.length);
+        size_ += code.length;
         lastWasWide_ = false;
     }
 
@@ -91,7 +131,11 @@ public class CompilerOutput {
      *            the value to append
      */
     public void appendS4(int v) {
-        IO.writeS4(output_, v);
+        ensureCapacity(4);
+        buffer_[size_++] = (byte) (v >> 24);
+        buffer_[size_++] = (byte) (v >> 16);
+        buffer_[size_++] = (byte) (v >> 8);
+        buffer_[size_++] = (byte) v;
         lastWasWide_ = false;
     }
 
@@ -101,9 +145,10 @@ public class CompilerOutput {
      * switch op-code has just been written.
      */
     public void appendSwitchPadding() {
-        int s = 3 - ((output_.size() - 1) % 4);
+        int s = 3 - ((size_ - 1) % 4);
+        ensureCapacity(s);
         while( s > 0 ) {
-            output_.write(0);
+            buffer_[size_++] = 0;
             s--;
         }
         lastWasWide_ = false;
@@ -111,13 +156,18 @@ public class CompilerOutput {
 
 
     /**
-     * Append a single byte to the code currently being compiled.
+     * Append a single byte to the code currently being compiled. If the byte
+     * is where the next instruction starts, it is the op-code and the
+     * instruction is recorded in the offset table.
      * 
      * @param b
      *            the byte to append
      */
     public void appendU1(byte b) {
-        output_.write(b);
+        ensureCapacity(1);
+        if( opEnd_ != size_ ) scanOps();
+        if( opEnd_ == size_ ) recordOp(b);
+        buffer_[size_++] = b;
         lastWasWide_ = false;
     }
 
@@ -129,7 +179,9 @@ public class CompilerOutput {
      *            the value to append
      */
     public void appendU2(int i) {
-        IO.writeU2(output_, i);
+        ensureCapacity(2);
+        buffer_[size_++] = (byte) (i >> 8);
+        buffer_[size_++] = (byte) i;
         lastWasWide_ = false;
     }
 
@@ -139,11 +191,72 @@ public class CompilerOutput {
      * added by this method.
      */
     public void appendWide() {
-        if( !lastWasWide_ ) output_.write(OpCodes.WIDE);
+        if( !lastWasWide_ ) appendU1(OpCodes.WIDE);
         lastWasWide_ = true;
     }
 
 
+    /**
+     * Pass the constant pool references in the output to a compactor,
+     * replacing them with the indexes it returns. Instructions keep their
+     * lengths, so labels and offsets are unaffected.
+     * 
+     * @param compactor
+     *            the compactor
+     */
+    public void compact(Compactor compactor) {
+        scanOps();
+        for(int i = 0;i < opCount_;i++) {
+            int pos = opOffsets_[i];
+            switch (OpcodeInfo.get(buffer_[pos]).getOperand()) {
+            case CONSTANT:
+                if( pos + 1 < size_ ) {
+                    setU1(pos + 1, compactor.load(buffer_[pos + 1] & 0xff,
+                            false));
+                }
+                break;
+            case CONSTANT_WIDE:
+                // an LDC2_W's constant can never be loaded by an LDC
+                compactU2(compactor, pos, buffer_[pos] == OpCodes.LDC_W);
+                break;
+            case CLASS:
+            case FIELD:
+            case INTERFACE_METHOD:
+            case METHOD:
+            case MULTI_ARRAY:
+                compactU2(compactor, pos, false);
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+
+    /**
+     * Pass the two byte constant pool reference of an instruction to a
+     * compactor, replacing it with the index the compactor returns.
+     * 
+     * @param compactor
+     *            the compactor
+     * @param pos
+     *            the position of the instruction
+     * @param isLoad
+     *            true if the constant could also be loaded by an LDC
+     */
+    private void compactU2(Compactor compactor, int pos, boolean isLoad) {
+        if( pos + 2 >= size_ ) return;
+        int index = IO.readU2(buffer_, pos + 1);
+        if( isLoad ) {
+            index = compactor.load(index, true);
+        } else {
+            index = compactor.index(index);
+        }
+        setU1(pos + 1, index >> 8);
+        setU1(pos + 2, index);
+    }
+
+
     /**
      * Add a jump to a named location.
      * 
@@ -162,17 +275,36 @@ public class CompilerOutput {
         }
 
         LabelUse use = new LabelUse();
-        use.location_ = output_.size();
-        use.opLoc_ = output_.getLastOpPosition();
+        use.location_ = size_;
+        use.opLoc_ = getLastOpPosition();
         use.width_ = width;
         label.usage_.add(use);
+        ensureCapacity(width);
         for(int i = 0;i < width;i++) {
-            output_.write(0);
+            buffer_[size_++] = 0;
         }
         lastWasWide_ = false;
     }
 
 
+    /**
+     * Create a label name which is not yet used by the code. Such names are
+     * used by constructs which generate their own branches.
+     * 
+     * @param prefix
+     *            the start of the name
+     * @return the new name
+     */
+    public String createLabelName(String prefix) {
+        String name;
+        do {
+            name = prefix + "$" + labelCount_;
+            labelCount_++;
+        } while( labels_.containsKey(name) );
+        return name;
+    }
+
+
     private String currentVars() {
         Var[] vars = index2var_.values().toArray(new Var[0]);
         Arrays.sort(vars, new Comparator<Var>() {
@@ -223,6 +355,14 @@ public class CompilerOutput {
                         + " as it requires a double width slot and slot "
                         + (index + 1) + " is in use.\nCurrent variables are ["
                         + currentVars() + "]");
+        } else if( allocation_ == VariableAllocation.LIVENESS ) {
+            // a new virtual register, which is never reused
+            if( nextVirtual_ + isDouble > 0xffff )
+                throw new YabelBadVariableException("Cannot define variable \""
+                        + name + "\" of type " + type
+                        + " as all the virtual registers have been used.");
+            index1 = Integer.valueOf(nextVirtual_);
+            nextVirtual_ += 1 + isDouble;
         } else {
             // find available slot
             int i = 0;
@@ -249,16 +389,35 @@ public class CompilerOutput {
     }
 
 
+    /**
+     * Ensure the output buffer can accept the given number of additional bytes.
+     * 
+     * @param len
+     *            the number of bytes about to be appended
+     */
+    private void ensureCapacity(int len) {
+        int need = size_ + len;
+        if( need > buffer_.length ) {
+            buffer_ = Arrays.copyOf(buffer_, Math.max(need,
+                    buffer_.length * 2));
+        }
+    }
+
+
     /**
      * Finalize the code being created. Finalization involves populating all the
-     * jump destinations.
+     * jump destinations. If a branch cannot reach its destination with a 2
+     * byte offset, the code is relaxed first. Any code that moves as a result
+     * is reported by <code>getRelocation()</code>.
      * 
      * @return the finalized code.
      */
     public byte[] finalizeCode() {
         if( code_ != null ) return code_;
 
-        code_ = output_.toByteArray();
+        relocation_ = null;
+        if( isRelaxationNeeded() ) relax();
+        code_ = Arrays.copyOf(buffer_, size_);
 
         // set labels
         for(Label lbl:labels_.values()) {
@@ -306,8 +465,7 @@ public class CompilerOutput {
      * @return reference
      */
     public int getClassRef(String name) {
-        ConstantClass c = new ConstantClass(cp_, name);
-        return c.getIndex();
+        return cp_.getClassRef(name);
     }
 
 
@@ -427,9 +585,8 @@ public class CompilerOutput {
             throw new IllegalStateException("Field \"" + name
                     + "\" is not yet defined in this class");
 
-        ConstantFieldRef ref = new ConstantFieldRef(cp_, class_.getNameUtf8(),
-                f.getName(), f.getType());
-        return ref.getIndex();
+        return cp_.getFieldRef(class_.getName(), f.getName().get(),
+                f.getType().get());
     }
 
 
@@ -445,8 +602,7 @@ public class CompilerOutput {
      * @return reference
      */
     public int getFieldRef(String clss, String name, String type) {
-        ConstantFieldRef ref = new ConstantFieldRef(cp_, clss, name, type);
-        return ref.getIndex();
+        return cp_.getFieldRef(clss, name, type);
     }
 
 
@@ -462,9 +618,7 @@ public class CompilerOutput {
      * @return reference
      */
     public int getInterfaceMethodRef(String clss, String name, String type) {
-        ConstantInterfaceMethodRef c = new ConstantInterfaceMethodRef(cp_,
-                clss, name, type);
-        return c.getIndex();
+        return cp_.getInterfaceMethodRef(clss, name, type);
     }
 
 
@@ -506,6 +660,18 @@ public class CompilerOutput {
     }
 
 
+    /**
+     * Get the position of the instruction currently being written, or of the
+     * last instruction written if it is complete.
+     * 
+     * @return the position of the last op-code
+     */
+    private int getLastOpPosition() {
+        scanOps();
+        return (opCount_ == 0) ? 0 : opOffsets_[opCount_ - 1];
+    }
+
+
     /**
      * Get a method reference in this class.
      * 
@@ -516,9 +682,7 @@ public class CompilerOutput {
      * @return reference
      */
     public int getMethodRef(String name, String type) {
-        ConstantMethodRef ref = new ConstantMethodRef(cp_, class_.getName(),
-                name, type);
-        return ref.getIndex();
+        return cp_.getMethodRef(class_.getName(), name, type);
     }
 
 
@@ -534,8 +698,34 @@ public class CompilerOutput {
      * @return reference
      */
     public int getMethodRef(String clss, String name, String type) {
-        ConstantMethodRef ref = new ConstantMethodRef(cp_, clss, name, type);
-        return ref.getIndex();
+        return cp_.getMethodRef(clss, name, type);
+    }
+
+
+    /**
+     * Get the offset table of the instructions written so far. Each entry is
+     * the position in the byte code where an instruction starts, in ascending
+     * order. Raw bytes appended to the output are interpreted as instructions.
+     * 
+     * @return the instruction offsets
+     */
+    public int[] getOpOffsets() {
+        scanOps();
+        return Arrays.copyOf(opOffsets_, opCount_);
+    }
+
+
+    /**
+     * Get where the code moved to when it was last finalized. Code only moves
+     * if branches have to be relaxed to reach their destinations. Labels are
+     * moved with the code, but absolute locations and attributes which refer
+     * to the code must be relocated by the caller.
+     * 
+     * @return the new position of each old position, with an entry for the
+     *         end of the code, or null if the code did not move
+     */
+    public int[] getRelocation() {
+        return relocation_;
     }
 
 
@@ -555,12 +745,376 @@ public class CompilerOutput {
     }
 
 
+    /**
+     * Get how slots are chosen for variables defined without an explicit
+     * slot.
+     * 
+     * @return the allocation mode
+     */
+    public VariableAllocation getVariableAllocation() {
+        return allocation_;
+    }
+
+
+    /**
+     * Get the conditional branch which branches when the given one does not.
+     * 
+     * @param op
+     *            the conditional branch op-code
+     * @return the inverted op-code
+     */
+    static byte invert(byte op) {
+        if( op == OpCodes.IFNULL ) return OpCodes.IFNONNULL;
+        if( op == OpCodes.IFNONNULL ) return OpCodes.IFNULL;
+
+        // IFEQ to IF_ACMPNE are in pairs of opposites
+        int base = OpCodes.IFEQ & 0xff;
+        return (byte) ((((op & 0xff) - base) ^ 1) + base);
+    }
+
+
+    /**
+     * Is any placed label too far from a 2 byte jump to it?
+     * 
+     * @return true if the code must be relaxed
+     */
+    private boolean isRelaxationNeeded() {
+        for(Label lbl:labels_.values()) {
+            int loc = lbl.getLocation();
+            if( loc == -1 ) continue;
+            for(LabelUse use:lbl.usage_) {
+                if( use.width_ != 2 ) continue;
+                int jump = loc - use.opLoc_;
+                if( (jump < Short.MIN_VALUE) || (jump > Short.MAX_VALUE) )
+                    return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Get the new position of a position in the output during relaxation.
+     * Positions within a switch move with its padding.
+     * 
+     * @param ops
+     *            the instruction offsets
+     * @param count
+     *            the number of instructions
+     * @param newPos
+     *            the new offset of each instruction and of the end
+     * @param pos
+     *            the old position
+     * @return the new position
+     */
+    private int relaxedPosition(int[] ops, int count, int[] newPos, int pos) {
+        if( pos >= size_ ) return newPos[count] + pos - size_;
+        int i = Arrays.binarySearch(ops, 0, count, pos);
+        if( i >= 0 ) return newPos[i];
+        i = -(i + 2);
+        if( i < 0 ) return pos;
+        int op = ops[i];
+        int np = newPos[i];
+        byte b = buffer_[op];
+        if( (b == OpCodes.TABLESWITCH) || (b == OpCodes.LOOKUPSWITCH) ) {
+            np += (op % 4) - (np % 4);
+        }
+        return np + pos - op;
+    }
+
+
+    /**
+     * Lay out the output again so that every branch can reach its
+     * destination. A GOTO or JSR that cannot becomes a GOTO_W or JSR_W. A
+     * conditional branch that cannot is inverted to branch around a GOTO_W.
+     * As widening a branch moves the code after it, and changes the padding of
+     * any switch after it, the layout is repeated until no more branches need
+     * widening. Branches in code appended as raw bytes are adjusted and
+     * widened in the same way as those to labels.
+     */
+    private void relax() {
+        scanOps();
+        int count = opCount_;
+        int[] ops = opOffsets_;
+
+        // find where each label is used
+        Map<Integer, LabelUse> slotUse = new HashMap<Integer, LabelUse>();
+        Map<Integer, Label> slotLabel = new HashMap<Integer, Label>();
+        for(Label lbl:labels_.values()) {
+            for(LabelUse use:lbl.usage_) {
+                Integer slot = Integer.valueOf(use.location_);
+                slotUse.put(slot, use);
+                slotLabel.put(slot, lbl);
+            }
+        }
+
+        // find the destination of each 2 byte branch
+        int[] target = new int[count];
+        for(int i = 0;i < count;i++) {
+            int op = ops[i];
+            target[i] = -1;
+            if( op + 3 > size_ ) continue;
+            OpcodeInfo info = OpcodeInfo.get(buffer_[op]);
+            if( info.getOperand() != OpcodeInfo.Operand.BRANCH ) continue;
+            Integer slot = Integer.valueOf(op + 1);
+            LabelUse use = slotUse.get(slot);
+            int t;
+            if( use == null ) {
+                t = op + IO.readS2(buffer_, op + 1);
+            } else if( (use.width_ == 2) && (use.opLoc_ == op) ) {
+                t = slotLabel.get(slot).getLocation();
+            } else {
+                continue;
+            }
+            if( (0 <= t) && (t <= size_) ) target[i] = t;
+        }
+
+        // widen branches until the layout is stable
+        boolean[] wide = new boolean[count];
+        int[] newPos = new int[count + 1];
+        boolean changed = true;
+        while( changed ) {
+            int pos = 0;
+            for(int i = 0;i < count;i++) {
+                int op = ops[i];
+                newPos[i] = pos;
+                byte b = buffer_[op];
+                if( wide[i] ) {
+                    pos += ((b == OpCodes.GOTO) || (b == OpCodes.JSR)) ? 5 : 8;
+                    continue;
+                }
+                int len = ((i + 1 < count) ? ops[i + 1] : size_) - op;
+                if( (b == OpCodes.TABLESWITCH) || (b == OpCodes.LOOKUPSWITCH) ) {
+                    // the padding depends on the position
+                    len += (op % 4) - (pos % 4);
+                }
+                pos += len;
+            }
+            newPos[count] = pos;
+
+            changed = false;
+            for(int i = 0;i < count;i++) {
+                if( wide[i] || (target[i] == -1) ) continue;
+                int jump = relaxedPosition(ops, count, newPos, target[i])
+                        - newPos[i];
+                if( (jump < Short.MIN_VALUE) || (jump > Short.MAX_VALUE) ) {
+                    wide[i] = true;
+                    changed = true;
+                }
+            }
+        }
+
+        // write out the instructions in their new positions
+        int newSize = newPos[count];
+        byte[] out = new byte[Math.max(newSize, buffer_.length)];
+        for(int i = 0;i < count;i++) {
+            int op = ops[i];
+            int end = (i + 1 < count) ? ops[i + 1] : size_;
+            int np = newPos[i];
+            byte b = buffer_[op];
+            LabelUse use = slotUse.get(Integer.valueOf(op + 1));
+            if( wide[i] ) {
+                int at = np;
+                if( (b == OpCodes.GOTO) || (b == OpCodes.JSR) ) {
+                    out[at] = (b == OpCodes.GOTO) ? OpCodes.GOTO_W
+                            : OpCodes.JSR_W;
+                } else {
+                    // branch over the GOTO_W which follows
+                    out[np] = invert(b);
+                    IO.writeS2(out, np + 1, 8);
+                    at = np + 3;
+                    out[at] = OpCodes.GOTO_W;
+                }
+                if( use == null ) {
+                    IO.writeS4(out, at + 1, relaxedPosition(ops, count,
+                            newPos, target[i])
+                            - at);
+                }
+                continue;
+            }
+
+            switch (OpcodeInfo.get(b).getOperand()) {
+            case BRANCH:
+                if( (use == null) && (target[i] != -1) ) {
+                    out[np] = b;
+                    IO.writeS2(out, np + 1, relaxedPosition(ops, count,
+                            newPos, target[i])
+                            - np);
+                } else {
+                    System.arraycopy(buffer_, op, out, np, end - op);
+                }
+                break;
+            case BRANCH_WIDE:
+                out[np] = b;
+                if( (use == null) && (op + 5 <= size_) ) {
+                    IO.writeS4(out, np + 1, relaxedPosition(ops, count,
+                            newPos, op + IO.readS4(buffer_, op + 1))
+                            - np);
+                }
+                break;
+            case SWITCH: {
+                if( end - op < 16 ) {
+                    // incomplete, so leave it alone
+                    System.arraycopy(buffer_, op, out, np, end - op);
+                    break;
+                }
+                out[np] = b;
+                int src = op + 4 - (op % 4);
+                int dst = np + 4 - (np % 4);
+                relaxSwitchOffset(ops, count, newPos, slotUse, out, op, src,
+                        np, dst);
+                int n;
+                if( b == OpCodes.TABLESWITCH ) {
+                    // low and high, then the offsets
+                    System.arraycopy(buffer_, src + 4, out, dst + 4, 8);
+                    n = IO.readS4(buffer_, src + 8)
+                            - IO.readS4(buffer_, src + 4) + 1;
+                    src += 12;
+                    dst += 12;
+                } else {
+                    // number of pairs, then keys and offsets
+                    System.arraycopy(buffer_, src + 4, out, dst + 4, 4);
+                    n = IO.readS4(buffer_, src + 4);
+                    src += 8;
+                    dst += 8;
+                }
+                for(int j = 0;(j < n) && (src + 4 <= end);j++) {
+                    if( b == OpCodes.LOOKUPSWITCH ) {
+                        System.arraycopy(buffer_, src, out, dst, 4);
+                        src += 4;
+                        dst += 4;
+                    }
+                    relaxSwitchOffset(ops, count, newPos, slotUse, out, op,
+                            src, np, dst);
+                    src += 4;
+                    dst += 4;
+                }
+                break;
+            }
+            default:
+                System.arraycopy(buffer_, op, out, np, end - op);
+                break;
+            }
+        }
+
+        // move the labels and their uses
+        for(Label lbl:labels_.values()) {
+            int loc = lbl.getLocation();
+            if( loc != -1 ) {
+                lbl.setLocation(relaxedPosition(ops, count, newPos, loc));
+            }
+            for(LabelUse use:lbl.usage_) {
+                use.location_ = relaxedPosition(ops, count, newPos,
+                        use.location_);
+                use.opLoc_ = relaxedPosition(ops, count, newPos, use.opLoc_);
+            }
+        }
+        for(int i = 0;i < count;i++) {
+            if( !wide[i] ) continue;
+            LabelUse use = slotUse.get(Integer.valueOf(ops[i] + 1));
+            if( use == null ) continue;
+            byte b = buffer_[ops[i]];
+            int at = ((b == OpCodes.GOTO) || (b == OpCodes.JSR)) ? newPos[i]
+                    : newPos[i] + 3;
+            use.opLoc_ = at;
+            use.location_ = at + 1;
+            use.width_ = 4;
+        }
+
+        // record where everything moved to
+        relocation_ = new int[size_ + 1];
+        for(int i = 0;i <= size_;i++) {
+            relocation_[i] = relaxedPosition(ops, count, newPos, i);
+        }
+
+        buffer_ = out;
+        size_ = newSize;
+        opCount_ = 0;
+        opEnd_ = 0;
+    }
+
+
+    /**
+     * Write a switch offset during relaxation. Offsets to labels are left to
+     * be populated when the code is finalized.
+     * 
+     * @param ops
+     *            the instruction offsets
+     * @param count
+     *            the number of instructions
+     * @param newPos
+     *            the new offset of each instruction and of the end
+     * @param slotUse
+     *            the label uses by position
+     * @param out
+     *            the new output
+     * @param op
+     *            the old position of the switch
+     * @param src
+     *            the old position of the offset
+     * @param np
+     *            the new position of the switch
+     * @param dst
+     *            the new position of the offset
+     */
+    private void relaxSwitchOffset(int[] ops, int count, int[] newPos,
+            Map<Integer, LabelUse> slotUse, byte[] out, int op, int src,
+            int np, int dst) {
+        if( slotUse.containsKey(Integer.valueOf(src)) ) return;
+        IO.writeS4(out, dst, relaxedPosition(ops, count, newPos, op
+                + IO.readS4(buffer_, src))
+                - np);
+    }
+
+
+    /**
+     * Move variables which are still defined from their virtual registers to
+     * the slots assigned to them.
+     * 
+     * @param slots
+     *            the assigned slot for each virtual register
+     */
+    void renameVariables(Map<Integer, Integer> slots) {
+        for(Var v:name2var_.values()) {
+            Integer slot = slots.get(Integer.valueOf(v.getIndex()));
+            if( slot == null ) continue;
+            index2var_.remove(Integer.valueOf(v.getIndex()));
+            v.setIndex(slot.intValue());
+
+            // variables which were never live together may share a slot
+            if( !index2var_.containsKey(slot) ) index2var_.put(slot, v);
+        }
+    }
+
+
+    /**
+     * Record an instruction which starts at the end of the output. If the
+     * op-code has operands of a fixed length, the end of the instruction is
+     * known now. Otherwise it is found by <code>scanOps</code>.
+     * 
+     * @param op
+     *            the op-code
+     */
+    private void recordOp(byte op) {
+        if( opCount_ == opOffsets_.length ) {
+            opOffsets_ = Arrays.copyOf(opOffsets_, opCount_ * 2);
+        }
+        opOffsets_[opCount_] = size_;
+        opCount_++;
+        int len = OpcodeInfo.get(op).getOperandLength();
+        opEnd_ = (len >= 0) ? size_ + 1 + len : -1;
+    }
+
+
     /**
      * Reset the output to begin compilation from the beginning.
      */
     public void reset() {
         code_ = null;
-        output_.reset();
+        relocation_ = null;
+        size_ = 0;
+        opCount_ = 0;
+        opEnd_ = 0;
         labels_.clear();
     }
 
@@ -596,6 +1150,34 @@ public class CompilerOutput {
     }
 
 
+    /**
+     * Bring the instruction offset table up to date with the output. Op-codes
+     * appended one at a time are recorded as they are written, so this only
+     * examines raw code and finds the length of a WIDE or switch instruction
+     * once enough of it has been written. Only the bytes written since the
+     * last scan are examined.
+     */
+    private void scanOps() {
+        while( true ) {
+            if( opEnd_ == -1 ) {
+                int len = Parser.getOpLength(buffer_,
+                        opOffsets_[opCount_ - 1], size_);
+                if( len == -1 ) return;
+                opEnd_ = opOffsets_[opCount_ - 1] + len;
+            }
+
+            // has the next instruction started yet?
+            if( opEnd_ >= size_ ) return;
+            if( opCount_ == opOffsets_.length ) {
+                opOffsets_ = Arrays.copyOf(opOffsets_, opCount_ * 2);
+            }
+            opOffsets_[opCount_] = opEnd_;
+            opCount_++;
+            opEnd_ = -1;
+        }
+    }
+
+
     /**
      * Set the builder associated with this compilation
      * 
@@ -620,7 +1202,35 @@ public class CompilerOutput {
             throw new YabelLabelException("Label \"" + name
                     + "\" defined more than once");
         }
-        label.setLocation(output_.size());
+        label.setLocation(size_);
+    }
+
+
+    /**
+     * Replace a byte in the output, and in the finalized code if there is
+     * any.
+     * 
+     * @param pos
+     *            the position of the byte
+     * @param b
+     *            the new value
+     */
+    private void setU1(int pos, int b) {
+        buffer_[pos] = (byte) b;
+        if( code_ != null ) code_[pos] = (byte) b;
+    }
+
+
+    /**
+     * Set how slots are chosen for variables defined without an explicit
+     * slot. The mode applies to variables defined after it is set.
+     * 
+     * @param allocation
+     *            the allocation mode
+     */
+    public void setVariableAllocation(VariableAllocation allocation) {
+        allocation_ = (allocation == null) ? VariableAllocation.FIRST_FREE
+                : allocation;
     }
 
 
@@ -633,7 +1243,8 @@ public class CompilerOutput {
     public void undefineVariable(String name) {
         Var v = name2var_.remove(name);
         if( v != null ) {
-            index2var_.remove(Integer.valueOf(v.getIndex()));
+            Integer ind = Integer.valueOf(v.getIndex());
+            if( index2var_.get(ind) == v ) index2var_.remove(ind);
             return;
         }
 
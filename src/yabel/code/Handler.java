@@ -3,6 +3,7 @@ package yabel.code;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import yabel.ClassData;
 import yabel.constants.ConstantClass;
@@ -66,9 +67,9 @@ public class Handler {
      * @param cp
      *            the constant pool
      * @param input
-     *            stream
+     *            big-endian buffer
      */
-    public Handler(ConstantPool cp, InputStream input) throws IOException {
+    public Handler(ConstantPool cp, ByteBuffer input) throws IOException {
         startPC_ = new Location(IO.readU2(input));
         endPC_ = new Location(IO.readU2(input));
         handlerPC_ = new Location(IO.readU2(input));
@@ -82,6 +83,22 @@ public class Handler {
     }
 
 
+    /**
+     * New Handler
+     * 
+     * @param cp
+     *            the constant pool
+     * @param input
+     *            stream
+     * @deprecated the handler is decoded from a buffer, use
+     *             {@link #Handler(ConstantPool, ByteBuffer)}
+     */
+    @Deprecated
+    public Handler(ConstantPool cp, InputStream input) throws IOException {
+        this(cp, ByteBuffer.wrap(IO.readBytes(input, 8)));
+    }
+
+
     /**
      * New Handler
      * 
@@ -183,23 +200,36 @@ public class Handler {
 
 
     /**
-     * Write this handler to the output
+     * Write this handler to a big-endian buffer
      * 
-     * @param baos
-     *            output
+     * @param buf
+     *            the buffer
      */
-    public void writeTo(ByteArrayOutputStream baos) {
+    public void writeTo(ByteBuffer buf) {
         startPC_.requirePlaced();
         endPC_.requirePlaced();
         handlerPC_.requirePlaced();
-        IO.writeU2(baos, startPC_.getLocation());
-        IO.writeU2(baos, endPC_.getLocation());
-        IO.writeU2(baos, handlerPC_.getLocation());
+        IO.writeU2(buf, startPC_.getLocation());
+        IO.writeU2(buf, endPC_.getLocation());
+        IO.writeU2(buf, handlerPC_.getLocation());
         if( catchType_ == null ) {
-            IO.writeU2(baos, 0);
+            IO.writeU2(buf, 0);
         } else {
-            IO.writeU2(baos, catchType_.getIndex());
+            IO.writeU2(buf, catchType_.getIndex());
         }
     }
 
+
+    /**
+     * Write this handler to the output
+     * 
+     * @param baos
+     *            output
+     */
+    public void writeTo(ByteArrayOutputStream baos) {
+        byte[] data = new byte[8];
+        writeTo(ByteBuffer.wrap(data));
+        baos.write(data, 0, data.length);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,307 @@
+package yabel.code;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+import yabel.HashSwitchData;
+import yabel.OpCodes;
+import yabel.SwitchData;
+import yabel.code.operand.CodeLDC;
+import yabel.code.operand.CodeSwitch;
+
+/**
+ * A plan for compiling a switch on String or long values. The hash code of
+ * the value selects a bucket, and the value is compared with each key in the
+ * bucket in turn, as a switch on strings is compiled. The hash code of a long
+ * is that of <code>java.lang.Long</code>.
+ * <p>
+ * Without a perfect hash, the buckets are the distinct hash codes of the keys
+ * and are selected by a LOOKUPSWITCH or TABLESWITCH, whichever is smaller.
+ * With a perfect hash, the hash code is multiplied by a constant and its top
+ * bits are kept, and the constant is chosen so that no two keys with
+ * different hash codes share a bucket. The buckets are then selected by a
+ * TABLESWITCH, and keys only have to be compared in turn if their hash codes
+ * are equal. If no suitable constant is found for a small enough table, the
+ * plan falls back to the ordinary hash.
+ * <p>
+ * The value stays on the stack while it is compared, so no local variable is
+ * needed.
+ *
+ * @author Simon Greatrix
+ */
+public final class HashSwitch {
+    /** The number of multipliers tried for each size of perfect hash table */
+    private static final int MAX_ATTEMPTS = 1000;
+
+    /**
+     * The most extra bits a perfect hash table may have beyond those needed to
+     * give each hash code a bucket
+     */
+    private static final int MAX_EXTRA_BITS = 3;
+
+    /** The first multiplier tried, which is odd */
+    private static final int SEED = 0x9e3779b9;
+
+
+    /**
+     * Push a long on to the stack.
+     *
+     * @param code
+     *            the output
+     * @param value
+     *            the value
+     */
+    private static void pushLong(CompilerOutput code, long value) {
+        if( value == 0 ) {
+            code.appendU1(OpCodes.LCONST_0);
+        } else if( value == 1 ) {
+            code.appendU1(OpCodes.LCONST_1);
+        } else {
+            CodeLDC.compile(code, code.getConstantRef(Long.valueOf(value)));
+        }
+    }
+
+    /**
+     * The number of bits in the bucket index of a perfect hash, or 0 if the
+     * hash codes are used directly
+     */
+    private int bits_ = 0;
+
+    /** The keys in each bucket, in the order they were added */
+    private final SortedMap<Integer, List<Object>> buckets_ = new TreeMap<Integer, List<Object>>();
+
+    /** The switch being compiled */
+    private final HashSwitchData data_;
+
+    /** The multiplier of a perfect hash */
+    private int multiplier_ = 0;
+
+
+    /**
+     * Plan a switch. A perfect hash is searched for if the switch asks for
+     * one.
+     *
+     * @param data
+     *            the switch
+     */
+    public HashSwitch(HashSwitchData data) {
+        data_ = data;
+        Set<Integer> codes = new TreeSet<Integer>();
+        for(Entry<Object, String> e:data) {
+            codes.add(Integer.valueOf(e.getKey().hashCode()));
+        }
+        if( data.isPerfectHash() && !codes.isEmpty() ) findPerfectHash(codes);
+
+        for(Entry<Object, String> e:data) {
+            Integer bucket = Integer.valueOf(getBucket(e.getKey().hashCode()));
+            List<Object> keys = buckets_.get(bucket);
+            if( keys == null ) {
+                keys = new ArrayList<Object>(1);
+                buckets_.put(bucket, keys);
+            }
+            keys.add(e.getKey());
+        }
+    }
+
+
+    /**
+     * Compile the switch. The value to switch on must be on the top of the
+     * stack.
+     *
+     * @param code
+     *            the output
+     */
+    public void compile(CompilerOutput code) {
+        boolean isLong = data_.getKeyType() == Long.class;
+        byte dup = isLong ? OpCodes.DUP2 : OpCodes.DUP;
+        byte pop = isLong ? OpCodes.POP2 : OpCodes.POP;
+        if( buckets_.isEmpty() ) {
+            code.appendU1(pop);
+            code.appendU1(OpCodes.GOTO);
+            code.compileJump(data_.getDefault(), 2);
+            return;
+        }
+
+        // calculate the hash code, keeping the value
+        code.appendU1(dup);
+        if( isLong ) {
+            // (int) (v ^ (v >>> 32))
+            code.appendU1(OpCodes.DUP2);
+            code.appendU1(OpCodes.BIPUSH);
+            code.appendU1((byte) 32);
+            code.appendU1(OpCodes.LUSHR);
+            code.appendU1(OpCodes.LXOR);
+            code.appendU1(OpCodes.L2I);
+        } else {
+            code.appendU1(OpCodes.INVOKEVIRTUAL);
+            code.appendU2(code.getMethodRef("java/lang/String", "hashCode",
+                    "()I"));
+        }
+        if( bits_ != 0 ) {
+            SwitchPlan.push(code, multiplier_);
+            code.appendU1(OpCodes.IMUL);
+            SwitchPlan.push(code, 32 - bits_);
+            code.appendU1(OpCodes.IUSHR);
+        }
+
+        // select the bucket, with the value still on the stack
+        String miss = code.createLabelName("hashMiss");
+        SwitchData select = new SwitchData(miss);
+        Map<Integer, String> bucketLabels = new HashMap<Integer, String>();
+        for(Integer bucket:buckets_.keySet()) {
+            String lbl = code.createLabelName("hashBucket");
+            bucketLabels.put(bucket, lbl);
+            select.add(bucket, lbl);
+        }
+        if( bits_ != 0 ) {
+            CodeSwitch.TABLESWITCH.compile(code, select);
+        } else {
+            CodeSwitch.SWITCH.compile(code, select);
+        }
+
+        // compare the value with each key in a bucket, and branch to a
+        // block which discards it before going to the case's label
+        Map<String, String> discards = new LinkedHashMap<String, String>();
+        for(Entry<Integer, List<Object>> e:buckets_.entrySet()) {
+            code.setLabel(bucketLabels.get(e.getKey()));
+            for(Object key:e.getValue()) {
+                String target = data_.get(key);
+                String discard = discards.get(target);
+                if( discard == null ) {
+                    discard = code.createLabelName("hashMatch");
+                    discards.put(target, discard);
+                }
+
+                code.appendU1(dup);
+                if( isLong ) {
+                    pushLong(code, ((Long) key).longValue());
+                    code.appendU1(OpCodes.LCMP);
+                    code.appendU1(OpCodes.IFEQ);
+                } else {
+                    CodeLDC.compile(code, code.getConstantRef((String) key));
+                    code.appendU1(OpCodes.INVOKEVIRTUAL);
+                    code.appendU2(code.getMethodRef("java/lang/String",
+                            "equals", "(Ljava/lang/Object;)Z"));
+                    code.appendU1(OpCodes.IFNE);
+                }
+                code.compileJump(discard, 2);
+            }
+            if( !e.getKey().equals(buckets_.lastKey()) ) {
+                code.appendU1(OpCodes.GOTO);
+                code.compileJump(miss, 2);
+            }
+        }
+
+        // the last bucket falls through to the miss
+        code.setLabel(miss);
+        code.appendU1(pop);
+        code.appendU1(OpCodes.GOTO);
+        code.compileJump(data_.getDefault(), 2);
+        for(Entry<String, String> e:discards.entrySet()) {
+            code.setLabel(e.getValue());
+            code.appendU1(pop);
+            code.appendU1(OpCodes.GOTO);
+            code.compileJump(e.getKey(), 2);
+        }
+    }
+
+
+    /**
+     * Search for a multiplier which gives every hash code its own bucket.
+     * Tables of increasing size are tried, starting with the smallest which
+     * has a bucket for each hash code.
+     *
+     * @param codes
+     *            the distinct hash codes of the keys
+     */
+    private void findPerfectHash(Set<Integer> codes) {
+        int minBits = 1;
+        while( (1 << minBits) < codes.size() ) {
+            minBits++;
+        }
+        int maxBits = Math.min(minBits + MAX_EXTRA_BITS, 16);
+
+        BitSet used = new BitSet();
+        for(int bits = minBits;bits <= maxBits;bits++) {
+            int multiplier = SEED;
+            for(int attempt = 0;attempt < MAX_ATTEMPTS;attempt++) {
+                used.clear();
+                boolean isPerfect = true;
+                for(Integer c:codes) {
+                    int bucket = (c.intValue() * multiplier) >>> (32 - bits);
+                    if( used.get(bucket) ) {
+                        isPerfect = false;
+                        break;
+                    }
+                    used.set(bucket);
+                }
+                if( isPerfect ) {
+                    bits_ = bits;
+                    multiplier_ = multiplier;
+                    return;
+                }
+
+                // next odd multiplier from a linear congruential sequence
+                multiplier = (multiplier * 1103515245 + 12345) | 1;
+            }
+        }
+    }
+
+
+    /**
+     * Get the bucket a hash code is in.
+     *
+     * @param hashCode
+     *            the hash code
+     * @return the bucket
+     */
+    private int getBucket(int hashCode) {
+        if( bits_ == 0 ) return hashCode;
+        return (hashCode * multiplier_) >>> (32 - bits_);
+    }
+
+
+    /**
+     * Get the number of buckets which keys are in.
+     *
+     * @return the number of buckets
+     */
+    public int getBucketCount() {
+        return buckets_.size();
+    }
+
+
+    /**
+     * Get the largest number of keys in one bucket, which is the most
+     * comparisons made to find a case.
+     *
+     * @return the largest number of keys
+     */
+    public int getMaxChain() {
+        int max = 0;
+        for(List<Object> keys:buckets_.values()) {
+            max = Math.max(max, keys.size());
+        }
+        return max;
+    }
+
+
+    /**
+     * Was a perfect hash found? If so, the buckets are selected by a
+     * TABLESWITCH on the bucket index.
+     *
+     * @return true if a perfect hash is used
+     */
+    public boolean isPerfect() {
+        return bits_ != 0;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "HashSwitch[buckets=" + buckets_.size() + ", maxChain="
+                + getMaxChain() + ", perfect=" + isPerfect() + ", bits="
+                + bits_ + ", multiplier=" + multiplier_ + "]";
+    }
+}
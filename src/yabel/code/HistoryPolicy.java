@@ -0,0 +1,29 @@
+package yabel.code;
+
+/**
+ * How much of its creation a Code attribute remembers. The history is what
+ * allows a Code attribute to be represented as ClassData and rebuilt from it.
+ *
+ * @author Simon Greatrix
+ */
+public enum HistoryPolicy {
+    /**
+     * Every compilation is recorded with its source and a copy of its
+     * replacements, and every appended byte sequence is recorded in full. The
+     * code can be rebuilt by replaying the history.
+     */
+    FULL,
+
+    /**
+     * Every compilation is recorded with its interned source, which is shared
+     * by every compilation of the same source, and a digest of its
+     * replacements. Appended byte sequences are recorded by their length only.
+     * The history identifies how the code was built, but cannot rebuild it, so
+     * the ClassData representation of the code is its decompiled form with
+     * this history attached.
+     */
+    COMPACT,
+
+    /** Nothing is recorded. */
+    NONE
+}
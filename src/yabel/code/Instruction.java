@@ -0,0 +1,406 @@
+package yabel.code;
+
+import yabel.OpCodes;
+import yabel.io.IO;
+import yabel.parser.OpcodeInfo;
+
+/**
+ * A single decoded instruction. The destinations of branches and switches are
+ * held as references to other instructions, so instructions can be added,
+ * removed and replaced without tracking offsets. Instructions are immutable.
+ *
+ * @author Simon Greatrix
+ */
+public final class Instruction {
+    /** Marker for the end of the code */
+    static final Instruction END = new Instruction(new byte[] { OpCodes.NOP });
+
+
+    /**
+     * Create an IINC instruction. The shortest form of the instruction is
+     * used.
+     *
+     * @param slot
+     *            the local variable slot
+     * @param delta
+     *            the amount to increment by
+     * @return the instruction
+     */
+    public static Instruction forIinc(int slot, int delta) {
+        if( (slot < 0x100) && (Byte.MIN_VALUE <= delta)
+                && (delta <= Byte.MAX_VALUE) ) {
+            return new Instruction(new byte[] { OpCodes.IINC, (byte) slot,
+                    (byte) delta });
+        }
+        byte[] b = new byte[6];
+        b[0] = OpCodes.WIDE;
+        b[1] = OpCodes.IINC;
+        IO.writeS2(b, 2, slot);
+        IO.writeS2(b, 4, delta);
+        return new Instruction(b);
+    }
+
+
+    /**
+     * Create an instruction which pushes an int without using the constant
+     * pool.
+     *
+     * @param value
+     *            the value
+     * @return an ICONST, BIPUSH or SIPUSH instruction, or null if the value
+     *         requires a constant
+     */
+    public static Instruction forInt(int value) {
+        if( (-1 <= value) && (value <= 5) ) {
+            return forOp((byte) (OpCodes.ICONST_0 + value));
+        }
+        if( (Byte.MIN_VALUE <= value) && (value <= Byte.MAX_VALUE) ) {
+            return new Instruction(new byte[] { OpCodes.BIPUSH, (byte) value });
+        }
+        if( (Short.MIN_VALUE <= value) && (value <= Short.MAX_VALUE) ) {
+            byte[] b = new byte[3];
+            b[0] = OpCodes.SIPUSH;
+            IO.writeS2(b, 1, value);
+            return new Instruction(b);
+        }
+        return null;
+    }
+
+
+    /**
+     * Create an instruction which accesses a local variable. The shortest
+     * form of the instruction is used.
+     *
+     * @param baseOp
+     *            the general form of the op-code, such as ILOAD or RET
+     * @param slot
+     *            the local variable slot
+     * @return the instruction
+     */
+    public static Instruction forLocal(byte baseOp, int slot) {
+        OpcodeInfo info = OpcodeInfo.get(baseOp);
+        if( (slot <= 3) && (baseOp != OpCodes.RET) ) {
+            // ILOAD_0 and the like are 4 apart for each type
+            int op = (baseOp < OpCodes.ISTORE) ? OpCodes.ILOAD_0
+                    + ((baseOp - OpCodes.ILOAD) * 4) : OpCodes.ISTORE_0
+                    + ((baseOp - OpCodes.ISTORE) * 4);
+            return new Instruction(new byte[] { (byte) (op + slot) });
+        }
+        if( slot < 0x100 ) {
+            return new Instruction(new byte[] { baseOp, (byte) slot });
+        }
+        byte[] b = new byte[4];
+        b[0] = OpCodes.WIDE;
+        b[1] = (byte) info.getOpCode();
+        IO.writeS2(b, 2, slot);
+        return new Instruction(b);
+    }
+
+
+    /**
+     * Create an instruction which has no operands.
+     *
+     * @param op
+     *            the op-code
+     * @return the instruction
+     */
+    public static Instruction forOp(byte op) {
+        return new Instruction(new byte[] { op });
+    }
+
+    /**
+     * The encoded instruction. For branches and switches the offsets are not
+     * meaningful.
+     */
+    private final byte[] bytes_;
+
+    /**
+     * The instruction which replaced this one, if it has been removed or
+     * replaced
+     */
+    Instruction forward_ = null;
+
+    /**
+     * For a switch, the low and high values of a TABLESWITCH or the keys of a
+     * LOOKUPSWITCH
+     */
+    private final int[] keys_;
+
+    /**
+     * The destinations of a branch or switch. For a switch the first is the
+     * default.
+     */
+    private final Instruction[] targets_;
+
+
+    /**
+     * Create an instruction which does not branch.
+     *
+     * @param bytes
+     *            the encoded instruction
+     */
+    public Instruction(byte[] bytes) {
+        this(bytes, null, null);
+    }
+
+
+    /**
+     * Create a branch instruction. The width of the branch offset is chosen
+     * when the code is laid out.
+     *
+     * @param op
+     *            the branch op-code
+     * @param target
+     *            the destination
+     */
+    public Instruction(byte op, Instruction target) {
+        this(new byte[] { op, 0, 0 }, null, new Instruction[] { target });
+        if( !OpcodeInfo.get(op).isBranch() || isSwitch() ) {
+            throw new IllegalArgumentException("Op-code "
+                    + OpcodeInfo.get(op).getName() + " is not a branch");
+        }
+    }
+
+
+    /**
+     * Create an instruction.
+     *
+     * @param bytes
+     *            the encoded instruction
+     * @param keys
+     *            the switch keys, if a switch
+     * @param targets
+     *            the destinations, if a branch or switch
+     */
+    Instruction(byte[] bytes, int[] keys, Instruction[] targets) {
+        bytes_ = bytes;
+        keys_ = keys;
+        targets_ = targets;
+    }
+
+
+    /**
+     * Can execution continue with the instruction that follows this one?
+     * Returns, throws, GOTOs and switches do not fall through.
+     *
+     * @return true if execution may continue with the next instruction
+     */
+    public boolean canFallThrough() {
+        return !(getInfo().isExit() || isGoto() || isSwitch());
+    }
+
+
+    /**
+     * Get the encoded bytes of this instruction. For branches and switches,
+     * the offsets are not meaningful.
+     *
+     * @return a copy of the bytes
+     */
+    public byte[] getBytes() {
+        return bytes_.clone();
+    }
+
+
+    /**
+     * Get the information about this instruction's op-code.
+     *
+     * @return the information
+     */
+    public OpcodeInfo getInfo() {
+        return OpcodeInfo.get(getOpCode());
+    }
+
+
+    /**
+     * Get the switch keys. For a TABLESWITCH these are the low and high
+     * values. For a LOOKUPSWITCH they are the keys matched by each target
+     * after the default.
+     *
+     * @return a copy of the keys, or null if this is not a switch
+     */
+    public int[] getKeys() {
+        return (keys_ == null) ? null : keys_.clone();
+    }
+
+
+    /**
+     * Get the local variable slot this instruction accesses.
+     *
+     * @return the slot, or -1 if no local variable is accessed
+     */
+    public int getLocal() {
+        OpcodeInfo info = getInfo();
+        if( info.getLocalWidth() == 0 ) return -1;
+        int slot = info.getLocalSlot();
+        if( slot != -1 ) return slot;
+        return isWide() ? IO.readU2(bytes_, 2) : (bytes_[1] & 0xff);
+    }
+
+
+    /**
+     * Get the op-code of this instruction. Any WIDE prefix is ignored.
+     *
+     * @return the op-code, 0 to 255
+     */
+    public int getOpCode() {
+        return (isWide() ? bytes_[1] : bytes_[0]) & 0xff;
+    }
+
+
+    /**
+     * Get a destination of this branch or switch.
+     *
+     * @param i
+     *            the destination's index. The default of a switch is 0.
+     * @return the destination
+     */
+    public Instruction getTarget(int i) {
+        return targets_[i].resolve();
+    }
+
+
+    /**
+     * Get the number of destinations of this instruction.
+     *
+     * @return the number of destinations
+     */
+    public int getTargetCount() {
+        return (targets_ == null) ? 0 : targets_.length;
+    }
+
+
+    /**
+     * Is this instruction a GOTO or GOTO_W?
+     *
+     * @return true if this is an unconditional jump
+     */
+    public boolean isGoto() {
+        int op = getOpCode();
+        return (op == (OpCodes.GOTO & 0xff)) || (op == (OpCodes.GOTO_W & 0xff));
+    }
+
+
+    /**
+     * Is this instruction a TABLESWITCH or LOOKUPSWITCH?
+     *
+     * @return true if this is a switch
+     */
+    public boolean isSwitch() {
+        return getInfo().getOperand() == OpcodeInfo.Operand.SWITCH;
+    }
+
+
+    /**
+     * Does this instruction have a WIDE prefix?
+     *
+     * @return true if wide
+     */
+    public boolean isWide() {
+        return bytes_[0] == OpCodes.WIDE;
+    }
+
+
+    /**
+     * Get the number of bytes in this instruction, if it is not a branch or
+     * switch.
+     *
+     * @return the length
+     */
+    int length() {
+        return bytes_.length;
+    }
+
+
+    /**
+     * Get the instruction which now stands in place of this one.
+     *
+     * @return the instruction
+     */
+    Instruction resolve() {
+        Instruction in = this;
+        while( in.forward_ != null ) {
+            in = in.forward_;
+        }
+        return in;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return getInfo().getName();
+    }
+
+
+    /**
+     * Create a copy of this branch or switch with new destinations.
+     *
+     * @param targets
+     *            the new destinations
+     * @return the new instruction
+     */
+    public Instruction withTargets(Instruction[] targets) {
+        if( (targets_ == null) || (targets.length != targets_.length) ) {
+            throw new IllegalArgumentException("Instruction "
+                    + getInfo().getName() + " requires "
+                    + getTargetCount() + " destinations");
+        }
+        return new Instruction(bytes_, keys_, targets.clone());
+    }
+
+
+    /**
+     * Write this instruction to compiler output. Branches and switch offsets
+     * are written as jumps to labels.
+     *
+     * @param out
+     *            the output
+     * @param labels
+     *            the label name for each destination
+     */
+    void writeTo(CompilerOutput out, LabelNamer labels) {
+        if( targets_ == null ) {
+            out.appendCode(bytes_);
+            return;
+        }
+
+        int op = getOpCode();
+        if( !isSwitch() ) {
+            // use the short form, as the code is widened if it needs to be
+            if( op == (OpCodes.GOTO_W & 0xff) ) op = OpCodes.GOTO & 0xff;
+            if( op == (OpCodes.JSR_W & 0xff) ) op = OpCodes.JSR & 0xff;
+            out.appendU1((byte) op);
+            out.compileJump(labels.name(getTarget(0)), 2);
+            return;
+        }
+
+        out.appendU1((byte) op);
+        out.appendSwitchPadding();
+        out.compileJump(labels.name(getTarget(0)), 4);
+        if( op == (OpCodes.TABLESWITCH & 0xff) ) {
+            out.appendS4(keys_[0]);
+            out.appendS4(keys_[1]);
+        } else {
+            out.appendS4(keys_.length);
+        }
+        for(int i = 1;i < targets_.length;i++) {
+            if( op == (OpCodes.LOOKUPSWITCH & 0xff) ) out.appendS4(keys_[i - 1]);
+            out.compileJump(labels.name(getTarget(i)), 4);
+        }
+    }
+
+
+    /**
+     * Names the labels for instructions when code is written out.
+     */
+    interface LabelNamer {
+        /**
+         * Get the label name for an instruction.
+         *
+         * @param in
+         *            the instruction
+         * @return the label's name
+         */
+        String name(Instruction in);
+    }
+}
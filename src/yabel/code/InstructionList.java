@@ -0,0 +1,481 @@
+package yabel.code;
+
+import java.util.*;
+
+import yabel.OpCodes;
+import yabel.constants.ConstantPool;
+import yabel.io.IO;
+import yabel.parser.OpcodeInfo;
+import yabel.parser.YabelDecompileException;
+
+/**
+ * The instructions of a method body, decoded so that they can be rewritten.
+ * Instructions which are removed or replaced forward to the instructions that
+ * take their place, so branches, exception handlers and attributes which
+ * referred to them follow the change.
+ *
+ * @author Simon Greatrix
+ */
+public final class InstructionList {
+    /** The maximum number of passes of the rules over the code */
+    private static final int MAX_PASSES = 16;
+
+    /** The constant pool the code refers to */
+    private final ConstantPool cp_;
+
+    /**
+     * Instructions which execution may reach other than from the instruction
+     * before them. This may include instructions which are no longer reached
+     * that way.
+     */
+    private final Set<Instruction> entries_ = new HashSet<Instruction>();
+
+    /** The start, end and handler instructions of each exception handler */
+    private final List<Instruction[]> handlers_ = new ArrayList<Instruction[]>();
+
+    /** The index of each instruction when the list is written out */
+    private final Map<Instruction, Integer> index_ = new HashMap<Instruction, Integer>();
+
+    /** The instructions */
+    private final List<Instruction> list_ = new ArrayList<Instruction>();
+
+    /** The exception handlers as they were decoded */
+    private final List<Handler> oldHandlers_;
+
+    /** The instruction at each original position, with one for the end */
+    private final Instruction[] original_;
+
+    /**
+     * Instructions which are referenced by a branch, switch or handler. This
+     * may include instructions which are no longer referenced.
+     */
+    private final Set<Instruction> targets_ = new HashSet<Instruction>();
+
+
+    /**
+     * Decode finalized byte-code.
+     *
+     * @param cp
+     *            the constant pool
+     * @param code
+     *            the byte-code
+     * @param ops
+     *            the offset of each instruction
+     * @param handlers
+     *            the exception handlers
+     */
+    InstructionList(ConstantPool cp, byte[] code, int[] ops,
+            List<Handler> handlers) {
+        cp_ = cp;
+        oldHandlers_ = new ArrayList<Handler>(handlers);
+        original_ = new Instruction[code.length + 1];
+        original_[code.length] = Instruction.END;
+
+        // create the instructions, leaving destinations to be filled in
+        int count = ops.length;
+        List<Instruction[]> dests = new ArrayList<Instruction[]>(count);
+        for(int i = 0;i < count;i++) {
+            int op = ops[i];
+            int end = (i + 1 < count) ? ops[i + 1] : code.length;
+            byte b = code[op];
+            Instruction[] targets = null;
+            int[] keys = null;
+            switch (OpcodeInfo.get(b).getOperand()) {
+            case BRANCH:
+                // falls through
+            case BRANCH_WIDE:
+                targets = new Instruction[1];
+                break;
+            case SWITCH: {
+                int p = op + 4 - (op % 4);
+                if( b == OpCodes.TABLESWITCH ) {
+                    keys = new int[] { IO.readS4(code, p + 4),
+                            IO.readS4(code, p + 8) };
+                    targets = new Instruction[keys[1] - keys[0] + 2];
+                } else {
+                    keys = new int[IO.readS4(code, p + 4)];
+                    for(int j = 0;j < keys.length;j++) {
+                        keys[j] = IO.readS4(code, p + 8 + j * 8);
+                    }
+                    targets = new Instruction[keys.length + 1];
+                }
+                break;
+            }
+            default:
+                break;
+            }
+            Instruction in = new Instruction(Arrays.copyOfRange(code, op, end),
+                    keys, targets);
+            original_[op] = in;
+            list_.add(in);
+            dests.add(targets);
+        }
+
+        // fill in the destinations
+        for(int i = 0;i < count;i++) {
+            Instruction[] targets = dests.get(i);
+            if( targets == null ) continue;
+            int op = ops[i];
+            byte b = code[op];
+            switch (OpcodeInfo.get(b).getOperand()) {
+            case BRANCH:
+                targets[0] = at(op + IO.readS2(code, op + 1));
+                break;
+            case BRANCH_WIDE:
+                targets[0] = at(op + IO.readS4(code, op + 1));
+                break;
+            default: {
+                // a switch
+                int p = op + 4 - (op % 4);
+                targets[0] = at(op + IO.readS4(code, p));
+                for(int j = 1;j < targets.length;j++) {
+                    int off = (b == OpCodes.TABLESWITCH) ? p + 8 + j * 4 : p
+                            + 4 + j * 8;
+                    targets[j] = at(op + IO.readS4(code, off));
+                }
+                break;
+            }
+            }
+        }
+
+        for(Handler h:handlers) {
+            handlers_.add(new Instruction[] { at(h.getStartPC()),
+                    at(h.getEndPC()), at(h.getHandlerPC()) });
+        }
+    }
+
+
+    /**
+     * Apply rules to the code until none of them make any further change.
+     *
+     * @param rules
+     *            the rules
+     * @return true if the code was changed
+     */
+    boolean apply(Collection<? extends PeepholeRule> rules) {
+        boolean changed = false;
+        for(int pass = 0;pass < MAX_PASSES;pass++) {
+            findTargets();
+            boolean again = false;
+            for(int i = 0;i < list_.size();i++) {
+                for(PeepholeRule r:rules) {
+                    // a rule may have removed the last instruction
+                    if( i >= list_.size() ) break;
+                    again |= r.apply(this, i);
+                }
+            }
+            if( !again ) break;
+            changed = true;
+        }
+        return changed;
+    }
+
+
+    /**
+     * Get the instruction which starts at an original position.
+     *
+     * @param pos
+     *            the position
+     * @return the instruction
+     */
+    private Instruction at(int pos) {
+        Instruction in = ((0 <= pos) && (pos < original_.length))
+                ? original_[pos] : null;
+        if( in == null ) {
+            throw new YabelDecompileException("Branch to location " + pos
+                    + " which is not the start of an op-code");
+        }
+        return in;
+    }
+
+
+    /**
+     * Find the instructions which are currently referenced by a branch,
+     * switch or handler.
+     */
+    private void findTargets() {
+        entries_.clear();
+        for(Instruction in:list_) {
+            for(int i = 0;i < in.getTargetCount();i++) {
+                entries_.add(in.getTarget(i));
+            }
+        }
+        targets_.clear();
+        targets_.addAll(entries_);
+        for(Instruction[] ref:handlers_) {
+            entries_.add(ref[2].resolve());
+            for(Instruction in:ref) {
+                targets_.add(in.resolve());
+            }
+        }
+    }
+
+
+    /**
+     * Transfer an instruction's references to the instruction it now forwards
+     * to.
+     *
+     * @param old
+     *            the removed or replaced instruction
+     */
+    private void forward(Instruction old) {
+        if( entries_.contains(old) ) entries_.add(old.forward_);
+        if( targets_.contains(old) ) targets_.add(old.forward_);
+    }
+
+
+    /**
+     * Get an instruction.
+     *
+     * @param index
+     *            the instruction's index
+     * @return the instruction, or null if the index is beyond the end of the
+     *         code
+     */
+    public Instruction get(int index) {
+        return ((0 <= index) && (index < list_.size())) ? list_.get(index)
+                : null;
+    }
+
+
+    /**
+     * Get the constant pool the code refers to.
+     *
+     * @return the constant pool
+     */
+    public ConstantPool getConstantPool() {
+        return cp_;
+    }
+
+
+    /**
+     * Get the instructions which are the start, end and handler of each
+     * exception handler. The end is the first instruction after the
+     * protected code, which may be the end of the code.
+     *
+     * @return an array of start, end and handler for each handler
+     */
+    List<Instruction[]> getHandlerRanges() {
+        List<Instruction[]> ranges = new ArrayList<Instruction[]>(
+                handlers_.size());
+        for(Instruction[] ref:handlers_) {
+            ranges.add(new Instruction[] { ref[0].resolve(), ref[1].resolve(),
+                    ref[2].resolve() });
+        }
+        return ranges;
+    }
+
+
+    /**
+     * Get the exception handlers of the written out code. Handlers which no
+     * longer protect any code are dropped.
+     *
+     * @param out
+     *            the output the code was written to
+     * @return the handlers
+     */
+    List<Handler> getHandlers(CompilerOutput out) {
+        List<Handler> handlers = new ArrayList<Handler>(handlers_.size());
+        for(int i = 0;i < handlers_.size();i++) {
+            Instruction[] ref = handlers_.get(i);
+            int start = getPosition(out, ref[0]);
+            int end = getPosition(out, ref[1]);
+            if( start >= end ) continue;
+            handlers.add(new Handler(start, end, getPosition(out, ref[2]),
+                    oldHandlers_.get(i).catchType_));
+        }
+        return handlers;
+    }
+
+
+    /**
+     * Get the name of the label which marks an instruction when the code is
+     * written out.
+     *
+     * @param in
+     *            the instruction
+     * @return the label's name
+     */
+    private String getLabel(Instruction in) {
+        in = in.resolve();
+        if( in == Instruction.END ) return "optimized$end";
+        return "optimized$" + index_.get(in);
+    }
+
+
+    /**
+     * Get the position of an instruction in the written out code.
+     *
+     * @param out
+     *            the output the code was written to
+     * @param in
+     *            the instruction
+     * @return the position
+     */
+    private int getPosition(CompilerOutput out, Instruction in) {
+        return out.getLabelLocation(getLabel(in));
+    }
+
+
+    /**
+     * Get the new position of every original instruction, for relocating
+     * attributes which refer to the code.
+     *
+     * @param out
+     *            the output the code was written to
+     * @return the new position of each old position, with an entry for the
+     *         end of the code
+     */
+    int[] getRelocation(CompilerOutput out) {
+        int[] pcMap = new int[original_.length];
+        Arrays.fill(pcMap, -1);
+        for(int i = 0;i < original_.length;i++) {
+            if( original_[i] != null ) pcMap[i] = getPosition(out, original_[i]);
+        }
+        return pcMap;
+    }
+
+
+    /**
+     * Can execution reach an instruction other than from the instruction
+     * before it? That is, is it the destination of a branch, switch or
+     * exception handler?
+     *
+     * @param in
+     *            the instruction
+     * @return true if the instruction may be reached by a jump
+     */
+    public boolean isEntry(Instruction in) {
+        return entries_.contains(in);
+    }
+
+
+    /**
+     * Is an instruction the destination of a branch or switch, or a boundary
+     * of an exception handler? Such instructions cannot be merged with the
+     * instruction before them.
+     *
+     * @param in
+     *            the instruction
+     * @return true if the instruction may be a destination
+     */
+    public boolean isTarget(Instruction in) {
+        return targets_.contains(in);
+    }
+
+
+    /**
+     * Remove an instruction. Anything which referred to it will refer to the
+     * instruction after it instead.
+     *
+     * @param index
+     *            the instruction's index
+     */
+    public void remove(int index) {
+        Instruction old = list_.remove(index);
+        old.forward_ = (index < list_.size()) ? list_.get(index)
+                : Instruction.END;
+        forward(old);
+    }
+
+
+    /**
+     * Remove every instruction which cannot be executed. This must be done
+     * before any other change to the instructions.
+     *
+     * @param reachable
+     *            for each original position, true if an instruction which can
+     *            be executed starts there
+     * @return true if any instruction was removed
+     */
+    boolean removeUnreachable(boolean[] reachable) {
+        Set<Instruction> dead = new HashSet<Instruction>();
+        for(int pos = 0;pos < reachable.length;pos++) {
+            if( (original_[pos] != null) && !reachable[pos] )
+                dead.add(original_[pos]);
+        }
+        if( dead.isEmpty() ) return false;
+
+        // working backwards, each forwards to the next one that is kept
+        for(int i = list_.size() - 1;i >= 0;i--) {
+            if( dead.contains(list_.get(i)) ) remove(i);
+        }
+        return true;
+    }
+
+
+    /**
+     * Replace an instruction with a sequence of instructions. Anything which
+     * referred to the old instruction will refer to the first of the new ones.
+     *
+     * @param index
+     *            the instruction's index
+     * @param with
+     *            the new instructions
+     */
+    public void replace(int index, Instruction... with) {
+        if( with.length == 0 ) {
+            remove(index);
+            return;
+        }
+
+        Instruction old = list_.get(index);
+        for(Instruction in:with) {
+            if( in == old ) {
+                throw new IllegalArgumentException(
+                        "An instruction cannot replace itself");
+            }
+        }
+        list_.set(index, with[0]);
+        list_.addAll(index + 1, Arrays.asList(with).subList(1, with.length));
+        old.forward_ = with[0];
+        forward(old);
+        for(Instruction in:with) {
+            for(int i = 0;i < in.getTargetCount();i++) {
+                entries_.add(in.getTarget(i));
+                targets_.add(in.getTarget(i));
+            }
+        }
+    }
+
+
+    /**
+     * Get the number of instructions.
+     *
+     * @return the number of instructions
+     */
+    public int size() {
+        return list_.size();
+    }
+
+
+    /**
+     * Write the instructions to compiler output. Every instruction is marked
+     * with a label, so its new position can be found once the output is
+     * finalized.
+     *
+     * @param out
+     *            the output, which is reset first
+     * @return the finalized byte-code
+     */
+    byte[] writeTo(CompilerOutput out) {
+        index_.clear();
+        for(int i = 0;i < list_.size();i++) {
+            index_.put(list_.get(i), Integer.valueOf(i));
+        }
+        Instruction.LabelNamer namer = new Instruction.LabelNamer() {
+            @Override
+            public String name(Instruction in) {
+                return getLabel(in);
+            }
+        };
+
+        out.reset();
+        for(Instruction in:list_) {
+            out.setLabel(getLabel(in));
+            in.writeTo(out, namer);
+        }
+        out.setLabel(getLabel(Instruction.END));
+        return out.finalizeCode();
+    }
+}
@@ -0,0 +1,284 @@
+package yabel.code;
+
+import java.util.*;
+
+import yabel.OpCodes;
+import yabel.io.IO;
+
+/**
+ * Assigns local variable slots to virtual registers. A liveness analysis finds
+ * where each register holds a value which may still be read, and registers
+ * which never hold such values at the same time share slots. Long and double
+ * registers occupy two adjacent slots.
+ *
+ * @author Simon Greatrix
+ */
+final class LocalAllocator {
+    /**
+     * Is an instruction a store to its local variable?
+     *
+     * @param in
+     *            the instruction
+     * @return true if a store
+     */
+    private static boolean isStore(Instruction in) {
+        int op = in.getInfo().getBaseOpCode();
+        return (OpCodes.ISTORE <= op) && (op <= OpCodes.ASTORE);
+    }
+
+    /** The register each instruction accesses, or -1 */
+    private final int[] access_;
+
+    /** The instructions */
+    private final InstructionList code_;
+
+    /** Slots which are not virtual, including those of the parameters */
+    private final BitSet fixed_ = new BitSet();
+
+    /** Does the code use subroutines? */
+    private boolean hasSubroutines_ = false;
+
+    /** The virtual slot of each register, in the order first accessed */
+    private final List<Integer> registers_ = new ArrayList<Integer>();
+
+    /** The number of slots each register needs */
+    private final List<Integer> widths_ = new ArrayList<Integer>();
+
+
+    /**
+     * Find the virtual registers accessed by some code.
+     *
+     * @param code
+     *            the code
+     * @param fixedSlots
+     *            the number of slots used by the method's parameters
+     */
+    LocalAllocator(InstructionList code, int fixedSlots) {
+        code_ = code;
+        fixed_.set(0, fixedSlots);
+
+        int count = code.size();
+        access_ = new int[count];
+        Map<Integer, Integer> index = new HashMap<Integer, Integer>();
+        for(int i = 0;i < count;i++) {
+            Instruction in = code.get(i);
+            int op = in.getOpCode();
+            if( (op == (OpCodes.JSR & 0xff))
+                    || (op == (OpCodes.JSR_W & 0xff)) ) hasSubroutines_ = true;
+
+            access_[i] = -1;
+            int slot = in.getLocal();
+            if( slot == -1 ) continue;
+            int width = in.getInfo().getLocalWidth();
+            if( slot < CompilerOutput.FIRST_VIRTUAL_SLOT ) {
+                fixed_.set(slot, slot + width);
+                continue;
+            }
+
+            Integer key = Integer.valueOf(slot);
+            Integer reg = index.get(key);
+            if( reg == null ) {
+                reg = Integer.valueOf(registers_.size());
+                index.put(key, reg);
+                registers_.add(key);
+                widths_.add(Integer.valueOf(width));
+            } else if( widths_.get(reg.intValue()).intValue() < width ) {
+                widths_.set(reg.intValue(), Integer.valueOf(width));
+            }
+            access_[i] = reg.intValue();
+        }
+    }
+
+
+    /**
+     * Assign slots to the registers and rewrite the instructions which access
+     * them. Registers are taken in the order they are first accessed, and
+     * each is given the lowest slots which are not fixed and not used by a
+     * register it interferes with.
+     *
+     * @return the slot assigned to each virtual register
+     */
+    Map<Integer, Integer> allocate() {
+        int count = registers_.size();
+        if( count == 0 ) return Collections.emptyMap();
+        BitSet[] interferes = findInterference();
+
+        int[] slots = new int[count];
+        for(int r = 0;r < count;r++) {
+            BitSet busy = (BitSet) fixed_.clone();
+            BitSet others = interferes[r];
+            for(int q = others.nextSetBit(0);(q != -1) && (q < r);q = others
+                    .nextSetBit(q + 1)) {
+                busy.set(slots[q], slots[q] + widths_.get(q).intValue());
+            }
+
+            int width = widths_.get(r).intValue();
+            int slot = busy.nextClearBit(0);
+            while( !busy.get(slot, slot + width).isEmpty() ) {
+                slot = busy.nextClearBit(slot + 1);
+            }
+            slots[r] = slot;
+        }
+
+        // replacing one instruction with one keeps the indices
+        for(int i = 0;i < access_.length;i++) {
+            if( access_[i] == -1 ) continue;
+            Instruction in = code_.get(i);
+            int slot = slots[access_[i]];
+            if( in.getOpCode() == (OpCodes.IINC & 0xff) ) {
+                byte[] b = in.getBytes();
+                int delta = in.isWide() ? IO.readS2(b, 4) : b[2];
+                code_.replace(i, Instruction.forIinc(slot, delta));
+            } else {
+                code_.replace(i, Instruction.forLocal(
+                        in.getInfo().getBaseOpCode(), slot));
+            }
+        }
+
+        Map<Integer, Integer> assigned = new HashMap<Integer, Integer>();
+        for(int r = 0;r < count;r++) {
+            assigned.put(registers_.get(r), Integer.valueOf(slots[r]));
+        }
+        return assigned;
+    }
+
+
+    /**
+     * Find which registers cannot share slots. A register interferes with
+     * every register which is live after an instruction that stores to it,
+     * and registers which are read before they are written interfere with
+     * each other. The return address used by a subroutine is not tracked,
+     * so if there are subroutines every register interferes with every
+     * other.
+     *
+     * @return the registers each register interferes with
+     */
+    private BitSet[] findInterference() {
+        int count = registers_.size();
+        BitSet[] interferes = new BitSet[count];
+        for(int r = 0;r < count;r++) {
+            interferes[r] = new BitSet();
+        }
+        if( hasSubroutines_ ) {
+            for(int r = 0;r < count;r++) {
+                interferes[r].set(0, count);
+                interferes[r].clear(r);
+            }
+            return interferes;
+        }
+
+        BitSet[] liveOut = new BitSet[access_.length];
+        BitSet[] liveIn = findLiveness(liveOut);
+        for(int i = 0;i < access_.length;i++) {
+            int r = access_[i];
+            if( (r == -1) || !(isStore(code_.get(i))
+                    || (code_.get(i).getOpCode() == (OpCodes.IINC & 0xff))) )
+                continue;
+            BitSet live = liveOut[i];
+            for(int q = live.nextSetBit(0);q != -1;q = live
+                    .nextSetBit(q + 1)) {
+                if( q == r ) continue;
+                interferes[r].set(q);
+                interferes[q].set(r);
+            }
+        }
+
+        if( liveIn.length > 0 ) {
+            BitSet entry = liveIn[0];
+            for(int r = entry.nextSetBit(0);r != -1;r = entry
+                    .nextSetBit(r + 1)) {
+                interferes[r].or(entry);
+                interferes[r].clear(r);
+            }
+        }
+        return interferes;
+    }
+
+
+    /**
+     * Find the registers which are live before and after each instruction.
+     * A register is live if its value may be read before it is next written.
+     * The values needed by an exception handler are live throughout the code
+     * it protects.
+     *
+     * @param liveOut
+     *            receives the registers live after each instruction
+     * @return the registers live before each instruction
+     */
+    private BitSet[] findLiveness(BitSet[] liveOut) {
+        int count = access_.length;
+        Map<Instruction, Integer> index = new HashMap<Instruction, Integer>();
+        for(int i = 0;i < count;i++) {
+            index.put(code_.get(i), Integer.valueOf(i));
+        }
+
+        // where execution may continue after each instruction
+        int[][] next = new int[count][];
+        for(int i = 0;i < count;i++) {
+            Instruction in = code_.get(i);
+            List<Integer> dest = new ArrayList<Integer>();
+            if( in.canFallThrough() && (i + 1 < count) )
+                dest.add(Integer.valueOf(i + 1));
+            for(int j = 0;j < in.getTargetCount();j++) {
+                Integer t = index.get(in.getTarget(j));
+                if( t != null ) dest.add(t);
+            }
+            next[i] = new int[dest.size()];
+            for(int j = 0;j < next[i].length;j++) {
+                next[i][j] = dest.get(j).intValue();
+            }
+        }
+
+        // the handlers which protect each instruction
+        List<List<Integer>> protectedBy = new ArrayList<List<Integer>>(count);
+        for(int i = 0;i < count;i++) {
+            protectedBy.add(new ArrayList<Integer>(0));
+        }
+        for(Instruction[] ref:code_.getHandlerRanges()) {
+            Integer start = index.get(ref[0]);
+            Integer end = index.get(ref[1]);
+            Integer handler = index.get(ref[2]);
+            if( (start == null) || (handler == null) ) continue;
+            int last = (end == null) ? count : end.intValue();
+            for(int i = start.intValue();i < last;i++) {
+                protectedBy.get(i).add(handler);
+            }
+        }
+
+        BitSet[] liveIn = new BitSet[count];
+        for(int i = 0;i < count;i++) {
+            liveIn[i] = new BitSet();
+            liveOut[i] = new BitSet();
+        }
+        boolean changed = true;
+        while( changed ) {
+            changed = false;
+            for(int i = count - 1;i >= 0;i--) {
+                BitSet out = new BitSet();
+                for(int j:next[i]) {
+                    out.or(liveIn[j]);
+                }
+                liveOut[i] = out;
+
+                BitSet in = (BitSet) out.clone();
+                int r = access_[i];
+                if( r != -1 ) {
+                    if( isStore(code_.get(i)) ) {
+                        in.clear(r);
+                    } else {
+                        // loads, IINC and RET read the register
+                        in.set(r);
+                    }
+                }
+                for(Integer h:protectedBy.get(i)) {
+                    in.or(liveIn[h.intValue()]);
+                }
+                if( !in.equals(liveIn[i]) ) {
+                    liveIn[i] = in;
+                    changed = true;
+                }
+            }
+        }
+        return liveIn;
+    }
+}
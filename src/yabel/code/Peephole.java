@@ -0,0 +1,260 @@
+package yabel.code;
+
+import yabel.OpCodes;
+import yabel.constants.Constant;
+import yabel.constants.ConstantNumber;
+import yabel.io.IO;
+
+/**
+ * The standard peephole optimisations. Each rewrites a short sequence of
+ * instructions into an equivalent which is shorter or quicker to execute.
+ * Sequences which are the destination of a branch part way through are not
+ * merged.
+ *
+ * @author Simon Greatrix
+ */
+public enum Peephole implements PeepholeRule {
+    /**
+     * A conditional branch over a GOTO becomes the opposite branch to the
+     * GOTO's destination. This undoes the widening of a conditional branch
+     * when it is no longer required.
+     */
+    BRANCH_OVER_GOTO {
+        /** {@inheritDoc} */
+        @Override
+        public boolean apply(InstructionList code, int index) {
+            Instruction in = code.get(index);
+            int op = in.getOpCode();
+            boolean isConditional = ((OpCodes.IFEQ & 0xff) <= op
+                    && op <= (OpCodes.IF_ACMPNE & 0xff))
+                    || (op == (OpCodes.IFNULL & 0xff))
+                    || (op == (OpCodes.IFNONNULL & 0xff));
+            if( !isConditional ) return false;
+
+            Instruction jump = code.get(index + 1);
+            Instruction after = code.get(index + 2);
+            if( (after == null) || !jump.isGoto() || code.isTarget(jump)
+                    || (in.getTarget(0) != after) ) return false;
+
+            code.remove(index + 1);
+            code.replace(index, new Instruction(
+                    CompilerOutput.invert((byte) op), jump.getTarget(0)));
+            return true;
+        }
+    },
+
+    /**
+     * Loads of numeric constants which can be pushed directly, such as LDC of
+     * a small int, become ICONST, BIPUSH, FCONST, LCONST or DCONST.
+     */
+    CONSTANT_FORMS {
+        /** {@inheritDoc} */
+        @Override
+        public boolean apply(InstructionList code, int index) {
+            Instruction in = code.get(index);
+            byte[] b = in.getBytes();
+            Number n;
+            switch (b[0]) {
+            case OpCodes.BIPUSH:
+                n = Integer.valueOf(b[1]);
+                break;
+            case OpCodes.SIPUSH:
+                n = Integer.valueOf(IO.readS2(b, 1));
+                break;
+            case OpCodes.LDC:
+                n = getNumber(code, b[1] & 0xff);
+                break;
+            case OpCodes.LDC_W:
+                // falls through
+            case OpCodes.LDC2_W:
+                n = getNumber(code, IO.readU2(b, 1));
+                break;
+            default:
+                return false;
+            }
+            if( n == null ) return false;
+
+            Instruction push = null;
+            if( n instanceof Integer ) {
+                push = Instruction.forInt(n.intValue());
+            } else if( n instanceof Float ) {
+                int bits = Float.floatToIntBits(n.floatValue());
+                for(int i = 0;i <= 2;i++) {
+                    if( bits == Float.floatToIntBits(i) )
+                        push = Instruction.forOp((byte) (OpCodes.FCONST_0 + i));
+                }
+            } else if( n instanceof Long ) {
+                long v = n.longValue();
+                if( (v == 0) || (v == 1) )
+                    push = Instruction.forOp((byte) (OpCodes.LCONST_0 + v));
+            } else {
+                long bits = Double.doubleToLongBits(n.doubleValue());
+                for(int i = 0;i <= 1;i++) {
+                    if( bits == Double.doubleToLongBits(i) )
+                        push = Instruction.forOp((byte) (OpCodes.DCONST_0 + i));
+                }
+            }
+
+            // the constant pool is not used, so allow the same length
+            if( (push == null) || (push.getOpCode() == in.getOpCode())
+                    || (push.length() > in.length()) ) return false;
+            code.replace(index, push);
+            return true;
+        }
+    },
+
+    /** A DUP followed by a POP, or a DUP2 followed by a POP2, is removed. */
+    DUP_POP {
+        /** {@inheritDoc} */
+        @Override
+        public boolean apply(InstructionList code, int index) {
+            Instruction in = code.get(index);
+            Instruction next = code.get(index + 1);
+            if( (next == null) || code.isTarget(next) ) return false;
+            int op = in.getOpCode();
+            int nextOp = next.getOpCode();
+            if( !((op == OpCodes.DUP) && (nextOp == OpCodes.POP))
+                    && !((op == OpCodes.DUP2) && (nextOp == OpCodes.POP2)) )
+                return false;
+            code.remove(index + 1);
+            code.remove(index);
+            return true;
+        }
+    },
+
+    /** A GOTO to the instruction which follows it is removed. */
+    GOTO_NEXT {
+        /** {@inheritDoc} */
+        @Override
+        public boolean apply(InstructionList code, int index) {
+            Instruction in = code.get(index);
+            if( !in.isGoto() || (in.getTarget(0) != code.get(index + 1)) )
+                return false;
+            code.remove(index);
+            return true;
+        }
+    },
+
+    /**
+     * A branch or switch to a GOTO goes straight to the GOTO's final
+     * destination. Chains which loop are left alone.
+     */
+    JUMP_CHAIN {
+        /** {@inheritDoc} */
+        @Override
+        public boolean apply(InstructionList code, int index) {
+            Instruction in = code.get(index);
+            int count = in.getTargetCount();
+            int op = in.getOpCode();
+            if( (count == 0) || (op == (OpCodes.JSR & 0xff))
+                    || (op == (OpCodes.JSR_W & 0xff)) ) return false;
+
+            Instruction[] targets = new Instruction[count];
+            boolean changed = false;
+            for(int i = 0;i < count;i++) {
+                Instruction t = in.getTarget(i);
+                targets[i] = t;
+                if( !t.isGoto() ) continue;
+
+                // follow the chain, giving up if it loops
+                Instruction last = t;
+                for(int hops = 0;last.isGoto()
+                        && (hops <= code.size());hops++) {
+                    last = last.getTarget(0);
+                }
+                if( last.isGoto() ) continue;
+                targets[i] = last;
+                changed = true;
+            }
+            if( !changed ) return false;
+            code.replace(index, in.withTargets(targets));
+            return true;
+        }
+    },
+
+    /**
+     * Local variable accesses use their shortest form, such as ILOAD_0 for
+     * ILOAD 0, and a WIDE prefix only when it is needed.
+     */
+    LOCAL_FORMS {
+        /** {@inheritDoc} */
+        @Override
+        public boolean apply(InstructionList code, int index) {
+            Instruction in = code.get(index);
+            int slot = in.getLocal();
+            if( slot == -1 ) return false;
+            Instruction shorter;
+            if( in.getOpCode() == (OpCodes.IINC & 0xff) ) {
+                byte[] b = in.getBytes();
+                int delta = in.isWide() ? IO.readS2(b, 4) : b[2];
+                shorter = Instruction.forIinc(slot, delta);
+            } else {
+                shorter = Instruction.forLocal(in.getInfo().getBaseOpCode(),
+                        slot);
+            }
+            if( shorter.length() >= in.length() ) return false;
+            code.replace(index, shorter);
+            return true;
+        }
+    },
+
+    /**
+     * A store to a local variable followed by a load of the same variable
+     * becomes a DUP or DUP2 followed by the store.
+     */
+    STORE_LOAD {
+        /** {@inheritDoc} */
+        @Override
+        public boolean apply(InstructionList code, int index) {
+            Instruction in = code.get(index);
+            Instruction next = code.get(index + 1);
+            if( (next == null) || code.isTarget(next) ) return false;
+            int store = in.getInfo().getBaseOpCode();
+            if( (store < OpCodes.ISTORE) || (OpCodes.ASTORE < store) )
+                return false;
+            int load = store - (OpCodes.ISTORE - OpCodes.ILOAD);
+            if( (next.getInfo().getBaseOpCode() != load)
+                    || (next.getLocal() != in.getLocal()) ) return false;
+
+            boolean isWide = (store == OpCodes.LSTORE)
+                    || (store == OpCodes.DSTORE);
+            code.remove(index + 1);
+            code.replace(index, Instruction.forOp(isWide ? OpCodes.DUP2
+                    : OpCodes.DUP), new Instruction(in.getBytes()));
+            return true;
+        }
+    },
+
+    /**
+     * An instruction which follows one that does not fall through, and which
+     * nothing jumps to, can never be executed and is removed. Such code is
+     * often left behind by the other rules.
+     */
+    UNREACHABLE {
+        /** {@inheritDoc} */
+        @Override
+        public boolean apply(InstructionList code, int index) {
+            Instruction prev = code.get(index - 1);
+            Instruction in = code.get(index);
+            if( (prev == null) || (in == null) || prev.canFallThrough()
+                    || code.isEntry(in) ) return false;
+            code.remove(index);
+            return true;
+        }
+    };
+
+    /**
+     * Get the value of a numeric constant.
+     *
+     * @param code
+     *            the code
+     * @param index
+     *            the index of the constant in the pool
+     * @return the value, or null if the constant is not a number
+     */
+    static Number getNumber(InstructionList code, int index) {
+        Constant c = code.getConstantPool().get(index);
+        return (c instanceof ConstantNumber) ? ((ConstantNumber) c).getValue()
+                : null;
+    }
+}
@@ -0,0 +1,22 @@
+package yabel.code;
+
+/**
+ * A rule which rewrites a short sequence of instructions into a better
+ * equivalent. The standard rules are in <code>Peephole</code>.
+ *
+ * @author Simon Greatrix
+ */
+public interface PeepholeRule {
+    /**
+     * Apply this rule to the instructions starting at an index. A rule must
+     * only report a change if it made the code shorter or simpler, so that
+     * repeated application comes to an end.
+     *
+     * @param code
+     *            the instructions
+     * @param index
+     *            the index of the first instruction to consider
+     * @return true if the code was changed
+     */
+    boolean apply(InstructionList code, int index);
+}
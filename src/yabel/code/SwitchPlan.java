@@ -0,0 +1,515 @@
+package yabel.code;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+import yabel.OpCodes;
+import yabel.SwitchData;
+import yabel.code.operand.CodeLDC;
+import yabel.code.operand.CodeSwitch;
+
+/**
+ * A plan for compiling a switch whose cases form dense clusters separated by
+ * sparse regions. Each dense cluster becomes a TABLESWITCH, the cases between
+ * clusters are gathered into LOOKUPSWITCHes or single comparisons, and a
+ * balanced tree of comparisons selects between them. Cases which are dense
+ * throughout become a single TABLESWITCH.
+ * <p>
+ * Clusters are chosen to make the number of tables plus the number of cases
+ * not in a table as small as possible, as each of those is a separate
+ * target for the search that selects between them. Neighbouring cases which
+ * are not in a table are then gathered into one LOOKUPSWITCH, which performs
+ * that search in a single instruction. A cluster is dense if it has at least
+ * the minimum number of cases for a table, and the cases fill at least the
+ * minimum density of its range. With a density of one half or more, a table
+ * is never larger than a LOOKUPSWITCH for the same cases.
+ * <p>
+ * To keep planning quick for switches with many cases, a table is only
+ * started within a fixed number of cases of its end, unless it extends the
+ * table chosen to end at the previous case. A run of dense cases of any
+ * length therefore still becomes a single table.
+ * <p>
+ * The plan reports the size of the code and the number of comparisons needed
+ * to reach each case before any code is generated, so that alternatives can
+ * be compared.
+ *
+ * @author Simon Greatrix
+ */
+public final class SwitchPlan {
+    /**
+     * A run of consecutive cases which is compiled as one unit.
+     */
+    public static final class Cluster {
+        /** The case values, in ascending order */
+        private final int[] keys_;
+
+        /** How the cluster is compiled */
+        private final Kind kind_;
+
+
+        /**
+         * Create a cluster.
+         *
+         * @param kind
+         *            how the cluster is compiled
+         * @param keys
+         *            the case values, in ascending order
+         */
+        Cluster(Kind kind, int[] keys) {
+            kind_ = kind;
+            keys_ = keys;
+        }
+
+
+        /**
+         * Get the size of the code for this cluster. This allows for the
+         * most padding a switch can need.
+         *
+         * @return the maximum number of bytes
+         */
+        public int getCodeSize() {
+            switch (kind_) {
+            case COMPARE:
+                // push, IF_ICMPEQ and GOTO
+                return getPushSize(keys_[0]) + 6;
+            case LOOKUP:
+                return 12 + 8 * keys_.length;
+            default:
+                return 16 + 4 * (getMax() - getMin() + 1);
+            }
+        }
+
+
+        /**
+         * Get the case values in this cluster.
+         *
+         * @return the values, in ascending order
+         */
+        public int[] getKeys() {
+            return keys_.clone();
+        }
+
+
+        /**
+         * Get how this cluster is compiled.
+         *
+         * @return the kind of cluster
+         */
+        public Kind getKind() {
+            return kind_;
+        }
+
+
+        /**
+         * Get the largest case value in this cluster.
+         *
+         * @return the largest value
+         */
+        public int getMax() {
+            return keys_[keys_.length - 1];
+        }
+
+
+        /**
+         * Get the smallest case value in this cluster.
+         *
+         * @return the smallest value
+         */
+        public int getMin() {
+            return keys_[0];
+        }
+
+
+        /**
+         * Get the number of cases in this cluster.
+         *
+         * @return the number of cases
+         */
+        public int size() {
+            return keys_.length;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public String toString() {
+            return kind_ + "[" + getMin() + ".." + getMax() + "]x"
+                    + keys_.length;
+        }
+    }
+
+    /**
+     * How a cluster is compiled.
+     */
+    public enum Kind {
+        /** A single case, compiled as a comparison */
+        COMPARE,
+
+        /** A LOOKUPSWITCH */
+        LOOKUP,
+
+        /** A TABLESWITCH */
+        TABLE
+    }
+
+    /** The default minimum proportion of a table's range which has cases */
+    public static final double DEFAULT_MIN_DENSITY = 0.5;
+
+    /** The default minimum number of cases in a table */
+    public static final int DEFAULT_MIN_TABLE_CASES = 4;
+
+    /**
+     * The number of keys before the end of a table which are searched for its
+     * start
+     */
+    private static final int MAX_TABLE_SEARCH = 256;
+
+    /** Marker for a case count which cannot be achieved */
+    private static final int NONE = Integer.MAX_VALUE / 2;
+
+
+    /**
+     * Get the size of the instruction which pushes an int.
+     *
+     * @param value
+     *            the value
+     * @return the size, allowing for an LDC_W if a constant is required
+     */
+    static int getPushSize(int value) {
+        Instruction push = Instruction.forInt(value);
+        return (push == null) ? 3 : push.length();
+    }
+
+
+    /**
+     * Push an int on to the stack.
+     *
+     * @param code
+     *            the output
+     * @param value
+     *            the value
+     */
+    static void push(CompilerOutput code, int value) {
+        Instruction push = Instruction.forInt(value);
+        if( push != null ) {
+            code.appendCode(push.getBytes());
+        } else {
+            CodeLDC.compile(code, code.getConstantRef(Integer.valueOf(value)));
+        }
+    }
+
+    /** The clusters in ascending order of case value */
+    private final List<Cluster> clusters_ = new ArrayList<Cluster>();
+
+    /** The switch being compiled */
+    private final SwitchData data_;
+
+    /** The number of tree comparisons made before reaching each cluster */
+    private int[] depth_;
+
+
+    /**
+     * Plan a switch using the default thresholds.
+     *
+     * @param data
+     *            the switch
+     */
+    public SwitchPlan(SwitchData data) {
+        this(data, DEFAULT_MIN_DENSITY, DEFAULT_MIN_TABLE_CASES);
+    }
+
+
+    /**
+     * Plan a switch.
+     *
+     * @param data
+     *            the switch
+     * @param minDensity
+     *            the minimum proportion of a table's range which has cases,
+     *            greater than 0 and no more than 1
+     * @param minTableCases
+     *            the minimum number of cases in a table, at least 1
+     */
+    public SwitchPlan(SwitchData data, double minDensity, int minTableCases) {
+        if( !((0 < minDensity) && (minDensity <= 1)) ) {
+            throw new IllegalArgumentException("Minimum density " + minDensity
+                    + " is not between 0 and 1");
+        }
+        if( minTableCases < 1 ) {
+            throw new IllegalArgumentException("Minimum table cases "
+                    + minTableCases + " is less than 1");
+        }
+        data_ = data;
+
+        int n = data.size();
+        int[] keys = new int[n];
+        int p = 0;
+        for(Entry<Integer, String> e:data) {
+            keys[p++] = e.getKey().intValue();
+        }
+        Arrays.sort(keys);
+
+        // sparse[i] and table[i] are the fewest search targets for the first
+        // i keys, where the last key is not in a table or ends a table
+        int[] sparse = new int[n + 1];
+        int[] table = new int[n + 1];
+        boolean[] sparseStarts = new boolean[n + 1];
+        int[] tableFrom = new int[n + 1];
+        sparse[0] = NONE;
+        table[0] = NONE;
+        for(int i = 1;i <= n;i++) {
+            // a key outside a table is a target of its own, and a sparse
+            // cluster starts after a table whenever that is no worse
+            if( (i == 1) || (table[i - 1] <= sparse[i - 1]) ) {
+                sparse[i] = ((i == 1) ? 0 : table[i - 1]) + 1;
+                sparseStarts[i] = true;
+            } else {
+                sparse[i] = sparse[i - 1] + 1;
+            }
+
+            // the largest table ending here wins a tie. Only the nearest
+            // starts are searched, and the start of the table ending at the
+            // previous key, so that the time taken grows linearly.
+            table[i] = NONE;
+            int first = Math.max(0, i - MAX_TABLE_SEARCH);
+            int j = first;
+            if( (i > 1) && (table[i - 1] < NONE) && (tableFrom[i - 1] < first) )
+                j = tableFrom[i - 1];
+            while( j <= i - minTableCases ) {
+                long range = (long) keys[i - 1] - keys[j] + 1;
+                if( (i - j) >= minDensity * range ) {
+                    int best = (j == 0) ? 0 : Math.min(sparse[j], table[j]);
+                    if( best + 1 < table[i] ) {
+                        table[i] = best + 1;
+                        tableFrom[i] = j;
+                    }
+                }
+                j = (j < first) ? first : j + 1;
+            }
+        }
+
+        // work back from the end, preferring tables
+        LinkedList<Cluster> found = new LinkedList<Cluster>();
+        int i = n;
+        boolean isTable = (n > 0) && (table[n] <= sparse[n]);
+        while( i > 0 ) {
+            int start;
+            Kind kind;
+            if( isTable ) {
+                start = tableFrom[i];
+                kind = Kind.TABLE;
+            } else {
+                start = i;
+                while( !sparseStarts[start] ) {
+                    start--;
+                }
+                start--;
+                kind = (i - start == 1) ? Kind.COMPARE : Kind.LOOKUP;
+            }
+            found.addFirst(new Cluster(kind, Arrays.copyOfRange(keys, start,
+                    i)));
+            i = start;
+
+            // a sparse cluster is only ever started after a table
+            if( isTable ) isTable = (i > 0) && (table[i] <= sparse[i]);
+            else isTable = true;
+        }
+        clusters_.addAll(found);
+
+        depth_ = new int[clusters_.size()];
+        if( !clusters_.isEmpty() ) setDepth(0, clusters_.size(), 0);
+    }
+
+
+    /**
+     * Compile the switch. The value to switch on must be on the top of the
+     * stack.
+     *
+     * @param code
+     *            the output
+     */
+    public void compile(CompilerOutput code) {
+        if( clusters_.isEmpty() ) {
+            // there are no cases, so always the default
+            code.appendU1(OpCodes.POP);
+            code.appendU1(OpCodes.GOTO);
+            code.compileJump(data_.getDefault(), 2);
+            return;
+        }
+        compile(code, 0, clusters_.size());
+    }
+
+
+    /**
+     * Compile the comparisons that select between some of the clusters, and
+     * the clusters themselves.
+     *
+     * @param code
+     *            the output
+     * @param from
+     *            the index of the first cluster
+     * @param to
+     *            the index after the last cluster
+     */
+    private void compile(CompilerOutput code, int from, int to) {
+        if( to - from == 1 ) {
+            compile(code, clusters_.get(from));
+            return;
+        }
+
+        // values from the middle cluster onwards go right
+        int mid = (from + to) / 2;
+        String right = code.createLabelName("cluster");
+        code.appendU1(OpCodes.DUP);
+        push(code, clusters_.get(mid).getMin());
+        code.appendU1(OpCodes.IF_ICMPGE);
+        code.compileJump(right, 2);
+        compile(code, from, mid);
+        code.setLabel(right);
+        compile(code, mid, to);
+    }
+
+
+    /**
+     * Compile a single cluster.
+     *
+     * @param code
+     *            the output
+     * @param cluster
+     *            the cluster
+     */
+    private void compile(CompilerOutput code, Cluster cluster) {
+        String dflt = data_.getDefault();
+        if( cluster.getKind() == Kind.COMPARE ) {
+            int key = cluster.getMin();
+            push(code, key);
+            code.appendU1(OpCodes.IF_ICMPEQ);
+            code.compileJump(data_.get(Integer.valueOf(key)), 2);
+            code.appendU1(OpCodes.GOTO);
+            code.compileJump(dflt, 2);
+            return;
+        }
+
+        SwitchData part = new SwitchData(dflt);
+        for(int key:cluster.keys_) {
+            Integer k = Integer.valueOf(key);
+            part.add(k, data_.get(k));
+        }
+        if( cluster.getKind() == Kind.TABLE ) {
+            CodeSwitch.TABLESWITCH.compile(code, part);
+        } else {
+            CodeSwitch.LOOKUPSWITCH.compile(code, part);
+        }
+    }
+
+
+    /**
+     * Get the clusters, in ascending order of case value.
+     *
+     * @return the clusters
+     */
+    public List<Cluster> getClusters() {
+        return Collections.unmodifiableList(clusters_);
+    }
+
+
+    /**
+     * Get the size of the code for the switch. This allows for the most
+     * padding each switch can need and for constants loaded with LDC_W, but
+     * not for any branches which have to be widened.
+     *
+     * @return the maximum number of bytes
+     */
+    public int getCodeSize() {
+        // POP and GOTO
+        if( clusters_.isEmpty() ) return 4;
+
+        // each comparison in the tree is DUP, push and IF_ICMPGE
+        int size = 0;
+        for(int i = 0;i < clusters_.size();i++) {
+            Cluster c = clusters_.get(i);
+            size += c.getCodeSize();
+            if( i > 0 ) size += getPushSize(c.getMin()) + 4;
+        }
+        return size;
+    }
+
+
+    /**
+     * Get the average number of comparisons executed to reach a case. Each
+     * comparison in the tree counts, as does the comparison which matches a
+     * single case. The search within a LOOKUPSWITCH is not counted.
+     *
+     * @return the average over all cases, or 0 if there are none
+     */
+    public double getExpectedDepth() {
+        if( data_.size() == 0 ) return 0;
+        long total = 0;
+        for(int i = 0;i < clusters_.size();i++) {
+            Cluster c = clusters_.get(i);
+            total += (long) c.size() * getDepth(i);
+        }
+        return (double) total / data_.size();
+    }
+
+
+    /**
+     * Get the number of comparisons executed to reach the cases of a cluster.
+     *
+     * @param index
+     *            the index of the cluster
+     * @return the number of comparisons
+     */
+    private int getDepth(int index) {
+        int depth = depth_[index];
+        if( clusters_.get(index).getKind() == Kind.COMPARE ) depth++;
+        return depth;
+    }
+
+
+    /**
+     * Get the largest number of comparisons executed to reach a case. The
+     * search within a LOOKUPSWITCH is not counted.
+     *
+     * @return the largest number of comparisons
+     */
+    public int getMaxDepth() {
+        int max = 0;
+        for(int i = 0;i < clusters_.size();i++) {
+            max = Math.max(max, getDepth(i));
+        }
+        return max;
+    }
+
+
+    /**
+     * Record the depth in the comparison tree of some of the clusters.
+     *
+     * @param from
+     *            the index of the first cluster
+     * @param to
+     *            the index after the last cluster
+     * @param depth
+     *            the depth of the comparison which selects between them
+     */
+    private void setDepth(int from, int to, int depth) {
+        if( to - from == 1 ) {
+            depth_[from] = depth;
+            return;
+        }
+        int mid = (from + to) / 2;
+        setDepth(from, mid, depth + 1);
+        setDepth(mid, to, depth + 1);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return String.format(
+                "SwitchPlan[clusters=%s, size=%d, maxDepth=%d, depth=%.2f]",
+                clusters_, Integer.valueOf(getCodeSize()),
+                Integer.valueOf(getMaxDepth()),
+                Double.valueOf(getExpectedDepth()));
+    }
+}
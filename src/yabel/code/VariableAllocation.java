@@ -0,0 +1,24 @@
+package yabel.code;
+
+/**
+ * How local variable slots are chosen for variables defined without an
+ * explicit slot.
+ *
+ * @author Simon Greatrix
+ */
+public enum VariableAllocation {
+    /**
+     * A variable is given the first slot which is not in use by another
+     * defined variable. A slot is only reused after the variable which held
+     * it is undefined.
+     */
+    FIRST_FREE,
+
+    /**
+     * Each variable is a virtual register with a slot of its own from
+     * <code>CompilerOutput.FIRST_VIRTUAL_SLOT</code> upwards. When the code
+     * is finalized, a liveness analysis assigns the real slots, and
+     * variables whose values are never needed at the same time share them.
+     */
+    LIVENESS
+}
@@ -0,0 +1,97 @@
+package yabel.code.operand;
+
+import java.util.List;
+
+import yabel.ClassData;
+import yabel.HashSwitchData;
+import yabel.code.CodeOperand;
+import yabel.code.CompilerOutput;
+import yabel.code.HashSwitch;
+import yabel.code.YabelBadNumberException;
+import yabel.code.YabelParseException;
+import yabel.code.YabelWrongTokenCountException;
+
+/**
+ * Compile switches on String and long values. See <code>HashSwitch</code>.
+ *
+ * @author Simon Greatrix
+ */
+public enum CodeHashSwitch implements CodeOperand {
+    /** Use a perfect hash if the switch asks for one */
+    HASHSWITCH {
+        /** {@inheritDoc} */
+        @Override
+        public void compile(CompilerOutput code, HashSwitchData data) {
+            new HashSwitch(data).compile(code);
+        }
+    },
+
+    /** Use a perfect hash if one can be found */
+    PERFECTHASHSWITCH {
+        /** {@inheritDoc} */
+        @Override
+        public void compile(CompilerOutput code, HashSwitchData data) {
+            if( !data.isPerfectHash() ) {
+                data = data.copy();
+                data.setPerfectHash(true);
+            }
+            new HashSwitch(data).compile(code);
+        }
+    };
+
+    /** {@inheritDoc} */
+    @Override
+    public void compile(CompilerOutput code, List<String> toks, ClassData cd) {
+        HashSwitchData vals;
+        if( toks.size() == 3 ) {
+            // named HashSwitchData
+            String p = toks.get(2);
+            vals = cd.getSafe(HashSwitchData.class, p);
+        } else {
+            // raw switch type default key1 lbl1 key2 lbl2 ...
+            // so size must be an even number
+            if( (toks.size() < 4) || ((toks.size() % 2) != 0) ) {
+                throw new YabelWrongTokenCountException(toks,
+                        "<type> <default> [<key> <label>]*");
+            }
+
+            String type = toks.get(2);
+            Class<?> keyType;
+            if( type.equalsIgnoreCase("string") ) {
+                keyType = String.class;
+            } else if( type.equalsIgnoreCase("long") ) {
+                keyType = Long.class;
+            } else {
+                throw new YabelParseException("Switch key type must be "
+                        + "\"string\" or \"long\", not \"" + type + "\" in "
+                        + toks.get(0));
+            }
+            vals = new HashSwitchData(keyType, toks.get(3));
+
+            // read pairs
+            for(int i = 4;i < toks.size();i += 2) {
+                Object key;
+                try {
+                    key = vals.parseKey(toks.get(i));
+                } catch (NumberFormatException nfe) {
+                    throw new YabelBadNumberException(toks, i, "long");
+                }
+                vals.add(key, toks.get(i + 1));
+            }
+        }
+
+        compile(code, vals);
+    }
+
+
+    /**
+     * Compile the actual switch statement. The value to switch on must be on
+     * the top of the stack.
+     *
+     * @param code
+     *            the associated code block
+     * @param data
+     *            the switch data
+     */
+    public abstract void compile(CompilerOutput code, HashSwitchData data);
+}
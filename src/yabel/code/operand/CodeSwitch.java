@@ -3,12 +3,17 @@ package yabel.code.operand;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import yabel.ClassData;
 import yabel.OpCodes;
 import yabel.SwitchData;
 import yabel.code.CodeOperand;
 import yabel.code.CompilerOutput;
+import yabel.code.SwitchPlan;
+import yabel.code.YabelBadNumberException;
+import yabel.code.YabelParseException;
 import yabel.code.YabelWrongTokenCountException;
 
 /**
@@ -25,10 +30,10 @@ public enum CodeSwitch implements CodeOperand {
         public void compile(CompilerOutput code, SwitchData data) {
             // Choose the smallest kind of switch.
             // Lookup has a value-label pair for each value
-            int lookupSize = 8 * data.size();
-            // Table has min, max and labels
-            int tableSize = 4 * (1 + data.getMax() - data.getMin()) + 8;
-            if( lookupSize < tableSize ) {
+            long lookupSize = 8L * data.size();
+            // Table has min, max and labels. The range may not fit in an int.
+            long tableSize = 4L * (1L + data.getMax() - data.getMin()) + 8;
+            if( (data.size() == 0) || (lookupSize < tableSize) ) {
                 LOOKUPSWITCH.compile(code, data);
             } else {
                 TABLESWITCH.compile(code, data);
@@ -36,6 +41,60 @@ public enum CodeSwitch implements CodeOperand {
         }
     },
 
+    /**
+     * Dense clusters of cases as TABLESWITCHes, selected between by a
+     * balanced tree of comparisons. See <code>SwitchPlan</code>. The
+     * thresholds for a table may follow the cases as
+     * <code>density=&lt;min density&gt;</code> and
+     * <code>cases=&lt;min cases&gt;</code>.
+     */
+    CLUSTERSWITCH {
+        /** {@inheritDoc} */
+        @Override
+        public void compile(CompilerOutput code, List<String> toks,
+                ClassData cd) {
+            double minDensity = SwitchPlan.DEFAULT_MIN_DENSITY;
+            int minCases = SwitchPlan.DEFAULT_MIN_TABLE_CASES;
+
+            // read thresholds from the end of the tokens
+            int end = toks.size();
+            while( end > 3 ) {
+                String opt = toks.get(end - 1).toLowerCase();
+                String value = opt.substring(opt.indexOf('=') + 1);
+                try {
+                    if( opt.startsWith("density=") ) {
+                        minDensity = Double.parseDouble(value);
+                    } else if( opt.startsWith("cases=") ) {
+                        minCases = Integer.parseInt(value);
+                    } else {
+                        break;
+                    }
+                } catch (NumberFormatException nfe) {
+                    throw new YabelBadNumberException(toks, end - 1,
+                            opt.startsWith("cases=") ? "int" : "double");
+                }
+                end--;
+            }
+
+            SwitchData data = parse(toks.subList(0, end), cd);
+            SwitchPlan plan;
+            try {
+                plan = new SwitchPlan(data, minDensity, minCases);
+            } catch (IllegalArgumentException iae) {
+                throw new YabelParseException(iae.getMessage() + " in "
+                        + toks.get(0));
+            }
+            plan.compile(code);
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void compile(CompilerOutput code, SwitchData data) {
+            new SwitchPlan(data).compile(code);
+        }
+    },
+
     /** Compile a LOOKUPSWITCH statement */
     LOOKUPSWITCH {
         /** {@inheritDoc} */
@@ -48,7 +107,13 @@ public enum CodeSwitch implements CodeOperand {
             String dflt = data.getDefault();
             code.compileJump(dflt, 4);
             code.appendS4(data.size());
+
+            // the values must be in ascending order
+            SortedMap<Integer, String> sorted = new TreeMap<Integer, String>();
             for(Entry<Integer, String> e:data) {
+                sorted.put(e.getKey(), e.getValue());
+            }
+            for(Entry<Integer, String> e:sorted.entrySet()) {
                 code.appendS4(e.getKey().intValue());
                 code.compileJump(e.getValue(), 4);
             }
@@ -71,8 +136,9 @@ public enum CodeSwitch implements CodeOperand {
             int max = data.getMax();
             code.appendS4(min);
             code.appendS4(max);
-            for(int i = min;i <= max;i++) {
-                Integer ii = Integer.valueOf(i);
+            // a long index cannot wrap when max is Integer.MAX_VALUE
+            for(long i = min;i <= max;i++) {
+                Integer ii = Integer.valueOf((int) i);
                 String slbl = data.get(ii);
                 if( slbl == null ) {
                     // no lookup means default
@@ -84,9 +150,17 @@ public enum CodeSwitch implements CodeOperand {
         }
     };
 
-    /** {@inheritDoc} */
-    @Override
-    public void compile(CompilerOutput code, List<String> toks, ClassData cd) {
+    /**
+     * Get the switch data a switch's tokens specify, either by naming it in
+     * the ClassData or by listing the default and the cases.
+     * 
+     * @param toks
+     *            the tokens
+     * @param cd
+     *            the ClassData
+     * @return the switch data
+     */
+    private static SwitchData parse(List<String> toks, ClassData cd) {
         SwitchData vals;
         if( toks.size() == 3 ) {
             // named SwitchData
@@ -124,18 +198,25 @@ public enum CodeSwitch implements CodeOperand {
                 vals.add(i, label);
             }
         }
+        return vals;
+    }
+
 
-        compile(code, vals);
+    /** {@inheritDoc} */
+    @Override
+    public void compile(CompilerOutput code, List<String> toks, ClassData cd) {
+        compile(code, parse(toks, cd));
     }
 
 
     /**
-     * Compile the actual switch statement
+     * Compile the actual switch statement. The value to switch on must be on
+     * the top of the stack.
      * 
      * @param code
      *            the associated code block
      * @param data
      *            the switch data
      */
-    protected abstract void compile(CompilerOutput code, SwitchData data);
+    public abstract void compile(CompilerOutput code, SwitchData data);
 }
@@ -20,7 +20,9 @@ import yabel.code.YabelWrongTokenCountException;
  * <dd>Undefine the variable
  * </dl>
  * The types "-" and "=" may be used to indicate a single or double width
- * variable of no specific type.
+ * variable of no specific type. If the code allocates variables by liveness,
+ * a variable without a specified slot is given a virtual register instead of
+ * the first available slot.
  * <p>
  * 
  * @author Simon Greatrix
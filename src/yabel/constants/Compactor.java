@@ -0,0 +1,287 @@
+package yabel.constants;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Removes unreferenced constants from a constant pool. Compaction is done in
+ * two passes over everything that references the pool. In the first pass each
+ * reference marks the constant it uses. The pool is then rebuilt with only the
+ * marked constants, in their original order. In the second pass each
+ * reference is renumbered.
+ * <p>
+ * A holder of constant references handles both passes with the same code. It
+ * passes each constant object to <code>constant</code>, and replaces each raw
+ * index with the value returned by <code>index</code>. Whilst marking, raw
+ * indexes are returned unchanged.
+ * <p>
+ * The first 256 slots of the pool are the only ones a one byte LDC can load.
+ * Constants loaded by LDC or LDC_W are placed in those slots first, with the
+ * most frequently loaded preferred. A constant which is already loaded by a
+ * one byte LDC always remains in them. Every other constant keeps its relative
+ * order.
+ *
+ * @author Simon Greatrix
+ */
+public final class Compactor {
+    /** The pool being compacted */
+    private final ConstantPool cp_;
+
+    /** Number of times each canonical constant is loaded by LDC or LDC_W */
+    private final int[] loads_;
+
+    /** The new index for each old index, once marking is complete */
+    private int[] map_ = null;
+
+    /** Why every constant must be kept, or null if they need not be */
+    private String refusal_ = null;
+
+    /** Constant objects which have already been renumbered */
+    private final Map<Constant, Boolean> remapped_ = new IdentityHashMap<Constant, Boolean>();
+
+    /** Which canonical constants are loaded by a one byte LDC */
+    private final boolean[] narrow_;
+
+    /** Which canonical constants are referenced */
+    private final boolean[] used_;
+
+
+    /**
+     * Create a new compactor for a pool.
+     *
+     * @param cp
+     *            the constant pool
+     */
+    public Compactor(ConstantPool cp) {
+        cp_ = cp;
+        int end = cp.getIndexEnd();
+        loads_ = new int[end];
+        narrow_ = new boolean[end];
+        used_ = new boolean[end];
+    }
+
+
+    /**
+     * Mark or renumber a constant object and the constants it references.
+     *
+     * @param c
+     *            the constant, which may be null
+     */
+    public void constant(Constant c) {
+        if( c == null ) return;
+        if( map_ == null ) {
+            mark(c.index_);
+            return;
+        }
+        if( remapped_.put(c, Boolean.TRUE) != null ) return;
+        c.index_ = map(c.index_);
+        c.compact(this);
+    }
+
+
+    /**
+     * Mark or renumber a raw constant index.
+     *
+     * @param index
+     *            the index
+     * @return the index to use in place of the original
+     */
+    public int index(int index) {
+        if( map_ == null ) {
+            mark(index);
+            return index;
+        }
+        return map(index);
+    }
+
+
+    /**
+     * Get the reason the pool cannot be compacted. Only the first reason found
+     * is recorded.
+     * 
+     * @return the reason, or null if nothing prevents compaction
+     */
+    public String getRefusal() {
+        return refusal_;
+    }
+
+
+    /**
+     * Is this compactor still marking the constants in use?
+     *
+     * @return true if marking, false if renumbering
+     */
+    public boolean isMarking() {
+        return map_ == null;
+    }
+
+
+    /**
+     * Record that references were found which cannot be interpreted, so every
+     * constant must be kept where it is. Compaction will not happen.
+     * 
+     * @param reason
+     *            why the references cannot be interpreted
+     */
+    public void keepAll(String reason) {
+        if( refusal_ == null ) refusal_ = reason;
+    }
+
+
+    /**
+     * Mark or renumber the constant index of an LDC, LDC_W or LDC2_W
+     * instruction. Constants loaded in this way are placed in the first 256
+     * slots of the pool if possible.
+     * 
+     * @param index
+     *            the index
+     * @param wide
+     *            true if the index is two bytes
+     * @return the index to use in place of the original
+     */
+    public int load(int index, boolean wide) {
+        if( map_ == null ) {
+            mark(index);
+            if( (0 < index) && (index < used_.length) ) {
+                int i = cp_.canonicalIndex(index);
+                loads_[i]++;
+                if( !wide ) narrow_[i] = true;
+            }
+            return index;
+        }
+        return map(index);
+    }
+
+
+    /**
+     * Get the new index for an old index.
+     *
+     * @param index
+     *            the old index
+     * @return the new index
+     */
+    private int map(int index) {
+        if( index == 0 ) return 0;
+        int i = ((0 < index) && (index < map_.length)) ? map_[index] : 0;
+        if( i == 0 )
+            throw new YabelConstantException("Constant " + index
+                    + " was not marked as in use");
+        return i;
+    }
+
+
+    /**
+     * Mark a constant as in use, together with the constants it references.
+     *
+     * @param index
+     *            the constant's index
+     */
+    private void mark(int index) {
+        if( (index <= 0) || (used_.length <= index) ) {
+            // an invalid reference, so nothing can be moved
+            if( index != 0 )
+                keepAll("Constant index " + index + " is outside the pool");
+            return;
+        }
+        index = cp_.canonicalIndex(index);
+        if( used_[index] ) return;
+        Constant c = cp_.getEntry(index);
+        if( c == null ) {
+            keepAll("Constant index " + index + " is not the start of an entry");
+            return;
+        }
+        used_[index] = true;
+        c.compact(this);
+    }
+
+
+    /**
+     * Finish marking, and rebuild the pool with just the constants in use. All
+     * references must then be passed to this compactor again to be
+     * renumbered.
+     *
+     * @return false if the pool could not be compacted and has not changed,
+     *         in which case <code>getRefusal</code> says why
+     */
+    public boolean remap() {
+        if( map_ != null )
+            throw new IllegalStateException("Pool has already been remapped");
+        if( refusal_ != null ) return false;
+
+        // the loaded constants take the low slots, then the rest follow
+        int end = used_.length;
+        boolean[] low = selectLow();
+        int[] canonMap = new int[end];
+        int next = 1;
+        for(int i = 1;i < end;i++) {
+            if( low[i] ) {
+                canonMap[i] = next;
+                next += cp_.getEntry(i).getPoolSize();
+            }
+        }
+        for(int i = 1;i < end;i++) {
+            if( used_[i] && !low[i] ) {
+                canonMap[i] = next;
+                next += cp_.getEntry(i).getPoolSize();
+            }
+        }
+
+        // duplicate constants map to their canonical equivalent
+        map_ = new int[end];
+        for(int i = 1;i < end;i++) {
+            map_[i] = canonMap[cp_.canonicalIndex(i)];
+        }
+
+        // renumber the pool's own constants
+        Constant[] entries = new Constant[next];
+        for(int i = 1;i < end;i++) {
+            Constant c = cp_.getEntry(i);
+            if( (c == null) || (map_[i] == 0) ) continue;
+            constant(c);
+            if( used_[i] ) entries[c.index_] = c;
+        }
+        cp_.rebuild(entries);
+        return true;
+    }
+
+
+    /**
+     * Select the constants which will occupy the first 256 slots of the pool.
+     * Those loaded by a one byte LDC are always selected. There can be at
+     * most 255 of them, as that is all the slots there are. Any remaining
+     * slots go to the constants most often loaded by LDC_W.
+     * 
+     * @return which canonical constants are selected
+     */
+    private boolean[] selectLow() {
+        int end = used_.length;
+        boolean[] low = new boolean[end];
+        int free = 255;
+        int wide = 0;
+        for(int i = 1;i < end;i++) {
+            if( narrow_[i] ) {
+                low[i] = true;
+                free--;
+            } else if( loads_[i] > 0 ) {
+                wide++;
+            }
+        }
+        if( wide == 0 ) return low;
+
+        // sort the others by the number of loads, most first
+        long[] order = new long[wide];
+        int n = 0;
+        for(int i = 1;i < end;i++) {
+            if( !narrow_[i] && (loads_[i] > 0) ) {
+                order[n++] = ((long) -loads_[i] << 32) | i;
+            }
+        }
+        Arrays.sort(order);
+        for(int j = 0;(j < wide) && (free > 0);j++) {
+            low[(int) order[j]] = true;
+            free--;
+        }
+        return low;
+    }
+}
@@ -2,6 +2,7 @@ package yabel.constants;
 
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * An entry in the class constant pool
@@ -26,6 +27,18 @@ abstract public class Constant implements Comparable<Constant> {
     }
 
 
+    /**
+     * Pass the constants referenced by this constant to a compactor. Constants
+     * which reference no others need do nothing.
+     * 
+     * @param compactor
+     *            the compactor
+     */
+    void compact(Compactor compactor) {
+    // do nothing
+    }
+
+
     /**
      * Compare to other constants. Sorts into constant pool index order.
      * 
@@ -40,6 +53,14 @@ abstract public class Constant implements Comparable<Constant> {
     }
 
 
+    /**
+     * Get the number of bytes this constant occupies in a class file
+     * 
+     * @return the size in bytes
+     */
+    abstract public int computeSize();
+
+
     /**
      * Get the index in the constant pool
      * 
@@ -50,6 +71,18 @@ abstract public class Constant implements Comparable<Constant> {
     }
 
 
+    /**
+     * Get the key which, together with the tag, identifies equivalent
+     * constants. Components that are themselves constants are represented by
+     * their canonical index.
+     * 
+     * @param cp
+     *            the constant pool that contains this
+     * @return the key
+     */
+    abstract long getKey(ConstantPool cp);
+
+
     /**
      * Get the number of slots used by this in the constant pool
      * 
@@ -60,6 +93,14 @@ abstract public class Constant implements Comparable<Constant> {
     }
 
 
+    /**
+     * Get the tag used for this constant type.
+     * 
+     * @return tag used
+     */
+    abstract protected int getTag();
+
+
     /**
      * Validate that any constants referenced from this constant are the
      * correct type.
@@ -72,11 +113,24 @@ abstract public class Constant implements Comparable<Constant> {
     }
 
 
+    /**
+     * Output this to a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     */
+    abstract public void writeTo(ByteBuffer buf);
+
+
     /**
      * Output this to the stream
      * 
      * @param baos
      *            output stream
      */
-    abstract public void writeTo(ByteArrayOutputStream baos);
+    public void writeTo(ByteArrayOutputStream baos) {
+        byte[] data = new byte[computeSize()];
+        writeTo(ByteBuffer.wrap(data));
+        baos.write(data, 0, data.length);
+    }
 }
\ No newline at end of file
@@ -1,6 +1,6 @@
 package yabel.constants;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
 import yabel.io.IO;
 
@@ -52,7 +52,21 @@ public class ConstantClass extends Constant {
      *            class name
      */
     public ConstantClass(ConstantPool cp, String name) {
-        this(cp, new ConstantUtf8(cp, name));
+        this(cp, cp.getUtf8Constant(name));
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    void compact(Compactor compactor) {
+        compactor.constant(name_);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 3;
     }
 
 
@@ -110,6 +124,20 @@ public class ConstantClass extends Constant {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    long getKey(ConstantPool cp) {
+        return cp.canonicalIndex(name_.getIndex());
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getTag() {
+        return 7;
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public int hashCode() {
@@ -126,8 +154,8 @@ public class ConstantClass extends Constant {
 
     /** {@inheritDoc} */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        baos.write(7);
-        IO.writeU2(baos, name_.getIndex());
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU1(buf, 7);
+        IO.writeU2(buf, name_.getIndex());
     }
 }
\ No newline at end of file
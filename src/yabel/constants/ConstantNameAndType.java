@@ -1,8 +1,9 @@
 package yabel.constants;
 
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
+import yabel.Descriptor;
 import yabel.io.IO;
 
 /**
@@ -44,7 +45,7 @@ class ConstantNameAndType extends Constant {
      *            type
      */
     public ConstantNameAndType(ConstantPool cp, String name, String type) {
-        this(cp, new ConstantUtf8(cp,name), new ConstantUtf8(cp,type));
+        this(cp, cp.getUtf8Constant(name), cp.getUtf8Constant(type));
     }
 
 
@@ -65,6 +66,21 @@ class ConstantNameAndType extends Constant {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    void compact(Compactor compactor) {
+        compactor.constant(name_);
+        compactor.constant(type_);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 5;
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public boolean equals(Object obj) {
@@ -76,6 +92,16 @@ class ConstantNameAndType extends Constant {
     }
 
 
+    /**
+     * Get the type parsed as a descriptor
+     * 
+     * @return the descriptor
+     */
+    public Descriptor getDescriptor() {
+        return type_.getDescriptor();
+    }
+
+
     /**
      * Get the name from the constant pool
      * 
@@ -96,6 +122,21 @@ class ConstantNameAndType extends Constant {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    long getKey(ConstantPool cp) {
+        return ((long) cp.canonicalIndex(name_.getIndex()) << 16)
+                | cp.canonicalIndex(type_.getIndex());
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getTag() {
+        return 12;
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public int hashCode() {
@@ -112,9 +153,9 @@ class ConstantNameAndType extends Constant {
 
     /** {@inheritDoc} */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        baos.write(12);
-        IO.writeU2(baos, name_.getIndex());
-        IO.writeU2(baos, type_.getIndex());
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU1(buf, 12);
+        IO.writeU2(buf, name_.getIndex());
+        IO.writeU2(buf, type_.getIndex());
     }
 }
\ No newline at end of file
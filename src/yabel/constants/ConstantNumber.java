@@ -2,9 +2,8 @@ package yabel.constants;
 
 import yabel.io.IO;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A numerical constant. May be integer, float, double, or long.
@@ -74,10 +73,10 @@ public class ConstantNumber extends Constant {
      * @param tag
      *            the constant tag type
      * @param input
-     *            the input stream
+     *            the big-endian buffer
      * @throws IOException
      */
-    ConstantNumber(int tag, InputStream input) throws IOException {
+    ConstantNumber(int tag, ByteBuffer input) throws IOException {
         tag_ = tag;
         switch (tag_) {
         case 3: // integer
@@ -98,6 +97,13 @@ public class ConstantNumber extends Constant {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return (tag_ < 5) ? 5 : 9;
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public boolean equals(Object obj) {
@@ -128,6 +134,29 @@ public class ConstantNumber extends Constant {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    long getKey(ConstantPool cp) {
+        switch (tag_) {
+        case 3: // integer
+            return value_.intValue();
+        case 4: // float
+            return Float.floatToIntBits(value_.floatValue());
+        case 5: // long
+            return value_.longValue();
+        default: // double
+            return Double.doubleToLongBits(value_.doubleValue());
+        }
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getTag() {
+        return tag_;
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public int hashCode() {
@@ -144,22 +173,22 @@ public class ConstantNumber extends Constant {
 
     /** {@inheritDoc} */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
+    public void writeTo(ByteBuffer buf) {
         // write tag
-        baos.write(tag_);
+        IO.writeU1(buf, tag_);
 
         switch (tag_) {
         case 3:
-            IO.writeS4(baos, value_.intValue());
+            IO.writeS4(buf, value_.intValue());
             break;
         case 4:
-            IO.writeS4(baos, Float.floatToRawIntBits(value_.floatValue()));
+            IO.writeS4(buf, Float.floatToRawIntBits(value_.floatValue()));
             break;
         case 5:
-            IO.writeS8(baos, value_.longValue());
+            IO.writeS8(buf, value_.longValue());
             break;
         case 6:
-            IO.writeS8(baos, Double.doubleToRawLongBits(value_.doubleValue()));
+            IO.writeS8(buf, Double.doubleToRawLongBits(value_.doubleValue()));
             break;
         }
     }
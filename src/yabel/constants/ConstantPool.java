@@ -3,11 +3,8 @@ package yabel.constants;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import yabel.ClassBuilder;
 import yabel.io.IO;
@@ -19,18 +16,136 @@ import yabel.io.IO;
  * 
  */
 public class ConstantPool {
+    /** The default fraction of the canonical table that may be filled */
+    public static final float DEFAULT_LOAD_FACTOR = 0.5f;
+
+
+    /**
+     * Copy a constant pool from a stream. The constants are not decoded, only
+     * their tags and lengths are followed so the stream is left positioned
+     * immediately after the pool.
+     * 
+     * @param input
+     *            the stream
+     * @param out
+     *            the output
+     * @throws IOException
+     */
+    public static void copy(InputStream input, ByteArrayOutputStream out)
+            throws IOException {
+        int count = IO.copyU2(input, out);
+        int i = 1;
+        while( i < count ) {
+            int tag = IO.copyU1(input, out);
+            switch (tag) {
+            case 1:
+                IO.copyBytes(input, out, IO.copyU2(input, out));
+                break;
+            case 3:
+                // falls through
+            case 4:
+                // falls through
+            case 9:
+                // falls through
+            case 10:
+                // falls through
+            case 11:
+                // falls through
+            case 12:
+                IO.copyBytes(input, out, 4);
+                break;
+            case 5:
+                // falls through
+            case 6:
+                // long and double take two slots
+                IO.copyBytes(input, out, 8);
+                i++;
+                break;
+            case 7:
+                // falls through
+            case 8:
+                IO.copyBytes(input, out, 2);
+                break;
+            default:
+                throw new IOException("Constant tag type " + tag + " unknown");
+            }
+            i++;
+        }
+    }
+
+
+    /**
+     * Hash a constant's tag and key.
+     * 
+     * @param tag
+     *            the tag
+     * @param key
+     *            the key
+     * @param str
+     *            the value of a Utf8 constant, or null
+     * @return the hash
+     */
+    private static int hash(int tag, long key, String str) {
+        int h = (str != null) ? str.hashCode() : (int) (key ^ (key >>> 32));
+        h = (h * 0x9e3779b9) + tag;
+        return h ^ (h >>> 16);
+    }
+
+
+    /**
+     * Read a constant pool from a stream into a buffer.
+     * 
+     * @param input
+     *            the stream
+     * @return the buffer
+     * @throws IOException
+     */
+    private static ByteBuffer read(InputStream input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(input, out);
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * For each index, the index of the canonical equivalent constant. Class
+     * files may contain duplicate constants and these map to the first one.
+     */
+    private int[] canon_;
+
+    /** Number of canonical constants */
+    private int count_ = 0;
+
     /** Indexed constants */
-    private final List<Constant> index_ = new ArrayList<Constant>();
+    private Constant[] index_;
+
+    /** One more than the highest index in use */
+    private int indexEnd_ = 0;
+
+    /** The fraction of the canonical table that may be filled */
+    private float loadFactor_ = DEFAULT_LOAD_FACTOR;
 
     /** The class that owns this constant pool */
     private final ClassBuilder owner_;
 
-    /** Canonical constants */
-    private final Map<Constant, Constant> pool_ = new HashMap<Constant, Constant>();
-
     /** Size of the constant pool */
     private int size_ = 0;
 
+    /**
+     * Open-addressing table of canonical constants, keyed on the tag and the
+     * constant's components. Each entry holds a constant index, or zero if the
+     * entry is empty.
+     */
+    private int[] table_;
+
+    /** The hash of each table entry */
+    private int[] tableHash_;
+
+    /** The key of each table entry */
+    private long[] tableKey_;
+
+    /** The number of constants the table may hold before it is enlarged */
+    private int threshold_;
+
 
     /**
      * Create new empty constant pool.
@@ -40,6 +155,7 @@ public class ConstantPool {
      */
     public ConstantPool(ClassBuilder owner) {
         owner_ = owner;
+        allocate(16);
     }
 
 
@@ -51,32 +167,87 @@ public class ConstantPool {
      * @param input
      *            the stream
      * @throws IOException
+     * @deprecated the pool is decoded from a buffer, use
+     *             {@link #ConstantPool(ClassBuilder, ByteBuffer)}
      */
+    @Deprecated
     public ConstantPool(ClassBuilder owner, InputStream input)
             throws IOException {
+        this(owner, read(input), null);
+    }
+
+
+    /**
+     * Read a constant pool from a stream.
+     * 
+     * @param owner
+     *            the owning class builder
+     * @param input
+     *            the stream
+     * @param interner
+     *            shared table for Utf8 values, or null
+     * @throws IOException
+     * @deprecated the pool is decoded from a buffer, use
+     *             {@link #ConstantPool(ClassBuilder, ByteBuffer, Utf8Interner)}
+     */
+    @Deprecated
+    public ConstantPool(ClassBuilder owner, InputStream input,
+            Utf8Interner interner) throws IOException {
+        this(owner, read(input), interner);
+    }
+
+
+    /**
+     * Read a constant pool from a big-endian buffer. The constants are decoded
+     * directly from the buffer, starting at its current position.
+     * 
+     * @param owner
+     *            the owning class builder
+     * @param input
+     *            the buffer
+     * @throws IOException
+     */
+    public ConstantPool(ClassBuilder owner, ByteBuffer input)
+            throws IOException {
+        this(owner, input, null);
+    }
+
+
+    /**
+     * Read a constant pool from a big-endian buffer. The constants are decoded
+     * directly from the buffer, starting at its current position.
+     * 
+     * @param owner
+     *            the owning class builder
+     * @param input
+     *            the buffer
+     * @param interner
+     *            shared table for Utf8 values, or null
+     * @throws IOException
+     */
+    public ConstantPool(ClassBuilder owner, ByteBuffer input,
+            Utf8Interner interner) throws IOException {
         owner_ = owner;
 
         // how many constants?
         int s = IO.readU2(input);
+        allocate(s);
 
         while( s > 1 ) {
             int tag = IO.readU1(input);
             Constant c = null;
             switch (tag) {
             case 1:
-                c = new ConstantUtf8(input);
+                c = new ConstantUtf8(input, interner);
                 break;
             case 3:
-                c = new ConstantNumber(3, input);
-                break;
+                // falls through
             case 4:
-                c = new ConstantNumber(4, input);
-                break;
+                // falls through
             case 5:
-                c = new ConstantNumber(5, input);
-                break;
+                // falls through
             case 6:
-                c = new ConstantNumber(6, input);
+                c = new ConstantNumber(tag, input);
                 break;
             case 7:
                 // falls through
@@ -96,38 +267,58 @@ public class ConstantPool {
             }
 
             s -= c.getPoolSize();
+            loaded(c);
+        }
 
-            c.index_ = size_ + 1;
-            size_ += c.getPoolSize();
+        resolveAll();
+    }
+
+
+    /**
+     * Allocate the index and canonical table for a number of constants.
+     * 
+     * @param size
+     *            the expected number of constants
+     */
+    private void allocate(int size) {
+        index_ = new Constant[size];
+        canon_ = new int[size];
+        allocateTable(size);
+    }
 
-            // add constant to index
-            while( index_.size() <= c.index_ ) {
-                index_.add(null);
-            }
-            index_.set(c.index_, c);
 
-            // constant may not be canonical
-            Constant p = pool_.get(c);
-            if( p == null ) pool_.put(c, c);
+    /**
+     * Allocate an empty canonical table large enough to hold a number of
+     * constants.
+     * 
+     * @param size
+     *            the number of constants
+     */
+    private void allocateTable(int size) {
+        int cap = 16;
+        while( cap * loadFactor_ < size ) {
+            cap *= 2;
         }
+        table_ = new int[cap];
+        tableHash_ = new int[cap];
+        tableKey_ = new long[cap];
+        threshold_ = (int) (cap * loadFactor_);
+    }
 
-        s = index_.size();
-        for(int ph = 0;ph < 3;ph++) {
-            for(int i = 0;i < s;i++) {
-                Constant c = index_.get(i);
-                if( c == null ) continue;
-                if( !(c instanceof Unresolved) ) continue;
-                Unresolved u = (Unresolved) c;
-                c = u.resolve(this, ph);
-                if( c != null ) {
-                    c.index_ = u.index_;
-                    pool_.remove(u);
-                    index_.set(c.index_, c);
-                    Constant p = pool_.get(c);
-                    if( p == null ) pool_.put(c, c);
-                }
-            }
+
+    /**
+     * Get the canonical index of the constant at an index.
+     * 
+     * @param index
+     *            the index
+     * @return the index of the canonical equivalent constant
+     */
+    int canonicalIndex(int index) {
+        if( (0 < index) && (index < indexEnd_) ) {
+            int c = canon_[index];
+            if( c != 0 ) return c;
         }
+        return index;
     }
 
 
@@ -140,32 +331,50 @@ public class ConstantPool {
      * @return the canonical constant
      */
     Constant canonicalize(Constant val) {
-        Constant canon = pool_.get(val);
-        if( canon == null ) {
-            pool_.put(val, val);
-            canon = val;
-            if( canon.index_ == -1 ) {
-                // new constant, give it an id
-                canon.index_ = size_ + 1;
-                size_ += canon.getPoolSize();
-            } else {
-                // replacement constant - ensure it is not already assigned
-                Constant c = index_.get(canon.index_);
-                if( (c != null) && !c.equals(canon) ) {
-                    throw new AssertionError("Cannot reassign constant "
-                            + canon.index_ + " from " + c + " to " + canon);
-                }
-            }
-
-            while( index_.size() <= canon.index_ ) {
-                index_.add(null);
-            }
-            index_.set(canon.index_, canon);
-        } else {
+        int tag = val.getTag();
+        long key = val.getKey(this);
+        String str = (tag == 1) ? ((ConstantUtf8) val).get() : null;
+        int hash = hash(tag, key, str);
+        int slot = find(tag, hash, key, str);
+        if( table_[slot] != 0 ) {
             // just set the id
+            Constant canon = index_[table_[slot]];
             val.index_ = canon.index_;
+            return canon;
         }
-        return canon;
+
+        if( val.index_ == -1 ) {
+            // new constant, give it an id
+            val.index_ = size_ + 1;
+            size_ += val.getPoolSize();
+        } else if( val.index_ < indexEnd_ ) {
+            // replacement constant - ensure it is not already assigned
+            Constant c = index_[val.index_];
+            if( (c != null) && !c.equals(val) ) {
+                throw new AssertionError("Cannot reassign constant "
+                        + val.index_ + " from " + c + " to " + val);
+            }
+        }
+
+        setIndex(val);
+        canon_[val.index_] = val.index_;
+        insert(slot, val.index_, hash, key);
+        return val;
+    }
+
+
+    /**
+     * Get the number of bytes this constant pool occupies in a class file.
+     * 
+     * @return the size in bytes
+     */
+    public int computeSize() {
+        int size = 2;
+        for(int i = 1;i < indexEnd_;i++) {
+            Constant c = index_[i];
+            if( c != null ) size += c.computeSize();
+        }
+        return size;
     }
 
 
@@ -177,15 +386,15 @@ public class ConstantPool {
      * @return the constant
      */
     public Constant get(int i) {
-        if( (i < 0) || (index_.size() <= i) )
+        if( (i < 0) || (indexEnd_ <= i) )
             throw new YabelConstantException(
                     "Constant indexes are in the range 0 to "
-                            + (index_.size() - 1) + " not " + i);
-        Constant c = index_.get(i);
+                            + (indexEnd_ - 1) + " not " + i);
+        Constant c = index_[i];
         if( c == null ) {
             // this should only happen if (i-1) is a long or double
             if( i > 0 ) {
-                c = index_.get(i - 1);
+                c = index_[i - 1];
                 if( c != null )
                     throw new YabelConstantException("Constant " + i
                             + " is not defined. Previous constant is " + c);
@@ -198,14 +407,160 @@ public class ConstantPool {
 
 
     /**
-     * Get the canonical version of a constant
+     * Get the canonical class constant for a name, creating it if it is not
+     * already in the pool.
      * 
-     * @param val
-     *            The constant to get.
-     * @return the canonical constant or null if there is no such constant yet
+     * @param name
+     *            the class name
+     * @return the constant
+     */
+    ConstantClass getClassConstant(ConstantUtf8 name) {
+        ConstantClass c = lookupClass(name.getIndex());
+        return (c != null) ? c : new ConstantClass(this, name);
+    }
+
+
+    /**
+     * Get the index of a class constant, creating it if necessary.
+     * 
+     * @param name
+     *            the class name
+     * @return the index
+     */
+    public int getClassRef(String name) {
+        return getClassConstant(getUtf8Constant(name)).getIndex();
+    }
+
+
+    /**
+     * Get the constant stored at an index, if any.
+     * 
+     * @param i
+     *            the index
+     * @return the constant, or null
+     */
+    Constant getEntry(int i) {
+        return ((0 < i) && (i < indexEnd_)) ? index_[i] : null;
+    }
+
+
+    /**
+     * Get one more than the highest index in use.
+     * 
+     * @return the end of the index
+     */
+    int getIndexEnd() {
+        return indexEnd_;
+    }
+
+
+    /**
+     * Get the index of a field reference, creating it if necessary.
+     * 
+     * @param clss
+     *            the class name
+     * @param name
+     *            the field name
+     * @param type
+     *            the field type
+     * @return the index
+     */
+    public int getFieldRef(String clss, String name, String type) {
+        return getRef(9, clss, name, type).getIndex();
+    }
+
+
+    /**
+     * Get the index of an interface method reference, creating it if
+     * necessary.
+     * 
+     * @param clss
+     *            the interface name
+     * @param name
+     *            the method name
+     * @param type
+     *            the method type
+     * @return the index
+     */
+    public int getInterfaceMethodRef(String clss, String name, String type) {
+        return getRef(11, clss, name, type).getIndex();
+    }
+
+
+    /**
+     * Find the table entry for a constant. If the constant is not in the
+     * table, the empty entry where it would be inserted is returned.
+     * 
+     * @param tag
+     *            the constant's tag
+     * @param hash
+     *            the constant's hash
+     * @param key
+     *            the constant's key
+     * @param str
+     *            the value of a Utf8 constant, or null
+     * @return the table entry
+     */
+    private int find(int tag, int hash, long key, String str) {
+        int mask = table_.length - 1;
+        int slot = hash & mask;
+        while( true ) {
+            int i = table_[slot];
+            if( i == 0 ) return slot;
+            if( (tableHash_[slot] == hash) && (tableKey_[slot] == key) ) {
+                Constant c = index_[i];
+                if( c.getTag() == tag ) {
+                    if( str == null ) return slot;
+                    if( ((ConstantUtf8) c).get().equals(str) ) return slot;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+
+    /**
+     * Get the fraction of the canonical table that may be filled before it is
+     * enlarged.
+     * 
+     * @return the load factor
      */
-    Constant getCanon(Constant val) {
-        return pool_.get(val);
+    public float getLoadFactor() {
+        return loadFactor_;
+    }
+
+
+    /**
+     * Get the index of a method reference, creating it if necessary.
+     * 
+     * @param clss
+     *            the class name
+     * @param name
+     *            the method name
+     * @param type
+     *            the method type
+     * @return the index
+     */
+    public int getMethodRef(String clss, String name, String type) {
+        return getRef(10, clss, name, type).getIndex();
+    }
+
+
+    /**
+     * Get the canonical name-and-type constant for a name and a type,
+     * creating it if it is not already in the pool.
+     * 
+     * @param name
+     *            the name
+     * @param type
+     *            the type
+     * @return the constant
+     */
+    ConstantNameAndType getNameAndTypeConstant(ConstantUtf8 name,
+            ConstantUtf8 type) {
+        ConstantNameAndType c = lookupNameAndType(name.getIndex(),
+                type.getIndex());
+        return (c != null) ? c : new ConstantNameAndType(this, name, type);
     }
 
 
@@ -214,6 +569,39 @@ public class ConstantPool {
     }
 
 
+    /**
+     * Get the canonical field, method or interface method reference to a
+     * member of a class, creating it if it is not already in the pool. The
+     * lookup uses the indexes of the components, so no constant is created
+     * unless it is missing.
+     * 
+     * @param tag
+     *            the tag of the reference type
+     * @param clss
+     *            the class name
+     * @param name
+     *            the member name
+     * @param type
+     *            the member type
+     * @return the constant
+     */
+    private ConstantRef getRef(int tag, String clss, String name, String type) {
+        ConstantClass c = getClassConstant(getUtf8Constant(clss));
+        ConstantNameAndType nt = getNameAndTypeConstant(
+                getUtf8Constant(name), getUtf8Constant(type));
+        ConstantRef r = lookupRef(tag, c.getIndex(), nt.getIndex());
+        if( r != null ) return r;
+        switch (tag) {
+        case 9:
+            return new ConstantFieldRef(this, c, nt);
+        case 10:
+            return new ConstantMethodRef(this, c, nt);
+        default:
+            return new ConstantInterfaceMethodRef(this, c, nt);
+        }
+    }
+
+
     /**
      * Get the index of a Utf8 constant for a string
      * 
@@ -222,8 +610,7 @@ public class ConstantPool {
      * @return index
      */
     public int getUtf8(String str) {
-        ConstantUtf8 utf8 = new ConstantUtf8(this, str);
-        return utf8.getIndex();
+        return getUtf8Constant(str).getIndex();
     }
 
 
@@ -237,8 +624,298 @@ public class ConstantPool {
      * @return index, which will be -1 if the Utf8 is not in the pool
      */
     public int getUtf8(String str, boolean create) {
-        ConstantUtf8 utf8 = new ConstantUtf8(this, str, create);
-        return utf8.getIndex();
+        if( create ) return getUtf8(str);
+        ConstantUtf8 c = lookupUtf8(str);
+        return (c == null) ? -1 : c.getIndex();
+    }
+
+
+    /**
+     * Get the canonical Utf8 constant for a string, creating it if it is not
+     * already in the pool.
+     * 
+     * @param str
+     *            the string
+     * @return the constant
+     */
+    ConstantUtf8 getUtf8Constant(String str) {
+        ConstantUtf8 c = lookupUtf8(str);
+        return (c != null) ? c : new ConstantUtf8(this, str);
+    }
+
+
+    /**
+     * Insert a constant into the canonical table, enlarging the table if
+     * necessary.
+     * 
+     * @param slot
+     *            the empty table entry
+     * @param index
+     *            the constant's index
+     * @param hash
+     *            the constant's hash
+     * @param key
+     *            the constant's key
+     */
+    private void insert(int slot, int index, int hash, long key) {
+        table_[slot] = index;
+        tableHash_[slot] = hash;
+        tableKey_[slot] = key;
+        count_++;
+        if( count_ > threshold_ ) rehash(count_);
+    }
+
+
+    /**
+     * Record a constant that has just been read from a class file.
+     * 
+     * @param c
+     *            the constant
+     */
+    private void loaded(Constant c) {
+        c.index_ = size_ + 1;
+        size_ += c.getPoolSize();
+        setIndex(c);
+
+        // unresolved constants are registered once resolved
+        if( !(c instanceof Unresolved) ) register(c);
+    }
+
+
+    /**
+     * Find the canonical constant with a tag and key. No constant is created
+     * to do the lookup.
+     * 
+     * @param tag
+     *            the constant's tag
+     * @param key
+     *            the constant's key
+     * @return the canonical constant, or null if there is none
+     */
+    private Constant lookup(int tag, long key) {
+        int i = table_[find(tag, hash(tag, key, null), key, null)];
+        return (i == 0) ? null : index_[i];
+    }
+
+
+    /**
+     * Find the canonical class constant for a name.
+     * 
+     * @param name
+     *            the index of the Utf8 name
+     * @return the constant, or null if there is none
+     */
+    ConstantClass lookupClass(int name) {
+        if( name <= 0 ) return null;
+        return (ConstantClass) lookup(7, canonicalIndex(name));
+    }
+
+
+    /**
+     * Find the canonical name-and-type constant for a name and a type.
+     * 
+     * @param name
+     *            the index of the Utf8 name
+     * @param type
+     *            the index of the Utf8 type
+     * @return the constant, or null if there is none
+     */
+    ConstantNameAndType lookupNameAndType(int name, int type) {
+        if( (name <= 0) || (type <= 0) ) return null;
+        long key = ((long) canonicalIndex(name) << 16) | canonicalIndex(type);
+        return (ConstantNameAndType) lookup(12, key);
+    }
+
+
+    /**
+     * Find the canonical field, method or interface method reference to a
+     * member of a class.
+     * 
+     * @param tag
+     *            the tag of the reference type
+     * @param clss
+     *            the index of the class constant
+     * @param nameAndType
+     *            the index of the name-and-type constant
+     * @return the constant, or null if there is none
+     */
+    ConstantRef lookupRef(int tag, int clss, int nameAndType) {
+        if( (clss <= 0) || (nameAndType <= 0) ) return null;
+        long key = ((long) canonicalIndex(clss) << 16)
+                | canonicalIndex(nameAndType);
+        return (ConstantRef) lookup(tag, key);
+    }
+
+
+    /**
+     * Find the canonical Utf8 constant for a string.
+     * 
+     * @param str
+     *            the string
+     * @return the constant, or null if there is none
+     */
+    ConstantUtf8 lookupUtf8(String str) {
+        int i = table_[find(1, hash(1, 0, str), 0, str)];
+        return (i == 0) ? null : (ConstantUtf8) index_[i];
+    }
+
+
+    /**
+     * Rebuild the canonical table so it can hold a number of constants.
+     * 
+     * @param size
+     *            the number of constants
+     */
+    private void rehash(int size) {
+        int[] table = table_;
+        int[] tableHash = tableHash_;
+        long[] tableKey = tableKey_;
+        allocateTable(size);
+        int mask = table_.length - 1;
+        for(int i = 0;i < table.length;i++) {
+            if( table[i] == 0 ) continue;
+            int slot = tableHash[i] & mask;
+            while( table_[slot] != 0 ) {
+                slot = (slot + 1) & mask;
+            }
+            table_[slot] = table[i];
+            tableHash_[slot] = tableHash[i];
+            tableKey_[slot] = tableKey[i];
+        }
+    }
+
+
+    /**
+     * Replace the contents of this pool after compaction. Every constant must
+     * already have been given its new index.
+     * 
+     * @param entries
+     *            the constants, indexed by their new index
+     */
+    void rebuild(Constant[] entries) {
+        index_ = entries;
+        canon_ = new int[entries.length];
+        indexEnd_ = entries.length;
+        size_ = indexEnd_ - 1;
+        count_ = 0;
+        allocateTable(indexEnd_);
+        for(int i = 1;i < indexEnd_;i++) {
+            Constant c = index_[i];
+            if( c != null ) register(c);
+        }
+    }
+
+
+    /**
+     * Register a constant read from a class file with the canonical table.
+     * If an equivalent constant is already present, this one maps to it.
+     * 
+     * @param c
+     *            the constant
+     */
+    private void register(Constant c) {
+        int tag = c.getTag();
+        long key = c.getKey(this);
+        String str = (tag == 1) ? ((ConstantUtf8) c).get() : null;
+        int hash = hash(tag, key, str);
+        int slot = find(tag, hash, key, str);
+        int p = table_[slot];
+        if( p != 0 ) {
+            // constant is not canonical
+            canon_[c.index_] = p;
+        } else {
+            canon_[c.index_] = c.index_;
+            insert(slot, c.index_, hash, key);
+        }
+    }
+
+
+    /**
+     * Resolve a constant read from a class file. Field, method and interface
+     * method references depend on class and name-and-type constants, so those
+     * are resolved first if necessary. The other constants only depend on
+     * Utf8 constants which never need resolving.
+     * 
+     * @param u
+     *            the unresolved constant
+     */
+    private void resolve(Unresolved u) {
+        int tag = u.getTag();
+        if( (9 <= tag) && (tag <= 11) ) {
+            resolveDependency(u.getValue1());
+            resolveDependency(u.getValue2());
+        }
+
+        Constant c = u.resolve(this);
+        index_[c.index_] = c;
+        register(c);
+    }
+
+
+    /**
+     * Resolve all constants that were read from a class file and which
+     * reference other constants. This is done in a single pass over the
+     * index, with each constant's dependencies resolved on demand.
+     */
+    private void resolveAll() {
+        for(int i = 1;i < indexEnd_;i++) {
+            Constant c = index_[i];
+            if( c instanceof Unresolved ) resolve((Unresolved) c);
+        }
+    }
+
+
+    /**
+     * Resolve a constant that a reference depends upon, if it has not been
+     * resolved yet. Only class and name-and-type constants are resolved here.
+     * Anything else is invalid and is reported when the reference is
+     * validated.
+     * 
+     * @param index
+     *            the index of the dependency
+     */
+    private void resolveDependency(int index) {
+        if( (index <= 0) || (indexEnd_ <= index) ) return;
+        Constant c = index_[index];
+        if( !(c instanceof Unresolved) ) return;
+        int tag = c.getTag();
+        if( (tag == 7) || (tag == 12) ) resolve((Unresolved) c);
+    }
+
+
+    /**
+     * Place a constant in the index at its assigned position, enlarging the
+     * index if necessary.
+     * 
+     * @param c
+     *            the constant
+     */
+    private void setIndex(Constant c) {
+        int i = c.index_;
+        if( i >= index_.length ) {
+            int len = Math.max(i + 1, index_.length * 2);
+            index_ = Arrays.copyOf(index_, len);
+            canon_ = Arrays.copyOf(canon_, len);
+        }
+        index_[i] = c;
+        if( i >= indexEnd_ ) indexEnd_ = i + 1;
+    }
+
+
+    /**
+     * Set the fraction of the canonical table that may be filled before it is
+     * enlarged. A pool near the 65535 constant limit may use a higher load
+     * factor to keep the table smaller, at the cost of longer searches.
+     * 
+     * @param loadFactor
+     *            the load factor, greater than 0 and less than 1
+     */
+    public void setLoadFactor(float loadFactor) {
+        if( !((0 < loadFactor) && (loadFactor < 1)) )
+            throw new IllegalArgumentException("Load factor must be between 0 and 1, not "
+                    + loadFactor);
+        loadFactor_ = loadFactor;
+        rehash(count_);
     }
 
 
@@ -246,8 +923,8 @@ public class ConstantPool {
     public String toString() {
         StringBuilder buf = new StringBuilder();
         buf.append("Pool [");
-        for(int i = 0;i < index_.size();i++) {
-            Constant c = index_.get(i);
+        for(int i = 0;i < indexEnd_;i++) {
+            Constant c = index_[i];
             if( c == null ) continue;
             buf.append("    ").append(i).append(": ").append(c).append('\n');
         }
@@ -277,6 +954,22 @@ public class ConstantPool {
     }
 
 
+    /**
+     * Write this constant pool to a big-endian buffer. Constants are written
+     * in index order, so every index remains valid.
+     * 
+     * @param buf
+     *            the buffer
+     */
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU2(buf, size_ + 1);
+        for(int i = 1;i < indexEnd_;i++) {
+            Constant c = index_[i];
+            if( c != null ) c.writeTo(buf);
+        }
+    }
+
+
     /**
      * Write this constant pool to the stream
      * 
@@ -284,17 +977,8 @@ public class ConstantPool {
      *            output stream
      */
     public void writeTo(ByteArrayOutputStream baos) {
-        Constant[] pool = new Constant[pool_.size()];
-        pool = pool_.values().toArray(pool);
-        Arrays.sort(pool);
-
-        int s = 0;
-        for(Constant c:pool) {
-            s += c.getPoolSize();
-        }
-        IO.writeU2(baos, s + 1);
-        for(int i = 0;i < pool.length;i++) {
-            pool[i].writeTo(baos);
-        }
+        byte[] data = new byte[computeSize()];
+        writeTo(ByteBuffer.wrap(data));
+        baos.write(data, 0, data.length);
     }
 }
\ No newline at end of file
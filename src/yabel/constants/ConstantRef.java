@@ -1,7 +1,8 @@
 package yabel.constants;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
+import yabel.Descriptor;
 import yabel.io.IO;
 
 /**
@@ -49,8 +50,8 @@ public abstract class ConstantRef extends Constant {
      */
     ConstantRef(ConstantPool cp, ConstantUtf8 clss, ConstantUtf8 ref,
             ConstantUtf8 type) {
-        class_ = new ConstantClass(cp, clss);
-        type_ = new ConstantNameAndType(cp, ref, type);
+        class_ = cp.getClassConstant(clss);
+        type_ = cp.getNameAndTypeConstant(ref, type);
         canonicalize(cp);
     }
 
@@ -83,9 +84,23 @@ public abstract class ConstantRef extends Constant {
      *            type
      */
     ConstantRef(ConstantPool cp, String clss, String ref, String type) {
-        class_ = new ConstantClass(cp, clss);
-        type_ = new ConstantNameAndType(cp, ref, type);
-        canonicalize(cp);
+        this(cp, cp.getUtf8Constant(clss), cp.getUtf8Constant(ref),
+                cp.getUtf8Constant(type));
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    void compact(Compactor compactor) {
+        compactor.constant(class_);
+        compactor.constant(type_);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 5;
     }
 
 
@@ -133,11 +148,14 @@ public abstract class ConstantRef extends Constant {
 
 
     /**
-     * Get the tag used for this reference type.
+     * Get the type of the field or method this reference refers to, parsed as
+     * a descriptor.
      * 
-     * @return tag used
+     * @return the descriptor
      */
-    abstract protected int getTag();
+    public Descriptor getDescriptor() {
+        return type_.getDescriptor();
+    }
 
 
     /**
@@ -150,6 +168,14 @@ public abstract class ConstantRef extends Constant {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    long getKey(ConstantPool cp) {
+        return ((long) cp.canonicalIndex(class_.getIndex()) << 16)
+                | cp.canonicalIndex(type_.getIndex());
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public int hashCode() {
@@ -159,9 +185,9 @@ public abstract class ConstantRef extends Constant {
 
     /** {@inheritDoc} */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        baos.write(getTag());
-        IO.writeU2(baos, class_.getIndex());
-        IO.writeU2(baos, type_.getIndex());
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU1(buf, getTag());
+        IO.writeU2(buf, class_.getIndex());
+        IO.writeU2(buf, type_.getIndex());
     }
 }
\ No newline at end of file
@@ -1,7 +1,7 @@
 package yabel.constants;
 
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
 import yabel.io.IO;
 
@@ -39,7 +39,7 @@ public class ConstantString extends Constant {
      *            value
      */
     public ConstantString(ConstantPool cp, String value) {
-        this(cp,new ConstantUtf8(cp,value));
+        this(cp, cp.getUtf8Constant(value));
     }
 
 
@@ -57,6 +57,20 @@ public class ConstantString extends Constant {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    void compact(Compactor compactor) {
+        compactor.constant(value_);
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 3;
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public boolean equals(Object obj) {
@@ -80,6 +94,20 @@ public class ConstantString extends Constant {
     }
 
 
+    /** {@inheritDoc} */
+    @Override
+    long getKey(ConstantPool cp) {
+        return cp.canonicalIndex(value_.getIndex());
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getTag() {
+        return 8;
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public int hashCode() {
@@ -96,8 +124,8 @@ public class ConstantString extends Constant {
 
     /** {@inheritDoc} */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        baos.write(8);
-        IO.writeU2(baos, value_.getIndex());
+    public void writeTo(ByteBuffer buf) {
+        IO.writeU1(buf, 8);
+        IO.writeU2(buf, value_.getIndex());
     }
 }
\ No newline at end of file
@@ -1,11 +1,12 @@
 package yabel.constants;
 
+import yabel.Descriptor;
 import yabel.io.IO;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Utf8 constant.
@@ -14,6 +15,12 @@ import java.io.UTFDataFormatException;
  * 
  */
 public class ConstantUtf8 extends Constant {
+    /** The value parsed as a descriptor, if it has been */
+    private Descriptor descriptor_ = null;
+
+    /** Length of the value in modified UTF-8, or -1 if not yet known */
+    private int utfLength_ = -1;
+
     /** String value for this constant */
     private final String value_;
 
@@ -48,30 +55,41 @@ public class ConstantUtf8 extends Constant {
         if( create ) {
             canonicalize(cp);
         } else {
-            Constant c = cp.getCanon(this);
+            Constant c = cp.lookupUtf8(val);
             index_ = (c == null) ? -1 : c.index_;
         }
     }
 
 
     /**
-     * New Utf8 constant.
+     * Decode a modified UTF-8 sequence as used in class files.
      * 
-     * @param input
-     *            stream to read from
+     * @param buf
+     *            the buffer holding the encoded bytes
+     * @param off
+     *            the offset of the first byte
+     * @param utflen
+     *            the number of bytes to decode
+     * @return the decoded string
+     * @throws UTFDataFormatException
      */
-    ConstantUtf8(InputStream input) throws IOException {
-        int utflen = IO.readU2(input);
+    static String decode(byte[] buf, int off, int utflen)
+            throws UTFDataFormatException {
+        // most names and descriptors are entirely ASCII
+        int end = off + utflen;
+        int scan = off;
+        while( (scan < end) && (buf[scan] >= 0) ) {
+            scan++;
+        }
+        if( scan == end ) return new String(buf, off, utflen, StandardCharsets.ISO_8859_1);
+
         char[] chararr = new char[utflen];
 
         int pos = 0;
         int b = 0;
         int ch = 0;
         for(int i = 0;i < utflen;i++) {
-            int r = input.read();
-            if( r < 0 )
-                throw new UTFDataFormatException("Only " + i + " bytes of "
-                        + utflen + " were read");
+            int r = buf[off + i] & 0xff;
             if( b == 0 ) {
                 if( r < 0x80 ) {
                     // byte is 0xxx xxxx so single byte character
@@ -112,7 +130,63 @@ public class ConstantUtf8 extends Constant {
             }
         }
 
-        value_ = new String(chararr, 0, pos);
+        return new String(chararr, 0, pos);
+    }
+
+
+    /**
+     * Decode a modified UTF-8 sequence, using an interner if one is supplied.
+     * 
+     * @param buf
+     *            the buffer holding the encoded bytes
+     * @param off
+     *            the offset of the first byte
+     * @param utflen
+     *            the number of bytes to decode
+     * @param interner
+     *            the interner, or null
+     * @return the decoded string
+     * @throws UTFDataFormatException
+     */
+    private static String decode(byte[] buf, int off, int utflen,
+            Utf8Interner interner) throws UTFDataFormatException {
+        if( interner == null ) return decode(buf, off, utflen);
+        return interner.intern(buf, off, utflen);
+    }
+
+
+    /**
+     * New Utf8 constant.
+     * 
+     * @param input
+     *            buffer to read from
+     * @param interner
+     *            interner for the decoded value, or null
+     */
+    ConstantUtf8(ByteBuffer input, Utf8Interner interner) throws IOException {
+        int utflen = IO.readU2(input);
+        if( input.remaining() < utflen )
+            throw new UTFDataFormatException("Only " + input.remaining()
+                    + " bytes of " + utflen + " are available");
+        if( input.hasArray() ) {
+            // decode in place
+            int p = input.position();
+            value_ = decode(input.array(), input.arrayOffset() + p, utflen,
+                    interner);
+            input.position(p + utflen);
+        } else {
+            byte[] buf = new byte[utflen];
+            input.get(buf);
+            value_ = decode(buf, 0, utflen, interner);
+        }
+        utfLength_ = utflen;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public int computeSize() {
+        return 3 + getUtfLength();
     }
 
 
@@ -128,6 +202,22 @@ public class ConstantUtf8 extends Constant {
     }
 
 
+    /**
+     * Get this Utf8 constant's value parsed as a field or method descriptor.
+     * The descriptor is parsed the first time it is requested.
+     * 
+     * @return the descriptor
+     */
+    public Descriptor getDescriptor() {
+        Descriptor d = descriptor_;
+        if( d == null ) {
+            d = Descriptor.forType(value_);
+            descriptor_ = d;
+        }
+        return d;
+    }
+
+
     /**
      * Get this Utf8 constants value.
      * 
@@ -138,6 +228,49 @@ public class ConstantUtf8 extends Constant {
     }
 
 
+    /**
+     * Get the number of bytes needed to encode this constant's value in
+     * modified UTF-8.
+     * 
+     * @return the encoded length
+     */
+    private int getUtfLength() {
+        int len = utfLength_;
+        if( len != -1 ) return len;
+
+        len = 0;
+        for(int i = 0;i < value_.length();i++) {
+            char c = value_.charAt(i);
+            if( c == 0 ) {
+                len += 2;
+            } else if( c <= 0x7f ) {
+                len += 1;
+            } else if( c <= 0x7ff ) {
+                len += 2;
+            } else {
+                len += 3;
+            }
+        }
+        utfLength_ = len;
+        return len;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    long getKey(ConstantPool cp) {
+        // Utf8 constants are matched on their value
+        return 0;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getTag() {
+        return 1;
+    }
+
+
     /** {@inheritDoc} */
     @Override
     public int hashCode() {
@@ -154,43 +287,37 @@ public class ConstantUtf8 extends Constant {
 
     /** {@inheritDoc} */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
-        int len = 0;
-        for(int i = 0;i < value_.length();i++) {
-            char c = value_.charAt(i);
-            if( c == 0 ) {
-                len += 2;
-            } else if( c <= 0x7f ) {
-                len += 1;
-            } else if( c <= 0x7fff ) {
-                len += 2;
-            } else {
-                len += 3;
-            }
-        }
+    public void writeTo(ByteBuffer buf) {
+        int len = getUtfLength();
 
-        // write tag
-        baos.write(1);
-
-        // write length
-        baos.write(len >> 8);
-        baos.write(len & 0xff);
+        // write tag and length
+        IO.writeU1(buf, 1);
+        IO.writeU2(buf, len);
 
         // write chars
-        for(int i = 0;i < value_.length();i++) {
+        int s = value_.length();
+        if( len == s ) {
+            // all characters are single bytes
+            for(int i = 0;i < s;i++) {
+                buf.put((byte) value_.charAt(i));
+            }
+            return;
+        }
+
+        for(int i = 0;i < s;i++) {
             char c = value_.charAt(i);
             if( c == 0 ) {
-                baos.write(0xc0);
-                baos.write(0x80);
+                buf.put((byte) 0xc0);
+                buf.put((byte) 0x80);
             } else if( c <= 0x7f ) {
-                baos.write(c);
-            } else if( c <= 0x7fff ) {
-                baos.write(0xc0 | (c >> 6));
-                baos.write(0x80 | (c & 0x3f));
+                buf.put((byte) c);
+            } else if( c <= 0x7ff ) {
+                buf.put((byte) (0xc0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3f)));
             } else {
-                baos.write(0xe0 | (c >> 12));
-                baos.write(0x80 | ((c >> 6) & 0x3f));
-                baos.write(0x80 | (c & 0x3f));
+                buf.put((byte) (0xe0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buf.put((byte) (0x80 | (c & 0x3f)));
             }
         }
     }
@@ -1,8 +1,7 @@
 package yabel.constants;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import yabel.io.IO;
 
@@ -30,10 +29,10 @@ class Unresolved extends Constant {
      * @param tag
      *            the constant's tag
      * @param input
-     *            the input to read from
+     *            the big-endian buffer to read from
      * @throws IOException
      */
-    Unresolved(int tag, InputStream input) throws IOException {
+    Unresolved(int tag, ByteBuffer input) throws IOException {
         tag_ = tag;
 
         val1_ = IO.readU2(input);
@@ -48,40 +47,68 @@ class Unresolved extends Constant {
 
 
     /**
-     * Resolve this constant.
+     * Resolve this constant. Any constants it references must already be
+     * resolved.
      * 
      * @param cp
      *            the constant pool
-     * @param phase
-     *            the phase of resolution (0, 1, or 2)
-     * @return the constant or null
+     * @return the constant
      */
-    Constant resolve(ConstantPool cp, int phase) {
-        Constant c=null;
-        switch (phase) {
-        case 0: // can resolve Class(7) and String(8) which rely on a single
-            // Utf8 constant
-            if( tag_ == 7 ) {
-                c = new ConstantClass(cp, this);
-            } else if( tag_ == 8 ) {
-                c = new ConstantString(cp, this);
-            }
-            break;
-        case 1: // can resolve name-and-type (12)
-            if( tag_ == 12 ) c = new ConstantNameAndType(cp, this);
-            break;
-        case 2: // can resolve Field(9), Method(10) and Interface(11)
-            if( tag_ == 9 ) {
-                c = new ConstantFieldRef(cp, this);
-            } else if( tag_ == 10 ) {
-                c = new ConstantMethodRef(cp, this);
-            } else if( tag_ == 11 ) {
-                c = new ConstantInterfaceMethodRef(cp, this);
-            }
-            break;
+    Constant resolve(ConstantPool cp) {
+        switch (tag_) {
+        case 7:
+            return new ConstantClass(cp, this);
+        case 8:
+            return new ConstantString(cp, this);
+        case 9:
+            return new ConstantFieldRef(cp, this);
+        case 10:
+            return new ConstantMethodRef(cp, this);
+        case 11:
+            return new ConstantInterfaceMethodRef(cp, this);
+        case 12:
+            return new ConstantNameAndType(cp, this);
         }
-        if( c!=null ) c.index_ = index_;
-        return c;
+        throw new IllegalStateException("Tag " + tag_ + " is not matched");
+    }
+
+
+    /**
+     * An unresolved constant references indexes which could not be
+     * interpreted, so the pool cannot be compacted.
+     * 
+     * @param compactor
+     *            the compactor
+     */
+    @Override
+    void compact(Compactor compactor) {
+        compactor.keepAll("Constant " + index_ + " with tag " + tag_
+                + " is unresolved");
+    }
+
+
+    /**
+     * Not supported.
+     * 
+     * @return never returns
+     */
+    @Override
+    public int computeSize() {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    long getKey(ConstantPool cp) {
+        return ((long) val1_ << 16) | val2_;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    protected int getTag() {
+        return tag_;
     }
 
 
@@ -114,11 +141,11 @@ class Unresolved extends Constant {
     /**
      * Not supported.
      * 
-     * @param baos
+     * @param buf
      *            ignored
      */
     @Override
-    public void writeTo(ByteArrayOutputStream baos) {
+    public void writeTo(ByteBuffer buf) {
         throw new UnsupportedOperationException();
     }
 
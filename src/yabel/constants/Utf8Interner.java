@@ -0,0 +1,219 @@
+package yabel.constants;
+
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
+
+/**
+ * A table of strings decoded from Utf8 constants which may be shared by many
+ * class builders. Names and descriptors such as "Code" and "java/lang/Object"
+ * recur in almost every class file. When a batch of classes is read with a
+ * common interner, each distinct value is decoded once and every constant
+ * with that value shares the same string.
+ * <p>
+ * Values are matched on their encoded bytes, so a value which has been seen
+ * before is found without decoding it again. An interner may be shared between
+ * threads.
+ * <p>
+ * An interner holds every value it stores until it is cleared, so what it
+ * stores is bounded. Values whose encoding is longer than the maximum length
+ * are unlikely to recur and are decoded but not stored. Once the interner
+ * holds its maximum number of values, new values are decoded but not stored,
+ * whilst the values already held continue to be shared.
+ * 
+ * @author Simon Greatrix
+ */
+public final class Utf8Interner {
+    /** The default maximum length of a stored value's encoding, in bytes */
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    /** The default maximum number of stored values */
+    public static final int DEFAULT_MAX_SIZE = 65536;
+
+    /** The encoded bytes of each entry */
+    private byte[][] bytes_;
+
+    /** Number of entries */
+    private int count_ = 0;
+
+    /** The hash of each entry's encoded bytes */
+    private int[] hashes_;
+
+    /** The maximum length of a stored value's encoding */
+    private final int maxLength_;
+
+    /** The maximum number of stored values */
+    private final int maxSize_;
+
+    /** The decoded value of each entry, or null if the entry is empty */
+    private String[] values_;
+
+
+    /**
+     * Create a new, empty interner with the default limits.
+     */
+    public Utf8Interner() {
+        this(DEFAULT_MAX_LENGTH, DEFAULT_MAX_SIZE);
+    }
+
+
+    /**
+     * Create a new, empty interner.
+     * 
+     * @param maxLength
+     *            the maximum length of a stored value's encoding, in bytes
+     * @param maxSize
+     *            the maximum number of values stored
+     */
+    public Utf8Interner(int maxLength, int maxSize) {
+        if( maxLength < 0 )
+            throw new IllegalArgumentException("Maximum length " + maxLength
+                    + " is negative");
+        if( maxSize < 0 )
+            throw new IllegalArgumentException("Maximum size " + maxSize
+                    + " is negative");
+        maxLength_ = maxLength;
+        maxSize_ = maxSize;
+        allocate(256);
+    }
+
+
+    /**
+     * Allocate an empty table.
+     * 
+     * @param capacity
+     *            the table capacity, a power of two
+     */
+    private void allocate(int capacity) {
+        bytes_ = new byte[capacity][];
+        hashes_ = new int[capacity];
+        values_ = new String[capacity];
+    }
+
+
+    /**
+     * Remove all entries from this interner.
+     */
+    public synchronized void clear() {
+        allocate(256);
+        count_ = 0;
+    }
+
+
+    /**
+     * Get the maximum length of a stored value's encoding.
+     * 
+     * @return the maximum length in bytes
+     */
+    public int getMaxLength() {
+        return maxLength_;
+    }
+
+
+    /**
+     * Get the maximum number of values this interner stores.
+     * 
+     * @return the maximum number of values
+     */
+    public int getMaxSize() {
+        return maxSize_;
+    }
+
+
+    /**
+     * Get the string for a modified UTF-8 sequence, decoding it only if it has
+     * not been seen before. A value which is too long, or which is new when
+     * the interner is full, is decoded every time.
+     * 
+     * @param buf
+     *            the buffer holding the encoded bytes
+     * @param off
+     *            the offset of the first byte
+     * @param len
+     *            the number of bytes
+     * @return the shared decoded string
+     * @throws UTFDataFormatException
+     *             if the bytes are not valid modified UTF-8
+     */
+    public synchronized String intern(byte[] buf, int off, int len)
+            throws UTFDataFormatException {
+        if( len > maxLength_ ) return ConstantUtf8.decode(buf, off, len);
+
+        int h = len;
+        for(int i = 0;i < len;i++) {
+            h = 31 * h + buf[off + i];
+        }
+        h ^= (h >>> 16);
+
+        int mask = values_.length - 1;
+        int slot = h & mask;
+        while( values_[slot] != null ) {
+            if( (hashes_[slot] == h) && matches(bytes_[slot], buf, off, len) ) {
+                return values_[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String value = ConstantUtf8.decode(buf, off, len);
+        if( count_ >= maxSize_ ) return value;
+        bytes_[slot] = Arrays.copyOfRange(buf, off, off + len);
+        hashes_[slot] = h;
+        values_[slot] = value;
+        count_++;
+        if( 2 * count_ > values_.length ) rehash();
+        return value;
+    }
+
+
+    /**
+     * Test if stored bytes match a region of a buffer.
+     * 
+     * @param stored
+     *            the stored bytes
+     * @param buf
+     *            the buffer
+     * @param off
+     *            the offset of the region
+     * @param len
+     *            the length of the region
+     * @return true if they match
+     */
+    private static boolean matches(byte[] stored, byte[] buf, int off, int len) {
+        if( stored.length != len ) return false;
+        for(int i = 0;i < len;i++) {
+            if( stored[i] != buf[off + i] ) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Double the size of the table.
+     */
+    private void rehash() {
+        byte[][] bytes = bytes_;
+        int[] hashes = hashes_;
+        String[] values = values_;
+        allocate(values.length * 2);
+        int mask = values_.length - 1;
+        for(int i = 0;i < values.length;i++) {
+            if( values[i] == null ) continue;
+            int slot = hashes[i] & mask;
+            while( values_[slot] != null ) {
+                slot = (slot + 1) & mask;
+            }
+            bytes_[slot] = bytes[i];
+            hashes_[slot] = hashes[i];
+            values_[slot] = values[i];
+        }
+    }
+
+
+    /**
+     * Get the number of distinct values held by this interner.
+     * 
+     * @return the number of values
+     */
+    public synchronized int size() {
+        return count_;
+    }
+}
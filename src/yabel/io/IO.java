@@ -4,6 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * General purpose methods for read and writing byte-code.
@@ -33,6 +34,57 @@ public class IO {
     }
 
 
+    /**
+     * Copy bytes from a stream.
+     * 
+     * @param input
+     *            the stream
+     * @param out
+     *            the output
+     * @param len
+     *            the number of bytes to copy
+     */
+    public static void copyBytes(InputStream input, ByteArrayOutputStream out,
+            int len) throws IOException {
+        byte[] b = readBytes(input, len);
+        out.write(b, 0, b.length);
+    }
+
+
+    /**
+     * Copy an unsigned byte from a stream.
+     * 
+     * @param input
+     *            the stream
+     * @param out
+     *            the output
+     * @return the value copied
+     */
+    public static int copyU1(InputStream input, ByteArrayOutputStream out)
+            throws IOException {
+        int v = readU1(input);
+        writeU1(out, v);
+        return v;
+    }
+
+
+    /**
+     * Copy an unsigned two byte value from a stream.
+     * 
+     * @param input
+     *            the stream
+     * @param out
+     *            the output
+     * @return the value copied
+     */
+    public static int copyU2(InputStream input, ByteArrayOutputStream out)
+            throws IOException {
+        int v = readU2(input);
+        writeU2(out, v);
+        return v;
+    }
+
+
     /**
      * Decode the provided textual representation back into binary data.
      * 
@@ -176,6 +228,46 @@ public class IO {
     }
 
 
+    /**
+     * Read a block of bytes from a buffer
+     * 
+     * @param buf
+     *            the buffer
+     * @param len
+     *            the number of bytes to read
+     * @return the bytes
+     */
+    public static byte[] readBytes(ByteBuffer buf, int len) throws IOException {
+        if( len < 0 ) throw new IOException("Negative block length " + len);
+        if( buf.remaining() < len ) throw new EOFException();
+        byte[] data = new byte[len];
+        buf.get(data);
+        return data;
+    }
+
+
+    /**
+     * Read a block of bytes from a stream
+     * 
+     * @param in
+     *            input stream
+     * @param len
+     *            the number of bytes to read
+     * @return the bytes
+     */
+    public static byte[] readBytes(InputStream in, int len) throws IOException {
+        if( len < 0 ) throw new IOException("Negative block length " + len);
+        byte[] data = new byte[len];
+        int pos = 0;
+        while( pos < len ) {
+            int r = in.read(data, pos, len - pos);
+            if( r < 0 ) throw new EOFException();
+            pos += r;
+        }
+        return data;
+    }
+
+
     /**
      * Read a signed short
      * 
@@ -205,6 +297,19 @@ public class IO {
     }
 
 
+    /**
+     * Read a 4 byte value from a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     * @return value
+     */
+    public static int readS4(ByteBuffer buf) throws IOException {
+        if( buf.remaining() < 4 ) throw new EOFException();
+        return buf.getInt();
+    }
+
+
     /**
      * Read a 4 byte value from stream
      * 
@@ -222,6 +327,19 @@ public class IO {
     }
 
 
+    /**
+     * Read an 8-byte value from a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     * @return value
+     */
+    public static long readS8(ByteBuffer buf) throws IOException {
+        if( buf.remaining() < 8 ) throw new EOFException();
+        return buf.getLong();
+    }
+
+
     /**
      * Read an 8-byte value from stream
      * 
@@ -254,6 +372,19 @@ public class IO {
     }
 
 
+    /**
+     * Read a 1 byte value from a buffer
+     * 
+     * @param buf
+     *            the buffer
+     * @return value
+     */
+    public static int readU1(ByteBuffer buf) throws IOException {
+        if( !buf.hasRemaining() ) throw new EOFException();
+        return 0xff & buf.get();
+    }
+
+
     /**
      * Read a 1 byte value from stream
      * 
@@ -282,6 +413,19 @@ public class IO {
     }
 
 
+    /**
+     * Read a 2 byte value from a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     * @return value
+     */
+    public static int readU2(ByteBuffer buf) throws IOException {
+        if( buf.remaining() < 2 ) throw new EOFException();
+        return 0xffff & buf.getShort();
+    }
+
+
     /**
      * Read a 2 byte value from stream
      * 
@@ -315,6 +459,53 @@ public class IO {
     }
 
 
+    /**
+     * Write a signed short
+     * 
+     * @param buf
+     *            the buffer to hold the data
+     * @param loc
+     *            where the data goes
+     * @param i
+     *            value
+     */
+    public static void writeS2(byte[] buf, int loc, int i) {
+        buf[loc] = (byte) (i >> 8);
+        buf[loc + 1] = (byte) i;
+    }
+
+
+    /**
+     * Write a signed int
+     * 
+     * @param buf
+     *            the buffer to hold the data
+     * @param loc
+     *            where the data goes
+     * @param i
+     *            value
+     */
+    public static void writeS4(byte[] buf, int loc, int i) {
+        buf[loc] = (byte) (i >> 24);
+        buf[loc + 1] = (byte) (i >> 16);
+        buf[loc + 2] = (byte) (i >> 8);
+        buf[loc + 3] = (byte) i;
+    }
+
+
+    /**
+     * Write a 4 byte value to a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     * @param i
+     *            value
+     */
+    public static void writeS4(ByteBuffer buf, int i) {
+        buf.putInt(i);
+    }
+
+
     /**
      * Write a 4 byte value to stream
      * 
@@ -331,6 +522,19 @@ public class IO {
     }
 
 
+    /**
+     * Write 8-byte value to a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     * @param i
+     *            value
+     */
+    public static void writeS8(ByteBuffer buf, long i) {
+        buf.putLong(i);
+    }
+
+
     /**
      * Write 8-byte value to stream
      * 
@@ -351,6 +555,19 @@ public class IO {
     }
 
 
+    /**
+     * Write a 1 byte value to a buffer
+     * 
+     * @param buf
+     *            the buffer
+     * @param i
+     *            value
+     */
+    public static void writeU1(ByteBuffer buf, int i) {
+        buf.put((byte) i);
+    }
+
+
     /**
      * Write a 1 byte value to stream
      * 
@@ -364,6 +581,19 @@ public class IO {
     }
 
 
+    /**
+     * Write a 2 byte value to a big-endian buffer
+     * 
+     * @param buf
+     *            the buffer
+     * @param i
+     *            value
+     */
+    public static void writeU2(ByteBuffer buf, int i) {
+        buf.putShort((short) i);
+    }
+
+
     /**
      * Write a 2 byte value to stream
      * 
@@ -13,6 +13,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import yabel.ClassData;
+import yabel.HashSwitchData;
 import yabel.SwitchData;
 import yabel.ClassData.NamedValue;
 import yabel.ClassData.TypedList;
@@ -362,6 +363,99 @@ public enum XMLType {
             xdw.indent();
             xdw.write(getEndTag());
         }
+    },
+
+    /** A case for a switch on String or long keys */
+    HASHCASE(HashSwitchData.Case.class, "hashcase", false,
+            new String[] { "label" }) {
+        /** {@inheritDoc} */
+        @Override
+        public Object read(Element entry) {
+            String sl = entry.getAttribute("label");
+            if( sl == null || sl.equals("") )
+                throw new YabelXMLException("<hashcase> has no label attribute");
+
+            // the key is a string or long element
+            Node n = XMLDataReader.checkHasOneChild(entry);
+            if( !(n instanceof Element) ) {
+                throw new YabelXMLException("<hashcase> does not contain a key");
+            }
+            Element value = (Element) n;
+            XMLType xt = XMLType.forTag(value.getTagName());
+            if( (xt != STRING) && (xt != LONG) ) {
+                throw new YabelXMLException("Unknown child for <hashcase>: "
+                        + value.getTagName());
+            }
+            return new HashSwitchData.Case(xt.read(value), sl);
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(XMLDataWriter xdw, Object value) throws IOException {
+            HashSwitchData.Case c = (HashSwitchData.Case) value;
+            xdw.write(getStartTag(c.getLabel()));
+            Object k = c.getKey();
+            XMLType.forClass(k.getClass()).write(xdw, k);
+            xdw.write(getEndTag());
+        }
+    },
+
+    /** HashSwitchData type */
+    HASHSWITCH(HashSwitchData.class, "hashswitch", false, new String[] {
+            "type", "default", "perfect" }) {
+        /** {@inheritDoc} */
+        @Override
+        public Object read(Element entry) {
+            String st = entry.getAttribute("type");
+            Class<?> type;
+            if( "string".equals(st) ) {
+                type = String.class;
+            } else if( "long".equals(st) ) {
+                type = Long.class;
+            } else {
+                throw new YabelXMLException(
+                        "<hashswitch> type attribute must be string or long");
+            }
+            String sv = entry.getAttribute("default");
+            if( sv == null || sv.equals("") )
+                throw new YabelXMLException(
+                        "<hashswitch> has no default attribute");
+            HashSwitchData sw = new HashSwitchData(type, sv);
+            sw.setPerfectHash(Boolean.parseBoolean(entry
+                    .getAttribute("perfect")));
+            List<Element> children = XMLDataReader.getChildElements(entry,
+                    HASHCASE, HASHCASE);
+            for(Element el:children) {
+                HashSwitchData.Case c = (HashSwitchData.Case) HASHCASE.read(el);
+                if( !type.isInstance(c.getKey()) ) {
+                    throw new YabelXMLException("<hashswitch> of type " + st
+                            + " contains key " + c.getKey());
+                }
+                sw.add(c);
+            }
+            return sw;
+        }
+
+
+        /** {@inheritDoc} */
+        @Override
+        public void write(XMLDataWriter xdw, Object value) throws IOException {
+            HashSwitchData sd = (HashSwitchData) value;
+            String type = (sd.getKeyType() == Long.class) ? "long" : "string";
+            xdw.write(getStartTag(type, sd.getDefault(),
+                    String.valueOf(sd.isPerfectHash())));
+            xdw.incrIndent();
+            for(Entry<Object, String> e:sd) {
+                xdw.indent();
+                HashSwitchData.Case c = new HashSwitchData.Case(e.getKey(),
+                        e.getValue());
+                HASHCASE.write(xdw, c);
+            }
+            xdw.decrIndent();
+            xdw.indent();
+            xdw.write(getEndTag());
+        }
     };
 
     /**
@@ -373,7 +467,8 @@ public enum XMLType {
             { DATA, ENTRY },
             { DOUBLE },
             { ENTRY, DATA, SWITCH, INTEGER, LONG, FLOAT, DOUBLE, NULL, STRING,
-                    LIST }, { FLOAT }, { INTEGER },
+                    LIST, HASHSWITCH }, { FLOAT }, { HASHCASE, STRING, LONG },
+            { HASHSWITCH, HASHCASE }, { INTEGER },
             { LIST, DATA, DOUBLE, FLOAT, INTEGER, LONG, STRING }, { LONG },
             { NULL }, { STRING }, { SWITCH, CASE } };
 
@@ -385,8 +480,9 @@ public enum XMLType {
             { "DATA", "( {0}* )" },
             { "DOUBLE", "( #PCDATA )" },
             { "ENTRY",
-                    "( {0} | {1} | {2} | {3} | {4} | {5} | {6} | {7} | {8} )" },
-            { "FLOAT", "( #PCDATA )" }, { "INTEGER", "( #PCDATA )" },
+                    "( {0} | {1} | {2} | {3} | {4} | {5} | {6} | {7} | {8} | {9} )" },
+            { "FLOAT", "( #PCDATA )" }, { "HASHCASE", "( {0} | {1} )" },
+            { "HASHSWITCH", "( {0}* )" }, { "INTEGER", "( #PCDATA )" },
             { "LIST", "( {0}* | {1}* | {2}* | {3}* | {4}* | {5}* )" },
             { "LONG", "( #PCDATA )" }, { "NULL", "EMPTY" },
             { "STRING", "( #PCDATA )" }, { "SWITCH", "( {0}* )" } };
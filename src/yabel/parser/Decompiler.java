@@ -23,7 +23,7 @@ import yabel.parser.decomp.Label.Ref4;
  * @author Simon Greatrix
  * 
  */
-public class Decompiler implements ParserListener {
+public class Decompiler implements InstructionVisitor {
     /**
      * A decompiled set of byte-codes as an op-code
      * 
@@ -209,8 +209,9 @@ public class Decompiler implements ParserListener {
     }
 
 
-    private void decompile1(byte[] buffer, Decompiler.OpCode opc, int position) {
-        byte b = buffer[0];
+    private void decompile1(byte[] code, int off, Decompiler.OpCode opc,
+            int position) {
+        byte b = code[off];
         Source src = varSet_.decomp(b, position);
         if( src != null ) {
             opc.opCode_ = src;
@@ -228,50 +229,52 @@ public class Decompiler implements ParserListener {
     }
 
 
-    private void decompile2(byte[] buffer, Decompiler.OpCode opc, int position) {
-        Integer v = Integer.valueOf((buffer[0] & 0xff) << 8
-                | (buffer[1] & 0xff));
+    private void decompile2(byte[] code, int off, Decompiler.OpCode opc,
+            int position) {
+        Integer v = Integer.valueOf((code[off] & 0xff) << 8
+                | (code[off + 1] & 0xff));
         Source src = SOURCE.get(v);
         if( src != null ) {
             opc.opCode_ = src;
             return;
         }
 
-        switch (buffer[0]) {
+        switch (code[off]) {
         case OpCodes.BIPUSH:
-            src = new Simple("ICONST:" + buffer[1]);
+            src = new Simple("ICONST:" + code[off + 1]);
             SOURCE.put(v, src);
             opc.opCode_ = src;
             return;
         case OpCodes.LDC:
             // Constants are quite complicated
-            int c = 0xff & buffer[1];
+            int c = 0xff & code[off + 1];
             opc.opCode_ = decompileLDC(c);
             return;
         case OpCodes.NEWARRAY:
-            src = new Simple("NEWARRAY:" + OpCodes.getArrayType(buffer[1]));
+            src = new Simple("NEWARRAY:" + OpCodes.getArrayType(code[off + 1]));
             SOURCE.put(v, src);
             opc.opCode_ = src;
             return;
         default:
             // Must be load, store or ret
-            c = 0xff & buffer[1];
-            opc.opCode_ = new Multi(OpCodes.getOpName(buffer[0]),
+            c = 0xff & code[off + 1];
+            opc.opCode_ = new Multi(OpCodes.getOpName(code[off]),
                     varSet_.getRef(c, position));
             return;
         }
     }
 
 
-    private void decompile3(byte[] buffer, Decompiler.OpCode opc, int position) {
-        int op = 0xff & buffer[0];
-        int v = IO.readU2(buffer, 1);
-        switch (buffer[0]) {
+    private void decompile3(byte[] code, int off, Decompiler.OpCode opc,
+            int position) {
+        int op = 0xff & code[off];
+        int v = IO.readU2(code, off + 1);
+        switch (code[off]) {
         // handle special cases
         case OpCodes.IINC:
-            int var = IO.readU1(buffer, 1);
+            int var = IO.readU1(code, off + 1);
             opc.opCode_ = new Multi("IINC", varSet_.getRef(var, position),
-                    Integer.valueOf(buffer[2]));
+                    Integer.valueOf(code[off + 2]));
             return;
         case OpCodes.LDC_W:
             // falls through
@@ -321,7 +324,7 @@ public class Decompiler implements ParserListener {
 
             // handle branch instructions
         default: {
-            int addr = position + IO.readS2(buffer, 1);
+            int addr = position + IO.readS2(code, off + 1);
             Label.Ref ref = labels_.getRef(addr);
             opc.opCode_ = new Ops(OpCodes.getOpName(op), ref);
             return;
@@ -330,63 +333,66 @@ public class Decompiler implements ParserListener {
     }
 
 
-    private void decompile4(byte[] buffer, Decompiler.OpCode opc, int position) {
+    private void decompile4(byte[] code, int off, Decompiler.OpCode opc,
+            int position) {
         // must be MULTINEWARRAY or WIDE
-        switch (buffer[0]) {
+        switch (code[off]) {
         case OpCodes.MULTIANEWARRAY: {
-            int v = IO.readU2(buffer, 1);
+            int v = IO.readU2(code, off + 1);
             opc.opCode_ = new Multi("MULTIANEWARRAY", classToData(v),
-                    Integer.toString(IO.readU1(buffer, 3)));
+                    Integer.toString(IO.readU1(code, off + 3)));
             return;
         }
 
         case OpCodes.WIDE: {
-            int op = IO.readU1(buffer, 1);
-            int v = IO.readU2(buffer, 2);
+            int op = IO.readU1(code, off + 1);
+            int v = IO.readU2(code, off + 2);
             Source ref = varSet_.getRef(v, position);
             opc.opCode_ = new Multi(OpCodes.getOpName(op), ref);
             return;
         }
         default:
-            throw new AssertionError("opCode is " + buffer[0] + ", length is 4");
+            throw new AssertionError("opCode is " + code[off] + ", length is 4");
         }
     }
 
 
-    private void decompile5(byte[] buffer, Decompiler.OpCode opc, int position) {
+    private void decompile5(byte[] code, int off, Decompiler.OpCode opc,
+            int position) {
         // JSR_W GOTO_W INVOKEINTERFACE
-        switch (buffer[0]) {
+        switch (code[off]) {
         case OpCodes.JSR_W:
             // falls through
         case OpCodes.GOTO_W: {
-            int v = IO.readS4(buffer, 1);
+            int v = IO.readS4(code, off + 1);
             int addr = position + v;
             Ref4 ref = labels_.getRef4(addr);
-            opc.opCode_ = new Ops(OpCodes.getOpName(buffer[0]), ref);
+            opc.opCode_ = new Ops(OpCodes.getOpName(code[off]), ref);
             return;
         }
         case OpCodes.INVOKEINTERFACE: {
-            int v = IO.readU2(buffer, 1);
+            int v = IO.readU2(code, off + 1);
             String iNm = refToData("iface", v);
             opc.opCode_ = new Multi("INVOKEINTERFACE", iNm);
             return;
         }
         default:
-            throw new AssertionError("opCode is " + buffer[0] + ", length is 5");
+            throw new AssertionError("opCode is " + code[off] + ", length is 5");
         }
     }
 
 
-    private void decompile6(byte[] buffer, Decompiler.OpCode opc, int position) {
-        if( (buffer[0] == OpCodes.WIDE) && (buffer[1] == OpCodes.IINC) ) {
-            int v1 = IO.readU2(buffer, 2);
-            int v2 = IO.readS2(buffer, 4);
+    private void decompile6(byte[] code, int off, Decompiler.OpCode opc,
+            int position) {
+        if( (code[off] == OpCodes.WIDE) && (code[off + 1] == OpCodes.IINC) ) {
+            int v1 = IO.readU2(code, off + 2);
+            int v2 = IO.readS2(code, off + 4);
             opc.opCode_ = new Multi("IINC", varSet_.getRef(v1, position),
                     Integer.valueOf(v2));
             return;
         }
 
-        throw new AssertionError("opCode is " + buffer[0] + ", length is 6");
+        throw new AssertionError("opCode is " + code[off] + ", length is 6");
     }
 
 
@@ -444,7 +450,7 @@ public class Decompiler implements ParserListener {
     }
 
 
-    private void decompileLookupSwitch(int position, byte[] buffer, int length,
+    private void decompileLookupSwitch(int position, byte[] code, int off,
             Decompiler.OpCode opc) {
         // format is:
         // LOOKUPSWITCH
@@ -454,17 +460,17 @@ public class Decompiler implements ParserListener {
         // match - offset
         // match - offset ...
         int p = 4 - (position % 4);
-        int dflt = position + IO.readS4(buffer, p);
+        int dflt = position + IO.readS4(code, off + p);
         Ref4 dfltRef = labels_.getRef4(dflt);
         LabelSwitch sw = new LabelSwitch("LOOKUPSWITCH", dfltRef);
 
         p += 4;
-        int pairs = IO.readS4(buffer, p);
+        int pairs = IO.readS4(code, off + p);
         while( pairs > 0 ) {
             p += 4;
-            int match = IO.readS4(buffer, p);
+            int match = IO.readS4(code, off + p);
             p += 4;
-            int offset = position + IO.readS4(buffer, p);
+            int offset = position + IO.readS4(code, off + p);
 
             // get label and mapping
             Ref4 l = labels_.getRef4(offset);
@@ -483,7 +489,7 @@ public class Decompiler implements ParserListener {
     }
 
 
-    private void decompileTableSwitch(int position, byte[] buffer, int length,
+    private void decompileTableSwitch(int position, byte[] code, int off,
             Decompiler.OpCode opc) {
         // format is:
         // TABLESWITCH
@@ -493,16 +499,16 @@ public class Decompiler implements ParserListener {
         // high
         // offsets...
         int p = 4 - (position % 4);
-        int dflt = position + IO.readS4(buffer, p);
+        int dflt = position + IO.readS4(code, off + p);
         Ref4 lblDflt = labels_.getRef4(dflt);
         LabelSwitch sw = new LabelSwitch("TABLESWITCH", lblDflt);
 
-        int low = IO.readS4(buffer, p + 4);
-        int high = IO.readS4(buffer, p + 8);
+        int low = IO.readS4(code, off + p + 4);
+        int high = IO.readS4(code, off + p + 8);
         p = p + 8;
         for(int i = low;i <= high;i++) {
             p += 4;
-            int offset = position + IO.readS4(buffer, p);
+            int offset = position + IO.readS4(code, off + p);
 
             // we forcibly retain pointless table entries for low and
             // high in order to ensure the recompiled code is identical
@@ -569,8 +575,8 @@ public class Decompiler implements ParserListener {
             buf.append("    ").append(opSrc).append('\n');
 
             // add blank line on branch
-            Byte b = Byte.valueOf(opc.code_);
-            if( Parser.OP_EXIT.contains(b) || Parser.BRANCH_OPS.contains(b) )
+            int flags = OpcodeInfo.get(opc.code_).getFlags();
+            if( (flags & (OpcodeInfo.EXIT | OpcodeInfo.BRANCH)) != 0 )
                 buf.append('\n');
         }
 
@@ -607,62 +613,6 @@ public class Decompiler implements ParserListener {
     }
 
 
-    /**
-     * Accept notification that a set of byte-codes have been recognised as a
-     * complete op-code and can be added to the de-compilation.
-     * 
-     * @param position
-     *            where in the code we are
-     * @param buffer
-     *            the op-code's bytes
-     * @param length
-     *            the length of the op-code
-     */
-    @Override
-    public void opCodeFinish(int position, byte[] buffer, int length) {
-        Decompiler.OpCode opc = new OpCode();
-        decomp_.add(opc);
-        opc.code_ = buffer[0];
-        opc.location_ = position;
-
-        // switches are variable length
-        if( buffer[0] == OpCodes.TABLESWITCH ) {
-            decompileTableSwitch(position, buffer, length, opc);
-            return;
-        }
-
-        if( buffer[0] == OpCodes.LOOKUPSWITCH ) {
-            decompileLookupSwitch(position, buffer, length, opc);
-            return;
-        }
-
-        // it's not a switch so the length tells us what it is
-        switch (length) {
-        case 1:
-            decompile1(buffer, opc, position);
-            return;
-        case 2:
-            decompile2(buffer, opc, position);
-            return;
-        case 3:
-            decompile3(buffer, opc, position);
-            return;
-        case 4:
-            decompile4(buffer, opc, position);
-            return;
-        case 5:
-            decompile5(buffer, opc, position);
-            return;
-        case 6:
-            decompile6(buffer, opc, position);
-            return;
-        }
-
-        throw new AssertionError("opCode is " + buffer[0] + ", length is "
-                + length);
-    }
-
-
     /**
      * Parse some byte-codes and decompile them
      * 
@@ -670,12 +620,9 @@ public class Decompiler implements ParserListener {
      *            the byte code to decompile
      */
     public void parse(byte[] code) {
-        Parser parser = new Parser(this);
         decomp_.clear();
         replacements_.clear();
-        for(byte element:code) {
-            parser.parse(element);
-        }
+        Parser.decode(code, 0, code.length, this);
     }
 
 
@@ -743,4 +690,63 @@ public class Decompiler implements ParserListener {
     public void setOptions(Options options) {
         options_ = options;
     }
+
+
+    /**
+     * Accept notification that a set of byte-codes have been recognised as a
+     * complete op-code and can be added to the de-compilation. As the whole
+     * byte code is decoded, the offset is also the op-code's position.
+     * 
+     * @param opCode
+     *            the op-code
+     * @param code
+     *            the byte code
+     * @param offset
+     *            where in the code we are
+     * @param length
+     *            the length of the op-code
+     */
+    @Override
+    public void visit(int opCode, byte[] code, int offset, int length) {
+        Decompiler.OpCode opc = new OpCode();
+        decomp_.add(opc);
+        opc.code_ = (byte) opCode;
+        opc.location_ = offset;
+
+        // switches are variable length
+        if( opc.code_ == OpCodes.TABLESWITCH ) {
+            decompileTableSwitch(offset, code, offset, opc);
+            return;
+        }
+
+        if( opc.code_ == OpCodes.LOOKUPSWITCH ) {
+            decompileLookupSwitch(offset, code, offset, opc);
+            return;
+        }
+
+        // it's not a switch so the length tells us what it is
+        switch (length) {
+        case 1:
+            decompile1(code, offset, opc, offset);
+            return;
+        case 2:
+            decompile2(code, offset, opc, offset);
+            return;
+        case 3:
+            decompile3(code, offset, opc, offset);
+            return;
+        case 4:
+            decompile4(code, offset, opc, offset);
+            return;
+        case 5:
+            decompile5(code, offset, opc, offset);
+            return;
+        case 6:
+            decompile6(code, offset, opc, offset);
+            return;
+        }
+
+        throw new AssertionError("opCode is " + opCode + ", length is "
+                + length);
+    }
 }
@@ -0,0 +1,956 @@
+package yabel.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import yabel.Descriptor;
+import yabel.Method;
+import yabel.OpCodes;
+import yabel.SuperclassResolver;
+import yabel.attributes.StackMapTable;
+import yabel.attributes.VerificationType;
+import yabel.code.Code;
+import yabel.code.Handler;
+import yabel.constants.Constant;
+import yabel.constants.ConstantClass;
+import yabel.constants.ConstantNumber;
+import yabel.constants.ConstantRef;
+import yabel.constants.ConstantString;
+import yabel.io.IO;
+import yabel2.Access;
+
+/**
+ * Compute the StackMapTable frames for a method. The block graph found by the
+ * ParserAnalyzer is explored again, this time tracking the type of every
+ * local variable and stack slot, until the types at the start of every block
+ * are stable. A frame is produced for every block that is the target of a
+ * jump or is an exception handler.
+ * <p>
+ * Code which cannot be reached has no types, so, as javac and ASM do, each run
+ * of unreachable op-codes is expected to be replaced by NOPs ending with an
+ * ATHROW. The run is given a frame with no local variables and a Throwable on
+ * the stack, which is all the ATHROW needs. See <code>getUnreachable()</code>.
+ * 
+ * @author Simon Greatrix
+ * 
+ */
+public class FrameAnalyzer extends ParserAnalyzer {
+    /** Standard array used for an empty stack */
+    private static final VerificationType[] NO_TYPES = new VerificationType[0];
+
+    /**
+     * The type pushed by simple op-codes that pop their inputs and push a
+     * single result. A null entry indicates nothing is pushed.
+     */
+    private static final VerificationType[] RESULT = new VerificationType[256];
+
+    static {
+        setResult(VerificationType.INTEGER, OpCodes.ICONST_M1,
+                OpCodes.ICONST_0, OpCodes.ICONST_1, OpCodes.ICONST_2,
+                OpCodes.ICONST_3, OpCodes.ICONST_4, OpCodes.ICONST_5,
+                OpCodes.BIPUSH, OpCodes.SIPUSH, OpCodes.IALOAD,
+                OpCodes.BALOAD, OpCodes.CALOAD, OpCodes.SALOAD, OpCodes.IADD,
+                OpCodes.ISUB, OpCodes.IMUL, OpCodes.IDIV, OpCodes.IREM,
+                OpCodes.INEG, OpCodes.ISHL, OpCodes.ISHR, OpCodes.IUSHR,
+                OpCodes.IAND, OpCodes.IOR, OpCodes.IXOR, OpCodes.L2I,
+                OpCodes.F2I, OpCodes.D2I, OpCodes.I2B, OpCodes.I2C,
+                OpCodes.I2S, OpCodes.LCMP, OpCodes.FCMPL, OpCodes.FCMPG,
+                OpCodes.DCMPL, OpCodes.DCMPG, OpCodes.ARRAYLENGTH,
+                OpCodes.INSTANCEOF);
+        setResult(VerificationType.LONG, OpCodes.LCONST_0, OpCodes.LCONST_1,
+                OpCodes.LALOAD, OpCodes.LADD, OpCodes.LSUB, OpCodes.LMUL,
+                OpCodes.LDIV, OpCodes.LREM, OpCodes.LNEG, OpCodes.LSHL,
+                OpCodes.LSHR, OpCodes.LUSHR, OpCodes.LAND, OpCodes.LOR,
+                OpCodes.LXOR, OpCodes.I2L, OpCodes.F2L, OpCodes.D2L);
+        setResult(VerificationType.FLOAT, OpCodes.FCONST_0,
+                OpCodes.FCONST_1, OpCodes.FCONST_2, OpCodes.FALOAD,
+                OpCodes.FADD, OpCodes.FSUB, OpCodes.FMUL, OpCodes.FDIV,
+                OpCodes.FREM, OpCodes.FNEG, OpCodes.I2F, OpCodes.L2F,
+                OpCodes.D2F);
+        setResult(VerificationType.DOUBLE, OpCodes.DCONST_0,
+                OpCodes.DCONST_1, OpCodes.DALOAD, OpCodes.DADD, OpCodes.DSUB,
+                OpCodes.DMUL, OpCodes.DDIV, OpCodes.DREM, OpCodes.DNEG,
+                OpCodes.I2D, OpCodes.L2D, OpCodes.F2D);
+        setResult(VerificationType.NULL, OpCodes.ACONST_NULL);
+    }
+
+
+    /**
+     * Is an op-code a conditional branch, which may also fall through to the
+     * following op-code?
+     * 
+     * @param op
+     *            the op-code
+     * @return true if conditional
+     */
+    private static boolean isConditional(byte op) {
+        switch (op) {
+        case OpCodes.GOTO:
+        case OpCodes.GOTO_W:
+        case OpCodes.JSR:
+        case OpCodes.JSR_W:
+        case OpCodes.LOOKUPSWITCH:
+        case OpCodes.TABLESWITCH:
+            return false;
+        default:
+            return OpcodeInfo.get(op).isBranch();
+        }
+    }
+
+
+    /**
+     * Set the result type for simple op-codes
+     * 
+     * @param type
+     *            the type pushed
+     * @param ops
+     *            the op-codes
+     */
+    private static void setResult(VerificationType type, byte... ops) {
+        for(byte op:ops) {
+            RESULT[op & 0xff] = type;
+        }
+    }
+
+    /** The internal name of the class the method belongs to */
+    private final String className_;
+
+    /** The byte code */
+    private final byte[] code_;
+
+    /** The block each exception handler starts */
+    private final int[] handlerBlock_;
+
+    /** The exception handlers */
+    private final Handler[] handlers_;
+
+    /** The local variable types on entry to the method */
+    private final VerificationType[] initial_;
+
+    /** Is the block in the work list? */
+    private final boolean[] inWork_;
+
+    /** The local variable types at the start of each block */
+    private final VerificationType[][] locals_;
+
+    /** The local variable types of the op-code being processed */
+    private final VerificationType[] curLocals_;
+
+    /** The stack types of the op-code being processed */
+    private final VerificationType[] curStack_;
+
+    /** Does each block need a frame? */
+    private final boolean[] needsFrame_;
+
+    /** Has each op-code been reached? */
+    private final boolean[] reached_;
+
+    /** Resolver for common superclasses */
+    private final SuperclassResolver resolver_;
+
+    /** The stack pointer of the op-code being processed */
+    private int sp_ = 0;
+
+    /** The stack types at the start of each block */
+    private final VerificationType[][] stacks_;
+
+    /** The locations where each run of unreachable op-codes starts and ends */
+    private final List<int[]> unreachable_ = new ArrayList<int[]>();
+
+    /** The blocks waiting to be processed */
+    private final int[] work_;
+
+    /** The number of blocks waiting to be processed */
+    private int workCount_ = 0;
+
+
+    /**
+     * Compute the frames for a method's code.
+     * 
+     * @param maxLocalVars
+     *            previously identified max var count, or -1 to find
+     * @param method
+     *            the method definition
+     * @param resolver
+     *            resolver for common superclasses
+     */
+    public FrameAnalyzer(int maxLocalVars, Method method,
+            SuperclassResolver resolver) {
+        super(-1, maxLocalVars, method);
+        resolver_ = resolver;
+        className_ = cp_.getOwner().getName();
+        Code attrCode = method.getCode();
+        code_ = attrCode.getCode();
+        handlers_ = attrCode.getHandlers();
+
+        // the initial local variables come from the method's signature
+        int maxLocals = getMaxLocalVars();
+        curLocals_ = new VerificationType[maxLocals];
+        curStack_ = new VerificationType[getMaxStack()];
+        for(int i = 0;i < maxLocals;i++) {
+            curLocals_[i] = VerificationType.TOP;
+        }
+        int slot = 0;
+        if( (method.getAccess() & Access.ACC_STATIC) == 0 ) {
+            if( method.getName().get().equals("<init>")
+                    && !className_.equals("java/lang/Object") ) {
+                store(0, VerificationType.UNINITIALIZED_THIS);
+            } else {
+                store(0, VerificationType.forClass(className_));
+            }
+            slot++;
+        }
+        Descriptor desc = method.getDescriptor();
+        for(int i = 0;i < desc.getArgCount();i++) {
+            VerificationType t = VerificationType.forDescriptor(desc.getArgType(i));
+            checkSlot(slot, t.isWide() ? 1 : 0, 0);
+            store(slot, t);
+            slot += t.isWide() ? 2 : 1;
+        }
+        initial_ = curLocals_.clone();
+
+        locals_ = new VerificationType[blockCount_][];
+        stacks_ = new VerificationType[blockCount_][];
+        needsFrame_ = new boolean[blockCount_];
+        inWork_ = new boolean[blockCount_];
+        work_ = new int[blockCount_];
+        reached_ = new boolean[opCount_];
+
+        handlerBlock_ = new int[handlers_.length];
+        for(int i = 0;i < handlers_.length;i++) {
+            int b = blockAt_[indexOf(handlers_[i].getHandlerPC())];
+            handlerBlock_[i] = b;
+            needsFrame_[b] = true;
+        }
+
+        // explore until the types are stable
+        sp_ = 0;
+        merge(blockAt_[0], 0);
+        while( workCount_ > 0 ) {
+            workCount_--;
+            int b = work_[workCount_];
+            inWork_[b] = false;
+            process(b);
+        }
+
+        // find the runs of op-codes which were never reached
+        int start = -1;
+        for(int i = 0;i <= opCount_;i++) {
+            boolean isReached = (i == opCount_) || reached_[i];
+            if( !isReached && (start == -1) ) {
+                start = i;
+            } else if( isReached && (start != -1) ) {
+                int end = (i == opCount_) ? codeLength_ : opOffset_[i];
+                unreachable_.add(new int[] { opOffset_[start], end });
+                start = -1;
+            }
+        }
+    }
+
+
+    /**
+     * Get the frames for the blocks that need them, in location order.
+     * 
+     * @return the frames
+     */
+    public List<StackMapTable.Frame> getFrames() {
+        List<StackMapTable.Frame> frames = new ArrayList<StackMapTable.Frame>();
+        VerificationType[] thrown = { VerificationType
+                .forClass("java/lang/Throwable") };
+        int next = 0;
+        for(int i = 0;i < opCount_;i++) {
+            // unreachable code just throws what is on the stack
+            if( (next < unreachable_.size())
+                    && (opOffset_[i] == unreachable_.get(next)[0]) ) {
+                frames.add(new StackMapTable.Frame(opOffset_[i], NO_TYPES,
+                        thrown));
+                next++;
+                continue;
+            }
+
+            // blocks which were never reached have no types
+            int b = blockAt_[i];
+            if( (b == -1) || !needsFrame_[b] || (locals_[b] == null) )
+                continue;
+            frames.add(new StackMapTable.Frame(opOffset_[i], locals_[b],
+                    stacks_[b]));
+        }
+        return frames;
+    }
+
+
+    /**
+     * Get the local variable types on entry to the method
+     * 
+     * @return the types
+     */
+    public VerificationType[] getInitialLocals() {
+        return initial_.clone();
+    }
+
+
+    /**
+     * Get the runs of op-codes which cannot be reached. Each run is given as
+     * the location of its first op-code and the location after its last. The
+     * frames assume each run is filled with NOPs and ends with an ATHROW.
+     * 
+     * @return the runs, in location order
+     */
+    public List<int[]> getUnreachable() {
+        return Collections.unmodifiableList(unreachable_);
+    }
+
+
+    /**
+     * Get the class name of a class constant
+     * 
+     * @param off
+     *            the location of the constant's index in the code
+     * @return the class name
+     */
+    private String getClassName(int off) {
+        int v = IO.readU2(code_, off);
+        return cp_.validate(v, ConstantClass.class).getClassName().get();
+    }
+
+
+    /**
+     * Get the type of a loaded constant
+     * 
+     * @param index
+     *            the constant's index
+     * @param off
+     *            the location of the op-code
+     * @return the constant's type
+     */
+    private VerificationType getConstantType(int index, int off) {
+        Constant c = cp_.get(index);
+        if( c instanceof ConstantNumber ) {
+            String t = ((ConstantNumber) c).getType();
+            if( t.equals("int") ) return VerificationType.INTEGER;
+            if( t.equals("float") ) return VerificationType.FLOAT;
+            if( t.equals("long") ) return VerificationType.LONG;
+            return VerificationType.DOUBLE;
+        }
+        if( c instanceof ConstantString )
+            return VerificationType.forClass("java/lang/String");
+        if( c instanceof ConstantClass )
+            return VerificationType.forClass("java/lang/Class");
+        throw new YabelDecompileException("Constant " + c
+                + " cannot be loaded at location " + off);
+    }
+
+
+    /**
+     * Initialize an object by calling its constructor, replacing every
+     * occurrence of its uninitialized type.
+     * 
+     * @param type
+     *            the uninitialized type
+     */
+    private void initialize(VerificationType type) {
+        VerificationType init;
+        if( type.getTag() == VerificationType.ITEM_UNINITIALIZED_THIS ) {
+            init = VerificationType.forClass(className_);
+        } else if( type.getTag() == VerificationType.ITEM_UNINITIALIZED ) {
+            init = VerificationType.forClass(getClassName(type.getOffset() + 1));
+        } else {
+            // already initialized
+            return;
+        }
+
+        for(int i = 0;i < curLocals_.length;i++) {
+            if( curLocals_[i].equals(type) ) curLocals_[i] = init;
+        }
+        for(int i = 0;i < sp_;i++) {
+            if( curStack_[i].equals(type) ) curStack_[i] = init;
+        }
+    }
+
+
+    /**
+     * Simulate the effect of an op-code on the current types.
+     * 
+     * @param i
+     *            the op-code's index
+     */
+    private void execute(int i) {
+        int off = opOffset_[i];
+        byte op = opCode_[i];
+        switch (op) {
+        case OpCodes.LDC:
+            push(getConstantType(IO.readU1(code_, off + 1), off));
+            return;
+        case OpCodes.LDC_W:
+            // falls through
+        case OpCodes.LDC2_W:
+            push(getConstantType(IO.readU2(code_, off + 1), off));
+            return;
+        case OpCodes.ILOAD:
+        case OpCodes.LLOAD:
+        case OpCodes.FLOAD:
+        case OpCodes.DLOAD:
+        case OpCodes.ALOAD:
+            load(op - OpCodes.ILOAD, IO.readU1(code_, off + 1), off);
+            return;
+        case OpCodes.ISTORE:
+        case OpCodes.LSTORE:
+        case OpCodes.FSTORE:
+        case OpCodes.DSTORE:
+        case OpCodes.ASTORE:
+            store(op - OpCodes.ISTORE, IO.readU1(code_, off + 1), off);
+            return;
+        case OpCodes.WIDE: {
+            byte wop = code_[off + 1];
+            int v = IO.readU2(code_, off + 2);
+            if( (OpCodes.ILOAD <= wop) && (wop <= OpCodes.ALOAD) ) {
+                load(wop - OpCodes.ILOAD, v, off);
+            } else if( (OpCodes.ISTORE <= wop) && (wop <= OpCodes.ASTORE) ) {
+                store(wop - OpCodes.ISTORE, v, off);
+            } else if( wop == OpCodes.RET ) {
+                throw new YabelDecompileException(
+                        "Subroutines cannot have stack map frames. RET at location "
+                                + off);
+            }
+            return;
+        }
+        case OpCodes.AALOAD: {
+            pop(1);
+            VerificationType array = popSlot();
+            if( array == VerificationType.NULL ) {
+                push(VerificationType.NULL);
+            } else {
+                VerificationType elem = array.getElementType();
+                push((elem != null) ? elem : VerificationType.OBJECT);
+            }
+            return;
+        }
+        case OpCodes.DUP: {
+            VerificationType v1 = curStack_[sp_ - 1];
+            pushSlot(v1);
+            return;
+        }
+        case OpCodes.DUP_X1: {
+            VerificationType v1 = popSlot();
+            VerificationType v2 = popSlot();
+            pushSlot(v1);
+            pushSlot(v2);
+            pushSlot(v1);
+            return;
+        }
+        case OpCodes.DUP_X2: {
+            VerificationType v1 = popSlot();
+            VerificationType v2 = popSlot();
+            VerificationType v3 = popSlot();
+            pushSlot(v1);
+            pushSlot(v3);
+            pushSlot(v2);
+            pushSlot(v1);
+            return;
+        }
+        case OpCodes.DUP2: {
+            VerificationType v1 = popSlot();
+            VerificationType v2 = popSlot();
+            pushSlot(v2);
+            pushSlot(v1);
+            pushSlot(v2);
+            pushSlot(v1);
+            return;
+        }
+        case OpCodes.DUP2_X1: {
+            VerificationType v1 = popSlot();
+            VerificationType v2 = popSlot();
+            VerificationType v3 = popSlot();
+            pushSlot(v2);
+            pushSlot(v1);
+            pushSlot(v3);
+            pushSlot(v2);
+            pushSlot(v1);
+            return;
+        }
+        case OpCodes.DUP2_X2: {
+            VerificationType v1 = popSlot();
+            VerificationType v2 = popSlot();
+            VerificationType v3 = popSlot();
+            VerificationType v4 = popSlot();
+            pushSlot(v2);
+            pushSlot(v1);
+            pushSlot(v4);
+            pushSlot(v3);
+            pushSlot(v2);
+            pushSlot(v1);
+            return;
+        }
+        case OpCodes.SWAP: {
+            VerificationType v1 = popSlot();
+            VerificationType v2 = popSlot();
+            pushSlot(v1);
+            pushSlot(v2);
+            return;
+        }
+        case OpCodes.JSR:
+        case OpCodes.JSR_W:
+        case OpCodes.RET:
+            throw new YabelDecompileException(
+                    "Subroutines cannot have stack map frames. "
+                            + OpcodeInfo.get(op).getName() + " at location "
+                            + off);
+        case OpCodes.GETSTATIC: {
+            ConstantRef cr = cp_.validate(IO.readU2(code_, off + 1),
+                    ConstantRef.class);
+            push(VerificationType.forDescriptor(cr.getDescriptor().getReturnType()));
+            return;
+        }
+        case OpCodes.PUTSTATIC: {
+            ConstantRef cr = cp_.validate(IO.readU2(code_, off + 1),
+                    ConstantRef.class);
+            pop(cr.getDescriptor().getReturnWidth());
+            return;
+        }
+        case OpCodes.GETFIELD: {
+            ConstantRef cr = cp_.validate(IO.readU2(code_, off + 1),
+                    ConstantRef.class);
+            pop(1);
+            push(VerificationType.forDescriptor(cr.getDescriptor().getReturnType()));
+            return;
+        }
+        case OpCodes.PUTFIELD: {
+            ConstantRef cr = cp_.validate(IO.readU2(code_, off + 1),
+                    ConstantRef.class);
+            pop(cr.getDescriptor().getReturnWidth() + 1);
+            return;
+        }
+        case OpCodes.INVOKEVIRTUAL:
+        case OpCodes.INVOKESPECIAL:
+        case OpCodes.INVOKESTATIC:
+        case OpCodes.INVOKEINTERFACE: {
+            ConstantRef cr = cp_.validate(IO.readU2(code_, off + 1),
+                    ConstantRef.class);
+            Descriptor desc = cr.getDescriptor();
+            pop(desc.getArgSlots());
+            if( op != OpCodes.INVOKESTATIC ) {
+                VerificationType obj = popSlot();
+                if( (op == OpCodes.INVOKESPECIAL)
+                        && cr.getName().get().equals("<init>") ) {
+                    initialize(obj);
+                }
+            }
+            if( desc.getReturnWidth() != 0 ) {
+                push(VerificationType.forDescriptor(desc.getReturnType()));
+            }
+            return;
+        }
+        case OpCodes.INVOKEDYNAMIC:
+            throw new YabelDecompileException(
+                    "INVOKEDYNAMIC is not supported. At location " + off);
+        case OpCodes.NEW:
+            push(VerificationType.uninitialized(off));
+            return;
+        case OpCodes.NEWARRAY: {
+            pop(1);
+            int atype = IO.readU1(code_, off + 1);
+            if( (atype < 4) || (11 < atype) )
+                throw new YabelDecompileException("Array type " + atype
+                        + " is not valid at location " + off);
+            push(VerificationType.forClass("[" + "ZCFDBSIJ".charAt(atype - 4)));
+            return;
+        }
+        case OpCodes.ANEWARRAY: {
+            pop(1);
+            String name = getClassName(off + 1);
+            if( name.startsWith("[") ) {
+                push(VerificationType.forClass("[" + name));
+            } else {
+                push(VerificationType.forClass("[L" + name + ";"));
+            }
+            return;
+        }
+        case OpCodes.CHECKCAST:
+            pop(1);
+            push(VerificationType.forClass(getClassName(off + 1)));
+            return;
+        case OpCodes.MULTIANEWARRAY:
+            pop(IO.readU1(code_, off + 3));
+            push(VerificationType.forClass(getClassName(off + 1)));
+            return;
+        default:
+            break;
+        }
+
+        // the short forms of loads and stores
+        int v = op & 0xff;
+        if( (OpCodes.ILOAD_0 <= v) && (v <= OpCodes.ALOAD_3) ) {
+            v -= OpCodes.ILOAD_0;
+            load(v / 4, v % 4, off);
+            return;
+        }
+        if( (OpCodes.ISTORE_0 <= v) && (v <= OpCodes.ASTORE_3) ) {
+            v -= OpCodes.ISTORE_0;
+            store(v / 4, v % 4, off);
+            return;
+        }
+
+        // everything else pops its inputs and pushes at most one result
+        pop(OpcodeInfo.get(op).getStackUsed());
+        VerificationType result = RESULT[op & 0xff];
+        if( result != null ) push(result);
+    }
+
+
+    /**
+     * Load a local variable onto the stack
+     * 
+     * @param kind
+     *            0 to 4 for int, long, float, double and reference
+     * @param slot
+     *            the local variable
+     * @param off
+     *            the location of the op-code
+     */
+    private void load(int kind, int slot, int off) {
+        checkSlot(slot, kind, off);
+        switch (kind) {
+        case 0:
+            push(VerificationType.INTEGER);
+            break;
+        case 1:
+            push(VerificationType.LONG);
+            break;
+        case 2:
+            push(VerificationType.FLOAT);
+            break;
+        case 3:
+            push(VerificationType.DOUBLE);
+            break;
+        default:
+            push(curLocals_[slot]);
+            break;
+        }
+    }
+
+
+    /**
+     * Check a local variable is within the method's local variables.
+     * 
+     * @param slot
+     *            the local variable
+     * @param kind
+     *            0 to 4 for int, long, float, double and reference
+     * @param off
+     *            the location of the op-code
+     */
+    private void checkSlot(int slot, int kind, int off) {
+        int width = ((kind == 1) || (kind == 3)) ? 2 : 1;
+        if( slot + width > curLocals_.length )
+            throw new YabelDecompileException("Local variable " + slot
+                    + " at location " + off + " is outside the "
+                    + curLocals_.length + " local variables");
+    }
+
+
+    /**
+     * Merge the current types into a block's types. If the block's types
+     * change, it is added to the work list.
+     * 
+     * @param block
+     *            the block
+     * @param off
+     *            the location the types flow from
+     */
+    private void merge(int block, int off) {
+        VerificationType[] locals = locals_[block];
+        if( locals == null ) {
+            locals_[block] = curLocals_.clone();
+            stacks_[block] = (sp_ == 0) ? NO_TYPES : copyStack();
+            addWork(block);
+            return;
+        }
+
+        VerificationType[] stack = stacks_[block];
+        if( stack.length != sp_ )
+            throw new YabelDecompileException("Stack has " + sp_
+                    + " slots at location " + off + " but the block at "
+                    + opOffset_[blockStart_[block]] + " expects "
+                    + stack.length);
+
+        boolean changed = false;
+        for(int i = 0;i < locals.length;i++) {
+            VerificationType t = mergeType(locals[i], curLocals_[i]);
+            if( !t.equals(locals[i]) ) {
+                locals[i] = t;
+                changed = true;
+            }
+        }
+        for(int i = 0;i < sp_;i++) {
+            VerificationType t = mergeType(stack[i], curStack_[i]);
+            if( t == VerificationType.TOP && stack[i] != VerificationType.TOP )
+                throw new YabelDecompileException("Stack slot " + i
+                        + " at location " + off + " holds " + curStack_[i]
+                        + " but the block at "
+                        + opOffset_[blockStart_[block]] + " expects "
+                        + stack[i]);
+            if( !t.equals(stack[i]) ) {
+                stack[i] = t;
+                changed = true;
+            }
+        }
+        if( changed ) addWork(block);
+    }
+
+
+    /**
+     * Add a block to the work list, if it is not already there
+     * 
+     * @param block
+     *            the block
+     */
+    private void addWork(int block) {
+        if( inWork_[block] ) return;
+        inWork_[block] = true;
+        work_[workCount_] = block;
+        workCount_++;
+    }
+
+
+    /**
+     * Copy the current stack
+     * 
+     * @return the copy
+     */
+    private VerificationType[] copyStack() {
+        VerificationType[] stack = new VerificationType[sp_];
+        System.arraycopy(curStack_, 0, stack, 0, sp_);
+        return stack;
+    }
+
+
+    /**
+     * Merge the current local variables into every exception handler that
+     * covers a location.
+     * 
+     * @param off
+     *            the location
+     */
+    private void mergeHandlers(int off) {
+        VerificationType[] stack = null;
+        int sp = sp_;
+        for(int h = 0;h < handlers_.length;h++) {
+            Handler handler = handlers_[h];
+            if( (off < handler.getStartPC()) || (handler.getEndPC() <= off) )
+                continue;
+
+            // the handler receives just the exception on the stack
+            if( stack == null ) stack = copyStack();
+            String type = handler.getCatchTypeName();
+            curStack_[0] = VerificationType.forClass((type != null) ? type
+                    : "java/lang/Throwable");
+            sp_ = 1;
+            merge(handlerBlock_[h], off);
+        }
+        if( stack != null ) {
+            System.arraycopy(stack, 0, curStack_, 0, sp);
+            sp_ = sp;
+        }
+    }
+
+
+    /**
+     * Find the type that two types have in common.
+     * 
+     * @param a
+     *            the first type
+     * @param b
+     *            the second type
+     * @return the common type, which is TOP if there is none
+     */
+    private VerificationType mergeType(VerificationType a, VerificationType b) {
+        if( a.equals(b) ) return a;
+        if( !(a.isReference() && b.isReference()) ) return VerificationType.TOP;
+
+        // uninitialized objects only merge with themselves
+        if( (a.getTag() != VerificationType.ITEM_OBJECT)
+                && (a.getTag() != VerificationType.ITEM_NULL) )
+            return VerificationType.TOP;
+        if( (b.getTag() != VerificationType.ITEM_OBJECT)
+                && (b.getTag() != VerificationType.ITEM_NULL) )
+            return VerificationType.TOP;
+
+        // null merges with any object
+        if( a == VerificationType.NULL ) return b;
+        if( b == VerificationType.NULL ) return a;
+
+        if( a.isArray() && b.isArray() ) {
+            // arrays of references are arrays of the common type
+            VerificationType ea = a.getElementType();
+            VerificationType eb = b.getElementType();
+            if( (ea.getTag() != VerificationType.ITEM_OBJECT)
+                    || (eb.getTag() != VerificationType.ITEM_OBJECT) )
+                return VerificationType.OBJECT;
+            VerificationType e = mergeType(ea, eb);
+            String name = e.getClassName();
+            if( e.isArray() ) return VerificationType.forClass("[" + name);
+            return VerificationType.forClass("[L" + name + ";");
+        }
+        if( a.isArray() || b.isArray() ) return VerificationType.OBJECT;
+
+        return VerificationType.forClass(resolver_.getCommonSuperclass(
+                a.getClassName(), b.getClassName()));
+    }
+
+
+    /**
+     * Pop slots from the stack
+     * 
+     * @param slots
+     *            the number of slots to pop
+     */
+    private void pop(int slots) {
+        if( slots > sp_ )
+            throw new YabelDecompileException("Stack underflow");
+        sp_ -= slots;
+    }
+
+
+    /**
+     * Pop a single slot from the stack
+     * 
+     * @return the slot's type
+     */
+    private VerificationType popSlot() {
+        if( sp_ == 0 ) throw new YabelDecompileException("Stack underflow");
+        sp_--;
+        return curStack_[sp_];
+    }
+
+
+    /**
+     * Process a block, following its op-codes until it ends or runs into
+     * another block.
+     * 
+     * @param block
+     *            the block
+     */
+    private void process(int block) {
+        VerificationType[] stack = stacks_[block];
+        System.arraycopy(locals_[block], 0, curLocals_, 0, curLocals_.length);
+        System.arraycopy(stack, 0, curStack_, 0, stack.length);
+        sp_ = stack.length;
+
+        int i = blockStart_[block];
+        int end = blockEnd_[block];
+        while( true ) {
+            reached_[i] = true;
+            int off = opOffset_[i];
+
+            // handlers see the local variables before and after the op-code
+            mergeHandlers(off);
+            execute(i);
+            mergeHandlers(off);
+
+            if( i == end ) break;
+
+            i++;
+            int next = blockAt_[i];
+            if( next != -1 ) {
+                // ran into another block
+                merge(next, off);
+                return;
+            }
+        }
+
+        // follow the branches from the last op-code
+        int b0 = branchStart_[i];
+        int b1 = branchStart_[i + 1];
+        boolean isCond = isConditional(opCode_[i]);
+        for(int b = b0;b < b1;b++) {
+            int target = blockAt_[branchTo_[b]];
+            // a conditional's fall through does not need a frame
+            if( !(isCond && (b == b1 - 1)) ) needsFrame_[target] = true;
+            merge(target, opOffset_[i]);
+        }
+    }
+
+
+    /**
+     * Push a type onto the stack. Longs and doubles take two slots.
+     * 
+     * @param type
+     *            the type
+     */
+    private void push(VerificationType type) {
+        pushSlot(type);
+        if( type.isWide() ) pushSlot(VerificationType.TOP);
+    }
+
+
+    /**
+     * Push a single slot onto the stack
+     * 
+     * @param type
+     *            the slot's type
+     */
+    private void pushSlot(VerificationType type) {
+        if( sp_ == curStack_.length )
+            throw new YabelDecompileException("Stack overflow");
+        curStack_[sp_] = type;
+        sp_++;
+    }
+
+
+    /**
+     * Store the value on top of the stack in a local variable
+     * 
+     * @param kind
+     *            0 to 4 for int, long, float, double and reference
+     * @param slot
+     *            the local variable
+     * @param off
+     *            the location of the op-code
+     */
+    private void store(int kind, int slot, int off) {
+        checkSlot(slot, kind, off);
+        VerificationType type;
+        switch (kind) {
+        case 0:
+            type = VerificationType.INTEGER;
+            pop(1);
+            break;
+        case 1:
+            type = VerificationType.LONG;
+            pop(2);
+            break;
+        case 2:
+            type = VerificationType.FLOAT;
+            pop(1);
+            break;
+        case 3:
+            type = VerificationType.DOUBLE;
+            pop(2);
+            break;
+        default:
+            type = popSlot();
+            break;
+        }
+        store(slot, type);
+    }
+
+
+    /**
+     * Set the type of a local variable. A long or double also sets the
+     * following variable to TOP, and a variable that was the second half of a
+     * long or double invalidates the first half.
+     * 
+     * @param slot
+     *            the local variable
+     * @param type
+     *            the type
+     */
+    private void store(int slot, VerificationType type) {
+        if( (slot > 0) && curLocals_[slot - 1].isWide() ) {
+            curLocals_[slot - 1] = VerificationType.TOP;
+        }
+        curLocals_[slot] = type;
+        if( type.isWide() ) curLocals_[slot + 1] = VerificationType.TOP;
+    }
+}
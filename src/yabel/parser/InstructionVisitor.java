@@ -0,0 +1,25 @@
+package yabel.parser;
+
+/**
+ * Receive the instructions found by {@link Parser#decode}. Instructions are
+ * reported against the array being decoded, so no bytes are copied.
+ * 
+ * @author Simon Greatrix
+ * 
+ */
+public interface InstructionVisitor {
+    /**
+     * An instruction has been decoded
+     * 
+     * @param opCode
+     *            the instruction's op-code (0 to 255). For a WIDE instruction
+     *            this is WIDE and the modified op-code follows it.
+     * @param code
+     *            the array holding the byte-code
+     * @param offset
+     *            the offset of the instruction in the array
+     * @param length
+     *            the number of bytes in the instruction
+     */
+    public void visit(int opCode, byte[] code, int offset, int length);
+}
@@ -0,0 +1,652 @@
+package yabel.parser;
+
+import yabel.OpCodes;
+
+/**
+ * Immutable description of a JVM op-code: its flags, length, stack effect,
+ * local variable effect and operand kind. There is one instance per possible
+ * op-code value, so classifying an op-code is a single array access.
+ * 
+ * @author Simon Greatrix
+ * 
+ */
+public final class OpcodeInfo {
+    /**
+     * The kind of operand that follows an op-code
+     * 
+     * @author Simon Greatrix
+     */
+    public enum Operand {
+        /** A signed byte value (BIPUSH) */
+        BYTE,
+
+        /** A two byte branch offset */
+        BRANCH,
+
+        /** A four byte branch offset */
+        BRANCH_WIDE,
+
+        /** A one byte constant pool index (LDC) */
+        CONSTANT,
+
+        /** A two byte constant pool index of a class */
+        CLASS,
+
+        /** A two byte constant pool index of a loadable constant */
+        CONSTANT_WIDE,
+
+        /** A two byte constant pool index of a field reference */
+        FIELD,
+
+        /** A local variable index and a signed increment (IINC) */
+        IINC,
+
+        /** A two byte constant pool index of an interface method */
+        INTERFACE_METHOD,
+
+        /** A local variable index */
+        LOCAL,
+
+        /** A two byte constant pool index of a method reference */
+        METHOD,
+
+        /** A class index and a number of dimensions (MULTIANEWARRAY) */
+        MULTI_ARRAY,
+
+        /** A primitive array type (NEWARRAY) */
+        NEW_ARRAY,
+
+        /** No operand */
+        NONE,
+
+        /** A signed two byte value (SIPUSH) */
+        SHORT,
+
+        /** A switch table */
+        SWITCH,
+
+        /** A modified op-code and a wide local index (WIDE) */
+        WIDE
+    }
+
+    /** Flag for op-codes that may branch */
+    public static final int BRANCH = 1;
+
+    /** Flag for op-codes that exit a block of code */
+    public static final int EXIT = 2;
+
+    /** Flag for op-codes which the JVM recognises */
+    public static final int VALID = 4;
+
+    /** Flag for op-codes which WIDE can modify */
+    public static final int WIDENABLE = 8;
+
+    /**
+     * Number of bytes after the op-code itself.
+     */
+    private static final byte[] NUM_BYTES = { 0/* NOP */, 0/* ACONST_NULL */,
+            0/* ICONST_M1 */, 0/* ICONST_0 */, 0/* ICONST_1 */,
+            0/* ICONST_2 */, 0/* ICONST_3 */, 0/* ICONST_4 */, 0/* ICONST_5 */,
+            0/* LCONST_0 */, 0/* LCONST_1 */, 0/* FCONST_0 */, 0/* FCONST_1 */,
+            0/* FCONST_2 */, 0/* DCONST_0 */, 0/* DCONST_1 */, 1/* BIPUSH */,
+            2/* SIPUSH */, 1/* LDC */, 2/* LDC_W */, 2/* LDC2_W */,
+            1/* ILOAD */, 1/* LLOAD */, 1/* FLOAD */, 1/* DLOAD */,
+            1/* ALOAD */, 0/* ILOAD_0 */, 0/* ILOAD_1 */, 0/* ILOAD_2 */,
+            0/* ILOAD_3 */, 0/* LLOAD_0 */, 0/* LLOAD_1 */, 0/* LLOAD_2 */,
+            0/* LLOAD_3 */, 0/* FLOAD_0 */, 0/* FLOAD_1 */, 0/* FLOAD_2 */,
+            0/* FLOAD_3 */, 0/* DLOAD_0 */, 0/* DLOAD_1 */, 0/* DLOAD_2 */,
+            0/* DLOAD_3 */, 0/* ALOAD_0 */, 0/* ALOAD_1 */, 0/* ALOAD_2 */,
+            0/* ALOAD_3 */, 0/* IALOAD */, 0/* LALOAD */, 0/* FALOAD */,
+            0/* DALOAD */, 0/* AALOAD */, 0/* BALOAD */, 0/* CALOAD */,
+            0/* SALOAD */, 1/* ISTORE */, 1/* LSTORE */, 1/* FSTORE */,
+            1/* DSTORE */, 1/* ASTORE */, 0/* ISTORE_0 */, 0/* ISTORE_1 */,
+            0/* ISTORE_2 */, 0/* ISTORE_3 */, 0/* LSTORE_0 */, 0/* LSTORE_1 */,
+            0/* LSTORE_2 */, 0/* LSTORE_3 */, 0/* FSTORE_0 */, 0/* FSTORE_1 */,
+            0/* FSTORE_2 */, 0/* FSTORE_3 */, 0/* DSTORE_0 */, 0/* DSTORE_1 */,
+            0/* DSTORE_2 */, 0/* DSTORE_3 */, 0/* ASTORE_0 */, 0/* ASTORE_1 */,
+            0/* ASTORE_2 */, 0/* ASTORE_3 */, 0/* IASTORE */, 0/* LASTORE */,
+            0/* FASTORE */, 0/* DASTORE */, 0/* AASTORE */, 0/* BASTORE */,
+            0/* CASTORE */, 0/* SASTORE */, 0/* POP */, 0/* POP2 */,
+            0/* DUP */, 0/* DUP_X1 */, 0/* DUP_X2 */, 0/* DUP2 */,
+            0/* DUP2_X1 */, 0/* DUP2_X2 */, 0/* SWAP */, 0/* IADD */,
+            0/* LADD */, 0/* FADD */, 0/* DADD */, 0/* ISUB */, 0/* LSUB */,
+            0/* FSUB */, 0/* DSUB */, 0/* IMUL */, 0/* LMUL */, 0/* FMUL */,
+            0/* DMUL */, 0/* IDIV */, 0/* LDIV */, 0/* FDIV */, 0/* DDIV */,
+            0/* IREM */, 0/* LREM */, 0/* FREM */, 0/* DREM */, 0/* INEG */,
+            0/* LNEG */, 0/* FNEG */, 0/* DNEG */, 0/* ISHL */, 0/* LSHL */,
+            0/* ISHR */, 0/* LSHR */, 0/* IUSHR */, 0/* LUSHR */, 0/* IAND */,
+            0/* LAND */, 0/* IOR */, 0/* LOR */, 0/* IXOR */, 0/* LXOR */,
+            2/* IINC */, 0/* I2L */, 0/* I2F */, 0/* I2D */, 0/* L2I */,
+            0/* L2F */, 0/* L2D */, 0/* F2I */, 0/* F2L */, 0/* F2D */,
+            0/* D2I */, 0/* D2L */, 0/* D2F */, 0/* I2B */, 0/* I2C */,
+            0/* I2S */, 0/* LCMP */, 0/* FCMPL */, 0/* FCMPG */, 0/* DCMPL */,
+            0/* DCMPG */, 2/* IFEQ */, 2/* IFNE */, 2/* IFLT */, 2/* IFGE */,
+            2/* IFGT */, 2/* IFLE */, 2/* IF_ICMPEQ */, 2/* IF_ICMPNE */,
+            2/* IF_ICMPLT */, 2/* IF_ICMPGE */, 2/* IF_ICMPGT */,
+            2/* IF_ICMPLE */, 2/* IF_ACMPEQ */, 2/* IF_ACMPNE */, 2/* GOTO */,
+            2/* JSR */, 1/* RET */, -1/* TABLESWITCH */, -1/* LOOKUPSWITCH */,
+            0/* IRETURN */, 0/* LRETURN */, 0/* FRETURN */, 0/* DRETURN */,
+            0/* ARETURN */, 0/* RETURN */, 2/* GETSTATIC */, 2/* PUTSTATIC */,
+            2/* GETFIELD */, 2/* PUTFIELD */, 2/* INVOKEVIRTUAL */,
+            2/* INVOKESPECIAL */, 2/* INVOKESTATIC */, 4/* INVOKEINTERFACE */,
+            -4/* INVOKEDYNAMIC */, 2/* NEW */, 1/* NEWARRAY */, 2/* ANEWARRAY */,
+            0/* ARRAYLENGTH */, 0/* ATHROW */, 2/* CHECKCAST */,
+            2/* INSTANCEOF */, 0/* MONITORENTER */, 0/* MONITOREXIT */,
+            -1/* WIDE */, 3/* MULTIANEWARRAY */, 2/* IFNULL */,
+            2/* IFNONNULL */, 4/* GOTO_W */, 4 /* JSR_W */};
+
+    /**
+     * Number of stack elements added by each op-code. Negative values indicate:
+     * <ul>
+     * <li>-1 : 1 normally, but 2 if long or double field
+     * <li>-2 : 1 normally, but 0 if return type was void
+     * </ul>
+     * 
+     */
+    private static final int[] STACK_MADE = { 0/* NOP */, 1/* ACONST_NULL */,
+            1/* ICONST_M1 */, 1/* ICONST_0 */, 1/* ICONST_1 */,
+            1/* ICONST_2 */, 1/* ICONST_3 */, 1/* ICONST_4 */, 1/* ICONST_5 */,
+            2/* LCONST_0 */, 2/* LCONST_1 */, 1/* FCONST_0 */, 1/* FCONST_1 */,
+            1/* FCONST_2 */, 2/* DCONST_0 */, 2/* DCONST_1 */, 1/* BIPUSH */,
+            1/* SIPUSH */, 1/* LDC */, 1/* LDC_W */, 2/* LDC2_W */,
+            1/* ILOAD */, 2/* LLOAD */, 1/* FLOAD */, 2/* DLOAD */,
+            1/* ALOAD */, 1/* ILOAD_0 */, 1/* ILOAD_1 */, 1/* ILOAD_2 */,
+            1/* ILOAD_3 */, 2/* LLOAD_0 */, 2/* LLOAD_1 */, 2/* LLOAD_2 */,
+            2/* LLOAD_3 */, 1/* FLOAD_0 */, 1/* FLOAD_1 */, 1/* FLOAD_2 */,
+            1/* FLOAD_3 */, 2/* DLOAD_0 */, 2/* DLOAD_1 */, 2/* DLOAD_2 */,
+            2/* DLOAD_3 */, 1/* ALOAD_0 */, 1/* ALOAD_1 */, 1/* ALOAD_2 */,
+            1/* ALOAD_3 */, 1/* IALOAD */, 2/* LALOAD */, 1/* FALOAD */,
+            2/* DALOAD */, 1/* AALOAD */, 1/* BALOAD */, 1/* CALOAD */,
+            1/* SALOAD */, 0/* ISTORE */, 0/* LSTORE */, 0/* FSTORE */,
+            0/* DSTORE */, 0/* ASTORE */, 0/* ISTORE_0 */, 0/* ISTORE_1 */,
+            0/* ISTORE_2 */, 0/* ISTORE_3 */, 0/* LSTORE_0 */, 0/* LSTORE_1 */,
+            0/* LSTORE_2 */, 0/* LSTORE_3 */, 0/* FSTORE_0 */, 0/* FSTORE_1 */,
+            0/* FSTORE_2 */, 0/* FSTORE_3 */, 0/* DSTORE_0 */, 0/* DSTORE_1 */,
+            0/* DSTORE_2 */, 0/* DSTORE_3 */, 0/* ASTORE_0 */, 0/* ASTORE_1 */,
+            0/* ASTORE_2 */, 0/* ASTORE_3 */, 0/* IASTORE */, 0/* LASTORE */,
+            0/* FASTORE */, 0/* DASTORE */, 0/* AASTORE */, 0/* BASTORE */,
+            0/* CASTORE */, 0/* SASTORE */, 0/* POP */, 0/* POP2 */,
+            2/* DUP */, 3/* DUP_X1 */, 4/* DUP_X2 */, 4/* DUP2 */,
+            5/* DUP2_X1 */, 6/* DUP2_X2 */, 2/* SWAP */, 1/* IADD */,
+            2/* LADD */, 1/* FADD */, 2/* DADD */, 1/* ISUB */, 2/* LSUB */,
+            1/* FSUB */, 2/* DSUB */, 1/* IMUL */, 2/* LMUL */, 1/* FMUL */,
+            2/* DMUL */, 1/* IDIV */, 2/* LDIV */, 1/* FDIV */, 2/* DDIV */,
+            1/* IREM */, 2/* LREM */, 1/* FREM */, 2/* DREM */, 1/* INEG */,
+            2/* LNEG */, 1/* FNEG */, 2/* DNEG */, 1/* ISHL */, 2/* LSHL */,
+            1/* ISHR */, 2/* LSHR */, 1/* IUSHR */, 2/* LUSHR */, 1/* IAND */,
+            2/* LAND */, 1/* IOR */, 2/* LOR */, 1/* IXOR */, 2/* LXOR */,
+            0/* IINC */, 2/* I2L */, 1/* I2F */, 2/* I2D */, 1/* L2I */,
+            1/* L2F */, 2/* L2D */, 1/* F2I */, 2/* F2L */, 2/* F2D */,
+            1/* D2I */, 2/* D2L */, 1/* D2F */, 1/* I2B */, 1/* I2C */,
+            1/* I2S */, 1/* LCMP */, 1/* FCMPL */, 1/* FCMPG */, 1/* DCMPL */,
+            1/* DCMPG */, 0/* IFEQ */, 0/* IFNE */, 0/* IFLT */, 0/* IFGE */,
+            0/* IFGT */, 0/* IFLE */, 0/* IF_ICMPEQ */, 0/* IF_ICMPNE */,
+            0/* IF_ICMPLT */, 0/* IF_ICMPGE */, 0/* IF_ICMPGT */,
+            0/* IF_ICMPLE */, 0/* IF_ACMPEQ */, 0/* IF_ACMPNE */, 0/* GOTO */,
+            1/* JSR */, 0/* RET */, 0/* TABLESWITCH */, 0/* LOOKUPSWITCH */,
+            0/* IRETURN */, 0/* LRETURN */, 0/* FRETURN */, 0/* DRETURN */,
+            0/* ARETURN */, 0/* RETURN */, -1/* GETSTATIC */, 0/* PUTSTATIC */,
+            -1/* GETFIELD */, 0/* PUTFIELD */, -2/* INVOKEVIRTUAL */,
+            -2/* INVOKESPECIAL */, -2/* INVOKESTATIC */,
+            -2/* INVOKEINTERFACE */, 0/* INVOKEDYNAMIC */, 1/* NEW */, 1/* NEWARRAY */,
+            1/* ANEWARRAY */, 1/* ARRAYLENGTH */, 1/* ATHROW */,
+            1/* CHECKCAST */, 1/* INSTANCEOF */, 0/* MONITORENTER */,
+            0/* MONITOREXIT */, 0/* WIDE */, 1/* MULTIANEWARRAY */,
+            0/* IFNULL */, 0/* IFNONNULL */, 0/* GOTO_W */, 1 /* JSR_W */};
+
+    /**
+     * Number of elements on stack used by each op-code. Negatives values
+     * indicate:
+     * <ul>
+     * <li>-1 : 1 normally, but 2 if long or double field and 1 more if not
+     * static
+     * <li>-2 : Depends on number of arguments to method
+     * <li>-3 : Depends on number of dimensions of array
+     * </ul>
+     */
+    private static final byte[] STACK_USED = { 0/* NOP */, 0/* ACONST_NULL */,
+            0/* ICONST_M1 */, 0/* ICONST_0 */, 0/* ICONST_1 */,
+            0/* ICONST_2 */, 0/* ICONST_3 */, 0/* ICONST_4 */, 0/* ICONST_5 */,
+            0/* LCONST_0 */, 0/* LCONST_1 */, 0/* FCONST_0 */, 0/* FCONST_1 */,
+            0/* FCONST_2 */, 0/* DCONST_0 */, 0/* DCONST_1 */, 0/* BIPUSH */,
+            0/* SIPUSH */, 0/* LDC */, 0/* LDC_W */, 0/* LDC2_W */,
+            0/* ILOAD */, 0/* LLOAD */, 0/* FLOAD */, 0/* DLOAD */,
+            0/* ALOAD */, 0/* ILOAD_0 */, 0/* ILOAD_1 */, 0/* ILOAD_2 */,
+            0/* ILOAD_3 */, 0/* LLOAD_0 */, 0/* LLOAD_1 */, 0/* LLOAD_2 */,
+            0/* LLOAD_3 */, 0/* FLOAD_0 */, 0/* FLOAD_1 */, 0/* FLOAD_2 */,
+            0/* FLOAD_3 */, 0/* DLOAD_0 */, 0/* DLOAD_1 */, 0/* DLOAD_2 */,
+            0/* DLOAD_3 */, 0/* ALOAD_0 */, 0/* ALOAD_1 */, 0/* ALOAD_2 */,
+            0/* ALOAD_3 */, 2/* IALOAD */, 2/* LALOAD */, 2/* FALOAD */,
+            2/* DALOAD */, 2/* AALOAD */, 2/* BALOAD */, 2/* CALOAD */,
+            2/* SALOAD */, 1/* ISTORE */, 2/* LSTORE */, 1/* FSTORE */,
+            2/* DSTORE */, 1/* ASTORE */, 1/* ISTORE_0 */, 1/* ISTORE_1 */,
+            1/* ISTORE_2 */, 1/* ISTORE_3 */, 2/* LSTORE_0 */, 2/* LSTORE_1 */,
+            2/* LSTORE_2 */, 2/* LSTORE_3 */, 1/* FSTORE_0 */, 1/* FSTORE_1 */,
+            1/* FSTORE_2 */, 1/* FSTORE_3 */, 2/* DSTORE_0 */, 2/* DSTORE_1 */,
+            2/* DSTORE_2 */, 2/* DSTORE_3 */, 1/* ASTORE_0 */, 1/* ASTORE_1 */,
+            1/* ASTORE_2 */, 1/* ASTORE_3 */, 3/* IASTORE */, 4/* LASTORE */,
+            3/* FASTORE */, 4/* DASTORE */, 3/* AASTORE */, 3/* BASTORE */,
+            3/* CASTORE */, 3/* SASTORE */, 1/* POP */, 2/* POP2 */,
+            1/* DUP */, 2/* DUP_X1 */, 3/* DUP_X2 */, 2/* DUP2 */,
+            3/* DUP2_X1 */, 4/* DUP2_X2 */, 2/* SWAP */, 2/* IADD */,
+            4/* LADD */, 2/* FADD */, 4/* DADD */, 2/* ISUB */, 4/* LSUB */,
+            2/* FSUB */, 4/* DSUB */, 2/* IMUL */, 4/* LMUL */, 2/* FMUL */,
+            4/* DMUL */, 2/* IDIV */, 4/* LDIV */, 2/* FDIV */, 4/* DDIV */,
+            2/* IREM */, 4/* LREM */, 2/* FREM */, 4/* DREM */, 1/* INEG */,
+            2/* LNEG */, 1/* FNEG */, 2/* DNEG */, 2/* ISHL */, 3/* LSHL */,
+            2/* ISHR */, 3/* LSHR */, 2/* IUSHR */, 3/* LUSHR */, 2/* IAND */,
+            4/* LAND */, 2/* IOR */, 4/* LOR */, 2/* IXOR */, 4/* LXOR */,
+            0/* IINC */, 1/* I2L */, 1/* I2F */, 1/* I2D */, 2/* L2I */,
+            2/* L2F */, 2/* L2D */, 1/* F2I */, 1/* F2L */, 1/* F2D */,
+            2/* D2I */, 2/* D2L */, 2/* D2F */, 1/* I2B */, 1/* I2C */,
+            1/* I2S */, 4/* LCMP */, 2/* FCMPL */, 2/* FCMPG */, 4/* DCMPL */,
+            4/* DCMPG */, 1/* IFEQ */, 1/* IFNE */, 1/* IFLT */, 1/* IFGE */,
+            1/* IFGT */, 1/* IFLE */, 2/* IF_ICMPEQ */, 2/* IF_ICMPNE */,
+            2/* IF_ICMPLT */, 2 /* IF_ICMPGE */, 2/* IF_ICMPGT */,
+            2/* IF_ICMPLE */, 2/* IF_ACMPEQ */, 2/* IF_ACMPNE */, 0/* GOTO */,
+            0/* JSR */, 0/* RET */, 1/* TABLESWITCH */, 1/* LOOKUPSWITCH */,
+            1/* IRETURN */, 2/* LRETURN */, 1/* FRETURN */, 2/* DRETURN */,
+            1/* ARETURN */, 0/* RETURN */, 0/* GETSTATIC */, -1/* PUTSTATIC */,
+            1/* GETFIELD */, -1/* PUTFIELD */, -2/* INVOKEVIRTUAL */,
+            -2/* INVOKESPECIAL */, -2/* INVOKESTATIC */,
+            -2/* INVOKEINTERFACE */, 0/* INVOKEDYNAMIC */, 0/* NEW */, 1/* NEWARRAY */,
+            1/* ANEWARRAY */, 1/* ARRAYLENGTH */, 1/* ATHROW */,
+            1/* CHECKCAST */, 1/* INSTANCEOF */, 1/* MONITORENTER */,
+            1/* MONITOREXIT */, 0/* WIDE */, -3/* MULTIANEWARRAY */,
+            1/* IFNULL */, 1/* IFNONNULL */, 0/* GOTO_W */, 0 /* JSR_W */};
+
+    /** The information for every op-code value */
+    private static final OpcodeInfo[] TABLE = new OpcodeInfo[256];
+
+    static {
+        for(int i = 0;i < 256;i++) {
+            TABLE[i] = new OpcodeInfo(i);
+        }
+    }
+
+
+    /**
+     * Get the information for an op-code.
+     * 
+     * @param opCode
+     *            the op-code
+     * @return the information
+     */
+    public static OpcodeInfo get(byte opCode) {
+        return TABLE[opCode & 0xff];
+    }
+
+
+    /**
+     * Get the information for an op-code.
+     * 
+     * @param opCode
+     *            the op-code, 0 to 255
+     * @return the information
+     */
+    public static OpcodeInfo get(int opCode) {
+        return TABLE[opCode & 0xff];
+    }
+
+
+    /**
+     * Get the kind of operand an op-code takes.
+     * 
+     * @param op
+     *            the op-code
+     * @param length
+     *            the number of operand bytes
+     * @return the operand kind
+     */
+    private static Operand operandFor(byte op, int length) {
+        switch (op) {
+        case OpCodes.BIPUSH:
+            return Operand.BYTE;
+        case OpCodes.SIPUSH:
+            return Operand.SHORT;
+        case OpCodes.LDC:
+            return Operand.CONSTANT;
+        case OpCodes.LDC_W:
+            // falls through
+        case OpCodes.LDC2_W:
+            return Operand.CONSTANT_WIDE;
+        case OpCodes.ILOAD:
+            // falls through
+        case OpCodes.LLOAD:
+            // falls through
+        case OpCodes.FLOAD:
+            // falls through
+        case OpCodes.DLOAD:
+            // falls through
+        case OpCodes.ALOAD:
+            // falls through
+        case OpCodes.ISTORE:
+            // falls through
+        case OpCodes.LSTORE:
+            // falls through
+        case OpCodes.FSTORE:
+            // falls through
+        case OpCodes.DSTORE:
+            // falls through
+        case OpCodes.ASTORE:
+            // falls through
+        case OpCodes.RET:
+            return Operand.LOCAL;
+        case OpCodes.IINC:
+            return Operand.IINC;
+        case OpCodes.TABLESWITCH:
+            // falls through
+        case OpCodes.LOOKUPSWITCH:
+            return Operand.SWITCH;
+        case OpCodes.GETSTATIC:
+            // falls through
+        case OpCodes.PUTSTATIC:
+            // falls through
+        case OpCodes.GETFIELD:
+            // falls through
+        case OpCodes.PUTFIELD:
+            return Operand.FIELD;
+        case OpCodes.INVOKEVIRTUAL:
+            // falls through
+        case OpCodes.INVOKESPECIAL:
+            // falls through
+        case OpCodes.INVOKESTATIC:
+            return Operand.METHOD;
+        case OpCodes.INVOKEINTERFACE:
+            return Operand.INTERFACE_METHOD;
+        case OpCodes.NEW:
+            // falls through
+        case OpCodes.ANEWARRAY:
+            // falls through
+        case OpCodes.CHECKCAST:
+            // falls through
+        case OpCodes.INSTANCEOF:
+            return Operand.CLASS;
+        case OpCodes.NEWARRAY:
+            return Operand.NEW_ARRAY;
+        case OpCodes.MULTIANEWARRAY:
+            return Operand.MULTI_ARRAY;
+        case OpCodes.WIDE:
+            return Operand.WIDE;
+        case OpCodes.GOTO_W:
+            // falls through
+        case OpCodes.JSR_W:
+            return Operand.BRANCH_WIDE;
+        default:
+            return (length == 2) ? Operand.BRANCH : Operand.NONE;
+        }
+    }
+
+    /**
+     * The general form of this op-code. For op-codes which imply a local
+     * variable, such as ALOAD_1, this is the form with an explicit index.
+     */
+    private final byte baseOpCode_;
+
+    /** Flags describing this op-code */
+    private final int flags_;
+
+    /** The fixed local variable slot, or -1 */
+    private final int localSlot_;
+
+    /** The number of local variable slots used, or 0 */
+    private final int localWidth_;
+
+    /** The name of this op-code */
+    private final String name_;
+
+    /** The op-code */
+    private final int opCode_;
+
+    /** The kind of operand */
+    private final Operand operand_;
+
+    /** The number of bytes after the op-code, or -1 if not fixed */
+    private final int operandLength_;
+
+    /** The stack entries made */
+    private final int stackMade_;
+
+    /** The stack entries used */
+    private final int stackUsed_;
+
+
+    /**
+     * Create the information for an op-code.
+     * 
+     * @param opCode
+     *            the op-code, 0 to 255
+     */
+    private OpcodeInfo(int opCode) {
+        opCode_ = opCode;
+        byte op = (byte) opCode;
+        boolean known = opCode < NUM_BYTES.length;
+        int len = known ? NUM_BYTES[opCode] : -4;
+        name_ = OpCodes.getOpName(opCode);
+
+        // op-codes marked -4 are not supported
+        if( len == -4 ) {
+            flags_ = 0;
+            operandLength_ = -1;
+            operand_ = Operand.NONE;
+            stackMade_ = 0;
+            stackUsed_ = 0;
+            baseOpCode_ = op;
+            localSlot_ = -1;
+            localWidth_ = 0;
+            return;
+        }
+
+        operandLength_ = len;
+        operand_ = operandFor(op, len);
+        stackMade_ = STACK_MADE[opCode];
+        stackUsed_ = STACK_USED[opCode];
+
+        int flags = VALID;
+        if( (operand_ == Operand.BRANCH) || (operand_ == Operand.BRANCH_WIDE)
+                || (operand_ == Operand.SWITCH) ) flags |= BRANCH;
+        if( (op == OpCodes.RET) || (op == OpCodes.ATHROW)
+                || ((op >= OpCodes.IRETURN) && (op <= OpCodes.RETURN)) )
+            flags |= EXIT;
+        if( (operand_ == Operand.LOCAL) || (operand_ == Operand.IINC) )
+            flags |= WIDENABLE;
+        flags_ = flags;
+
+        // work out the local variable effect
+        if( (OpCodes.ILOAD_0 <= op) && (op <= OpCodes.ALOAD_3) ) {
+            int i = op - OpCodes.ILOAD_0;
+            baseOpCode_ = (byte) (OpCodes.ILOAD + i / 4);
+            localSlot_ = i % 4;
+        } else if( (OpCodes.ISTORE_0 <= op) && (op <= OpCodes.ASTORE_3) ) {
+            int i = op - OpCodes.ISTORE_0;
+            baseOpCode_ = (byte) (OpCodes.ISTORE + i / 4);
+            localSlot_ = i % 4;
+        } else {
+            baseOpCode_ = op;
+            localSlot_ = -1;
+        }
+        if( (localSlot_ != -1) || (flags & WIDENABLE) != 0 ) {
+            // long and double use two slots
+            switch (baseOpCode_) {
+            case OpCodes.LLOAD:
+                // falls through
+            case OpCodes.DLOAD:
+                // falls through
+            case OpCodes.LSTORE:
+                // falls through
+            case OpCodes.DSTORE:
+                localWidth_ = 2;
+                break;
+            default:
+                localWidth_ = 1;
+            }
+        } else {
+            localWidth_ = 0;
+        }
+    }
+
+
+    /**
+     * Get the general form of this op-code. For op-codes which imply a local
+     * variable, such as ALOAD_1, this is the form that takes an explicit index
+     * (ALOAD). For all other op-codes it is the op-code itself.
+     * 
+     * @return the general form
+     */
+    public byte getBaseOpCode() {
+        return baseOpCode_;
+    }
+
+
+    /**
+     * Get the flags for this op-code.
+     * 
+     * @return the flags
+     */
+    public int getFlags() {
+        return flags_;
+    }
+
+
+    /**
+     * Get the local variable slot implied by this op-code.
+     * 
+     * @return the slot, or -1 if the op-code does not imply one
+     */
+    public int getLocalSlot() {
+        return localSlot_;
+    }
+
+
+    /**
+     * Get the number of local variable slots this op-code accesses. Long and
+     * double variables use two slots. The slot is either implied by the
+     * op-code or given by its operand.
+     * 
+     * @return the number of slots, or 0 if no local variable is accessed
+     */
+    public int getLocalWidth() {
+        return localWidth_;
+    }
+
+
+    /**
+     * Get the name of this op-code.
+     * 
+     * @return the name
+     */
+    public String getName() {
+        return name_;
+    }
+
+
+    /**
+     * Get the op-code.
+     * 
+     * @return the op-code, 0 to 255
+     */
+    public int getOpCode() {
+        return opCode_;
+    }
+
+
+    /**
+     * Get the kind of operand this op-code takes.
+     * 
+     * @return the operand kind
+     */
+    public Operand getOperand() {
+        return operand_;
+    }
+
+
+    /**
+     * Get the number of bytes that follow this op-code.
+     * 
+     * @return the number of bytes, or -1 if the length is variable or the
+     *         op-code is not valid
+     */
+    public int getOperandLength() {
+        return operandLength_;
+    }
+
+
+    /**
+     * Get the number of stack elements added by this op-code. Negative values
+     * indicate:
+     * <ul>
+     * <li>-1 : 1 normally, but 2 if long or double field
+     * <li>-2 : 1 normally, but 0 if return type was void
+     * </ul>
+     * 
+     * @return the stack elements added
+     */
+    public int getStackMade() {
+        return stackMade_;
+    }
+
+
+    /**
+     * Get the number of stack elements used by this op-code. Negatives values
+     * indicate:
+     * <ul>
+     * <li>-1 : 1 normally, but 2 if long or double field and 1 more if not
+     * static
+     * <li>-2 : Depends on number of arguments to method
+     * <li>-3 : Depends on number of dimensions of array
+     * </ul>
+     * 
+     * @return the stack elements used
+     */
+    public int getStackUsed() {
+        return stackUsed_;
+    }
+
+
+    /**
+     * Does this op-code branch?
+     * 
+     * @return true if this op-code may branch
+     */
+    public boolean isBranch() {
+        return (flags_ & BRANCH) != 0;
+    }
+
+
+    /**
+     * Does this op-code exit a block of code?
+     * 
+     * @return true if this op-code returns, throws or returns from a
+     *         subroutine
+     */
+    public boolean isExit() {
+        return (flags_ & EXIT) != 0;
+    }
+
+
+    /**
+     * Is this op-code recognised?
+     * 
+     * @return true if recognised
+     */
+    public boolean isValid() {
+        return (flags_ & VALID) != 0;
+    }
+
+
+    /**
+     * Can this op-code follow a WIDE?
+     * 
+     * @return true if WIDE can modify this op-code
+     */
+    public boolean isWidenable() {
+        return (flags_ & WIDENABLE) != 0;
+    }
+
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return "OpcodeInfo[" + name_ + "]";
+    }
+}
@@ -4,9 +4,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
 
 import yabel.OpCodes;
 
@@ -67,108 +64,10 @@ public class Parser {
         PAD
     }
 
-    /** Op-codes that branch */
-    static final Set<Byte> BRANCH_OPS;
-
     /** File path to write debug messages to */
     private static String DEBUG_FILE = null;
 
-    /**
-     * Number of bytes after the op-code itself.
-     */
-    private static final byte[] NUM_BYTES = { 0/* NOP */, 0/* ACONST_NULL */,
-            0/* ICONST_M1 */, 0/* ICONST_0 */, 0/* ICONST_1 */,
-            0/* ICONST_2 */, 0/* ICONST_3 */, 0/* ICONST_4 */, 0/* ICONST_5 */,
-            0/* LCONST_0 */, 0/* LCONST_1 */, 0/* FCONST_0 */, 0/* FCONST_1 */,
-            0/* FCONST_2 */, 0/* DCONST_0 */, 0/* DCONST_1 */, 1/* BIPUSH */,
-            2/* SIPUSH */, 1/* LDC */, 2/* LDC_W */, 2/* LDC2_W */,
-            1/* ILOAD */, 1/* LLOAD */, 1/* FLOAD */, 1/* DLOAD */,
-            1/* ALOAD */, 0/* ILOAD_0 */, 0/* ILOAD_1 */, 0/* ILOAD_2 */,
-            0/* ILOAD_3 */, 0/* LLOAD_0 */, 0/* LLOAD_1 */, 0/* LLOAD_2 */,
-            0/* LLOAD_3 */, 0/* FLOAD_0 */, 0/* FLOAD_1 */, 0/* FLOAD_2 */,
-            0/* FLOAD_3 */, 0/* DLOAD_0 */, 0/* DLOAD_1 */, 0/* DLOAD_2 */,
-            0/* DLOAD_3 */, 0/* ALOAD_0 */, 0/* ALOAD_1 */, 0/* ALOAD_2 */,
-            0/* ALOAD_3 */, 0/* IALOAD */, 0/* LALOAD */, 0/* FALOAD */,
-            0/* DALOAD */, 0/* AALOAD */, 0/* BALOAD */, 0/* CALOAD */,
-            0/* SALOAD */, 1/* ISTORE */, 1/* LSTORE */, 1/* FSTORE */,
-            1/* DSTORE */, 1/* ASTORE */, 0/* ISTORE_0 */, 0/* ISTORE_1 */,
-            0/* ISTORE_2 */, 0/* ISTORE_3 */, 0/* LSTORE_0 */, 0/* LSTORE_1 */,
-            0/* LSTORE_2 */, 0/* LSTORE_3 */, 0/* FSTORE_0 */, 0/* FSTORE_1 */,
-            0/* FSTORE_2 */, 0/* FSTORE_3 */, 0/* DSTORE_0 */, 0/* DSTORE_1 */,
-            0/* DSTORE_2 */, 0/* DSTORE_3 */, 0/* ASTORE_0 */, 0/* ASTORE_1 */,
-            0/* ASTORE_2 */, 0/* ASTORE_3 */, 0/* IASTORE */, 0/* LASTORE */,
-            0/* FASTORE */, 0/* DASTORE */, 0/* AASTORE */, 0/* BASTORE */,
-            0/* CASTORE */, 0/* SASTORE */, 0/* POP */, 0/* POP2 */,
-            0/* DUP */, 0/* DUP_X1 */, 0/* DUP_X2 */, 0/* DUP2 */,
-            0/* DUP2_X1 */, 0/* DUP2_X2 */, 0/* SWAP */, 0/* IADD */,
-            0/* LADD */, 0/* FADD */, 0/* DADD */, 0/* ISUB */, 0/* LSUB */,
-            0/* FSUB */, 0/* DSUB */, 0/* IMUL */, 0/* LMUL */, 0/* FMUL */,
-            0/* DMUL */, 0/* IDIV */, 0/* LDIV */, 0/* FDIV */, 0/* DDIV */,
-            0/* IREM */, 0/* LREM */, 0/* FREM */, 0/* DREM */, 0/* INEG */,
-            0/* LNEG */, 0/* FNEG */, 0/* DNEG */, 0/* ISHL */, 0/* LSHL */,
-            0/* ISHR */, 0/* LSHR */, 0/* IUSHR */, 0/* LUSHR */, 0/* IAND */,
-            0/* LAND */, 0/* IOR */, 0/* LOR */, 0/* IXOR */, 0/* LXOR */,
-            2/* IINC */, 0/* I2L */, 0/* I2F */, 0/* I2D */, 0/* L2I */,
-            0/* L2F */, 0/* L2D */, 0/* F2I */, 0/* F2L */, 0/* F2D */,
-            0/* D2I */, 0/* D2L */, 0/* D2F */, 0/* I2B */, 0/* I2C */,
-            0/* I2S */, 0/* LCMP */, 0/* FCMPL */, 0/* FCMPG */, 0/* DCMPL */,
-            0/* DCMPG */, 2/* IFEQ */, 2/* IFNE */, 2/* IFLT */, 2/* IFGE */,
-            2/* IFGT */, 2/* IFLE */, 2/* IF_ICMPEQ */, 2/* IF_ICMPNE */,
-            2/* IF_ICMPLT */, 2/* IF_ICMPGE */, 2/* IF_ICMPGT */,
-            2/* IF_ICMPLE */, 2/* IF_ACMPEQ */, 2/* IF_ACMPNE */, 2/* GOTO */,
-            2/* JSR */, 1/* RET */, -1/* TABLESWITCH */, -1/* LOOKUPSWITCH */,
-            0/* IRETURN */, 0/* LRETURN */, 0/* FRETURN */, 0/* DRETURN */,
-            0/* ARETURN */, 0/* RETURN */, 2/* GETSTATIC */, 2/* PUTSTATIC */,
-            2/* GETFIELD */, 2/* PUTFIELD */, 2/* INVOKEVIRTUAL */,
-            2/* INVOKESPECIAL */, 2/* INVOKESTATIC */, 4/* INVOKEINTERFACE */,
-            -4, 2/* NEW */, 1/* NEWARRAY */, 2/* ANEWARRAY */,
-            0/* ARRAYLENGTH */, 0/* ATHROW */, 2/* CHECKCAST */,
-            2/* INSTANCEOF */, 0/* MONITORENTER */, 0/* MONITOREXIT */,
-            -1/* WIDE */, 3/* MULTIANEWARRAY */, 2/* IFNULL */,
-            2/* IFNONNULL */, 4/* GOTO_W */, 4 /* JSR_W */};
-
-    /** All the byte codes that can exit a decompiler block */
-    static final Set<Byte> OP_EXIT;
-
     static {
-
-        // initialise branch instructions
-        Set<Byte> branches = new HashSet<Byte>();
-        branches.add(Byte.valueOf(OpCodes.GOTO));
-        branches.add(Byte.valueOf(OpCodes.GOTO_W));
-        branches.add(Byte.valueOf(OpCodes.JSR));
-        branches.add(Byte.valueOf(OpCodes.JSR_W));
-        branches.add(Byte.valueOf(OpCodes.IF_ACMPEQ));
-        branches.add(Byte.valueOf(OpCodes.IF_ACMPNE));
-        branches.add(Byte.valueOf(OpCodes.IF_ICMPEQ));
-        branches.add(Byte.valueOf(OpCodes.IF_ICMPGE));
-        branches.add(Byte.valueOf(OpCodes.IF_ICMPGT));
-        branches.add(Byte.valueOf(OpCodes.IF_ICMPLE));
-        branches.add(Byte.valueOf(OpCodes.IF_ICMPLT));
-        branches.add(Byte.valueOf(OpCodes.IF_ICMPNE));
-        branches.add(Byte.valueOf(OpCodes.IFEQ));
-        branches.add(Byte.valueOf(OpCodes.IFGE));
-        branches.add(Byte.valueOf(OpCodes.IFGT));
-        branches.add(Byte.valueOf(OpCodes.IFLE));
-        branches.add(Byte.valueOf(OpCodes.IFLT));
-        branches.add(Byte.valueOf(OpCodes.IFNE));
-        branches.add(Byte.valueOf(OpCodes.IFNONNULL));
-        branches.add(Byte.valueOf(OpCodes.IFNULL));
-        branches.add(Byte.valueOf(OpCodes.LOOKUPSWITCH));
-        branches.add(Byte.valueOf(OpCodes.TABLESWITCH));
-        BRANCH_OPS = Collections.unmodifiableSet(branches);
-
-        Set<Byte> opVars = new HashSet<Byte>();
-        opVars.add(Byte.valueOf(OpCodes.ATHROW));
-        opVars.add(Byte.valueOf(OpCodes.RETURN));
-        opVars.add(Byte.valueOf(OpCodes.ARETURN));
-        opVars.add(Byte.valueOf(OpCodes.DRETURN));
-        opVars.add(Byte.valueOf(OpCodes.FRETURN));
-        opVars.add(Byte.valueOf(OpCodes.IRETURN));
-        opVars.add(Byte.valueOf(OpCodes.LRETURN));
-        opVars.add(Byte.valueOf(OpCodes.RET));
-        OP_EXIT = Collections.unmodifiableSet(opVars);
-
         String propName = Parser.class.getName() + ".debugFile";
         String debug = System.getProperty(propName);
         if( (debug == null) || (debug.equals("")) ) {
@@ -256,6 +155,36 @@ public class Parser {
     }
 
 
+    /**
+     * Decode a block of byte-code, reporting each instruction to the visitor
+     * in order. The instructions are reported against the supplied array and
+     * no bytes are copied. The block must start at the beginning of the
+     * byte-code, as the padding in switch instructions depends on it.
+     * 
+     * @param code
+     *            the array holding the byte-code
+     * @param off
+     *            the offset of the first op-code in the array
+     * @param len
+     *            the number of bytes of byte-code
+     * @param visitor
+     *            the recipient of the instructions
+     */
+    public static void decode(byte[] code, int off, int len,
+            InstructionVisitor visitor) {
+        int end = off + len;
+        int pos = off;
+        while( pos < end ) {
+            int length = getOpLength(code, off, pos, end);
+            if( (length == -1) || (length > end - pos) )
+                throw new YabelDecompileException("Op-code at position "
+                        + (pos - off) + " is truncated");
+            visitor.visit(code[pos] & 0xff, code, pos, length);
+            pos += length;
+        }
+    }
+
+
     /** Flush and close the debug writer on finalize */
     @Override
     protected void finalize() throws Throwable {
@@ -277,6 +206,88 @@ public class Parser {
     }
 
 
+    /**
+     * Get the length of the instruction that starts at the given position.
+     * Positions are relative to the start of the byte-code, which is required
+     * to work out the padding of switch instructions. If the instruction is
+     * not complete, the length may not be known yet.
+     * 
+     * @param code
+     *            the byte-code
+     * @param pos
+     *            the position of the instruction's op-code
+     * @param limit
+     *            the number of valid bytes in the byte-code
+     * @return the instruction's length, or -1 if it cannot be determined from
+     *         the available bytes
+     */
+    public static int getOpLength(byte[] code, int pos, int limit) {
+        return getOpLength(code, 0, pos, limit);
+    }
+
+
+    /**
+     * Get the length of the instruction that starts at the given offset.
+     * 
+     * @param code
+     *            the array holding the byte-code
+     * @param start
+     *            the offset of the start of the byte-code in the array
+     * @param pos
+     *            the offset of the instruction's op-code
+     * @param limit
+     *            the offset of the end of the valid bytes
+     * @return the instruction's length, or -1 if it cannot be determined from
+     *         the available bytes
+     */
+    private static int getOpLength(byte[] code, int start, int pos, int limit) {
+        if( pos >= limit ) return -1;
+        int b = code[pos] & 0xff;
+        OpcodeInfo info = OpcodeInfo.get(b);
+        int len = info.getOperandLength();
+        if( len >= 0 ) return 1 + len;
+
+        int pad;
+        long size;
+        switch ((byte) b) {
+        case OpCodes.WIDE:
+            if( pos + 1 >= limit ) return -1;
+            b = code[pos + 1] & 0xff;
+            info = OpcodeInfo.get(b);
+            if( !info.isWidenable() )
+                throw new YabelDecompileException("Op-code " + b + " ("
+                        + Integer.toHexString(b) + ") cannot follow WIDE");
+            return 2 + 2 * info.getOperandLength();
+        case OpCodes.LOOKUPSWITCH:
+            // op-code, padding, default, npairs and then the pairs
+            pad = 3 - ((pos - start) % 4);
+            if( pos + pad + 9 > limit ) return -1;
+            int npairs = readS4(code, pos + pad + 5);
+            size = 9L + pad + 8L * npairs;
+            if( (npairs < 0) || (size > Integer.MAX_VALUE) )
+                throw new YabelDecompileException(
+                        "Invalid LOOKUPSWITCH pair count " + npairs
+                                + " at position " + (pos - start));
+            return (int) size;
+        case OpCodes.TABLESWITCH:
+            // op-code, padding, default, low, high and then the offsets
+            pad = 3 - ((pos - start) % 4);
+            if( pos + pad + 13 > limit ) return -1;
+            int low = readS4(code, pos + pad + 5);
+            int high = readS4(code, pos + pad + 9);
+            size = 13L + pad + 4L * ((long) high - low + 1);
+            if( (high < low) || (size > Integer.MAX_VALUE) )
+                throw new YabelDecompileException(
+                        "Invalid TABLESWITCH range " + low + " to " + high
+                                + " at position " + (pos - start));
+            return (int) size;
+        default:
+            throw new YabelDecompileException("Op-code " + b + " ("
+                    + Integer.toHexString(b) + ") was not recognised");
+        }
+    }
+
+
     /**
      * Parse the next byte.
      * 
@@ -301,7 +312,7 @@ public class Parser {
         case START:
             // just about to read an op-code
             lastOpPosition_ = count_;
-            bytesLeft_ = NUM_BYTES[b];
+            bytesLeft_ = OpcodeInfo.get(b).getOperandLength();
             if( isDebug_ ) {
                 String s = OpCodes.getOpName(b);
                 debug_.printf("%6d : %s", Integer.valueOf(count_), s);
@@ -356,8 +367,8 @@ public class Parser {
             break;
         case WIDE:
             // read a WIDE op-code
-            bytesLeft_ = 2 * Parser.NUM_BYTES[b];
-            if( bytesLeft_ <= 0 )
+            bytesLeft_ = 2 * OpcodeInfo.get(b).getOperandLength();
+            if( !OpcodeInfo.get(b).isWidenable() )
                 throw new YabelDecompileException("Op-code " + b + " ("
                         + Integer.toHexString(b) + " cannot follow WIDE");
             if( isDebug_ ) {
@@ -536,4 +547,19 @@ public class Parser {
                     + " when parsing TABLESWITCH");
         }
     }
+
+
+    /**
+     * Read a signed 4 byte value from the byte-code.
+     * 
+     * @param code
+     *            the byte-code
+     * @param pos
+     *            the position of the value
+     * @return the value
+     */
+    private static int readS4(byte[] code, int pos) {
+        return ((code[pos] & 0xff) << 24) | ((code[pos + 1] & 0xff) << 16)
+                | ((code[pos + 2] & 0xff) << 8) | (code[pos + 3] & 0xff);
+    }
 }
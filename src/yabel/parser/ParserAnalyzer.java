@@ -22,206 +22,12 @@ import yabel2.Access;
  * @author Simon Greatrix
  * 
  */
-public class ParserAnalyzer implements ParserListener {
-
-    /**
-     * Representation of a block of op codes that will normally run as a unit
-     * and hence can be considered a single item for calculating stack
-     * requirements.
-     * 
-     * @author Simon Greatrix
-     */
-    static class Block {
-        /** Where this block branches to */
-        Integer[] branchTo_;
-
-        /** The cumulative delta of the block */
-        int delta_ = 0;
-
-        /** Did this block end with a RET? In which return to JSR point */
-        boolean exitViaRET_ = false;
-
-        /** The stack high-water-mark in this bock */
-        int hwm_ = 0;
-
-        /** If the block was terminated by a JSR, where to return to */
-        Integer retFromJSR_ = null;
-
-
-        /** {@inheritDoc} */
-        @Override
-        public String toString() {
-            StringBuilder buf = new StringBuilder();
-            buf.append("Block[ delta=").append(delta_).append(" hwm=").append(
-                    hwm_).append(", branch-to=(");
-            if( branchTo_ != null ) {
-                for(int i = 0;i < branchTo_.length;i++) {
-                    if( i > 0 ) buf.append(",");
-                    buf.append(branchTo_[i]);
-                }
-            }
-            buf.append(')');
-            if( exitViaRET_ ) buf.append(",RET");
-            buf.append("]");
-            return buf.toString();
-        }
-    }
-
-
-
-    /**
-     * Representation of an op-code and how it affects the stack. Used in
-     * calculating required stack depth for a method.
-     * 
-     * @author Simon Greatrix
-     * 
-     */
-    static class OpCode {
-        /** Standard array used when an op-code is not a branch */
-        private static final int[] NO_BRANCHES = new int[0];
-
-        /** Where this op-code branches to (relative) */
-        int[] branchTo_ = NO_BRANCHES;
-
-        /** Change in stack from this op-code */
-        int delta_;
-
-        /** The byte-length of this op-code */
-        int length_;
-
-        /** The op-code */
-        byte opCode_;
-
-
-        /**
-         * This OpCode as a String
-         * 
-         * @return this OpCode
-         */
-        @Override
-        public String toString() {
-            StringBuilder buf = new StringBuilder();
-            buf.append("OpCode[").append(OpCodes.getOpName(opCode_)).append(
-                    ", delta=").append(delta_).append(", length=").append(
-                    length_);
-            if( branchTo_.length > 0 ) {
-                buf.append(", branchTo=(");
-                for(int i = 0;i < branchTo_.length;i++) {
-                    if( i > 0 ) buf.append(',');
-                    buf.append(branchTo_[i]);
-                }
-                buf.append(')');
-            }
-            buf.append(']');
-            return buf.toString();
-        }
-    }
+public class ParserAnalyzer implements InstructionVisitor {
 
     /** File path to write debug messages to */
     private static String DEBUG_FILE = null;
 
-    /** Op-codes that set local variable 0 */
-    static final Set<Byte> VAR_OPS_0;
-
-    /** Op-codes that set local variable 1 */
-    static final Set<Byte> VAR_OPS_1;
-
-    /** Op-codes that set local variable 2 */
-    static final Set<Byte> VAR_OPS_2;
-
-    /** Op-codes that set local variable 3 */
-    static final Set<Byte> VAR_OPS_3;
-
-    /** Op-codes that set local variable 4 */
-    static final Set<Byte> VAR_OPS_4;
-
-    /** Op-codes that set local variable X */
-    static final Set<Byte> VAR_OPS_X;
-
-    /** Op-codes that set local variable X+1 */
-    static final Set<Byte> VAR_OPS_X1;
-
     static {
-        // initialise ops that update local variable X
-        Set<Byte> opVars = new HashSet<Byte>();
-        opVars.add(Byte.valueOf(OpCodes.ALOAD));
-        opVars.add(Byte.valueOf(OpCodes.ASTORE));
-        opVars.add(Byte.valueOf(OpCodes.FLOAD));
-        opVars.add(Byte.valueOf(OpCodes.FSTORE));
-        opVars.add(Byte.valueOf(OpCodes.ILOAD));
-        opVars.add(Byte.valueOf(OpCodes.ISTORE));
-        opVars.add(Byte.valueOf(OpCodes.RET));
-        opVars.add(Byte.valueOf(OpCodes.IINC));
-        VAR_OPS_X = Collections.unmodifiableSet(opVars);
-
-        // initialise ops that update local variable X+1
-        opVars = new HashSet<Byte>();
-        opVars.add(Byte.valueOf(OpCodes.DLOAD));
-        opVars.add(Byte.valueOf(OpCodes.DSTORE));
-        opVars.add(Byte.valueOf(OpCodes.LLOAD));
-        opVars.add(Byte.valueOf(OpCodes.LSTORE));
-        VAR_OPS_X1 = Collections.unmodifiableSet(opVars);
-
-        // initialise ops that update local variable 0
-        opVars = new HashSet<Byte>();
-        opVars.add(Byte.valueOf(OpCodes.ALOAD_0));
-        opVars.add(Byte.valueOf(OpCodes.ASTORE_0));
-        opVars.add(Byte.valueOf(OpCodes.FLOAD_0));
-        opVars.add(Byte.valueOf(OpCodes.FSTORE_0));
-        opVars.add(Byte.valueOf(OpCodes.ILOAD_0));
-        opVars.add(Byte.valueOf(OpCodes.ISTORE_0));
-        VAR_OPS_0 = Collections.unmodifiableSet(opVars);
-
-        // initialise ops that update local variable 1
-        opVars = new HashSet<Byte>();
-        opVars.add(Byte.valueOf(OpCodes.ALOAD_1));
-        opVars.add(Byte.valueOf(OpCodes.ASTORE_1));
-        opVars.add(Byte.valueOf(OpCodes.DLOAD_0));
-        opVars.add(Byte.valueOf(OpCodes.DSTORE_0));
-        opVars.add(Byte.valueOf(OpCodes.FLOAD_1));
-        opVars.add(Byte.valueOf(OpCodes.FSTORE_1));
-        opVars.add(Byte.valueOf(OpCodes.ILOAD_1));
-        opVars.add(Byte.valueOf(OpCodes.ISTORE_1));
-        opVars.add(Byte.valueOf(OpCodes.LLOAD_0));
-        opVars.add(Byte.valueOf(OpCodes.LSTORE_0));
-        VAR_OPS_1 = Collections.unmodifiableSet(opVars);
-
-        // initialise ops that update local variable 2
-        opVars = new HashSet<Byte>();
-        opVars.add(Byte.valueOf(OpCodes.ALOAD_2));
-        opVars.add(Byte.valueOf(OpCodes.ASTORE_2));
-        opVars.add(Byte.valueOf(OpCodes.DLOAD_1));
-        opVars.add(Byte.valueOf(OpCodes.DSTORE_1));
-        opVars.add(Byte.valueOf(OpCodes.FLOAD_2));
-        opVars.add(Byte.valueOf(OpCodes.FSTORE_2));
-        opVars.add(Byte.valueOf(OpCodes.ILOAD_2));
-        opVars.add(Byte.valueOf(OpCodes.ISTORE_2));
-        opVars.add(Byte.valueOf(OpCodes.LLOAD_1));
-        opVars.add(Byte.valueOf(OpCodes.LSTORE_1));
-        VAR_OPS_2 = Collections.unmodifiableSet(opVars);
-
-        // initialise ops that update local variable 3
-        opVars = new HashSet<Byte>();
-        opVars.add(Byte.valueOf(OpCodes.ALOAD_3));
-        opVars.add(Byte.valueOf(OpCodes.ASTORE_3));
-        opVars.add(Byte.valueOf(OpCodes.DLOAD_2));
-        opVars.add(Byte.valueOf(OpCodes.DSTORE_2));
-        opVars.add(Byte.valueOf(OpCodes.FLOAD_3));
-        opVars.add(Byte.valueOf(OpCodes.FSTORE_3));
-        opVars.add(Byte.valueOf(OpCodes.ILOAD_3));
-        opVars.add(Byte.valueOf(OpCodes.ISTORE_3));
-        opVars.add(Byte.valueOf(OpCodes.LLOAD_2));
-        opVars.add(Byte.valueOf(OpCodes.LSTORE_2));
-        VAR_OPS_3 = Collections.unmodifiableSet(opVars);
-
-        // initialise ops that update local variable 4
-        opVars = new HashSet<Byte>();
-        opVars.add(Byte.valueOf(OpCodes.DLOAD_3));
-        opVars.add(Byte.valueOf(OpCodes.DSTORE_3));
-        opVars.add(Byte.valueOf(OpCodes.LLOAD_3));
-        opVars.add(Byte.valueOf(OpCodes.LSTORE_3));
-        VAR_OPS_4 = Collections.unmodifiableSet(opVars);
-
         String propName = Parser.class.getName() + ".debugFile";
         String debug = System.getProperty(propName);
         if( (debug == null) || (debug.equals("")) ) {
@@ -239,140 +45,59 @@ public class ParserAnalyzer implements ParserListener {
         }
     }
 
+    /** The block starting at each op-code, or -1 if no block starts there */
+    int[] blockAt_;
+
+    /** Number of blocks found */
+    int blockCount_ = 0;
+
+    /** Stack change across each block */
+    int[] blockDelta_;
+
+    /** The index of the op-code that ends each block */
+    int[] blockEnd_;
+
+    /** Stack high-water-mark within each block */
+    int[] blockHwm_;
+
     /**
-     * Number of stack elements added by each op-code. Negative values indicate:
-     * <ul>
-     * <li>-1 : 1 normally, but 2 if long or double field
-     * <li>-2 : 1 normally, but 0 if return type was void
-     * </ul>
-     * 
+     * For each block, the index of the op-code to return to if it ends with a
+     * JSR, -2 if it ends with a RET, or -1 otherwise
      */
-    static final int[] STACK_MADE = { 0/* NOP */, 1/* ACONST_NULL */,
-            1/* ICONST_M1 */, 1/* ICONST_0 */, 1/* ICONST_1 */,
-            1/* ICONST_2 */, 1/* ICONST_3 */, 1/* ICONST_4 */, 1/* ICONST_5 */,
-            2/* LCONST_0 */, 2/* LCONST_1 */, 1/* FCONST_0 */, 1/* FCONST_1 */,
-            1/* FCONST_2 */, 2/* DCONST_0 */, 2/* DCONST_1 */, 1/* BIPUSH */,
-            1/* SIPUSH */, 1/* LDC */, 1/* LDC_W */, 2/* LDC2_W */,
-            1/* ILOAD */, 2/* LLOAD */, 1/* FLOAD */, 2/* DLOAD */,
-            1/* ALOAD */, 1/* ILOAD_0 */, 1/* ILOAD_1 */, 1/* ILOAD_2 */,
-            1/* ILOAD_3 */, 2/* LLOAD_0 */, 2/* LLOAD_1 */, 2/* LLOAD_2 */,
-            2/* LLOAD_3 */, 1/* FLOAD_0 */, 1/* FLOAD_1 */, 1/* FLOAD_2 */,
-            1/* FLOAD_3 */, 2/* DLOAD_0 */, 2/* DLOAD_1 */, 2/* DLOAD_2 */,
-            2/* DLOAD_3 */, 1/* ALOAD_0 */, 1/* ALOAD_1 */, 1/* ALOAD_2 */,
-            1/* ALOAD_3 */, 1/* IALOAD */, 2/* LALOAD */, 1/* FALOAD */,
-            2/* DALOAD */, 1/* AALOAD */, 1/* BALOAD */, 1/* CALOAD */,
-            1/* SALOAD */, 0/* ISTORE */, 0/* LSTORE */, 0/* FSTORE */,
-            0/* DSTORE */, 0/* ASTORE */, 0/* ISTORE_0 */, 0/* ISTORE_1 */,
-            0/* ISTORE_2 */, 0/* ISTORE_3 */, 0/* LSTORE_0 */, 0/* LSTORE_1 */,
-            0/* LSTORE_2 */, 0/* LSTORE_3 */, 0/* FSTORE_0 */, 0/* FSTORE_1 */,
-            0/* FSTORE_2 */, 0/* FSTORE_3 */, 0/* DSTORE_0 */, 0/* DSTORE_1 */,
-            0/* DSTORE_2 */, 0/* DSTORE_3 */, 0/* ASTORE_0 */, 0/* ASTORE_1 */,
-            0/* ASTORE_2 */, 0/* ASTORE_3 */, 0/* IASTORE */, 0/* LASTORE */,
-            0/* FASTORE */, 0/* DASTORE */, 0/* AASTORE */, 0/* BASTORE */,
-            0/* CASTORE */, 0/* SASTORE */, 0/* POP */, 0/* POP2 */,
-            2/* DUP */, 3/* DUP_X1 */, 4/* DUP_X2 */, 4/* DUP2 */,
-            5/* DUP2_X1 */, 6/* DUP2_X2 */, 2/* SWAP */, 1/* IADD */,
-            2/* LADD */, 1/* FADD */, 2/* DADD */, 1/* ISUB */, 2/* LSUB */,
-            1/* FSUB */, 2/* DSUB */, 1/* IMUL */, 2/* LMUL */, 1/* FMUL */,
-            2/* DMUL */, 1/* IDIV */, 2/* LDIV */, 1/* FDIV */, 2/* DDIV */,
-            1/* IREM */, 2/* LREM */, 1/* FREM */, 2/* DREM */, 1/* INEG */,
-            2/* LNEG */, 1/* FNEG */, 2/* DNEG */, 1/* ISHL */, 2/* LSHL */,
-            1/* ISHR */, 2/* LSHR */, 1/* IUSHR */, 2/* LUSHR */, 1/* IAND */,
-            2/* LAND */, 1/* IOR */, 2/* LOR */, 1/* IXOR */, 2/* LXOR */,
-            0/* IINC */, 2/* I2L */, 1/* I2F */, 2/* I2D */, 1/* L2I */,
-            1/* L2F */, 2/* L2D */, 1/* F2I */, 2/* F2L */, 2/* F2D */,
-            1/* D2I */, 2/* D2L */, 1/* D2F */, 1/* I2B */, 1/* I2C */,
-            1/* I2S */, 1/* LCMP */, 1/* FCMPL */, 1/* FCMPG */, 1/* DCMPL */,
-            1/* DCMPG */, 0/* IFEQ */, 0/* IFNE */, 0/* IFLT */, 0/* IFGE */,
-            0/* IFGT */, 0/* IFLE */, 0/* IF_ICMPEQ */, 0/* IF_ICMPNE */,
-            0/* IF_ICMPLT */, 0/* IF_ICMPGE */, 0/* IF_ICMPGT */,
-            0/* IF_ICMPLE */, 0/* IF_ACMPEQ */, 0/* IF_ACMPNE */, 0/* GOTO */,
-            1/* JSR */, 0/* RET */, 0/* TABLESWITCH */, 0/* LOOKUPSWITCH */,
-            0/* IRETURN */, 0/* LRETURN */, 0/* FRETURN */, 0/* DRETURN */,
-            0/* ARETURN */, 0/* RETURN */, -1/* GETSTATIC */, 0/* PUTSTATIC */,
-            -1/* GETFIELD */, 0/* PUTFIELD */, -2/* INVOKEVIRTUAL */,
-            -2/* INVOKESPECIAL */, -2/* INVOKESTATIC */,
-            -2/* INVOKEINTERFACE */, 0, 1/* NEW */, 1/* NEWARRAY */,
-            1/* ANEWARRAY */, 1/* ARRAYLENGTH */, 1/* ATHROW */,
-            1/* CHECKCAST */, 1/* INSTANCEOF */, 0/* MONITORENTER */,
-            0/* MONITOREXIT */, 0/* WIDE */, 1/* MULTIANEWARRAY */,
-            0/* IFNULL */, 0/* IFNONNULL */, 0/* GOTO_W */, 1 /* JSR_W */};
+    int[] blockJsr_;
+
+    /** The index of the op-code that starts each block */
+    int[] blockStart_;
+
+    /** Number of branch targets recorded */
+    int branchCount_ = 0;
 
     /**
-     * Number of elements on stack used by each op-code. Negatives values
-     * indicate:
-     * <ul>
-     * <li>-1 : 1 normally, but 2 if long or double field and 1 more if not
-     * static
-     * <li>-2 : Depends on number of arguments to method
-     * <li>-3 : Depends on number of dimensions of array
-     * </ul>
+     * Where each op-code's branch targets start in branchTo_. There is one
+     * extra entry to mark the end of the last op-code's targets.
      */
-    static final byte[] STACK_USED = { 0/* NOP */, 0/* ACONST_NULL */,
-            0/* ICONST_M1 */, 0/* ICONST_0 */, 0/* ICONST_1 */,
-            0/* ICONST_2 */, 0/* ICONST_3 */, 0/* ICONST_4 */, 0/* ICONST_5 */,
-            0/* LCONST_0 */, 0/* LCONST_1 */, 0/* FCONST_0 */, 0/* FCONST_1 */,
-            0/* FCONST_2 */, 0/* DCONST_0 */, 0/* DCONST_1 */, 0/* BIPUSH */,
-            0/* SIPUSH */, 0/* LDC */, 0/* LDC_W */, 0/* LDC2_W */,
-            0/* ILOAD */, 0/* LLOAD */, 0/* FLOAD */, 0/* DLOAD */,
-            0/* ALOAD */, 0/* ILOAD_0 */, 0/* ILOAD_1 */, 0/* ILOAD_2 */,
-            0/* ILOAD_3 */, 0/* LLOAD_0 */, 0/* LLOAD_1 */, 0/* LLOAD_2 */,
-            0/* LLOAD_3 */, 0/* FLOAD_0 */, 0/* FLOAD_1 */, 0/* FLOAD_2 */,
-            0/* FLOAD_3 */, 0/* DLOAD_0 */, 0/* DLOAD_1 */, 0/* DLOAD_2 */,
-            0/* DLOAD_3 */, 0/* ALOAD_0 */, 0/* ALOAD_1 */, 0/* ALOAD_2 */,
-            0/* ALOAD_3 */, 2/* IALOAD */, 2/* LALOAD */, 2/* FALOAD */,
-            2/* DALOAD */, 2/* AALOAD */, 2/* BALOAD */, 2/* CALOAD */,
-            2/* SALOAD */, 1/* ISTORE */, 2/* LSTORE */, 1/* FSTORE */,
-            2/* DSTORE */, 1/* ASTORE */, 1/* ISTORE_0 */, 1/* ISTORE_1 */,
-            1/* ISTORE_2 */, 1/* ISTORE_3 */, 2/* LSTORE_0 */, 2/* LSTORE_1 */,
-            2/* LSTORE_2 */, 2/* LSTORE_3 */, 1/* FSTORE_0 */, 1/* FSTORE_1 */,
-            1/* FSTORE_2 */, 1/* FSTORE_3 */, 2/* DSTORE_0 */, 2/* DSTORE_1 */,
-            2/* DSTORE_2 */, 2/* DSTORE_3 */, 1/* ASTORE_0 */, 1/* ASTORE_1 */,
-            1/* ASTORE_2 */, 1/* ASTORE_3 */, 3/* IASTORE */, 4/* LASTORE */,
-            3/* FASTORE */, 4/* DASTORE */, 3/* AASTORE */, 3/* BASTORE */,
-            3/* CASTORE */, 3/* SASTORE */, 1/* POP */, 2/* POP2 */,
-            1/* DUP */, 2/* DUP_X1 */, 3/* DUP_X2 */, 2/* DUP2 */,
-            3/* DUP2_X1 */, 4/* DUP2_X2 */, 2/* SWAP */, 2/* IADD */,
-            4/* LADD */, 2/* FADD */, 4/* DADD */, 2/* ISUB */, 4/* LSUB */,
-            2/* FSUB */, 4/* DSUB */, 2/* IMUL */, 4/* LMUL */, 2/* FMUL */,
-            4/* DMUL */, 2/* IDIV */, 4/* LDIV */, 2/* FDIV */, 4/* DDIV */,
-            2/* IREM */, 4/* LREM */, 2/* FREM */, 4/* DREM */, 1/* INEG */,
-            2/* LNEG */, 1/* FNEG */, 2/* DNEG */, 2/* ISHL */, 3/* LSHL */,
-            2/* ISHR */, 3/* LSHR */, 2/* IUSHR */, 3/* LUSHR */, 2/* IAND */,
-            4/* LAND */, 2/* IOR */, 4/* LOR */, 2/* IXOR */, 4/* LXOR */,
-            0/* IINC */, 1/* I2L */, 1/* I2F */, 1/* I2D */, 2/* L2I */,
-            2/* L2F */, 2/* L2D */, 1/* F2I */, 1/* F2L */, 1/* F2D */,
-            2/* D2I */, 2/* D2L */, 2/* D2F */, 1/* I2B */, 1/* I2C */,
-            1/* I2S */, 4/* LCMP */, 2/* FCMPL */, 2/* FCMPG */, 4/* DCMPL */,
-            4/* DCMPG */, 1/* IFEQ */, 1/* IFNE */, 1/* IFLT */, 1/* IFGE */,
-            1/* IFGT */, 1/* IFLE */, 2/* IF_ICMPEQ */, 2/* IF_ICMPNE */,
-            2/* IF_ICMPLT */, 2 /* IF_ICMPGE */, 2/* IF_ICMPGT */,
-            2/* IF_ICMPLE */, 2/* IF_ACMPEQ */, 2/* IF_ACMPNE */, 0/* GOTO */,
-            0/* JSR */, 0/* RET */, 1/* TABLESWITCH */, 1/* LOOKUPSWITCH */,
-            1/* IRETURN */, 2/* LRETURN */, 1/* FRETURN */, 2/* DRETURN */,
-            1/* ARETURN */, 0/* RETURN */, 0/* GETSTATIC */, -1/* PUTSTATIC */,
-            1/* GETFIELD */, -1/* PUTFIELD */, -2/* INVOKEVIRTUAL */,
-            -2/* INVOKESPECIAL */, -2/* INVOKESTATIC */,
-            -2/* INVOKEINTERFACE */, 0, 0/* NEW */, 1/* NEWARRAY */,
-            1/* ANEWARRAY */, 1/* ARRAYLENGTH */, 1/* ATHROW */,
-            1/* CHECKCAST */, 1/* INSTANCEOF */, 1/* MONITORENTER */,
-            1/* MONITOREXIT */, 0/* WIDE */, -3/* MULTIANEWARRAY */,
-            1/* IFNULL */, 1/* IFNONNULL */, 0/* GOTO_W */, 0 /* JSR_W */};
-
-    /** Map of location to op-code block. */
-    Map<Integer, ParserAnalyzer.Block> blocks_ = new HashMap<Integer, ParserAnalyzer.Block>();
-
-    /** The OpCodes relating to the byte code. */
-    ParserAnalyzer.OpCode[] code_;
+    int[] branchStart_;
+
+    /**
+     * The branch targets of all the op-codes. Targets are recorded as
+     * locations and converted to op-code indices when the blocks are built.
+     */
+    int[] branchTo_;
+
+    /** The length of the byte code */
+    int codeLength_ = 0;
 
     /** The constant pool */
     final ConstantPool cp_;
 
     /** Do we find the maximum stack? */
-    boolean findMaxStack_ = true;
+    boolean findMaxStack_ = false;
 
     /** Do we find maximum local variables? */
-    boolean findMaxVars_ = true;
+    boolean findMaxVars_ = false;
+
+    /** The exception handlers, if the blocks were built */
+    Handler[] handlers_ = null;
 
     /** Maximum local variables found so far */
     int maxLocalVars_ = -1;
@@ -380,6 +105,21 @@ public class ParserAnalyzer implements ParserListener {
     /** Maximum stack identified so far */
     int maxStack_ = -1;
 
+    /** The op-code of each instruction */
+    byte[] opCode_;
+
+    /** Number of op-codes in the byte code */
+    int opCount_ = 0;
+
+    /** Change in stack from each op-code */
+    int[] opDelta_;
+
+    /** The byte-length of each op-code */
+    int[] opLength_;
+
+    /** The location of each op-code */
+    int[] opOffset_;
+
     /** Writer for debug messages */
     private PrintWriter debug_ = null;
 
@@ -409,17 +149,26 @@ public class ParserAnalyzer implements ParserListener {
             maxLocalVars_ = (access & Access.ACC_STATIC) != 0 ? 0 : 1;
 
             // one local var per parameter
-            maxLocalVars_ += Method.getArgsForType(method.getType().get());
+            maxLocalVars_ += method.getDescriptor().getArgSlots();
         }
 
         Code attrCode = method.getCode();
 
         byte[] code = attrCode.getCode();
+        codeLength_ = code.length;
 
         if( maxStack_ == -1 ) {
             findMaxStack_ = true;
-            code_ = new ParserAnalyzer.OpCode[code.length];
             maxStack_ = 0;
+
+            // one entry per op-code
+            int count = countOps(code);
+            opCode_ = new byte[count];
+            opDelta_ = new int[count];
+            opLength_ = new int[count];
+            opOffset_ = new int[count];
+            branchStart_ = new int[count + 1];
+            branchTo_ = new int[16];
         }
 
         if( findMaxStack_ || findMaxVars_ ) {
@@ -441,12 +190,20 @@ public class ParserAnalyzer implements ParserListener {
                 }
             }
 
-            Parser parser = new Parser(this);
-            for(byte element:code) {
-                parser.parse(element);
+            Parser.decode(code, 0, code.length, this);
+        }
+
+        if( findMaxStack_ ) {
+            // the code entry and every handler start a block
+            Handler[] handlers = attrCode.getHandlers();
+            handlers_ = handlers;
+            int[] entries = new int[handlers.length + 1];
+            for(int i = 0;i < handlers.length;i++) {
+                entries[i + 1] = handlers[i].getHandlerPC();
             }
+            buildBlocks(entries);
+
             exploreBlocks(0, 0);
-            Handler[] handlers = attrCode.getHandlers();
             for(Handler h:handlers) {
                 exploreBlocks(1, h.getHandlerPC());
             }
@@ -455,75 +212,183 @@ public class ParserAnalyzer implements ParserListener {
 
 
     /**
-     * Build the block that starts at the given location. The block runs until
-     * some kind of branch occurs.
+     * Find the block that starts at an op-code, adding it to the list of
+     * blocks if it is new.
+     * 
+     * @param index
+     *            the index of the op-code that starts the block
+     * @return the block's id
+     */
+    private int addBlock(int index) {
+        int id = blockAt_[index];
+        if( id != -1 ) return id;
+
+        id = blockCount_;
+        blockCount_++;
+        blockAt_[index] = id;
+        blockStart_[id] = index;
+        return id;
+    }
+
+
+    /**
+     * Record a branch target for the op-code currently being processed.
      * 
      * @param location
-     *            starting point of block
-     * @return the block
+     *            the location branched to
      */
-    ParserAnalyzer.Block buildBlock(Integer location) {
-        // check if we have already built this block
-        ParserAnalyzer.Block block = blocks_.get(location);
-        if( block != null ) return block;
+    private void addBranch(int location) {
+        if( branchCount_ == branchTo_.length ) {
+            branchTo_ = Arrays.copyOf(branchTo_, branchCount_ * 2);
+        }
+        branchTo_[branchCount_] = location;
+        branchCount_++;
+    }
 
-        int p = location.intValue();
 
-        block = new Block();
-        while( true ) {
-            ParserAnalyzer.OpCode opc = code_[p];
-
-            // update stack usage and high-water
-            block.delta_ += opc.delta_;
-            if( block.delta_ > block.hwm_ ) block.hwm_ = block.delta_;
-
-            // is this a branch? if so it ends the block
-            if( opc.branchTo_.length != 0 ) {
-                // record all branch destinations in the block. Note that
-                // op-codes use offsets and blocks use addresses.
-                block.branchTo_ = new Integer[opc.branchTo_.length];
-                for(int i = 0;i < opc.branchTo_.length;i++) {
-                    block.branchTo_[i] = Integer.valueOf(p + opc.branchTo_[i]);
+    /**
+     * Build the graph of blocks reachable from the entry points. A block runs
+     * from its start until some kind of branch or exit occurs. Every block is
+     * built exactly once.
+     * 
+     * @param entries
+     *            the locations where execution can start
+     */
+    void buildBlocks(int[] entries) {
+        // there cannot be more blocks than op-codes
+        int size = opCount_;
+        blockAt_ = new int[size];
+        Arrays.fill(blockAt_, -1);
+        blockCount_ = 0;
+        blockDelta_ = new int[size];
+        blockEnd_ = new int[size];
+        blockHwm_ = new int[size];
+        blockJsr_ = new int[size];
+        blockStart_ = new int[size];
+
+        // branch targets become op-code indices
+        for(int i = 0;i < branchCount_;i++) {
+            branchTo_[i] = indexOf(branchTo_[i]);
+        }
+
+        for(int e:entries) {
+            addBlock(indexOf(e));
+        }
+
+        // new blocks are appended, so they are built in turn
+        for(int id = 0;id < blockCount_;id++) {
+            int i = blockStart_[id];
+            int delta = 0;
+            int hwm = 0;
+            while( true ) {
+                if( i == opCount_ )
+                    throw new YabelDecompileException(
+                            "Code runs off the end after location "
+                                    + opOffset_[i - 1]);
+
+                // update stack usage and high-water
+                delta += opDelta_[i];
+                if( delta > hwm ) hwm = delta;
+
+                // is this a branch? if so it ends the block.
+                byte op = opCode_[i];
+                int b0 = branchStart_[i];
+                int b1 = branchStart_[i + 1];
+                if( b0 != b1 ) {
+                    for(int b = b0;b < b1;b++) {
+                        addBlock(branchTo_[b]);
+                    }
+                    blockJsr_[id] = -1;
+                    if( (op == OpCodes.JSR) || (op == OpCodes.JSR_W) ) {
+                        // the RET returns to the following op-code
+                        if( i + 1 == opCount_ )
+                            throw new YabelDecompileException(
+                                    "JSR at end of code at location "
+                                            + opOffset_[i]);
+                        blockJsr_[id] = i + 1;
+                        addBlock(i + 1);
+                    }
+                    break;
                 }
-                // if debugging, report new block
-                if( isDebug_ )
-                    debug_.printf("%6d : %s \t: %s\n", Integer.valueOf(p),
-                            String.valueOf(opc), String.valueOf(block));
-                return block;
-            }
 
-            // Test the op-code to see if it is a method exit
-            Byte opCode = Byte.valueOf(opc.opCode_);
-            if( Parser.OP_EXIT.contains(opCode) ) {
-                // handle JSR and RET specially
-                if( (opc.opCode_ == OpCodes.JSR)
-                        || (opc.opCode_ == OpCodes.JSR_W) ) {
-                    block.retFromJSR_ = Integer.valueOf(p + opc.length_);
-                } else if( opc.opCode_ == OpCodes.RET ) {
-                    block.exitViaRET_ = true;
+                // Test the op-code to see if it is a method exit
+                if( OpcodeInfo.get(op).isExit() ) {
+                    blockJsr_[id] = (op == OpCodes.RET) ? -2 : -1;
+                    break;
                 }
-                if( isDebug_ )
-                    debug_.printf("%6d : %s \t: %s\n", Integer.valueOf(p),
-                            String.valueOf(opc), String.valueOf(block));
 
-                // return block
-                return block;
+                // continue building block
+                i++;
             }
 
-            // continue building block
+            blockDelta_[id] = delta;
+            blockEnd_[id] = i;
+            blockHwm_[id] = hwm;
+
+            // if debugging, report new block
             if( isDebug_ )
-                debug_.printf("%6d : %s \t: %s\n", Integer.valueOf(p),
-                        String.valueOf(opc), String.valueOf(block));
-            p = p + opc.length_;
+                debug_.printf("%6d : Block[ end=%d delta=%d hwm=%d ]\n",
+                        Integer.valueOf(opOffset_[blockStart_[id]]),
+                        Integer.valueOf(opOffset_[i]), Integer.valueOf(delta),
+                        Integer.valueOf(hwm));
         }
     }
 
 
     /**
-     * Explore blocs from a given starting location and starting point. The
+     * Count the op-codes in some byte code.
+     * 
+     * @param code
+     *            the byte code
+     * @return the number of op-codes
+     */
+    private static int countOps(byte[] code) {
+        int count = 0;
+        int pos = 0;
+        while( pos < code.length ) {
+            // a truncated op-code is reported when the code is decoded
+            int len = Parser.getOpLength(code, pos, code.length);
+            if( len == -1 ) break;
+            pos += len;
+            count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Add a block to the blocks waiting to be processed, if it has not been
+     * added before.
+     * 
+     * @param id
+     *            the block's id
+     * @param added
+     *            which blocks have been added
+     * @param pending
+     *            the blocks waiting to be processed
+     * @param count
+     *            the number of blocks waiting
+     * @return the new number of blocks waiting
+     */
+    private static int enqueue(int id, boolean[] added, int[] pending,
+            int count) {
+        if( added[id] ) return count;
+        added[id] = true;
+        pending[count] = id;
+        return count + 1;
+    }
+
+
+    /**
+     * Explore blocks from a given starting location and starting point. The
      * meaningful starting points are the code entry at location zero with an
      * empty stack and each exception handler with a single object on the stack
      * as the raising of an exception clears the stack.
+     * <p>
+     * The exploration is a depth first search of the block graph driven by an
+     * explicit stack, so large methods cannot overflow the call stack. A
+     * block is only explored again if it is reached with a larger stack than
+     * before, so for well formed code each block and edge is visited once.
      * 
      * @param stack
      *            current stack depth
@@ -531,90 +396,128 @@ public class ParserAnalyzer implements ParserListener {
      *            where in the code the block starts
      */
     void exploreBlocks(int stack, int location) {
-        Stack<Integer> jsrs = new Stack<Integer>();
-        Map<Integer, Integer> visited = new HashMap<Integer, Integer>();
-        Set<Integer> crumbs = new HashSet<Integer>();
-        exploreBlocks(stack, Integer.valueOf(location), visited, crumbs, jsrs);
-    }
-
+        // stack depth on entry to each block, or -1 if not visited
+        int[] visited = new int[blockCount_];
+        Arrays.fill(visited, -1);
+
+        // the blocks on the current path
+        boolean[] crumbs = new boolean[blockCount_];
+
+        // JSR return points
+        int[] jsrs = new int[8];
+        int jsrCount = 0;
+
+        // The search path. For each step: the block, the next branch to
+        // follow, the stack on exit, the JSR count on entry and the JSR
+        // return point popped by a RET, or -1.
+        int depth = 0;
+        int[] pathBlock = new int[16];
+        int[] pathNext = new int[16];
+        int[] pathStack = new int[16];
+        int[] pathJsrCount = new int[16];
+        int[] pathPopped = new int[16];
+
+        int block = blockAt_[indexOf(location)];
+        while( true ) {
+            // have we explored this before?
+            int previous = visited[block];
+            int start = opOffset_[blockStart_[block]];
 
-    /**
-     * Recursively explore blocks of code to ascertain how the stack size
-     * varies.
-     * 
-     * @param stack
-     *            the stack depth at the start of the block
-     * @param location
-     *            the location of the block
-     * @param visited
-     *            which blocks have already been visited and the stack size on
-     *            entry
-     * @param crumbs
-     *            the current path of blocks to this block
-     * @param jsrs
-     *            JSR return points
-     */
-    void exploreBlocks(int stack, Integer location,
-            Map<Integer, Integer> visited, Set<Integer> crumbs,
-            Stack<Integer> jsrs) {
-        // have we explored this before?
-        Integer previous = visited.get(location);
-        if( previous != null ) {
             // We've explored here before. If stack is same or smaller, no
-            // need to continue.
-            if( stack <= previous.intValue() ) return;
-
-            // We've explored here before and stack is bigger. If we are
-            // looping that is bad as the stack is growing in the loop. We
-            // cannot detect a loop exit condition so the stack will grow
-            // without limit.
-            if( crumbs.contains(location) )
+            // need to continue. If the stack is bigger and we are looping
+            // that is bad as the stack is growing in the loop. We cannot
+            // detect a loop exit condition so the stack will grow without
+            // limit.
+            if( (previous != -1) && crumbs[block] && (stack > previous) )
                 throw new YabelDecompileException(
                         "Stack growth in loop detected. Start of loop at "
-                                + location);
-        }
-        visited.put(location, Integer.valueOf(stack));
-        crumbs.add(location);
-
-        ParserAnalyzer.Block block = buildBlock(location);
-        int ms = stack + block.hwm_;
-        if( ms > maxStack_ ) maxStack_ = ms;
-        stack += block.delta_;
-
-        // stack should never go negative
-        if( stack < 0 )
-            throw new YabelDecompileException(
-                    "Stack exhausted at or after location " + location);
-
-        // Class files cannot handle a stack size over 0xffff
-        if( stack > 0xffff )
-            throw new YabelDecompileException(
-                    "Stack overflowed 65535 at or after location " + location);
-
-        // if this block ends in a RET, return to where we last JSRed from
-        if( block.exitViaRET_ ) {
-            if( jsrs.isEmpty() )
-                throw new YabelDecompileException(
-                        "Encountered RET with no previous JSR. RET is on or after byte "
-                                + location);
-            Integer next = jsrs.pop();
-            exploreBlocks(stack, next, visited, crumbs, jsrs);
-            crumbs.remove(location);
-            return;
-        }
+                                + start);
+
+            if( stack > previous ) {
+                visited[block] = stack;
+                crumbs[block] = true;
+
+                int ms = stack + blockHwm_[block];
+                if( ms > maxStack_ ) maxStack_ = ms;
+                stack += blockDelta_[block];
+
+                // stack should never go negative
+                if( stack < 0 )
+                    throw new YabelDecompileException(
+                            "Stack exhausted at or after location " + start);
+
+                // Class files cannot handle a stack size over 0xffff
+                if( stack > 0xffff )
+                    throw new YabelDecompileException(
+                            "Stack overflowed 65535 at or after location "
+                                    + start);
+
+                // add this block to the path
+                if( depth == pathBlock.length ) {
+                    int len = depth * 2;
+                    pathBlock = Arrays.copyOf(pathBlock, len);
+                    pathNext = Arrays.copyOf(pathNext, len);
+                    pathStack = Arrays.copyOf(pathStack, len);
+                    pathJsrCount = Arrays.copyOf(pathJsrCount, len);
+                    pathPopped = Arrays.copyOf(pathPopped, len);
+                }
+                pathBlock[depth] = block;
+                pathNext[depth] = 0;
+                pathStack[depth] = stack;
+                pathJsrCount[depth] = jsrCount;
+                pathPopped[depth] = -1;
+
+                int jsr = blockJsr_[block];
+                if( jsr == -2 ) {
+                    // block ends in a RET, return to where we last JSRed from
+                    if( jsrCount == 0 )
+                        throw new YabelDecompileException(
+                                "Encountered RET with no previous JSR. RET is on or after byte "
+                                        + start);
+                    jsrCount--;
+                    pathPopped[depth] = jsrs[jsrCount];
+                } else if( jsr != -1 ) {
+                    // if we are JSRing, note the return address
+                    if( jsrCount == jsrs.length )
+                        jsrs = Arrays.copyOf(jsrs, jsrCount * 2);
+                    jsrs[jsrCount] = jsr;
+                    jsrCount++;
+                }
+                depth++;
+            }
 
-        // if we are JSRing, note the return address
-        if( block.retFromJSR_ != null ) jsrs.push(block.retFromJSR_);
+            // find the next branch to follow, backing up the path as each
+            // block is completed
+            block = -1;
+            while( depth > 0 ) {
+                int d = depth - 1;
+                int b = pathBlock[d];
+                int n = pathNext[d];
+                pathNext[d] = n + 1;
+                stack = pathStack[d];
+                if( pathPopped[d] != -1 ) {
+                    if( n == 0 ) {
+                        block = blockAt_[pathPopped[d]];
+                        break;
+                    }
+                } else {
+                    // the branches are those of the block's last op-code
+                    int e = blockEnd_[b];
+                    n += branchStart_[e];
+                    if( n < branchStart_[e + 1] ) {
+                        block = blockAt_[branchTo_[n]];
+                        break;
+                    }
+                }
 
-        // if a branch, explore all the branches
-        if( block.branchTo_ != null ) {
-            for(Integer next:block.branchTo_) {
-                exploreBlocks(stack, next, visited, crumbs, jsrs);
+                // We are done with this block
+                crumbs[b] = false;
+                jsrCount = pathJsrCount[d];
+                if( pathPopped[d] != -1 ) jsrs[jsrCount - 1] = pathPopped[d];
+                depth--;
             }
+            if( block == -1 ) return;
         }
-
-        // We are done here.
-        crumbs.remove(location);
     }
 
 
@@ -629,87 +532,111 @@ public class ParserAnalyzer implements ParserListener {
 
 
     /**
-     * Process an op-code. The op code is analyzed to ascertain which local
-     * variables it operates on and how many stack entries it uses.
+     * Find which op-codes can be executed. Execution starts at location zero,
+     * and at the handler of every exception handler which protects an op-code
+     * that can be executed. A handler which only protects unreachable code is
+     * not an entry point, even though its stack use is analyzed. The blocks
+     * are only built when the maximum stack is found.
      * 
-     * @param position
-     *            where in the code we are
-     * @param buffer
-     *            the complete op-code
-     * @param length
-     *            the length of the op-code
+     * @return for each location in the code, true if an op-code which can be
+     *         executed starts there
      */
-    @Override
-    public void opCodeFinish(int position, byte[] buffer, int length) {
-        if( findMaxVars_ ) {
-            updateMaxVars(buffer);
-        }
+    public boolean[] getReachable() {
+        if( handlers_ == null )
+            throw new IllegalStateException(
+                    "Blocks are only built when the maximum stack is found");
+
+        boolean[] reachable = new boolean[codeLength_];
+        boolean[] blockLive = new boolean[blockCount_];
+        boolean[] handlerLive = new boolean[handlers_.length];
+        int[] pending = new int[blockCount_];
+        int count = enqueue(blockAt_[0], blockLive, pending, 0);
+        while( count > 0 ) {
+            // mark everything reachable from the pending blocks
+            while( count > 0 ) {
+                count--;
+                int id = pending[count];
+                int e = blockEnd_[id];
+                for(int i = blockStart_[id];i <= e;i++) {
+                    reachable[opOffset_[i]] = true;
+                }
 
-        if( findMaxStack_ ) {
-            updateMaxStack(position, buffer, length);
+                for(int b = branchStart_[e];b < branchStart_[e + 1];b++) {
+                    count = enqueue(blockAt_[branchTo_[b]], blockLive,
+                            pending, count);
+                }
+
+                // assume a subroutine returns
+                int jsr = blockJsr_[id];
+                if( jsr >= 0 )
+                    count = enqueue(blockAt_[jsr], blockLive, pending, count);
+            }
+
+            // a handler is an entry if it protects reachable code
+            for(int h = 0;h < handlers_.length;h++) {
+                if( handlerLive[h] ) continue;
+                Handler handler = handlers_[h];
+                int end = Math.min(handler.getEndPC(), codeLength_);
+                for(int loc = handler.getStartPC();loc < end;loc++) {
+                    if( !reachable[loc] ) continue;
+                    handlerLive[h] = true;
+                    count = enqueue(blockAt_[indexOf(handler.getHandlerPC())],
+                            blockLive, pending, count);
+                    break;
+                }
+            }
         }
+        return reachable;
+    }
+
+
+    /**
+     * Find the index of the op-code at a location.
+     * 
+     * @param location
+     *            the location
+     * @return the op-code's index
+     */
+    int indexOf(int location) {
+        int i = Arrays.binarySearch(opOffset_, 0, opCount_, location);
+        if( i < 0 )
+            throw new YabelDecompileException("Branch to location "
+                    + location + " which is not the start of an op-code");
+        return i;
     }
 
 
-    private void updateMaxStack(int position, byte[] buffer, int length) {
+    private void updateMaxStack(byte[] code, int off, int length) {
         int delta = 0;
-        int opCode = IO.readU1(buffer, 0);
-        int extra = STACK_MADE[opCode];
+        OpcodeInfo info = OpcodeInfo.get(code[off]);
+        int extra = info.getStackMade();
         switch (extra) {
         case -1: {
             // it is a field access
-            int v = IO.readU2(buffer, 1);
+            int v = IO.readU2(code, off + 1);
             ConstantRef cr = cp_.validate(v, ConstantRef.class);
-            String type = cr.getType().get();
-            if( type.equals("D") ) {
-                // get double
-                delta += 2;
-            } else if( type.equals("J") ) {
-                // get long
-                delta += 2;
-            } else {
-                delta += 1;
-            }
+            delta += cr.getDescriptor().getReturnWidth();
             break;
         }
         case -2: {
             // it is a method call
-            int v = IO.readU2(buffer, 1);
+            int v = IO.readU2(code, off + 1);
             ConstantRef cr = cp_.validate(v, ConstantRef.class);
-            String type = cr.getType().get();
-            if( type.endsWith(")D") ) {
-                // returns double
-                delta += 2;
-            } else if( type.endsWith(")J") ) {
-                // returns long
-                delta += 2;
-            } else if( !type.endsWith(")V") ) {
-                // does not return void
-                delta += 1;
-            }
+            delta += cr.getDescriptor().getReturnWidth();
             break;
         }
         default:
             delta += extra;
         }
 
-        int less = STACK_USED[opCode];
+        int less = info.getStackUsed();
         switch (less) {
         case -1: {
             // it is a field access
-            int v = IO.readU2(buffer, 1);
+            int v = IO.readU2(code, off + 1);
             ConstantRef cr = cp_.validate(v, ConstantRef.class);
-            String type = cr.getType().get();
-            if( type.equals("D") ) {
-                // get double
-                delta -= 2;
-            } else if( type.equals("J") ) {
-                // get long
-                delta -= 2;
-            } else {
-                delta -= 1;
-            }
-            if( buffer[0] == OpCodes.PUTFIELD ) {
+            delta -= cr.getDescriptor().getReturnWidth();
+            if( code[off] == OpCodes.PUTFIELD ) {
                 // also uses object ref
                 delta -= 1;
             }
@@ -717,11 +644,10 @@ public class ParserAnalyzer implements ParserListener {
         }
         case -2: {
             // it is a method call
-            int v = IO.readU2(buffer, 1);
+            int v = IO.readU2(code, off + 1);
             ConstantRef cr = cp_.validate(v, ConstantRef.class);
-            String type = cr.getType().get();
-            delta -= Method.getArgsForType(type);
-            if( buffer[0] != OpCodes.INVOKESTATIC ) {
+            delta -= cr.getDescriptor().getArgSlots();
+            if( code[off] != OpCodes.INVOKESTATIC ) {
                 // if it is not a static, it uses an object ref
                 delta -= 1;
             }
@@ -730,101 +656,120 @@ public class ParserAnalyzer implements ParserListener {
         case -3: {
             // it is a multianewarray call
             // byte 3 is the number of dimensions of the array
-            delta -= IO.readU1(buffer, 3);
+            delta -= IO.readU1(code, off + 3);
             break;
         }
         default:
             delta -= less;
         }
 
-        ParserAnalyzer.OpCode opc = new OpCode();
-        opc.delta_ = delta;
-        opc.opCode_ = buffer[0];
-        opc.length_ = length;
+        int index = opCount_;
+        opCode_[index] = code[off];
+        opDelta_[index] = delta;
+        opLength_[index] = length;
+        opOffset_[index] = off;
+        branchStart_[index] = branchCount_;
 
-        // Note the offsets for any branches
-        Byte b = Byte.valueOf(buffer[0]);
-        if( Parser.BRANCH_OPS.contains(b) ) {
-            switch (buffer[0]) {
+        // Note the locations of any branches
+        if( info.isBranch() ) {
+            switch (code[off]) {
             case OpCodes.GOTO_W:
                 // falls through
             case OpCodes.JSR_W:
                 // 4-byte offset
-                opc.branchTo_ = new int[] { IO.readS4(buffer, 1) };
+                addBranch(off + IO.readS4(code, off + 1));
                 break;
             case OpCodes.GOTO:
                 // falls through
             case OpCodes.JSR:
                 // 2-byte offset
-                opc.branchTo_ = new int[] { IO.readS2(buffer, 1) };
+                addBranch(off + IO.readS2(code, off + 1));
                 break;
             case OpCodes.LOOKUPSWITCH: {
-                int s = 8 - (position % 4);
-                int np = IO.readS4(buffer, s);
-                int[] to = new int[np + 1];
-                to[0] = IO.readS4(buffer, s - 4);
+                int s = 8 - (off % 4);
+                int np = IO.readS4(code, off + s);
+                addBranch(off + IO.readS4(code, off + s - 4));
                 for(int i = 1;i <= np;i++) {
-                    to[i] = IO.readS4(buffer, s + 8 * i);
+                    addBranch(off + IO.readS4(code, off + s + 8 * i));
                 }
-                opc.branchTo_ = to;
                 break;
             }
             case OpCodes.TABLESWITCH: {
-                int s = 12 - (position % 4);
-                int low = IO.readS4(buffer, s - 4);
-                int high = IO.readS4(buffer, s);
-                int[] to = new int[high - low + 2];
-                to[0] = IO.readS4(buffer, s - 8);
-                for(int i = 1;i < to.length;i++) {
-                    to[i] = IO.readS4(buffer, s + 4 * i);
+                int s = 12 - (off % 4);
+                int low = IO.readS4(code, off + s - 4);
+                int high = IO.readS4(code, off + s);
+                addBranch(off + IO.readS4(code, off + s - 8));
+                for(int i = 1;i <= high - low + 1;i++) {
+                    addBranch(off + IO.readS4(code, off + s + 4 * i));
                 }
-                opc.branchTo_ = to;
                 break;
             }
             default:
                 // 2-byte offset conditional
-                opc.branchTo_ = new int[] { IO.readS2(buffer, 1), 3 };
+                addBranch(off + IO.readS2(code, off + 1));
+                addBranch(off + 3);
                 break;
             }
         }
-        if( isDebug_ )
-            debug_.printf("MaxStack: %6d : %s\n", Integer.valueOf(position),
-                    String.valueOf(opc));
-        code_[position] = opc;
+        branchStart_[index + 1] = branchCount_;
+        opCount_++;
+
+        if( isDebug_ ) {
+            debug_.printf("MaxStack: %6d : %s delta=%d length=%d",
+                    Integer.valueOf(off), info.getName(),
+                    Integer.valueOf(delta), Integer.valueOf(length));
+            for(int i = branchStart_[index];i < branchCount_;i++) {
+                debug_.printf(" ->%d", Integer.valueOf(branchTo_[i]));
+            }
+            debug_.println();
+        }
     }
 
 
-    private void updateMaxVars(byte[] buffer) {
-        Byte b = Byte.valueOf(buffer[0]);
-
-        // check fixed variable operators
-        if( VAR_OPS_0.contains(b) ) maxLocalVars_ = Math.max(maxLocalVars_, 1);
-        if( VAR_OPS_1.contains(b) ) maxLocalVars_ = Math.max(maxLocalVars_, 2);
-        if( VAR_OPS_2.contains(b) ) maxLocalVars_ = Math.max(maxLocalVars_, 3);
-        if( VAR_OPS_3.contains(b) ) maxLocalVars_ = Math.max(maxLocalVars_, 4);
-        if( VAR_OPS_4.contains(b) ) maxLocalVars_ = Math.max(maxLocalVars_, 5);
-
-        // check variable operators
-        if( VAR_OPS_X.contains(b) ) {
-            int i = IO.readU1(buffer, 1);
-            maxLocalVars_ = Math.max(maxLocalVars_, i + 1);
-        }
-        if( VAR_OPS_X1.contains(b) ) {
-            int i = IO.readU1(buffer, 1);
-            maxLocalVars_ = Math.max(maxLocalVars_, i + 2);
+    private void updateMaxVars(byte[] code, int off) {
+        OpcodeInfo info = OpcodeInfo.get(code[off]);
+        int width = info.getLocalWidth();
+        if( width != 0 ) {
+            // slot is either fixed or the operand
+            int i = info.getLocalSlot();
+            if( i == -1 ) i = IO.readU1(code, off + 1);
+            maxLocalVars_ = Math.max(maxLocalVars_, i + width);
+            return;
         }
 
         // handle WIDE
-        if( buffer[0] == OpCodes.WIDE ) {
-            b = Byte.valueOf(buffer[1]);
-            if( VAR_OPS_X.contains(b) ) {
-                int i = IO.readU2(buffer, 2);
-                maxLocalVars_ = Math.max(maxLocalVars_, i + 1);
-            }
-            if( VAR_OPS_X1.contains(b) ) {
-                int i = IO.readU2(buffer, 2);
-                maxLocalVars_ = Math.max(maxLocalVars_, i + 2);
+        if( code[off] == OpCodes.WIDE ) {
+            width = OpcodeInfo.get(code[off + 1]).getLocalWidth();
+            if( width != 0 ) {
+                int i = IO.readU2(code, off + 2);
+                maxLocalVars_ = Math.max(maxLocalVars_, i + width);
             }
         }
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Process an op-code. The op code is analyzed to ascertain which local
+     * variables it operates on and how many stack entries it uses. As the
+     * whole byte code is decoded, the offset is also the op-code's position.
+     * 
+     * @param opCode
+     *            the op-code
+     * @param code
+     *            the byte code
+     * @param offset
+     *            where in the code we are
+     * @param length
+     *            the length of the op-code
+     */
+    @Override
+    public void visit(int opCode, byte[] code, int offset, int length) {
+        if( findMaxVars_ ) {
+            updateMaxVars(code, offset);
+        }
+
+        if( findMaxStack_ ) {
+            updateMaxStack(code, offset, length);
+        }
+    }
+}
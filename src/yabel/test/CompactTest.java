@@ -0,0 +1,114 @@
+package yabel.test;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+
+import yabel.ClassBuilder;
+import yabel.ClassData;
+import yabel.Method;
+import yabel.attributes.Attribute;
+import yabel.attributes.GenericAttribute;
+import yabel.constants.ConstantPool;
+import yabel.constants.ConstantUtf8;
+import yabel.io.IO;
+
+/**
+ * Checks the constant pool is compacted around attributes held in their raw
+ * form.
+ *
+ * @author Simon Greatrix
+ */
+public class CompactTest {
+    /** A generic signature for the test method */
+    static final String SIGNATURE = "<T:Ljava/lang/Object;>(I)I";
+
+
+    /**
+     * Create a class with a method which returns its argument, and leave an
+     * unused constant in its pool.
+     *
+     * @return the class
+     */
+    static ClassBuilder build() {
+        ClassBuilder cb = new ClassBuilder(Modifier.PUBLIC, "CompactTarget");
+        cb.setVersion(ClassBuilder.JAVA_VERSION_1_5);
+        cb.addMethod(Modifier.PUBLIC | Modifier.STATIC, "f", "(I)I")
+                .getCode().compile("ILOAD_0 IRETURN", null);
+        new ConstantUtf8(cb.getConstantPool(), "unused");
+        return cb;
+    }
+
+
+    /**
+     * Create a generic attribute.
+     *
+     * @param cp
+     *            the constant pool
+     * @param name
+     *            the attribute name
+     * @param data
+     *            the attribute's body
+     * @return the attribute
+     */
+    static GenericAttribute generic(ConstantPool cp, String name, byte[] data) {
+        ClassData cd = new ClassData();
+        cd.put("name", name);
+        cd.put("data", IO.encode(data));
+        return new GenericAttribute(cp, cd);
+    }
+
+
+    /**
+     * Run the tests.
+     *
+     * @param args
+     *            ignored
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        // a Signature is renumbered
+        ClassBuilder cb = build();
+        ConstantPool cp = cb.getConstantPool();
+        byte[] data = new byte[2];
+        IO.writeS2(data, 0, new ConstantUtf8(cp, SIGNATURE).getIndex());
+        Method m = cb.getDeclaredMethod("f", "(I)I");
+        m.getAttributes().add(generic(cp, Attribute.ATTR_SIGNATURE, data));
+        int before = cp.computeSize();
+        TestLoader.check(cb.compact(), "Pool with a Signature not compacted: "
+                + cb.getCompactRefusal());
+        TestLoader.check(cp.computeSize() < before, "Pool did not shrink");
+
+        ClassBuilder read = new ClassBuilder(ByteBuffer.wrap(cb.getBytes()));
+        GenericAttribute sig = (GenericAttribute) read.getDeclaredMethod("f",
+                "(I)I").getAttributes().get(read.getConstantPool(),
+                Attribute.ATTR_SIGNATURE);
+        int index = IO.readU2(sig.getData(), 0);
+        TestLoader.check(SIGNATURE.equals(read.getConstantPool().validate(
+                index, ConstantUtf8.class).get()), "Signature not renumbered");
+        TestLoader.check(Integer.valueOf(5).equals(
+                TestLoader.invoke(read, "f", int.class, Integer.valueOf(5))),
+                "Compacted f(5) did not return 5");
+        System.out.println("signature renumbered : OK");
+
+        // an InnerClasses table with the wrong length is refused
+        cb = build();
+        cp = cb.getConstantPool();
+        cb.getAttributes().add(
+                generic(cp, Attribute.ATTR_INNER_CLASSES, new byte[] { 0, 1 }));
+        TestLoader.check(!cb.compact(), "Malformed InnerClasses compacted");
+        TestLoader.check(cb.getCompactRefusal().contains(
+                Attribute.ATTR_INNER_CLASSES), "Wrong refusal: "
+                + cb.getCompactRefusal());
+        System.out.println("malformed attribute refused : OK");
+
+        // an attribute which is not understood is refused
+        cb = build();
+        cp = cb.getConstantPool();
+        cb.getAttributes().add(generic(cp, "Custom", new byte[] { 0, 1 }));
+        TestLoader.check(!cb.compact(), "Unknown attribute compacted");
+        TestLoader.check(cb.getCompactRefusal().contains("Custom"),
+                "Wrong refusal: " + cb.getCompactRefusal());
+        System.out.println("unknown attribute refused : OK");
+    }
+}
@@ -0,0 +1,83 @@
+package yabel.test;
+
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+
+import yabel.ClassBuilder;
+import yabel.ClassData;
+import yabel.code.Code;
+import yabel.code.Handler;
+
+/**
+ * Checks stack map frames are computed for code which cannot be reached,
+ * including unreachable code protected by exception handlers.
+ *
+ * @author Simon Greatrix
+ */
+public class FrameTest {
+    /**
+     * A method with unreachable code inside a protected range, and a handler
+     * which only protects unreachable code.
+     */
+    static final String SOURCE = "@:s ICONST_1 ILOAD_0 IDIV POP "
+            + "GOTO #:next ICONST_5 POP "
+            + "@:next ICONST_2 ILOAD_0 IDIV POP @:e "
+            + "GOTO #:skip @:ds ICONST_0 POP @:de "
+            + "@:skip ILOAD_0 IRETURN "
+            + "@:h POP ICONST_M1 IRETURN "
+            + "@:h2 POP LDC:int:-2 IRETURN";
+
+
+    /**
+     * Run the tests.
+     *
+     * @param args
+     *            ignored
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        ClassBuilder cb = new ClassBuilder(Modifier.PUBLIC, "FrameTarget");
+        cb.setVersion(ClassBuilder.JAVA_VERSION_1_7);
+        cb.setComputeFrames(true);
+        Code code = cb.addMethod(Modifier.PUBLIC | Modifier.STATIC, "f",
+                "(I)I").getCode();
+        code.compile(SOURCE, null);
+        code.addHandler("s", "e", "h", "java/lang/ArithmeticException");
+        code.addHandler("ds", "de", "h2", null);
+
+        byte[] bytes = cb.getBytes();
+        Handler[] handlers = code.getHandlers();
+        TestLoader.check(handlers.length == 2, "Expected the protected range "
+                + "to be split and the dead handler removed, but there are "
+                + handlers.length + " handlers");
+        TestLoader.check(handlers[0].getEndPC() < handlers[1].getStartPC(),
+                "Handlers overlap");
+        TestLoader.check(Integer.valueOf(7).equals(
+                TestLoader.invoke(bytes, "f", int.class, Integer.valueOf(7))),
+                "f(7) did not return 7");
+        TestLoader.check(Integer.valueOf(-1).equals(
+                TestLoader.invoke(bytes, "f", int.class, Integer.valueOf(0))),
+                "f(0) did not return -1");
+
+        // the replaced code can be rebuilt
+        ClassBuilder rebuilt = new ClassBuilder(cb.toClassData());
+        TestLoader.check(Integer.valueOf(-1).equals(
+                TestLoader.invoke(rebuilt, "f", int.class, Integer.valueOf(0))),
+                "Rebuilt f(0) did not return -1");
+        System.out.println("unreachable code : OK");
+
+        // a class read back keeps its frames when it is rebuilt in a new pool,
+        // even though nothing asks for them to be computed
+        ClassBuilder read = new ClassBuilder(ByteBuffer.wrap(bytes));
+        TestLoader.check(!read.isComputeFrames(), "Frames would be computed");
+        ClassData cd = read.toClassData();
+        rebuilt = new ClassBuilder(cd);
+        TestLoader.check(cd.equals(rebuilt.toClassData()),
+                "Rebuilt class data differs");
+        TestLoader.check(Integer.valueOf(7).equals(
+                TestLoader.invoke(rebuilt, "f", int.class, Integer.valueOf(7))),
+                "Rebuilt f(7) did not return 7");
+        System.out.println("frames in a new pool : OK");
+    }
+}
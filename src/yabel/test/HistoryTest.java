@@ -0,0 +1,173 @@
+package yabel.test;
+
+import java.lang.reflect.Modifier;
+
+import yabel.ClassBuilder;
+import yabel.ClassData;
+import yabel.code.Code;
+import yabel.code.CodeTemplate;
+import yabel.code.HistoryPolicy;
+import yabel.code.VariableAllocation;
+
+/**
+ * Checks that code can be rebuilt from its ClassData representation. The
+ * rebuilt class has a new constant pool, so the representation must not
+ * depend on the constant indexes of the original.
+ *
+ * @author Simon Greatrix
+ */
+public class HistoryTest {
+    /**
+     * The source of the method under test. It has an exception handler, and
+     * ends with code which cannot be reached.
+     */
+    static final String SOURCE = "$:0:I:x LDC:string:hello POP "
+            + "@:hs ILOAD:x ICONST_1 IDIV POP @:he "
+            + "ILOAD:x ICONST_0 IADD ISTORE:x "
+            + "$:I:t ILOAD:x ISTORE:t $:t $:I:u ILOAD:x ISTORE:u ILOAD:u "
+            + "IFEQ #:zero GOTO #:notZero "
+            + "@:zero LDC:string:zero ARETURN "
+            + "@:notZero LDC:string:n= ILOAD:x "
+            + "INVOKESTATIC:java/lang/String:valueOf:(I)Ljava/lang/String; "
+            + "INVOKEVIRTUAL:java/lang/String:concat:"
+            + "(Ljava/lang/String;)Ljava/lang/String; "
+            + "GETSTATIC:java/io/File:separator:Ljava/lang/String; "
+            + "INVOKEVIRTUAL:java/lang/String:concat:"
+            + "(Ljava/lang/String;)Ljava/lang/String; "
+            + "ARETURN @:h POP LDC:string:caught ARETURN "
+            + "LDC:long:99 POP2 GOTO #:notZero";
+
+
+    /**
+     * Build the class under test.
+     *
+     * @param policy
+     *            the history policy
+     * @param version
+     *            the class file version
+     * @return the class
+     */
+    static ClassBuilder build(HistoryPolicy policy, int version) {
+        ClassBuilder cb = new ClassBuilder(Modifier.PUBLIC, "HistoryTarget");
+        cb.setVersion(version);
+        cb.setHistoryPolicy(policy);
+        cb.setComputeFrames(version > ClassBuilder.JAVA_VERSION_1_5);
+        return cb;
+    }
+
+
+    /**
+     * Add the method under test to a class.
+     *
+     * @param cb
+     *            the class
+     * @param allocation
+     *            how variables are allocated slots
+     * @return the method's code
+     */
+    static Code addMethod(ClassBuilder cb, VariableAllocation allocation) {
+        Code code = cb.addMethod(Modifier.PUBLIC | Modifier.STATIC, "f",
+                "(I)Ljava/lang/String;").getCode();
+        code.setVariableAllocation(allocation);
+        code.compile(SOURCE, null);
+        code.addHandler("hs", "he", "h", "java/lang/ArithmeticException");
+        return code;
+    }
+
+
+    /**
+     * Check a class gives the same results after being rebuilt from its
+     * ClassData, twice over.
+     *
+     * @param name
+     *            the name of the case
+     * @param cb
+     *            the class
+     */
+    static void checkRebuild(String name, ClassBuilder cb) {
+        Object expected = TestLoader.invoke(cb, "f", int.class,
+                Integer.valueOf(7));
+        ClassBuilder rebuilt = cb;
+        for(int i = 1;i <= 2;i++) {
+            ClassData cd = rebuilt.toClassData();
+            rebuilt = new ClassBuilder(cd);
+            Object actual = TestLoader.invoke(rebuilt, "f", int.class,
+                    Integer.valueOf(7));
+            TestLoader.check(expected.equals(actual), name + " rebuild " + i
+                    + " returned " + actual + " not " + expected);
+        }
+        System.out.println(name + " : OK");
+    }
+
+
+    /**
+     * Check the COMPACT policy records a digest of the replacements, which
+     * does not depend on the order they were given in.
+     */
+    static void checkDigest() {
+        CodeTemplate template = CodeTemplate.compile("ILOAD_0 iconst:{n} "
+                + "IADD iconst:{m} IADD IRETURN");
+        Integer[] digests = new Integer[3];
+        String[][] values = { { "n", "1", "m", "2" }, { "m", "2", "n", "1" },
+                { "n", "2", "m", "1" } };
+        for(int i = 0;i < 3;i++) {
+            ClassData cd = new ClassData();
+            cd.put(values[i][0], values[i][1]);
+            cd.put(values[i][2], values[i][3]);
+            ClassBuilder cb = build(HistoryPolicy.COMPACT,
+                    ClassBuilder.JAVA_VERSION_1_5);
+            Code code = cb.addMethod(Modifier.PUBLIC | Modifier.STATIC, "f",
+                    "(I)I").getCode();
+            code.compile(template, cd);
+            ClassData hist = code.toClassData().getList(ClassData.class,
+                    "history").get(0);
+            TestLoader.check(hist.get(String.class, "source") == template
+                    .getSource().intern(), "Source was not interned");
+            TestLoader.check(!hist.containsKey("replacements"),
+                    "Replacements were copied");
+            digests[i] = hist.get(Integer.class, "replacementsDigest");
+        }
+        TestLoader.check(digests[0].equals(digests[1]),
+                "Digest depends on replacement order");
+        TestLoader.check(!digests[0].equals(digests[2]),
+                "Digest ignores replacement values");
+        System.out.println("COMPACT digest : OK");
+    }
+
+
+    /**
+     * Run the tests.
+     *
+     * @param args
+     *            ignored
+     */
+    public static void main(String[] args) {
+        int[] versions = { ClassBuilder.JAVA_VERSION_1_5,
+                ClassBuilder.JAVA_VERSION_1_7 };
+        for(int version:versions) {
+            for(HistoryPolicy policy:HistoryPolicy.values()) {
+                ClassBuilder cb = build(policy, version);
+                addMethod(cb, VariableAllocation.FIRST_FREE);
+                checkRebuild(policy + " v" + version, cb);
+            }
+
+            ClassBuilder cb = build(HistoryPolicy.FULL, version);
+            Code code = addMethod(cb, VariableAllocation.FIRST_FREE);
+            TestLoader.check(code.optimize(), "Optimisation made no change");
+            checkRebuild("optimize v" + version, cb);
+
+            cb = build(HistoryPolicy.FULL, version);
+            code = addMethod(cb, VariableAllocation.FIRST_FREE);
+            TestLoader.check(code.removeDeadCode(), "No dead code was removed");
+            checkRebuild("removeDeadCode v" + version, cb);
+
+            cb = build(HistoryPolicy.FULL, version);
+            code = addMethod(cb, VariableAllocation.LIVENESS);
+            code.getCode();
+            TestLoader.check(code.getMaxLocals() < 3,
+                    "Liveness allocation did not share slots");
+            checkRebuild("liveness v" + version, cb);
+        }
+        checkDigest();
+    }
+}
@@ -0,0 +1,74 @@
+package yabel.test;
+
+import java.io.UTFDataFormatException;
+
+import yabel.constants.Utf8Interner;
+
+/**
+ * Checks the Utf8 interner shares values and stays within its limits.
+ *
+ * @author Simon Greatrix
+ */
+public class InternerTest {
+    /**
+     * Encode a string of ASCII characters.
+     *
+     * @param s
+     *            the string
+     * @return the encoded bytes
+     */
+    static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for(int i = 0;i < b.length;i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+
+
+    /**
+     * Intern a string of ASCII characters.
+     *
+     * @param interner
+     *            the interner
+     * @param s
+     *            the string
+     * @return the interned value
+     * @throws UTFDataFormatException
+     */
+    static String intern(Utf8Interner interner, String s)
+            throws UTFDataFormatException {
+        byte[] b = ascii(s);
+        return interner.intern(b, 0, b.length);
+    }
+
+
+    /**
+     * Run the tests.
+     *
+     * @param args
+     *            ignored
+     * @throws UTFDataFormatException
+     */
+    public static void main(String[] args) throws UTFDataFormatException {
+        Utf8Interner interner = new Utf8Interner(8, 2);
+        String a = intern(interner, "Code");
+        TestLoader.check(a.equals("Code"), "Value decoded as " + a);
+        TestLoader.check(a == intern(interner, "Code"), "Value not shared");
+        System.out.println("value shared : OK");
+
+        String s = intern(interner, "LongerThan8");
+        TestLoader.check(s.equals("LongerThan8"), "Long value decoded as " + s);
+        TestLoader.check(interner.size() == 1, "Long value was stored");
+        System.out.println("long value not stored : OK");
+
+        intern(interner, "Object");
+        String c = intern(interner, "Third");
+        TestLoader.check(c.equals("Third"), "Value decoded as " + c);
+        TestLoader.check(interner.size() == 2, "Full interner grew to "
+                + interner.size());
+        TestLoader.check(a == intern(interner, "Code"),
+                "Value not shared when full");
+        System.out.println("full interner : OK");
+    }
+}
@@ -0,0 +1,82 @@
+package yabel.test;
+
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import yabel.ClassBuilder;
+import yabel.OpCodes;
+import yabel.code.Code;
+import yabel.code.Peephole;
+
+/**
+ * Checks each peephole rule rewrites code without changing its result.
+ *
+ * @author Simon Greatrix
+ */
+public class PeepholeTest {
+    /**
+     * Check a single peephole rule rewrites some code as expected.
+     *
+     * @param version
+     *            the class file version
+     * @param rule
+     *            the rule
+     * @param source
+     *            the code to rewrite
+     * @param expected
+     *            the expected byte code
+     */
+    static void checkPeephole(int version, Peephole rule, String source,
+            byte... expected) {
+        ClassBuilder cb = new ClassBuilder(Modifier.PUBLIC, "PeepholeTarget");
+        cb.setVersion(version);
+        cb.setComputeFrames(version > ClassBuilder.JAVA_VERSION_1_5);
+        Code code = cb.addMethod(Modifier.PUBLIC | Modifier.STATIC, "f",
+                "(I)I").getCode();
+        code.compile(source, null);
+        Object before = TestLoader.invoke(cb.getBytes(), "f", int.class,
+                Integer.valueOf(3));
+
+        TestLoader.check(code.optimize(EnumSet.of(rule)), rule
+                + " made no change");
+        byte[] actual = code.getCode();
+        TestLoader.check(Arrays.equals(expected, actual), rule + " gave "
+                + Arrays.toString(actual) + " not "
+                + Arrays.toString(expected));
+        Object after = TestLoader.invoke(cb, "f", int.class,
+                Integer.valueOf(3));
+        TestLoader.check(before.equals(after), rule + " changed the result "
+                + before + " to " + after);
+        System.out.println(rule + " v" + version + " : OK");
+    }
+
+
+    /**
+     * Run the tests.
+     *
+     * @param args
+     *            ignored
+     */
+    public static void main(String[] args) {
+        int[] versions = { ClassBuilder.JAVA_VERSION_1_5,
+                ClassBuilder.JAVA_VERSION_1_7 };
+        for(int version:versions) {
+            checkPeephole(version, Peephole.CONSTANT_FORMS,
+                    "ILOAD_0 LDC:int:5 IADD IRETURN", OpCodes.ILOAD_0,
+                    OpCodes.ICONST_5, OpCodes.IADD, OpCodes.IRETURN);
+            checkPeephole(version, Peephole.DUP_POP,
+                    "ILOAD_0 DUP POP IRETURN", OpCodes.ILOAD_0,
+                    OpCodes.IRETURN);
+            checkPeephole(version, Peephole.GOTO_NEXT,
+                    "ILOAD_0 GOTO #:n @:n IRETURN", OpCodes.ILOAD_0,
+                    OpCodes.IRETURN);
+            checkPeephole(version, Peephole.JUMP_CHAIN,
+                    "ILOAD_0 IFEQ #:a ICONST_1 IRETURN @:a GOTO #:b "
+                            + "@:b ICONST_0 IRETURN", OpCodes.ILOAD_0,
+                    OpCodes.IFEQ, (byte) 0, (byte) 8, OpCodes.ICONST_1,
+                    OpCodes.IRETURN, OpCodes.GOTO, (byte) 0, (byte) 3,
+                    OpCodes.ICONST_0, OpCodes.IRETURN);
+        }
+    }
+}
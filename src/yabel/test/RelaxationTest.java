@@ -0,0 +1,79 @@
+package yabel.test;
+
+import java.lang.reflect.Modifier;
+
+import yabel.ClassBuilder;
+import yabel.code.Code;
+
+/**
+ * Checks branches which cannot reach their labels are widened.
+ *
+ * @author Simon Greatrix
+ */
+public class RelaxationTest {
+    /**
+     * A loop whose body is too long for a 2 byte branch both into and out of
+     * it. It returns twice its argument.
+     */
+    static final String LOOP_HEAD = "ICONST_0 ISTORE_1 "
+            + "@:top ILOAD_0 IFEQ #:done ";
+
+    /** The end of the loop */
+    static final String LOOP_TAIL = "IINC:0:-1 IINC:1:2 GOTO #:top "
+            + "@:done ILOAD_1 IRETURN";
+
+
+    /**
+     * Check branches which cannot reach their labels are widened.
+     *
+     * @param version
+     *            the class file version
+     */
+    static void checkRelaxation(int version) {
+        StringBuilder buf = new StringBuilder(LOOP_HEAD);
+        for(int i = 0;i < 12000;i++) {
+            buf.append("IINC:1:0 ");
+        }
+        buf.append(LOOP_TAIL);
+
+        ClassBuilder cb = new ClassBuilder(Modifier.PUBLIC, "RelaxTarget");
+        cb.setVersion(version);
+        cb.setComputeFrames(version > ClassBuilder.JAVA_VERSION_1_5);
+        Code code = cb.addMethod(Modifier.PUBLIC | Modifier.STATIC, "f",
+                "(I)I").getCode();
+        code.compile(buf.toString(), null);
+        byte[] bytes = cb.getBytes();
+        TestLoader.check(code.getCode().length > 36000,
+                "Padding was not compiled");
+        TestLoader.check(Integer.valueOf(6).equals(
+                TestLoader.invoke(bytes, "f", int.class, Integer.valueOf(3))),
+                "f(3) did not return 6");
+        TestLoader.check(Integer.valueOf(0).equals(
+                TestLoader.invoke(bytes, "f", int.class, Integer.valueOf(0))),
+                "f(0) did not return 0");
+
+        ClassBuilder rebuilt = new ClassBuilder(cb.toClassData());
+        TestLoader.check(Integer.valueOf(8).equals(
+                TestLoader.invoke(rebuilt, "f", int.class, Integer.valueOf(4))),
+                "Rebuilt f(4) did not return 8");
+
+        // optimising must keep the branches which are still out of range wide
+        code.optimize();
+        TestLoader.check(Integer.valueOf(4).equals(
+                TestLoader.invoke(cb, "f", int.class, Integer.valueOf(2))),
+                "Optimised f(2) did not return 4");
+        System.out.println("relaxation v" + version + " : OK");
+    }
+
+
+    /**
+     * Run the tests.
+     *
+     * @param args
+     *            ignored
+     */
+    public static void main(String[] args) {
+        checkRelaxation(ClassBuilder.JAVA_VERSION_1_5);
+        checkRelaxation(ClassBuilder.JAVA_VERSION_1_7);
+    }
+}
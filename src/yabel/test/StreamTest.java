@@ -0,0 +1,81 @@
+package yabel.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+
+import yabel.ClassBuilder;
+
+/**
+ * Checks class files are read one at a time from a stream.
+ *
+ * @author Simon Greatrix
+ */
+public class StreamTest {
+    /**
+     * Create a class with a method which returns a constant.
+     *
+     * @param name
+     *            the class name
+     * @param value
+     *            the constant
+     * @return the class file
+     */
+    static byte[] build(String name, int value) {
+        ClassBuilder cb = new ClassBuilder(Modifier.PUBLIC, name);
+        cb.setVersion(ClassBuilder.JAVA_VERSION_1_7);
+        cb.setComputeFrames(true);
+        cb.addMethod(Modifier.PUBLIC | Modifier.STATIC, "f", "(I)I")
+                .getCode().compile("ILOAD_0 IFEQ #:z LDC:int:" + value
+                        + " IRETURN @:z ICONST_0 IRETURN", null);
+        return cb.getBytes();
+    }
+
+
+    /**
+     * Run the tests.
+     *
+     * @param args
+     *            ignored
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] first = build("StreamFirst", 1000);
+        byte[] second = build("StreamSecond", 2000);
+        baos.write(first);
+        baos.write(second);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(baos.toByteArray());
+        ClassBuilder cb1 = new ClassBuilder(in);
+        TestLoader.check(in.available() == second.length,
+                "First class did not leave the stream after itself");
+        ClassBuilder cb2 = new ClassBuilder(in);
+        TestLoader.check(in.available() == 0, "Second class was not read");
+        TestLoader.check(cb1.getName().equals("StreamFirst")
+                && cb2.getName().equals("StreamSecond"), "Wrong classes read");
+        TestLoader.check(Integer.valueOf(2000).equals(
+                TestLoader.invoke(cb2, "f", int.class, Integer.valueOf(3))),
+                "Second f(3) did not return 2000");
+        System.out.println("two classes from one stream : OK");
+
+        // code read from a stream is decoded and written from that form
+        TestLoader.check(!cb1.isVerbatim(), "Streamed code is verbatim");
+        TestLoader.check(new ClassBuilder(ByteBuffer.wrap(first))
+                .isVerbatim(), "Buffered code is not verbatim");
+        System.out.println("streamed code is decoded : OK");
+
+        // a truncated class file is an error
+        in = new ByteArrayInputStream(first, 0, first.length - 1);
+        boolean failed = false;
+        try {
+            new ClassBuilder(in);
+        } catch (IOException ioe) {
+            failed = true;
+        }
+        TestLoader.check(failed, "Truncated class was read");
+        System.out.println("truncated stream : OK");
+    }
+}
@@ -0,0 +1,251 @@
+package yabel.test;
+
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+import yabel.ClassBuilder;
+import yabel.ClassData;
+import yabel.HashSwitchData;
+import yabel.SwitchData;
+import yabel.code.Code;
+import yabel.code.SwitchPlan;
+import yabel.code.SwitchPlan.Cluster;
+import yabel.code.SwitchPlan.Kind;
+
+/**
+ * Checks switches select the right case when the keys, or the hash codes of
+ * the keys, lie at the extremes of the int range.
+ *
+ * @author Simon Greatrix
+ */
+public class SwitchTest {
+    /**
+     * Strings whose hash codes are -2100479456 and 2082770074, which are
+     * further apart than an int can count
+     */
+    static final String[] EXTREME_STRINGS = { "acdxlhtb", "btmbzyzn", "" };
+
+    /** Long keys whose hash codes span the whole int range */
+    static final long[] EXTREME_LONGS = { 0, 1, -1, 4294967296L,
+            Long.MAX_VALUE };
+
+    /** Int keys at both ends of the int range */
+    static final int[] EXTREME_INTS = { Integer.MIN_VALUE,
+            Integer.MAX_VALUE - 1, Integer.MAX_VALUE, 0 };
+
+
+    /**
+     * Build a class with a static method that returns the index of the case
+     * its argument matches, or -1.
+     *
+     * @param version
+     *            the class file version
+     * @param type
+     *            the method's type
+     * @param token
+     *            the switch token, which refers to the data as "sw"
+     * @param data
+     *            the switch data
+     * @param size
+     *            the number of cases
+     * @return the class
+     */
+    static ClassBuilder build(int version, String type, String token,
+            Object data, int size) {
+        ClassBuilder cb = new ClassBuilder(Modifier.PUBLIC, "SwitchTarget");
+        cb.setVersion(version);
+        cb.setComputeFrames(version > ClassBuilder.JAVA_VERSION_1_5);
+        Code code = cb.addMethod(Modifier.PUBLIC | Modifier.STATIC, "f",
+                type).getCode();
+        StringBuilder buf = new StringBuilder();
+        if( type.startsWith("(J") ) {
+            buf.append("LLOAD_0 ");
+        } else if( type.startsWith("(I") ) {
+            buf.append("ILOAD_0 ");
+        } else {
+            buf.append("ALOAD_0 ");
+        }
+        buf.append(token).append(" @:dflt ICONST_M1 IRETURN");
+        for(int i = 0;i < size;i++) {
+            buf.append(" @:c").append(i);
+            buf.append(" LDC:int:").append(i).append(" IRETURN");
+        }
+        ClassData cd = new ClassData();
+        cd.put("sw", data);
+        code.compile(buf.toString(), cd);
+        return cb;
+    }
+
+
+    /**
+     * Check a method returns the expected value.
+     *
+     * @param cb
+     *            the class
+     * @param type
+     *            the parameter type
+     * @param arg
+     *            the argument
+     * @param expected
+     *            the expected index
+     */
+    static void check(ClassBuilder cb, Class<?> type, Object arg, int expected) {
+        Object actual = TestLoader.invoke(cb, "f", type, arg);
+        TestLoader.check(Integer.valueOf(expected).equals(actual), "Switch on "
+                + arg + " returned " + actual + " not " + expected);
+    }
+
+
+    /**
+     * Check the thresholds given to a CLUSTERSWITCH are used, and that large
+     * switches are planned quickly.
+     *
+     * @param version
+     *            the class file version
+     */
+    static void checkClusters(int version) {
+        int[] keys = { 0, 1, 8, 9, 100 };
+        SwitchData data = new SwitchData("dflt");
+        for(int i = 0;i < keys.length;i++) {
+            data.add(Integer.valueOf(keys[i]), "c" + i);
+        }
+        TestLoader.check(new SwitchPlan(data).getClusters().size() == 1,
+                "Default thresholds made tables");
+        List<Cluster> clusters = new SwitchPlan(data, 1, 2).getClusters();
+        TestLoader.check(clusters.size() == 3
+                && clusters.get(0).getKind() == Kind.TABLE
+                && clusters.get(1).getKind() == Kind.TABLE, "Plan was "
+                + clusters);
+
+        ClassBuilder cb = build(version, "(I)I",
+                "CLUSTERSWITCH:sw:density=1:cases=2", data, keys.length);
+        for(int i = 0;i < keys.length;i++) {
+            check(cb, int.class, Integer.valueOf(keys[i]), i);
+        }
+        check(cb, int.class, Integer.valueOf(2), -1);
+        check(cb, int.class, Integer.valueOf(99), -1);
+
+        // a long dense run is one table, and sparse keys are planned in
+        // linear time
+        data = new SwitchData("dflt");
+        for(int i = 0;i < 100000;i++) {
+            data.add(Integer.valueOf(i), "c0");
+        }
+        clusters = new SwitchPlan(data).getClusters();
+        TestLoader.check(clusters.size() == 1
+                && clusters.get(0).getKind() == Kind.TABLE, "Plan was "
+                + clusters);
+        data = new SwitchData("dflt");
+        for(int i = 0;i < 100000;i++) {
+            data.add(Integer.valueOf(i * 3 + (i & 1)), "c0");
+        }
+        long start = System.currentTimeMillis();
+        new SwitchPlan(data, 0.1, 1);
+        long time = System.currentTimeMillis() - start;
+        TestLoader.check(time < 10000, "Planning took " + time + "ms");
+        System.out.println("CLUSTERSWITCH thresholds v" + version + " : OK");
+    }
+
+
+    /**
+     * Check a switch on int keys at the extremes of the range.
+     *
+     * @param version
+     *            the class file version
+     * @param op
+     *            the switch operation
+     */
+    static void checkInts(int version, String op) {
+        SwitchData data = new SwitchData("dflt");
+        for(int i = 0;i < EXTREME_INTS.length;i++) {
+            data.add(Integer.valueOf(EXTREME_INTS[i]), "c" + i);
+        }
+        ClassBuilder cb = build(version, "(I)I", op + ":sw", data,
+                EXTREME_INTS.length);
+        for(int i = 0;i < EXTREME_INTS.length;i++) {
+            check(cb, int.class, Integer.valueOf(EXTREME_INTS[i]), i);
+        }
+        check(cb, int.class, Integer.valueOf(Integer.MIN_VALUE + 1), -1);
+        check(cb, int.class, Integer.valueOf(1), -1);
+
+        cb = build(version, "(I)I", op + ":sw", new SwitchData("dflt"), 0);
+        check(cb, int.class, Integer.valueOf(0), -1);
+        System.out.println(op + " int v" + version + " : OK");
+    }
+
+
+    /**
+     * Check a hash switch on long keys whose hash codes are at the extremes
+     * of the range.
+     *
+     * @param version
+     *            the class file version
+     * @param op
+     *            the switch operation
+     */
+    static void checkLongs(int version, String op) {
+        HashSwitchData data = new HashSwitchData(Long.class, "dflt");
+        for(int i = 0;i < EXTREME_LONGS.length;i++) {
+            data.add(Long.valueOf(EXTREME_LONGS[i]), "c" + i);
+        }
+        ClassBuilder cb = build(version, "(J)I", op + ":sw", data,
+                EXTREME_LONGS.length);
+        for(int i = 0;i < EXTREME_LONGS.length;i++) {
+            check(cb, long.class, Long.valueOf(EXTREME_LONGS[i]), i);
+        }
+        check(cb, long.class, Long.valueOf(Long.MIN_VALUE), -1);
+        check(cb, long.class, Long.valueOf(2), -1);
+        System.out.println(op + " long v" + version + " : OK");
+    }
+
+
+    /**
+     * Check a hash switch on strings whose hash codes are at the extremes of
+     * the range.
+     *
+     * @param version
+     *            the class file version
+     * @param op
+     *            the switch operation
+     */
+    static void checkStrings(int version, String op) {
+        HashSwitchData data = new HashSwitchData(String.class, "dflt");
+        for(int i = 0;i < EXTREME_STRINGS.length;i++) {
+            data.add(EXTREME_STRINGS[i], "c" + i);
+        }
+        ClassBuilder cb = build(version, "(Ljava/lang/String;)I", op + ":sw",
+                data,
+                EXTREME_STRINGS.length);
+        for(int i = 0;i < EXTREME_STRINGS.length;i++) {
+            check(cb, String.class, EXTREME_STRINGS[i], i);
+        }
+        check(cb, String.class, "alyyuffj", -1);
+        check(cb, String.class, "x", -1);
+        System.out.println(op + " string v" + version + " : OK");
+    }
+
+
+    /**
+     * Run the tests.
+     *
+     * @param args
+     *            ignored
+     */
+    public static void main(String[] args) {
+        TestLoader.check("acdxlhtb".hashCode() == -2100479456,
+                "Unexpected hash code");
+        TestLoader.check("btmbzyzn".hashCode() == 2082770074,
+                "Unexpected hash code");
+        int[] versions = { ClassBuilder.JAVA_VERSION_1_5,
+                ClassBuilder.JAVA_VERSION_1_7 };
+        for(int version:versions) {
+            checkInts(version, "SWITCH");
+            checkInts(version, "CLUSTERSWITCH");
+            checkClusters(version);
+            for(String op:new String[] { "HASHSWITCH", "PERFECTHASHSWITCH" }) {
+                checkLongs(version, op);
+                checkStrings(version, op);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package yabel.test;
+
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+import yabel.ClassBuilder;
+import yabel.ClassData;
+import yabel.code.Code;
+import yabel.code.CodeTemplate;
+
+/**
+ * Checks a code template compiles to the same code as its source.
+ *
+ * @author Simon Greatrix
+ */
+public class TemplateTest {
+    /** A template which adds a constant to its argument */
+    static final String TEMPLATE = "ILOAD_0 iconst:{n} IADD IRETURN";
+
+
+    /**
+     * Set a class's version and add a static int method to it.
+     *
+     * @param cb
+     *            the class
+     * @param version
+     *            the class file version
+     * @return the method's code
+     */
+    static Code build(ClassBuilder cb, int version) {
+        cb.setVersion(version);
+        cb.setComputeFrames(version > ClassBuilder.JAVA_VERSION_1_5);
+        return cb.addMethod(Modifier.PUBLIC | Modifier.STATIC, "f", "(I)I")
+                .getCode();
+    }
+
+
+    /**
+     * Check a template compiles to the same code as its source, with
+     * different replacements each time.
+     *
+     * @param version
+     *            the class file version
+     */
+    static void checkTemplate(int version) {
+        CodeTemplate template = CodeTemplate.compile(TEMPLATE);
+        int[] values = { 1, 100, 1000, 100000 };
+        for(int n:values) {
+            ClassData cd = new ClassData();
+            cd.put("n", String.valueOf(n));
+
+            ClassBuilder cb = new ClassBuilder(Modifier.PUBLIC,
+                    "TemplateTarget");
+            Code code = build(cb, version);
+            template.emit(code, cd);
+            Object actual = TestLoader.invoke(cb, "f", int.class,
+                    Integer.valueOf(3));
+            TestLoader.check(Integer.valueOf(n + 3).equals(actual),
+                    "Template with " + n + " returned " + actual);
+
+            ClassBuilder cb2 = new ClassBuilder(Modifier.PUBLIC,
+                    "TemplateTarget");
+            Code code2 = build(cb2, version);
+            code2.compile(TEMPLATE, cd);
+            TestLoader.check(Arrays.equals(cb.getBytes(), cb2.getBytes()),
+                    "Template with " + n + " differs from its source");
+
+            ClassBuilder rebuilt = new ClassBuilder(cb.toClassData());
+            actual = TestLoader.invoke(rebuilt, "f", int.class,
+                    Integer.valueOf(3));
+            TestLoader.check(Integer.valueOf(n + 3).equals(actual),
+                    "Rebuilt template with " + n + " returned " + actual);
+        }
+        System.out.println("template v" + version + " : OK");
+    }
+
+
+    /**
+     * Run the tests.
+     *
+     * @param args
+     *            ignored
+     */
+    public static void main(String[] args) {
+        int[] versions = { ClassBuilder.JAVA_VERSION_1_5,
+                ClassBuilder.JAVA_VERSION_1_7 };
+        for(int version:versions) {
+            checkTemplate(version);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package yabel.test;
+
+import java.lang.reflect.InvocationTargetException;
+
+import yabel.ClassBuilder;
+
+/**
+ * Loads generated classes so that the behaviour tests can run them. Each
+ * class is loaded by a new loader, so the same class name can be used for
+ * every test.
+ *
+ * @author Simon Greatrix
+ */
+class TestLoader extends ClassLoader {
+    /**
+     * Check a condition holds.
+     *
+     * @param condition
+     *            the condition
+     * @param message
+     *            the failure to report if it does not
+     */
+    static void check(boolean condition, String message) {
+        if( !condition ) throw new Error(message);
+    }
+
+
+    /**
+     * Load a class and invoke one of its static methods.
+     *
+     * @param builder
+     *            the class
+     * @param name
+     *            the name of the method
+     * @param type
+     *            the parameter type of the method
+     * @param arg
+     *            the argument to pass
+     * @return the value returned
+     */
+    static Object invoke(ClassBuilder builder, String name, Class<?> type,
+            Object arg) {
+        return invoke(builder.getBytes(), name, type, arg);
+    }
+
+
+    /**
+     * Load a class and invoke one of its static methods.
+     *
+     * @param bytes
+     *            the class file
+     * @param name
+     *            the name of the method
+     * @param type
+     *            the parameter type of the method
+     * @param arg
+     *            the argument to pass
+     * @return the value returned
+     */
+    static Object invoke(byte[] bytes, String name, Class<?> type, Object arg) {
+        Class<?> cl = new TestLoader().defineClass(null, bytes, 0,
+                bytes.length);
+        try {
+            return cl.getMethod(name, type).invoke(null, arg);
+        } catch (InvocationTargetException e) {
+            throw new Error("Invocation of " + name + " failed", e.getCause());
+        } catch (Exception e) {
+            throw new Error("Invocation of " + name + " failed", e);
+        }
+    }
+}